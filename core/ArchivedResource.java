@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpParser;
+
+/**
+ * An archived resource as it is returned by the digital asset store in a
+ * single pass: the recorded HTTP status code, the recorded HTTP headers and
+ * the payload.
+ * <p>
+ * On the wire the resource is sent as a status line, the header lines, an
+ * empty line and then the raw payload, so that the caller can parse the head
+ * and stream the payload without a second request.
+ */
+public class ArchivedResource {
+    public static final String HEADER_STATUS_CODE = "HTTP-RESPONSE-STATUS-CODE";
+    public static final String HEADER_CONTENT_LENGTH = "HTTP-RESPONSE-CONTENT_LENGTH";
+    public static final String HEADER_PAYLOAD_LENGTH = "HTTP-RESPONSE-PAYLOAD-LENGTH";
+    public static final String HEADER_PAYLOAD_DIGEST = "WARC-RECORD-PAYLOAD-DIGEST";
+    public static final String HEADER_CAPTURE_DATE = "WARC-RECORD-CAPTURE-DATE";
+
+    private static final String ARC_DATE_FORMAT = "yyyyMMddHHmmss";
+    private static final String WARC_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+    private static final String ENCODING = StandardCharsets.UTF_8.name();
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /**
+     * The recorded HTTP status code.
+     */
+    private int statusCode;
+
+    /**
+     * The recorded HTTP headers.
+     */
+    private List<Header> headers = new ArrayList<>();
+
+    /**
+     * An open stream positioned at the first byte of the payload. The caller
+     * is responsible for closing it.
+     */
+    private InputStream content;
+
+    public ArchivedResource() {
+    }
+
+    public ArchivedResource(int statusCode, List<Header> headers) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+    }
+
+    /**
+     * Find the value of the first header with the given name.
+     *
+     * @param name the name of the header, not case sensitive
+     * @return the trimmed value of the header, or null if it is not present
+     */
+    public String getHeaderValue(String name) {
+        if (headers != null) {
+            for (Header h : headers) {
+                if (name.equalsIgnoreCase(h.getName())) {
+                    return h.getValue().trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the length of the payload in bytes, or -1 if it is not known
+     */
+    public long getPayloadLength() {
+        String value = getHeaderValue(HEADER_PAYLOAD_LENGTH);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                // Treated as unknown
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * An entity tag derived from the payload digest of the record, which
+     * identifies the payload independently of where it was stored.
+     *
+     * @return the quoted entity tag, or null if the record has no payload digest
+     */
+    public String getETag() {
+        String digest = getHeaderValue(HEADER_PAYLOAD_DIGEST);
+        return digest == null || digest.isEmpty() ? null : "\"" + digest.replace("\"", "") + "\"";
+    }
+
+    /**
+     * @return the date the resource was captured, or null if it is not known
+     */
+    public Date getCaptureDate() {
+        String value = getHeaderValue(HEADER_CAPTURE_DATE);
+        if (value == null) {
+            return null;
+        }
+        // ARC records use a 14 digit timestamp, WARC records an ISO-8601 date.
+        SimpleDateFormat format = new SimpleDateFormat(value.contains("T") ? WARC_DATE_FORMAT : ARC_DATE_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the status line and the headers, terminated by an empty line.
+     *
+     * @param out        the stream to write to
+     * @param statusCode the recorded status code
+     * @param headers    the recorded headers
+     * @throws IOException if the stream could not be written
+     */
+    public static void writeHead(OutputStream out, int statusCode, List<Header> headers) throws IOException {
+        out.write(String.format("HTTP/1.1 %d", statusCode).getBytes(ENCODING));
+        out.write(CRLF);
+        for (Header h : headers) {
+            // Folded or multi-line header values would break the framing
+            String value = h.getValue() == null ? "" : h.getValue().replaceAll("[\r\n]+", " ");
+            out.write((h.getName() + ": " + value).getBytes(ENCODING));
+            out.write(CRLF);
+        }
+        out.write(CRLF);
+    }
+
+    /**
+     * Read the status line and the headers written by {@link #writeHead}.
+     * The stream is left positioned at the first byte of the payload.
+     *
+     * @param in the stream to read from
+     * @return the resource, without its content
+     * @throws IOException if the head is malformed or could not be read
+     */
+    public static ArchivedResource readHead(InputStream in) throws IOException {
+        String statusLine = HttpParser.readLine(in, ENCODING);
+        if (statusLine == null || !statusLine.startsWith("HTTP/")) {
+            throw new IOException("Malformed resource status line: " + statusLine);
+        }
+        String[] parts = statusLine.trim().split(" ");
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(parts[parts.length - 1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed resource status line: " + statusLine);
+        }
+        Header[] headers = HttpParser.parseHeaders(in, ENCODING);
+
+        ArchivedResource resource = new ArchivedResource();
+        resource.setStatusCode(statusCode);
+        resource.setHeaders(new ArrayList<>(Arrays.asList(headers)));
+        return resource;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public List<Header> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(List<Header> headers) {
+        this.headers = headers;
+    }
+
+    public InputStream getContent() {
+        return content;
+    }
+
+    public void setContent(InputStream content) {
+        this.content = content;
+    }
+}
@@ -0,0 +1,639 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A log compressed in independent blocks, so that its lines can be read from
+ * any line number by decompressing only the blocks holding them.
+ * <p>
+ * Each block holds whole lines, about <code>blockSize</code> bytes of them,
+ * and is written as a separate gzip member, so the compressed log is also an
+ * ordinary gzip file that any gzip tool can decompress. The compressed offset
+ * and the first line number of each block are kept in a block index in the
+ * <code>.index</code> directory next to the log. A missing or stale block
+ * index is rebuilt by decompressing the log once.
+ */
+public class BlockCompressedLog implements SeekableLog {
+    private static final Logger log = LoggerFactory.getLogger(BlockCompressedLog.class);
+
+    /**
+     * The suffix added to the name of a log when it is compressed.
+     */
+    public static final String SUFFIX = ".gz";
+    public static final String INDEX_SUFFIX = ".blocks";
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x5743544D;
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_OPEN_LOGS = 256;
+
+    /**
+     * How many blocks before the block found by bisecting a time search
+     * starts to read lines, to find the lines written out of order.
+     */
+    private static final int OUT_OF_ORDER_BLOCKS = 4;
+
+    /**
+     * The compressed logs in use, by file, in least recently used order.
+     */
+    private static final Map<File, BlockCompressedLog> logs = new LinkedHashMap<File, BlockCompressedLog>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, BlockCompressedLog> eldest) {
+            return size() > MAX_OPEN_LOGS;
+        }
+    };
+
+    private final File file;
+    private final File indexFile;
+
+    /**
+     * The length of the compressed log the block index was read for.
+     */
+    private long length = -1;
+
+    /**
+     * offsets[k] is the compressed offset of block k, and offsets[blocks] the
+     * length of the compressed log.
+     */
+    private long[] offsets;
+
+    /**
+     * firstLines[k] is the number of lines before block k.
+     */
+    private long[] firstLines;
+    private int blocks;
+    private long lines;
+
+    /**
+     * Get a compressed log, shared by all the readers of the log.
+     *
+     * @param file the compressed log file
+     * @return the compressed log
+     */
+    public static BlockCompressedLog forFile(File file) {
+        synchronized (logs) {
+            return logs.computeIfAbsent(file.getAbsoluteFile(), BlockCompressedLog::new);
+        }
+    }
+
+    BlockCompressedLog(File file) {
+        this.file = file;
+        this.indexFile = indexFile(file);
+    }
+
+    /**
+     * @param file a log file
+     * @return true if the file is a compressed log
+     */
+    public static boolean isCompressed(File file) {
+        if (!file.getName().endsWith(SUFFIX)) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param logFile a plain log file
+     * @return the file the log is compressed to
+     */
+    public static File compressedFile(File logFile) {
+        return new File(logFile.getParentFile(), logFile.getName() + SUFFIX);
+    }
+
+    /**
+     * Find where a log is stored: the store's LogCompressor
+     * deletes a plain log once it has been compressed, so every reader of a
+     * log that may have been compressed looks it up through this.
+     *
+     * @param logFile a plain log file
+     * @return the compressed log if the plain log is gone and the compressed
+     * log exists, otherwise the plain log
+     */
+    public static File resolve(File logFile) {
+        if (!logFile.exists()) {
+            File compressedFile = compressedFile(logFile);
+            if (compressedFile.exists()) {
+                return compressedFile;
+            }
+        }
+        return logFile;
+    }
+
+    /**
+     * @param compressedFile a compressed log file
+     * @return the name of the log before it was compressed
+     */
+    public static String logName(File compressedFile) {
+        String name = compressedFile.getName();
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    /**
+     * @return the block index of a compressed log
+     */
+    static File indexFile(File compressedFile) {
+        return new File(new File(compressedFile.getParentFile(), LogLineIndex.INDEX_DIR), compressedFile.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Open a log for reading from the start, decompressing it if it is compressed.
+     *
+     * @param file the plain or compressed log file
+     * @return the stream of the plain log
+     * @throws IOException if the log could not be opened
+     */
+    public static InputStream openInputStream(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        return isCompressed(file) ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    /**
+     * Compress a log, writing its block index. The compressed log only
+     * appears once it and its block index are complete.
+     *
+     * @param logFile   the plain log
+     * @param target    the compressed log to write
+     * @param blockSize the number of bytes of the log in each block
+     * @throws IOException if the log could not be read or the compressed log written
+     */
+    public static void compress(File logFile, File target, int blockSize) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(target.getName(), ".tmp", dir);
+        List<long[]> index = new ArrayList<>();
+        long offset = 0;
+        long lines = 0;
+        try {
+            try (InputStream in = new FileInputStream(logFile);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE)) {
+                ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize + BUFFER_SIZE);
+                long blockFirstLine = 0;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    int start = 0;
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] != '\n') {
+                            continue;
+                        }
+                        lines++;
+                        if (block.size() + i + 1 - start >= blockSize) {
+                            block.write(buffer, start, i + 1 - start);
+                            start = i + 1;
+                            index.add(new long[]{offset, blockFirstLine});
+                            offset += writeBlock(block, out);
+                            blockFirstLine = lines;
+                        }
+                    }
+                    block.write(buffer, start, n - start);
+                }
+                if (block.size() > 0) {
+                    if (block.toByteArray()[block.size() - 1] != '\n') {
+                        // The unterminated last line.
+                        lines++;
+                    }
+                    index.add(new long[]{offset, blockFirstLine});
+                    offset += writeBlock(block, out);
+                }
+            }
+            saveIndex(indexFile(target), offset, lines, index);
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static int writeBlock(ByteArrayOutputStream block, OutputStream out) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.size() / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, BUFFER_SIZE)) {
+            block.writeTo(gzip);
+        }
+        compressed.writeTo(out);
+        block.reset();
+        return compressed.size();
+    }
+
+    /**
+     * Decompress a compressed log. The plain log only appears once it is complete.
+     *
+     * @param compressedFile the compressed log
+     * @param target         the plain log to write
+     * @throws IOException if the compressed log could not be read or the plain log written
+     */
+    public static void decompress(File compressedFile, File target) throws IOException {
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+        try {
+            try (InputStream in = openInputStream(compressedFile)) {
+                Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    @Override
+    public synchronized long countLines() throws IOException {
+        refresh();
+        return lines;
+    }
+
+    @Override
+    public List<String> getLines(long startLine, int count) throws IOException {
+        List<String> result = new ArrayList<>();
+        if (startLine < 1 || count <= 0) {
+            return result;
+        }
+        try (BufferedReader reader = openReader(startLine)) {
+            String s;
+            while (result.size() < count && (s = reader.readLine()) != null) {
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> head(int count) throws IOException {
+        return getLines(1, count);
+    }
+
+    @Override
+    public List<String> tail(int count) throws IOException {
+        long total = countLines();
+        return getLines(Math.max(1, total - count + 1), count);
+    }
+
+    /**
+     * Find the first line of the log written at or after a time.
+     * <p>
+     * The blocks are bisected on the time of their first timestamped line,
+     * decompressing one block per probe, and the lines are then read from a
+     * few blocks before the block found, as lines written by different
+     * threads may be slightly out of order.
+     *
+     * @see LogLineIndex#findFirstLineAfterTimeStamp(long)
+     */
+    @Override
+    public long findFirstLineAfterTimeStamp(long timestamp) throws IOException {
+        long[] offsets;
+        long[] firstLines;
+        int blocks;
+        synchronized (this) {
+            refresh();
+            offsets = this.offsets;
+            firstLines = this.firstLines;
+            blocks = this.blocks;
+        }
+        if (blocks == 0) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int low = 0;
+            int high = blocks;
+            while (high - low > 1) {
+                int middle = (low + high) >>> 1;
+                long time = firstTimestamp(readBlock(channel, offsets, middle));
+                if (time >= 0 && time < timestamp) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+
+            int start = Math.max(0, low - OUT_OF_ORDER_BLOCKS);
+            long line = firstLines[start] + 1;
+            try (BufferedReader reader = newReader(new BlockInputStream(channel, offsets, blocks, start))) {
+                String s;
+                while ((s = reader.readLine()) != null) {
+                    if (LogLineIndex.parseTimestamp(s) >= timestamp) {
+                        return line;
+                    }
+                    line++;
+                }
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public BufferedReader openReader(long startLine) throws IOException {
+        long[] offsets;
+        int blocks;
+        long skip;
+        int block;
+        synchronized (this) {
+            refresh();
+            offsets = this.offsets;
+            blocks = this.blocks;
+            long line = Math.max(0, startLine - 1);
+            block = Arrays.binarySearch(firstLines, 0, blocks, line);
+            if (block < 0) {
+                block = Math.max(0, -block - 2);
+            }
+            skip = blocks == 0 ? 0 : line - firstLines[block];
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        BufferedReader reader = newReader(new BlockInputStream(channel, offsets, blocks, block));
+        for (long i = 0; i < skip; i++) {
+            if (reader.readLine() == null) {
+                break;
+            }
+        }
+        return reader;
+    }
+
+    private static BufferedReader newReader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * @return the time of the first timestamped line of a block, or -1 if it has none
+     */
+    private static long firstTimestamp(byte[] block) throws IOException {
+        try (BufferedReader reader = newReader(new ByteArrayInputStream(block))) {
+            String s;
+            while ((s = reader.readLine()) != null) {
+                long time = LogLineIndex.parseTimestamp(s);
+                if (time >= 0) {
+                    return time;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static byte[] readBlock(FileChannel channel, long[] offsets, int block) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate((int) (offsets[block + 1] - offsets[block]));
+        long position = offsets[block];
+        while (compressed.hasRemaining()) {
+            int n = channel.read(compressed, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of compressed log block " + block);
+            }
+            position += n;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.capacity() * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Bring the block index up to date with the compressed log.
+     */
+    private void refresh() throws IOException {
+        long fileLength = file.length();
+        if (fileLength == length) {
+            return;
+        }
+        if (!loadIndex(fileLength)) {
+            log.info("Rebuilding the block index of {}", file);
+            rebuildIndex();
+            List<long[]> index = new ArrayList<>();
+            for (int i = 0; i < blocks; i++) {
+                index.add(new long[]{offsets[i], firstLines[i]});
+            }
+            try {
+                saveIndex(indexFile, length, lines, index);
+            } catch (IOException e) {
+                // The index still works from memory.
+                log.warn("Failed to save block index {}: {}", indexFile, e.getMessage());
+            }
+        }
+    }
+
+    private boolean loadIndex(long fileLength) {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fileLength) {
+                log.debug("Ignoring stale block index {}", indexFile);
+                return false;
+            }
+            long lines = in.readLong();
+            int blocks = in.readInt();
+            long[] offsets = new long[blocks + 1];
+            long[] firstLines = new long[blocks];
+            for (int i = 0; i < blocks; i++) {
+                offsets[i] = in.readLong();
+                firstLines[i] = in.readLong();
+            }
+            offsets[blocks] = fileLength;
+            this.length = fileLength;
+            this.lines = lines;
+            this.blocks = blocks;
+            this.offsets = offsets;
+            this.firstLines = firstLines;
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to load block index {}: {}", indexFile, e.getMessage());
+            return false;
+        }
+    }
+
+    private static void saveIndex(File indexFile, long length, long lines, List<long[]> index) throws IOException {
+        Files.createDirectories(indexFile.getParentFile().toPath());
+        File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(length);
+                out.writeLong(lines);
+                out.writeInt(index.size());
+                for (long[] entry : index) {
+                    out.writeLong(entry[0]);
+                    out.writeLong(entry[1]);
+                }
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Find the blocks by decompressing the gzip members of the log one after
+     * the other.
+     */
+    private void rebuildIndex() throws IOException {
+        long fileLength = file.length();
+        long[] offsets = new long[16];
+        long[] firstLines = new long[16];
+        int blocks = 0;
+        long lines = 0;
+        boolean terminated = true;
+        byte[] input = new byte[BUFFER_SIZE];
+        byte[] output = new byte[BUFFER_SIZE];
+        Inflater inflater = new Inflater(true);
+        try (PushbackInputStream in = new PushbackInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            long offset = 0;
+            byte[] header = new byte[10];
+            while (readFully(in, header) > 0) {
+                if (header[0] != (byte) 0x1f || header[1] != (byte) 0x8b || header[2] != 8 || header[3] != 0) {
+                    throw new IOException("Not a block compressed log: " + file);
+                }
+                if (blocks + 1 == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    firstLines = Arrays.copyOf(firstLines, firstLines.length * 2);
+                }
+                offsets[blocks] = offset;
+                firstLines[blocks] = lines;
+                blocks++;
+
+                long consumed = header.length;
+                int n = 0;
+                inflater.reset();
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        n = in.read(input);
+                        if (n < 0) {
+                            throw new EOFException("Unexpected end of compressed log " + file);
+                        }
+                        inflater.setInput(input, 0, n);
+                        consumed += n;
+                    }
+                    int m = inflater.inflate(output);
+                    for (int i = 0; i < m; i++) {
+                        if (output[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                    if (m > 0) {
+                        terminated = output[m - 1] == '\n';
+                    }
+                }
+                int remaining = inflater.getRemaining();
+                in.unread(input, n - remaining, remaining);
+                consumed -= remaining;
+                // The CRC and length of the member.
+                byte[] trailer = new byte[8];
+                if (readFully(in, trailer) != trailer.length) {
+                    throw new EOFException("Unexpected end of compressed log " + file);
+                }
+                offset += consumed + trailer.length;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed log " + file, e);
+        } finally {
+            inflater.end();
+        }
+        offsets[blocks] = fileLength;
+        this.length = fileLength;
+        this.lines = terminated ? lines : lines + 1;
+        this.blocks = blocks;
+        this.offsets = offsets;
+        this.firstLines = firstLines;
+    }
+
+    private static int readFully(InputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        int n;
+        while (read < bytes.length && (n = in.read(bytes, read, bytes.length - read)) > 0) {
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Reads the plain log from the start of a block, decompressing the
+     * following blocks as they are reached.
+     */
+    private static class BlockInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long[] offsets;
+        private final int blocks;
+        private int next;
+        private byte[] block = new byte[0];
+        private int position;
+
+        private BlockInputStream(FileChannel channel, long[] offsets, int blocks, int first) {
+            this.channel = channel;
+            this.offsets = offsets;
+            this.blocks = blocks;
+            this.next = first;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? block[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            while (position == block.length) {
+                if (next >= blocks) {
+                    return false;
+                }
+                block = readBlock(channel, offsets, next++);
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.webcurator.core.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockCompressedLogTest {
+    private File dir;
+    private File logFile;
+    private File compressedFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("log-compress").toFile();
+        logFile = new File(dir, "crawl.log");
+        compressedFile = BlockCompressedLog.compressedFile(logFile);
+
+        // A crawl log with a line a second, where every 50th line was written
+        // late, and an indented line after every 100th line.
+        StringBuilder sb = new StringBuilder();
+        LocalDateTime start = LocalDateTime.of(2020, 1, 31, 23, 0, 0);
+        for (int i = 0; i < 5000; i++) {
+            LocalDateTime time = start.plusSeconds(i % 50 == 0 ? i - 5 : i);
+            sb.append(time.format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")))
+                    .append("   200       1234 http://www.example.com/").append(i).append(" LL http://www.example.com/ text/html\n");
+            if (i % 100 == 1) {
+                sb.append("  at org.example.Continued").append(i).append('\n');
+            }
+        }
+        sb.append("unterminated");
+        Files.write(logFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        BlockCompressedLog.compress(logFile, compressedFile, 4096);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testGetLines() throws Exception {
+        LogLineIndex expected = new LogLineIndex(logFile, 100);
+        BlockCompressedLog compressed = new BlockCompressedLog(compressedFile);
+
+        assertEquals(expected.countLines(), compressed.countLines());
+        assertEquals(expected.head(3), compressed.head(3));
+        assertEquals(expected.getLines(1234, 100), compressed.getLines(1234, 100));
+        assertEquals(expected.tail(2), compressed.tail(2));
+        assertEquals(Arrays.asList("unterminated"), compressed.getLines(compressed.countLines(), 10));
+        assertTrue(compressed.getLines(compressed.countLines() + 1, 10).isEmpty());
+        assertTrue(compressed.getLines(0, 10).isEmpty());
+    }
+
+    @Test
+    public void testIsOrdinaryGzip() throws Exception {
+        assertTrue(BlockCompressedLog.isCompressed(compressedFile));
+        assertFalse(BlockCompressedLog.isCompressed(logFile));
+        assertEquals("crawl.log", BlockCompressedLog.logName(compressedFile));
+        try (InputStream in = BlockCompressedLog.openInputStream(compressedFile)) {
+            assertArrayEquals(Files.readAllBytes(logFile.toPath()), IOUtils.toByteArray(in));
+        }
+
+        File decompressed = new File(dir, "decompressed.log");
+        BlockCompressedLog.decompress(compressedFile, decompressed);
+        assertArrayEquals(Files.readAllBytes(logFile.toPath()), Files.readAllBytes(decompressed.toPath()));
+    }
+
+    @Test
+    public void testFindFirstLineAfterTimeStamp() throws Exception {
+        LogLineIndex expected = new LogLineIndex(logFile, 100);
+        BlockCompressedLog compressed = new BlockCompressedLog(compressedFile);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 31, 23, 0, 0);
+        for (int i = -10; i < 5010; i += 37) {
+            long timestamp = Long.parseLong(start.plusSeconds(i).format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")));
+            assertEquals("At " + timestamp, expected.findFirstLineAfterTimeStamp(timestamp), compressed.findFirstLineAfterTimeStamp(timestamp));
+        }
+    }
+
+    @Test
+    public void testGetByRegularExpression() throws Exception {
+        LogLineIndex expected = new LogLineIndex(logFile, 100);
+        BlockCompressedLog compressed = new BlockCompressedLog(compressedFile);
+
+        assertEquals(expected.getByRegularExpression("^[^ \\t].*example.com/\\d*01 .*", "^[ \\t].*", true, 2, 3),
+                compressed.getByRegularExpression("^[^ \\t].*example.com/\\d*01 .*", "^[ \\t].*", true, 2, 3));
+        assertEquals(Arrays.asList(
+                "305. 2020-01-31T23:05:01.000Z   200       1234 http://www.example.com/301 LL http://www.example.com/ text/html",
+                "306.   at org.example.Continued301",
+                "406. 2020-01-31T23:06:41.000Z   200       1234 http://www.example.com/401 LL http://www.example.com/ text/html",
+                "407.   at org.example.Continued401"),
+                compressed.getByRegularExpression("^[^ \\t].*example.com/\\d*01 .*", "^[ \\t].*", true, 2, 2));
+        assertEquals(Arrays.asList("unterminated"), compressed.getByRegularExpression("unterminated", null, false, 0, 10));
+    }
+
+    @Test
+    public void testBlockIndexIsRebuilt() throws Exception {
+        BlockCompressedLog compressed = new BlockCompressedLog(compressedFile);
+        long lines = compressed.countLines();
+        Files.delete(BlockCompressedLog.indexFile(compressedFile).toPath());
+
+        compressed = new BlockCompressedLog(compressedFile);
+        assertEquals(lines, compressed.countLines());
+        assertEquals(new LogLineIndex(logFile, 100).getLines(2000, 5), compressed.getLines(2000, 5));
+        assertTrue(BlockCompressedLog.indexFile(compressedFile).exists());
+    }
+
+    @Test
+    public void testResolve() {
+        // The plain log is read while it exists, and the compressed log once it has been deleted.
+        assertEquals(logFile, BlockCompressedLog.resolve(logFile));
+        assertTrue(logFile.delete());
+        assertEquals(compressedFile, BlockCompressedLog.resolve(logFile));
+        File missing = new File(dir, "missing.log");
+        assertEquals(missing, BlockCompressedLog.resolve(missing));
+    }
+
+    @Test
+    public void testForFile() {
+        assertTrue(SeekableLog.forFile(compressedFile) instanceof BlockCompressedLog);
+        assertTrue(SeekableLog.forFile(logFile) instanceof LogLineIndex);
+    }
+}
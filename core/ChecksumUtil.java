@@ -0,0 +1,60 @@
+package org.webcurator.core.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checksums used to verify the files sent from the harvest agents to the
+ * digital asset store.
+ */
+public class ChecksumUtil {
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the hex encoded SHA-256 checksum of the file
+     */
+    public static String checksum(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Add the content of the file to the digest.
+     */
+    public static void update(MessageDigest digest, File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.domain.model.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The crawl statistics of a harvest result, aggregated from its crawl.log
+ * when the harvest result is indexed, for transferring between the Asset
+ * store and the other web curator components.
+ */
+public class CrawlLogSummaryDTO {
+    /**
+     * The name of the totals of the hosts and MIME types beyond the largest ones kept.
+     */
+    public static final String OTHER = "(other)";
+
+    private long targetInstanceOid;
+    private int harvestNumber;
+
+    /**
+     * The time of the first and last lines of the crawl.log.
+     */
+    private String firstTimestamp;
+    private String lastTimestamp;
+
+    private long totalUrls;
+    private long totalBytes;
+    private long totalErrors;
+
+    /**
+     * The number of distinct hosts, including those totalled as {@link #OTHER}.
+     */
+    private long hostCount;
+
+    /**
+     * The number of URLs by fetch status code.
+     */
+    private Map<Integer, Long> statusCodes = new TreeMap<>();
+
+    /**
+     * The totals of the hosts with the most URLs, largest first.
+     */
+    private Map<String, Totals> hosts = new LinkedHashMap<>();
+
+    /**
+     * The totals of the MIME types with the most URLs, largest first.
+     */
+    private Map<String, Totals> mimeTypes = new LinkedHashMap<>();
+
+    /**
+     * The first URLs that failed, in crawl order.
+     */
+    private List<FailedUrl> errors = new ArrayList<>();
+
+    public long getTargetInstanceOid() {
+        return targetInstanceOid;
+    }
+
+    public void setTargetInstanceOid(long targetInstanceOid) {
+        this.targetInstanceOid = targetInstanceOid;
+    }
+
+    public int getHarvestNumber() {
+        return harvestNumber;
+    }
+
+    public void setHarvestNumber(int harvestNumber) {
+        this.harvestNumber = harvestNumber;
+    }
+
+    public String getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public void setFirstTimestamp(String firstTimestamp) {
+        this.firstTimestamp = firstTimestamp;
+    }
+
+    public String getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(String lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public long getTotalUrls() {
+        return totalUrls;
+    }
+
+    public void setTotalUrls(long totalUrls) {
+        this.totalUrls = totalUrls;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getTotalErrors() {
+        return totalErrors;
+    }
+
+    public void setTotalErrors(long totalErrors) {
+        this.totalErrors = totalErrors;
+    }
+
+    public long getHostCount() {
+        return hostCount;
+    }
+
+    public void setHostCount(long hostCount) {
+        this.hostCount = hostCount;
+    }
+
+    public Map<Integer, Long> getStatusCodes() {
+        return statusCodes;
+    }
+
+    public void setStatusCodes(Map<Integer, Long> statusCodes) {
+        this.statusCodes = statusCodes;
+    }
+
+    public Map<String, Totals> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(Map<String, Totals> hosts) {
+        this.hosts = hosts;
+    }
+
+    public Map<String, Totals> getMimeTypes() {
+        return mimeTypes;
+    }
+
+    public void setMimeTypes(Map<String, Totals> mimeTypes) {
+        this.mimeTypes = mimeTypes;
+    }
+
+    public List<FailedUrl> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<FailedUrl> errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * The number of URLs, bytes and failed URLs of a host or MIME type.
+     */
+    public static class Totals {
+        private long urls;
+        private long bytes;
+        private long errors;
+
+        public Totals() {
+        }
+
+        public Totals(long urls, long bytes, long errors) {
+            this.urls = urls;
+            this.bytes = bytes;
+            this.errors = errors;
+        }
+
+        public void add(long urls, long bytes, long errors) {
+            this.urls += urls;
+            this.bytes += bytes;
+            this.errors += errors;
+        }
+
+        public long getUrls() {
+            return urls;
+        }
+
+        public void setUrls(long urls) {
+            this.urls = urls;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public void setErrors(long errors) {
+            this.errors = errors;
+        }
+    }
+
+    /**
+     * A URL that failed.
+     */
+    public static class FailedUrl {
+        private String timestamp;
+        private int statusCode;
+        private String url;
+
+        public FailedUrl() {
+        }
+
+        public FailedUrl(String timestamp, int statusCode, String url) {
+            this.timestamp = timestamp;
+            this.statusCode = statusCode;
+            this.url = url;
+        }
+
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTimestamp(String timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public void setStatusCode(int statusCode) {
+            this.statusCode = statusCode;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+    }
+}
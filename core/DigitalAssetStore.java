@@ -23,6 +23,7 @@ import org.apache.commons.httpclient.Header;
 import org.webcurator.core.exceptions.DigitalAssetStoreException;
 import org.webcurator.core.visualization.modification.metadata.ModifyApplyCommand;
 import org.webcurator.core.visualization.modification.metadata.ModifyResult;
+import org.webcurator.domain.model.core.CrawlLogSummaryDTO;
 import org.webcurator.domain.model.core.CustomDepositFormCriteriaDTO;
 import org.webcurator.domain.model.core.CustomDepositFormResultDTO;
 import org.webcurator.domain.model.core.HarvestResultDTO;
@@ -69,7 +70,11 @@ public interface DigitalAssetStore {
     byte[] getSmallResource(long targetInstanceId, int harvestResultNumber, String resourceUrl) throws DigitalAssetStoreException;
 
     /**
-     * Retrieve the HTTP headers for a given resource.
+     * Retrieve the HTTP headers for a given resource. The HTTP headers are
+     * followed by the pseudo headers of {@link ArchivedResource}: the status
+     * code and content length, then the payload length, payload digest and
+     * capture date of the archive record, which are used to answer
+     * conditional and range requests without reading the payload.
      *
      * @param targetInstanceId    The OID of the target instance that the
      *                            resource belongs to.
@@ -81,6 +86,24 @@ public interface DigitalAssetStore {
      */
     List<Header> getHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl) throws DigitalAssetStoreException;
 
+    /**
+     * Retrieve the HTTP status and the HTTP headers of a resource, and open a
+     * stream over its content, in a single pass over the archive record. This
+     * replaces a call to <code>getHeaders</code> followed by a call to
+     * <code>getResource</code>, and the content is consumed as it arrives
+     * instead of being written to a temporary file first.
+     *
+     * @param targetInstanceId    The OID of the target instance that the
+     *                            resource belongs to.
+     * @param harvestResultNumber The index of the harvest result, within the
+     *                            target instance, that contains the resource.
+     * @param resourceUrl         The resource to retrieve.
+     * @return The status, headers and an open stream over the content, which
+     * the caller must close.
+     * @throws DigitalAssetStoreException if there are any errors.
+     */
+    ArchivedResource openResourceWithHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl) throws DigitalAssetStoreException;
+
     /**
      * Save an array of files to the digital asset store. The files are
      * saved to the first harvest result, so this method should be used
@@ -117,6 +140,17 @@ public interface DigitalAssetStore {
      */
     Boolean checkIndexing(Long harvestResultOid) throws DigitalAssetStoreException;
 
+    /**
+     * Return the crawl statistics of a harvest result, which are aggregated
+     * from its crawl.log when it is indexed.
+     *
+     * @param targetInstanceId    the target instance id
+     * @param harvestResultNumber the harvest result number
+     * @return the summary, or null if the harvest result has not been summarised
+     * @throws DigitalAssetStoreException thrown if there is an error
+     */
+    CrawlLogSummaryDTO getCrawlLogSummary(long targetInstanceId, int harvestResultNumber) throws DigitalAssetStoreException;
+
     /**
      * Submits a harvest result to the archive. This method will use a callback to
      * send the unique identifier returned from the archive.
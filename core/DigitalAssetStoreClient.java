@@ -1,15 +1,18 @@
 package org.webcurator.core.store;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.primitives.Bytes;
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.io.IOUtils;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 import org.webcurator.core.exceptions.DigitalAssetStoreException;
 import org.webcurator.core.rest.AbstractRestClient;
+import org.webcurator.core.util.ChecksumUtil;
 import org.webcurator.core.visualization.modification.metadata.ModifyApplyCommand;
 import org.webcurator.core.visualization.modification.metadata.ModifyResult;
 import org.webcurator.domain.model.core.*;
@@ -19,6 +22,7 @@ import java.net.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +33,8 @@ public class DigitalAssetStoreClient extends AbstractRestClient implements Digit
     /* The way to upload warcs, logs and reports to store component */
     private String fileUploadMode;
     private String harvestBaseUrl;
+    /* The largest resource accepted through the small resource transfer */
+    private long smallResourceMaxSize = 1024 * 1024;
 
     public DigitalAssetStoreClient(String baseUrl, RestTemplateBuilder restTemplateBuilder) {
         super(baseUrl, restTemplateBuilder);
@@ -51,8 +57,14 @@ public class DigitalAssetStoreClient extends AbstractRestClient implements Digit
 
             HttpEntity<String> requestBody = this.createHttpRequestEntity(dto);
 
+            // The store verifies the file against the checksum and uses it to
+            // resume an interrupted transfer.
+            URI uri = UriComponentsBuilder.fromHttpUrl(getUrl(DigitalAssetStorePaths.SAVE))
+                    .queryParam("checksum", ChecksumUtil.checksum(file))
+                    .build().toUri();
+
             RestTemplate restTemplate = restTemplateBuilder.build();
-            restTemplate.postForEntity(getUrl(DigitalAssetStorePaths.SAVE), requestBody, Void.class);
+            restTemplate.postForEntity(uri, requestBody, Void.class);
         } catch (Exception e) {
             log.error("Save file failed", e);
             throw new DigitalAssetStoreException(e);
@@ -77,6 +89,26 @@ public class DigitalAssetStoreClient extends AbstractRestClient implements Digit
         }
     }
 
+    @Override
+    public ArchivedResource openResourceWithHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl) throws DigitalAssetStoreException {
+        UriComponentsBuilder uriComponentsBuilder = UriComponentsBuilder.fromHttpUrl(getUrl(DigitalAssetStorePaths.RESOURCE_WITH_HEADERS))
+                .queryParam("harvest-result-number", harvestResultNumber)
+                .queryParam("resource-url", URLEncoder.encode(resourceUrl));
+        Map<String, Long> pathVariables = ImmutableMap.of("target-instance-id", targetInstanceId);
+        InputStream in = null;
+        try {
+            URL url = uriComponentsBuilder.buildAndExpand(pathVariables).toUri().toURL();
+            URLConnection connection = url.openConnection();
+            in = new BufferedInputStream(connection.getInputStream());
+            ArchivedResource resource = ArchivedResource.readHead(in);
+            resource.setContent(in);
+            return resource;
+        } catch (IOException ex) {
+            IOUtils.closeQuietly(in);
+            throw new DigitalAssetStoreException("Failed to get resource for " + targetInstanceId + " " + harvestResultNumber + ": " + ex.getMessage(), ex);
+        }
+    }
+
     @Override
     public List<Header> getHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl)
             throws DigitalAssetStoreException {
@@ -143,14 +175,60 @@ public class DigitalAssetStoreClient extends AbstractRestClient implements Digit
                 .queryParam("resource-url", URLEncoder.encode(resourceUrl));
         Map<String, Long> pathVariables = ImmutableMap.of("target-instance-id", targetInstanceId);
 
-        // TODO Process any exceptions or 404s, etc. as DigitalAssetStoreException, currently thrown as WCTRuntimeException.
         RestTemplate restTemplate = restTemplateBuilder.build();
-        ResponseEntity<List<Byte>> listResponse = restTemplate.exchange(
-                uriComponentsBuilder.buildAndExpand(pathVariables).toUri(),
-                HttpMethod.POST, null, new ParameterizedTypeReference<List<Byte>>() {
-                });
+        try {
+            byte[] content = restTemplate.execute(uriComponentsBuilder.buildAndExpand(pathVariables).toUri(), HttpMethod.POST,
+                    request -> request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_OCTET_STREAM)),
+                    response -> {
+                        // A resource announced as too large is refused before any of its body is read.
+                        long contentLength = response.getHeaders().getContentLength();
+                        if (contentLength > smallResourceMaxSize) {
+                            return null;
+                        }
+                        return readBounded(response.getBody(), contentLength, smallResourceMaxSize);
+                    });
+            if (content != null) {
+                return content;
+            }
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() != HttpStatus.PAYLOAD_TOO_LARGE) {
+                throw new DigitalAssetStoreException("Failed to get small resource for " + targetInstanceId + " " + harvestResultNumber + ": " + e.getMessage(), e);
+            }
+        } catch (RestClientException e) {
+            throw new DigitalAssetStoreException("Failed to get small resource for " + targetInstanceId + " " + harvestResultNumber + ": " + e.getMessage(), e);
+        }
 
-        return Bytes.toArray(listResponse.getBody());
+        // The resource is too large to be held in a single response buffer, fall back to the temp file transfer.
+        log.debug("Resource {} exceeds the small resource limit, falling back to file transfer", resourceUrl);
+        Path path = getResource(targetInstanceId, harvestResultNumber, resourceUrl);
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new DigitalAssetStoreException("Failed to read resource file " + path + ": " + e.getMessage(), e);
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    /**
+     * Read a stream into a byte array, never reading more than <code>maxSize</code> bytes.
+     *
+     * @param expectedLength the announced length of the stream, or -1 if it is not known
+     * @throws IOException if the stream is longer than maxSize
+     */
+    private static byte[] readBounded(InputStream in, long expectedLength, long maxSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(expectedLength < 0 ? 8 * 1024 : (int) expectedLength);
+        byte[] buffer = new byte[8 * 1024];
+        long remaining = maxSize;
+        int bytesRead;
+        while ((bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, remaining + 1))) != -1) {
+            if (bytesRead > remaining) {
+                throw new IOException("Small resource is longer than " + maxSize + " bytes");
+            }
+            remaining -= bytesRead;
+            out.write(buffer, 0, bytesRead);
+        }
+        return out.toByteArray();
     }
 
     public void initiateIndexing(HarvestResultDTO harvestResult) throws DigitalAssetStoreException {
@@ -185,6 +263,19 @@ public class DigitalAssetStoreClient extends AbstractRestClient implements Digit
         return result;
     }
 
+    public CrawlLogSummaryDTO getCrawlLogSummary(long targetInstanceId, int harvestResultNumber) throws DigitalAssetStoreException {
+        UriComponentsBuilder uriComponentsBuilder = UriComponentsBuilder.fromHttpUrl(getUrl(DigitalAssetStorePaths.CRAWL_LOG_SUMMARY))
+                .queryParam("harvest-result-number", harvestResultNumber);
+        Map<String, Long> pathVariables = ImmutableMap.of("target-instance-id", targetInstanceId);
+
+        RestTemplate restTemplate = restTemplateBuilder.build();
+        try {
+            return restTemplate.getForObject(uriComponentsBuilder.buildAndExpand(pathVariables).toUri(), CrawlLogSummaryDTO.class);
+        } catch (HttpClientErrorException e) {
+            throw new DigitalAssetStoreException("Failed to get the crawl log summary for " + targetInstanceId + " " + harvestResultNumber + ": " + e.getMessage(), e);
+        }
+    }
+
     public CustomDepositFormResultDTO getCustomDepositFormDetails(CustomDepositFormCriteriaDTO criteria) throws DigitalAssetStoreException {
         HttpEntity<String> request = this.createHttpRequestEntity(criteria);
 
@@ -264,6 +355,14 @@ public class DigitalAssetStoreClient extends AbstractRestClient implements Digit
         }
     }
 
+    public long getSmallResourceMaxSize() {
+        return smallResourceMaxSize;
+    }
+
+    public void setSmallResourceMaxSize(long smallResourceMaxSize) {
+        this.smallResourceMaxSize = smallResourceMaxSize;
+    }
+
     public String getHarvestBaseUrl() {
         return harvestBaseUrl;
     }
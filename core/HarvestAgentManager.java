@@ -51,6 +51,10 @@ public interface HarvestAgentManager {
 
     void unLock(Long tiOid);
 
+    void reserve(String agentName);
+
+    void release(String agentName);
+
     HashMap<String, HarvestAgentStatusDTO> getHarvestAgents();
 
     void purgeAbortedTargetInstances(List<String> tiNames);
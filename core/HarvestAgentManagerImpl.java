@@ -2,6 +2,14 @@ package org.webcurator.core.harvester.coordinator;
 
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -24,9 +32,58 @@ import org.webcurator.domain.model.core.harvester.agent.HarvesterStatusDTO;
 
 @SuppressWarnings("all")
 public class HarvestAgentManagerImpl implements HarvestAgentManager {
-    static Set<Long> targetInstanceLocks = Collections.synchronizedSet(new HashSet<>());
+    static Set<Long> targetInstanceLocks = ConcurrentHashMap.newKeySet();
 
-    HashMap<String, HarvestAgentStatusDTO> harvestAgents = new HashMap<>();
+    /**
+     * The registered harvest agents, by name, updated by the heartbeats of
+     * the agents and read by the request threads.
+     */
+    Map<String, HarvestAgentStatusDTO> harvestAgents = new ConcurrentHashMap<>();
+
+    /**
+     * The name of the agent running each job, kept in step with the
+     * registered agents so that finding the agent of a job does not scan
+     * the jobs of every agent.
+     */
+    private final Map<String, String> jobAgents = new ConcurrentHashMap<>();
+
+    /**
+     * The latest heartbeat of each agent that is waiting to be applied.
+     */
+    private final Map<String, HarvestAgentStatusDTO> pendingHeartbeats = new ConcurrentHashMap<>();
+
+    /**
+     * The number of harvests being sent to each agent, by agent name. Kept
+     * apart from the agent statuses, which are replaced by every heartbeat.
+     */
+    private final Map<String, AtomicInteger> dispatches = new ConcurrentHashMap<>();
+
+    /**
+     * The threads applying heartbeats. The heartbeats of an agent are always
+     * applied by the same thread, in the order they were received.
+     */
+    private ExecutorService[] heartbeatLanes;
+
+    /**
+     * The number of threads applying heartbeats to the target instances, or 0
+     * to apply them on the thread that received them.
+     */
+    private int heartbeatThreads = 0;
+
+    /**
+     * The harvester statuses whose counters have changed since they were
+     * last written, by target instance oid.
+     */
+    private final Map<Long, HarvesterStatus> pendingStatuses = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService statusWriter;
+
+    /**
+     * The interval, in milliseconds, at which harvester statuses that have
+     * only had their counters updated are written, or 0 to write every
+     * heartbeat as it is applied.
+     */
+    private long statusWriteInterval = 0;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private TargetInstanceDAO targetInstanceDao;
@@ -34,23 +91,57 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
     private HarvestAgentFactory harvestAgentFactory;
     private WctCoordinator wctCoordinator;
     private HarvestResultManager harvestResultManager;
+    private HarvestQueue harvestQueue;
 
+    /**
+     * Register the status of a harvest agent and apply the status of its jobs
+     * to their target instances.
+     * <p>
+     * The agent is registered at once. With heartbeat threads, the job
+     * statuses are applied in the background, so that a slow database does
+     * not hold up the agents; if an agent sends another heartbeat before the
+     * last one was applied, only the newer one is applied.
+     */
     @Override
     public void heartbeat(HarvestAgentStatusDTO aStatus) {
-        if (harvestAgents.containsKey(aStatus.getName())) {
-            log.debug("Updating status for {}", aStatus.getName());
-        } else {
-            log.info("Registering harvest agent " + aStatus.getName());
-        }
-
+        String agentName = aStatus.getName();
         aStatus.setLastUpdated(new Date());
-        HarvestAgentStatusDTO currentStatus = harvestAgents.get(aStatus.getName());
+        HarvestAgentStatusDTO currentStatus = harvestAgents.get(agentName);
         if (currentStatus != null) {
+            log.debug("Updating status for {}", agentName);
             aStatus.setAcceptTasks(currentStatus.isAcceptTasks());
+        } else {
+            log.info("Registering harvest agent " + agentName);
+        }
+        putHarvestAgent(agentName, aStatus);
+        if (harvestQueue != null && aStatus.isAcceptTasks() && harvesterCanHarvestNow(aStatus)) {
+            // The agent can take another harvest.
+            harvestQueue.wake();
+        }
+
+        ExecutorService[] lanes = heartbeatLanes;
+        if (lanes == null) {
+            applyHeartbeat(aStatus);
+        } else if (pendingHeartbeats.put(agentName, aStatus) == null) {
+            lanes[Math.floorMod(agentName.hashCode(), lanes.length)].execute(() -> {
+                HarvestAgentStatusDTO latest = pendingHeartbeats.remove(agentName);
+                if (latest != null) {
+                    applyHeartbeat(latest);
+                }
+            });
         }
-        harvestAgents.put(aStatus.getName(), aStatus);
+    }
 
+    /**
+     * Apply the status of the jobs of a harvest agent to their target
+     * instances. A target instance that is locked, because it is being
+     * allocated to an agent, is skipped until the next heartbeat.
+     */
+    void applyHeartbeat(HarvestAgentStatusDTO aStatus) {
         HashMap<String, HarvesterStatusDTO> harvesterStatusMap = aStatus.getHarvesterStatus();
+        if (harvesterStatusMap == null) {
+            return;
+        }
         for (String key : harvesterStatusMap.keySet()) {
             long tiOid = 0;
             int harvestResultNumber = 0;
@@ -65,12 +156,14 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
             // lock the ti for update
             if (!lock(tiOid)) {
                 log.debug("Skipping heartbeat, found locked target instance: " + tiOid);
-                break;
+                continue;
             }
             try {
                 log.debug("Obtained lock for ti {}", tiOid);
                 TargetInstance ti = targetInstanceDao.load(tiOid);
                 HarvesterStatusDTO harvesterStatusDto = (HarvesterStatusDTO) harvesterStatusMap.get(key);
+                String previousState = ti.getState();
+                String previousStatusValue = ti.getStatus() == null ? null : ti.getStatus().getStatus();
 
                 updateStatusWithEnvironment(harvesterStatusDto);
                 HarvesterStatus harvesterStatus = createHarvesterStatus(ti, harvesterStatusDto);
@@ -80,7 +173,7 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
                 String harvesterStatusValue = harvesterStatus.getStatus();
                 if (StringUtils.isEmpty(harvesterStatusValue)) {
                     log.error("harvesterStatusValue is null, tiOid:{}", tiOid);
-                    return;
+                    continue;
                 }
 
                 if (harvesterStatusValue.startsWith("Paused")) {
@@ -106,7 +199,14 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
                     doHeartbeatLaunchFailed(ti, harvestResultNumber);
                 }
 
-                targetInstanceManager.save(ti);
+                if (statusWriteInterval > 0 && harvesterStatusValue.equals(previousStatusValue)
+                        && StringUtils.equals(ti.getState(), previousState)) {
+                    // Only the counters of the harvest have changed, so they are written with the next batch.
+                    pendingStatuses.put(tiOid, harvesterStatus);
+                } else {
+                    pendingStatuses.remove(tiOid);
+                    targetInstanceManager.save(ti);
+                }
             } catch (Exception e) {
                 log.error("Failed to process: {}", tiOid, e);
             } finally {
@@ -116,6 +216,100 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
         }
     }
 
+    /**
+     * Write the harvester statuses whose counters have changed since they
+     * were last written, in one transaction. The target instances are locked
+     * while they are written; a target instance that is locked by something
+     * else keeps its status for the next write. If the write fails the
+     * statuses are put back for the next write, unless a newer heartbeat has
+     * already replaced them.
+     */
+    void writePendingStatuses() {
+        List<Long> locked = new ArrayList<>();
+        Map<Long, HarvesterStatus> statuses = new LinkedHashMap<>();
+        try {
+            for (Long tiOid : pendingStatuses.keySet()) {
+                if (!lock(tiOid)) {
+                    log.debug("Unable to acquire lock for ti {}, its status is written later", tiOid);
+                    continue;
+                }
+                locked.add(tiOid);
+                HarvesterStatus status = pendingStatuses.remove(tiOid);
+                if (status != null) {
+                    statuses.put(tiOid, status);
+                }
+            }
+            if (statuses.isEmpty()) {
+                return;
+            }
+            log.debug("Writing {} harvester statuses", statuses.size());
+            try {
+                targetInstanceDao.saveAll(new ArrayList<>(statuses.values()));
+            } catch (Exception e) {
+                log.error("Failed to write {} harvester statuses, they are written later", statuses.size(), e);
+                statuses.forEach(pendingStatuses::putIfAbsent);
+            }
+        } finally {
+            for (Long tiOid : locked) {
+                unLock(tiOid);
+            }
+        }
+    }
+
+    /**
+     * Start the threads applying heartbeats and writing harvester statuses.
+     */
+    public synchronized void start() {
+        if (statusWriteInterval > 0 && statusWriter == null) {
+            statusWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "harvester-status-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            statusWriter.scheduleWithFixedDelay(this::writePendingStatuses, statusWriteInterval, statusWriteInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+        if (heartbeatThreads <= 0 || heartbeatLanes != null) {
+            return;
+        }
+        ExecutorService[] lanes = new ExecutorService[heartbeatThreads];
+        for (int i = 0; i < lanes.length; i++) {
+            String name = "heartbeat-" + (i + 1);
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        heartbeatLanes = lanes;
+    }
+
+    /**
+     * Stop the threads applying heartbeats, after the heartbeats received,
+     * and write the harvester statuses that are still pending.
+     */
+    public synchronized void shutdown() {
+        ExecutorService[] lanes = heartbeatLanes;
+        heartbeatLanes = null;
+        if (lanes != null) {
+            for (ExecutorService lane : lanes) {
+                lane.shutdown();
+            }
+            try {
+                for (ExecutorService lane : lanes) {
+                    lane.awaitTermination(30, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (statusWriter != null) {
+            statusWriter.shutdown();
+            statusWriter = null;
+        }
+        writePendingStatuses();
+    }
+
     private HarvesterStatus createHarvesterStatus(TargetInstance ti, HarvesterStatusDTO harvesterStatusDto) {
         HarvesterStatus harvesterStatus = null;
         if (ti.getStatus() == null) {
@@ -207,13 +401,40 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
      * @return a harvest agent status for the specified job name
      */
     HarvestAgentStatusDTO getHarvestAgentStatusFor(String aJobName) {
-        for (HarvestAgentStatusDTO agentStatus : harvestAgents.values()) {
-            if (agentStatus.getHarvesterStatus() != null) {
-                if (agentHasJob(aJobName, agentStatus))
-                    return agentStatus;
+        String agentName = aJobName == null ? null : jobAgents.get(aJobName);
+        return agentName == null ? null : harvestAgents.get(agentName);
+    }
+
+    /**
+     * Register the status of an agent and index its jobs, dropping the jobs
+     * the agent no longer has.
+     */
+    void putHarvestAgent(String agentName, HarvestAgentStatusDTO agentStatus) {
+        HarvestAgentStatusDTO previous = harvestAgents.put(agentName, agentStatus);
+        Set<String> jobNames = getJobNames(agentStatus);
+        for (String jobName : jobNames) {
+            jobAgents.put(jobName, agentName);
+        }
+        if (previous != null) {
+            for (String jobName : getJobNames(previous)) {
+                if (!jobNames.contains(jobName)) {
+                    jobAgents.remove(jobName, agentName);
+                }
+            }
+        }
+    }
+
+    private static Set<String> getJobNames(HarvestAgentStatusDTO agentStatus) {
+        if (agentStatus.getHarvesterStatus() == null) {
+            return Collections.emptySet();
+        }
+        Set<String> jobNames = new HashSet<>();
+        for (HarvesterStatusDTO harvesterStatus : agentStatus.getHarvesterStatus().values()) {
+            if (harvesterStatus.getJobName() != null) {
+                jobNames.add(harvesterStatus.getJobName());
             }
         }
-        return null;
+        return jobNames;
     }
 
     boolean agentHasJob(String aJobName, HarvestAgentStatusDTO agentStatus) {
@@ -408,7 +629,12 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
 
     @Override
     public void markDead(HarvestAgentStatusDTO agent) {
-        harvestAgents.remove(agent.getName());
+        HarvestAgentStatusDTO removed = harvestAgents.remove(agent.getName());
+        if (removed != null) {
+            for (String jobName : getJobNames(removed)) {
+                jobAgents.remove(jobName, agent.getName());
+            }
+        }
     }
 
     @Override
@@ -446,6 +672,28 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
         targetInstanceLocks.remove(tiOid);
     }
 
+    /**
+     * Reserve an agent while a harvest is sent to it, so that it is not
+     * offered another one before the harvest has been sent.
+     */
+    @Override
+    public void reserve(String agentName) {
+        dispatches.computeIfAbsent(agentName, name -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /**
+     * Release an agent once a harvest has been sent to it. The agent is then
+     * in transition until its next heartbeat reports the harvest.
+     */
+    @Override
+    public void release(String agentName) {
+        HarvestAgentStatusDTO agent = harvestAgents.get(agentName);
+        if (agent != null) {
+            agent.setInTransition(true);
+        }
+        dispatches.computeIfPresent(agentName, (name, count) -> count.decrementAndGet() > 0 ? count : null);
+    }
+
     @Override
     public HashMap<String, HarvestAgentStatusDTO> getHarvestAgents() {
         return new HashMap<String, HarvestAgentStatusDTO>(harvestAgents);
@@ -463,6 +711,26 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
         this.targetInstanceDao = targetInstanceDao;
     }
 
+    public int getHeartbeatThreads() {
+        return heartbeatThreads;
+    }
+
+    public void setHeartbeatThreads(int heartbeatThreads) {
+        this.heartbeatThreads = heartbeatThreads;
+    }
+
+    public void setHarvestQueue(HarvestQueue harvestQueue) {
+        this.harvestQueue = harvestQueue;
+    }
+
+    public long getStatusWriteInterval() {
+        return statusWriteInterval;
+    }
+
+    public void setStatusWriteInterval(long statusWriteInterval) {
+        this.statusWriteInterval = statusWriteInterval;
+    }
+
 //    public WctCoordinator getWctCoordinator() {
 //        return wctCoordinator;
 //    }
@@ -601,6 +869,7 @@ public class HarvestAgentManagerImpl implements HarvestAgentManager {
     }
 
     private boolean harvesterCanHarvestNow(HarvestAgentStatusDTO agent) {
-        return !agent.getMemoryWarning() && !agent.isInTransition() && agent.getHarvesterStatusCount() < agent.getMaxHarvests();
+        return !agent.getMemoryWarning() && !agent.isInTransition() && !dispatches.containsKey(agent.getName())
+                && agent.getHarvesterStatusCount() < agent.getMaxHarvests();
     }
 }
@@ -3,11 +3,14 @@ package org.webcurator.core.harvester.coordinator;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollection;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
+import java.util.Collections;
 import java.util.HashMap;
 
 import org.junit.Before;
@@ -30,6 +33,7 @@ import org.webcurator.core.scheduler.TargetInstanceManager;
 import org.webcurator.core.util.ApplicationContextFactory;
 import org.webcurator.domain.TargetInstanceDAO;
 import org.webcurator.domain.model.core.HarvestResult;
+import org.webcurator.domain.model.core.HarvesterStatus;
 import org.webcurator.domain.model.core.TargetInstance;
 import org.webcurator.domain.model.core.harvester.agent.HarvestAgentStatusDTO;
 import org.webcurator.domain.model.core.harvester.agent.HarvesterStatusDTO;
@@ -105,7 +109,7 @@ public class HarvestAgentManagerImplTest {
         when(mockHarvesterStatusDTO.getJobName()).thenReturn(jobName);
         newHashMap.put("testKey", mockHarvesterStatusDTO);
         when(mockHarvestAgentStatusDTO.getHarvesterStatus()).thenReturn(newHashMap);
-        underTest.harvestAgents.put(jobName, mockHarvestAgentStatusDTO);
+        underTest.putHarvestAgent(jobName, mockHarvestAgentStatusDTO);
 
         HarvestAgentFactory mockHarvestAgentFactory = mock(HarvestAgentFactory.class);
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
@@ -174,7 +178,7 @@ public class HarvestAgentManagerImplTest {
     public void testGetHarvestAgentStatusForTiAgentDoesntHaveJob() {
         String jobName = "anotherJob";
         HarvestAgentStatusDTO harvestAgentStatusDTO = setupHarvestAgentStatus(jobName);
-        underTest.harvestAgents.put("irrelevant", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("irrelevant", harvestAgentStatusDTO);
         HarvestAgentStatusDTO result = underTest.getHarvestAgentStatusFor("test");
         assertNull(result);
     }
@@ -184,7 +188,7 @@ public class HarvestAgentManagerImplTest {
         String jobName = "anotherJob";
         HarvestAgentStatusDTO harvestAgentStatusDTO = setupHarvestAgentStatus(jobName);
         harvestAgentStatusDTO.setHarvesterStatus(null);
-        underTest.harvestAgents.put("irrelevant", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("irrelevant", harvestAgentStatusDTO);
         HarvestAgentStatusDTO result = underTest.getHarvestAgentStatusFor("test");
         assertNull(result);
     }
@@ -192,14 +196,61 @@ public class HarvestAgentManagerImplTest {
     @Test
     public void testGetHarvestAgentStatusForTiAgentHasJob() {
         HarvestAgentStatusDTO harvestAgentStatusDTO = setupHarvestAgentStatus("differentJob");
-        underTest.harvestAgents.put("irrelevant", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("irrelevant", harvestAgentStatusDTO);
         String jobName = "test";
         harvestAgentStatusDTO = setupHarvestAgentStatus(jobName);
-        underTest.harvestAgents.put("irrelevant2", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("irrelevant2", harvestAgentStatusDTO);
         HarvestAgentStatusDTO result = underTest.getHarvestAgentStatusFor("test");
         assertNotNull(result);
     }
 
+    @Test
+    public void testGetHarvestAgentStatusForFollowsHeartbeats() {
+        HarvestAgentStatusDTO agent1 = createHarvestAgentStatusDtoWithStatusDto("123", "agent1");
+        underTest.heartbeat(agent1);
+        assertSame(agent1, underTest.getHarvestAgentStatusFor("123"));
+
+        // The job has finished on agent1 and has been restarted on agent2
+        HarvestAgentStatusDTO agent1Idle = createHarvestAgentStatusDto("agent1");
+        underTest.heartbeat(agent1Idle);
+        assertNull(underTest.getHarvestAgentStatusFor("123"));
+        HarvestAgentStatusDTO agent2 = createHarvestAgentStatusDtoWithStatusDto("123", "agent2");
+        underTest.heartbeat(agent2);
+        assertSame(agent2, underTest.getHarvestAgentStatusFor("123"));
+
+        underTest.markDead(agent2);
+        assertNull(underTest.getHarvestAgentStatusFor("123"));
+        assertNull(underTest.getHarvestAgentStatusFor(null));
+    }
+
+    @Test
+    public void testReservedAgentNotOfferedAfterHeartbeat() {
+        HarvestAgentStatusDTO agent = createHarvestAgentStatusDto("agent1");
+        agent.setMaxHarvests(2);
+        agent.setHarvesterType("HERITRIX3");
+        underTest.heartbeat(agent);
+        assertSame(agent, underTest.getHarvester("agency", "HERITRIX3"));
+
+        // A heartbeat arrives while a harvest is being sent to the agent
+        underTest.reserve("agent1");
+        HarvestAgentStatusDTO heartbeat = createHarvestAgentStatusDto("agent1");
+        heartbeat.setMaxHarvests(2);
+        heartbeat.setHarvesterType("HERITRIX3");
+        underTest.heartbeat(heartbeat);
+        assertNull(underTest.getHarvester("agency", "HERITRIX3"));
+        assertTrue(underTest.getAvailableHarvesters("agency").isEmpty());
+
+        // Sent, but not yet reported by the agent
+        underTest.release("agent1");
+        assertNull(underTest.getHarvester("agency", "HERITRIX3"));
+
+        HarvestAgentStatusDTO reported = createHarvestAgentStatusDtoWithStatusDto("123", "agent1");
+        reported.setMaxHarvests(2);
+        reported.setHarvesterType("HERITRIX3");
+        underTest.heartbeat(reported);
+        assertSame(reported, underTest.getHarvester("agency", "HERITRIX3"));
+    }
+
     @Test
     public void testRunningOrPaused() {
         TargetInstance targetInstance = new TargetInstance();
@@ -247,7 +298,7 @@ public class HarvestAgentManagerImplTest {
         String harvesterName = "reconnect";
         HarvestAgentStatusDTO agentStatusDTO1 = createHarvestAgentStatusDto(harvesterName);
         agentStatusDTO1.setAcceptTasks(false);
-        underTest.harvestAgents.put(harvesterName, agentStatusDTO1);
+        underTest.putHarvestAgent(harvesterName, agentStatusDTO1);
 
         HarvestAgentStatusDTO agentStatusDTO2 = createHarvestAgentStatusDto(harvesterName);
         agentStatusDTO2.setAcceptTasks(true);
@@ -258,7 +309,7 @@ public class HarvestAgentManagerImplTest {
         assertFalse(agentStatusDTO2.isAcceptTasks());
 
         agentStatusDTO1.setAcceptTasks(true);
-        underTest.harvestAgents.put(harvesterName, agentStatusDTO1);
+        underTest.putHarvestAgent(harvesterName, agentStatusDTO1);
         agentStatusDTO2.setAcceptTasks(false);
         underTest.heartbeat(agentStatusDTO2);
         assertTrue(agentStatusDTO2.isAcceptTasks());
@@ -340,6 +391,129 @@ public class HarvestAgentManagerImplTest {
 
     }
 
+    @Test
+    public void testHeartbeatSkipsOnlyLockedTi() {
+        Long tOid = 123L;
+        TargetInstance mockTargetInstance = mock(TargetInstance.class);
+        when(mockTargetInstance.getState()).thenReturn(TargetInstance.STATE_PAUSED);
+        HarvestAgentStatusDTO agentStatusDTO = setupHarvestAgentWithHarvestState(tOid, "Running", mockTargetInstance);
+
+        Long lockedOid = 124L;
+        HarvesterStatusDTO lockedStatusDTO = new HarvesterStatusDTO();
+        lockedStatusDTO.setJobName(String.valueOf(lockedOid));
+        lockedStatusDTO.setStatus("Running");
+        agentStatusDTO.getHarvesterStatus().put(String.valueOf(lockedOid), lockedStatusDTO);
+
+        assertTrue(underTest.lock(lockedOid));
+        underTest.heartbeat(agentStatusDTO);
+        verify(mockTargetInstanceDAO, times(0)).load(lockedOid);
+        verify(mockTargetInstanceDAO).load(tOid);
+        verify(mockTargetInstanceManager).save(mockTargetInstance);
+        verify(mockTargetInstance).setState(TargetInstance.STATE_RUNNING);
+    }
+
+    @Test
+    public void testHeartbeatAppliedByHeartbeatThreads() {
+        Long tOid = 123L;
+        TargetInstance mockTargetInstance = mock(TargetInstance.class);
+        when(mockTargetInstance.getState()).thenReturn(TargetInstance.STATE_RUNNING);
+        HarvestAgentStatusDTO agentStatusDTO = setupHarvestAgentWithHarvestState(tOid, "Paused", mockTargetInstance);
+
+        underTest.setHeartbeatThreads(2);
+        underTest.start();
+        try {
+            underTest.heartbeat(agentStatusDTO);
+            assertTrue(underTest.harvestAgents.containsKey(agentStatusDTO.getName()));
+        } finally {
+            underTest.shutdown();
+        }
+        verify(mockTargetInstanceManager).save(mockTargetInstance);
+        verify(mockTargetInstance).setState(TargetInstance.STATE_PAUSED);
+    }
+
+    @Test
+    public void testHeartbeatWritesCountersInBatch() {
+        Long tOid = 123L;
+        TargetInstance mockTargetInstance = mock(TargetInstance.class);
+        when(mockTargetInstance.getState()).thenReturn(TargetInstance.STATE_RUNNING);
+        HarvestAgentStatusDTO agentStatusDTO = setupHarvestAgentWithHarvestState(tOid, "Running", mockTargetInstance);
+        HarvesterStatus status = new HarvesterStatus(agentStatusDTO.getHarvesterStatus().get(String.valueOf(tOid)));
+        when(mockTargetInstance.getStatus()).thenReturn(status);
+
+        underTest.setStatusWriteInterval(5000);
+        underTest.heartbeat(agentStatusDTO);
+        underTest.heartbeat(agentStatusDTO);
+        verify(mockTargetInstanceManager, times(0)).save(mockTargetInstance);
+        verify(mockTargetInstanceDAO, times(0)).saveAll(anyCollection());
+
+        underTest.writePendingStatuses();
+        verify(mockTargetInstanceDAO).saveAll(Collections.singletonList(status));
+        underTest.writePendingStatuses();
+        verify(mockTargetInstanceDAO, times(1)).saveAll(anyCollection());
+    }
+
+    @Test
+    public void testPendingStatusOfLockedTiWrittenLater() {
+        Long tOid = 123L;
+        TargetInstance mockTargetInstance = mock(TargetInstance.class);
+        when(mockTargetInstance.getState()).thenReturn(TargetInstance.STATE_RUNNING);
+        HarvestAgentStatusDTO agentStatusDTO = setupHarvestAgentWithHarvestState(tOid, "Running", mockTargetInstance);
+        HarvesterStatus status = new HarvesterStatus(agentStatusDTO.getHarvesterStatus().get(String.valueOf(tOid)));
+        when(mockTargetInstance.getStatus()).thenReturn(status);
+
+        underTest.setStatusWriteInterval(5000);
+        underTest.heartbeat(agentStatusDTO);
+
+        underTest.lock(tOid);
+        underTest.writePendingStatuses();
+        verify(mockTargetInstanceDAO, times(0)).saveAll(anyCollection());
+
+        underTest.unLock(tOid);
+        underTest.writePendingStatuses();
+        verify(mockTargetInstanceDAO).saveAll(Collections.singletonList(status));
+        assertTrue(underTest.lock(tOid));
+    }
+
+    @Test
+    public void testPendingStatusWrittenAgainAfterFailure() {
+        Long tOid = 123L;
+        TargetInstance mockTargetInstance = mock(TargetInstance.class);
+        when(mockTargetInstance.getState()).thenReturn(TargetInstance.STATE_RUNNING);
+        HarvestAgentStatusDTO agentStatusDTO = setupHarvestAgentWithHarvestState(tOid, "Running", mockTargetInstance);
+        HarvesterStatus status = new HarvesterStatus(agentStatusDTO.getHarvesterStatus().get(String.valueOf(tOid)));
+        when(mockTargetInstance.getStatus()).thenReturn(status);
+
+        underTest.setStatusWriteInterval(5000);
+        underTest.heartbeat(agentStatusDTO);
+
+        doThrow(new RuntimeException("Database unavailable")).doNothing().when(mockTargetInstanceDAO).saveAll(anyCollection());
+        underTest.writePendingStatuses();
+        underTest.writePendingStatuses();
+        verify(mockTargetInstanceDAO, times(2)).saveAll(Collections.singletonList(status));
+        underTest.writePendingStatuses();
+        verify(mockTargetInstanceDAO, times(2)).saveAll(anyCollection());
+        assertTrue(underTest.lock(tOid));
+    }
+
+    @Test
+    public void testHeartbeatWritesStateChangeImmediately() {
+        Long tOid = 123L;
+        TargetInstance mockTargetInstance = mock(TargetInstance.class);
+        when(mockTargetInstance.getState()).thenReturn(TargetInstance.STATE_RUNNING);
+        HarvestAgentStatusDTO agentStatusDTO = setupHarvestAgentWithHarvestState(tOid, "Paused", mockTargetInstance);
+        HarvesterStatusDTO runningStatusDTO = new HarvesterStatusDTO();
+        runningStatusDTO.setStatus("Running");
+        when(mockTargetInstance.getStatus()).thenReturn(new HarvesterStatus(runningStatusDTO));
+
+        underTest.setStatusWriteInterval(5000);
+        underTest.heartbeat(agentStatusDTO);
+        verify(mockTargetInstance).setState(TargetInstance.STATE_PAUSED);
+        verify(mockTargetInstanceManager).save(mockTargetInstance);
+
+        underTest.writePendingStatuses();
+        verify(mockTargetInstanceDAO, times(0)).saveAll(anyCollection());
+    }
+
     @Test
     public void testHeartbeatUpdatesTiStoppingAlreadyStopped() {
         Long tOid = 123L;
@@ -399,7 +573,7 @@ public class HarvestAgentManagerImplTest {
 
         when(mockHarvestAgentFactory.getHarvestAgent(agentStatusDTO)).thenReturn(mockHarvestAgent);
 
-        underTest.harvestAgents.put("test", agentStatusDTO);
+        underTest.putHarvestAgent("test", agentStatusDTO);
 
         underTest.updateProfileOverrides(mockTargetInstance, profileString);
         verify(mockHarvestAgent).updateProfileOverrides(mockTargetInstance.getJobName(), profileString);
@@ -426,7 +600,7 @@ public class HarvestAgentManagerImplTest {
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         HarvestAgentStatusDTO harvestAgentStatusDTO = createHarvestAgentStatusDtoWithStatusDto("123", "test");
         when(mockHarvestAgentFactory.getHarvestAgent(harvestAgentStatusDTO)).thenReturn(mockHarvestAgent);
-        underTest.harvestAgents.put("test", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test", harvestAgentStatusDTO);
         underTest.pauseAll();
         verify(mockHarvestAgent).pauseAll();
     }
@@ -435,7 +609,7 @@ public class HarvestAgentManagerImplTest {
     public void testPauseAllOneHarvestAgentNoHarvests() {
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         when(mockHarvestAgentFactory.getHarvestAgent(createRandomHarvestAgentStatusDTO())).thenReturn(mockHarvestAgent);
-        underTest.harvestAgents.put("test", createHarvestAgentStatusDto("test"));
+        underTest.putHarvestAgent("test", createHarvestAgentStatusDto("test"));
         underTest.pauseAll();
         verify(mockHarvestAgent, times(0)).pauseAll();
     }
@@ -446,7 +620,7 @@ public class HarvestAgentManagerImplTest {
         when(mockHarvestAgentFactory.getHarvestAgent(createRandomHarvestAgentStatusDTO())).thenReturn(mockHarvestAgent);
         HarvestAgentStatusDTO harvestAgentStatusDto = createHarvestAgentStatusDto("test");
         harvestAgentStatusDto.setHarvesterStatus(null);
-        underTest.harvestAgents.put("test", harvestAgentStatusDto);
+        underTest.putHarvestAgent("test", harvestAgentStatusDto);
         underTest.pauseAll();
         verify(mockHarvestAgent, times(0)).pauseAll();
     }
@@ -464,9 +638,9 @@ public class HarvestAgentManagerImplTest {
 //		doReturn(mockHarvestAgent1).doReturn(mockHarvestAgent2).doReturn(mockHarvestAgent3).when(mockHarvestAgentFactory).getHarvestAgent(harvestAgentStatusDTO);
         when(mockHarvestAgentFactory.getHarvestAgent(harvestAgentStatusDTO)).thenReturn(mockHarvestAgent1).thenReturn(mockHarvestAgent2).thenReturn(mockHarvestAgent3);
 
-        underTest.harvestAgents.put("test1", harvestAgentStatusDTO);
-        underTest.harvestAgents.put("test2", harvestAgentStatusDTO);
-        underTest.harvestAgents.put("test3", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test1", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test2", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test3", harvestAgentStatusDTO);
 
         underTest.pauseAll();
         verify(mockHarvestAgent1).pauseAll();
@@ -485,7 +659,7 @@ public class HarvestAgentManagerImplTest {
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         HarvestAgentStatusDTO harvestAgentStatusDTO = createHarvestAgentStatusDtoWithStatusDto("123", "test");
         when(mockHarvestAgentFactory.getHarvestAgent(harvestAgentStatusDTO)).thenReturn(mockHarvestAgent);
-        underTest.harvestAgents.put("test", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test", harvestAgentStatusDTO);
         underTest.resumeAll();
         verify(mockHarvestAgent).resumeAll();
     }
@@ -495,7 +669,7 @@ public class HarvestAgentManagerImplTest {
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         when(mockHarvestAgentFactory.getHarvestAgent(createRandomHarvestAgentStatusDTO())).thenReturn(mockHarvestAgent);
 //		HarvestAgent mockHarvestAgent = mockHarvestAgentFactory.getHarvestAgent(createRandomHarvestAgentStatusDTO());
-        underTest.harvestAgents.put("test", createHarvestAgentStatusDto("test"));
+        underTest.putHarvestAgent("test", createHarvestAgentStatusDto("test"));
         underTest.resumeAll();
         verify(mockHarvestAgent, times(0)).resumeAll();
     }
@@ -506,7 +680,7 @@ public class HarvestAgentManagerImplTest {
         when(mockHarvestAgentFactory.getHarvestAgent(createRandomHarvestAgentStatusDTO())).thenReturn(mockHarvestAgent);
         HarvestAgentStatusDTO harvestAgentStatusDto = createHarvestAgentStatusDto("test");
         harvestAgentStatusDto.setHarvesterStatus(null);
-        underTest.harvestAgents.put("test", harvestAgentStatusDto);
+        underTest.putHarvestAgent("test", harvestAgentStatusDto);
         underTest.resumeAll();
         verify(mockHarvestAgent, times(0)).resumeAll();
     }
@@ -522,9 +696,9 @@ public class HarvestAgentManagerImplTest {
         // Returns the harvest agents in order for each call
         when(mockHarvestAgentFactory.getHarvestAgent(harvestAgentStatusDTO)).thenReturn(mockHarvestAgent1)
                 .thenReturn(mockHarvestAgent2).thenReturn(mockHarvestAgent3);
-        underTest.harvestAgents.put("test1", harvestAgentStatusDTO);
-        underTest.harvestAgents.put("test2", harvestAgentStatusDTO);
-        underTest.harvestAgents.put("test3", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test1", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test2", harvestAgentStatusDTO);
+        underTest.putHarvestAgent("test3", harvestAgentStatusDTO);
         underTest.resumeAll();
         verify(mockHarvestAgent1).resumeAll();
         verify(mockHarvestAgent2).resumeAll();
@@ -534,7 +708,7 @@ public class HarvestAgentManagerImplTest {
     @Test
     public void testPauseAgentQueue() {
         HarvestAgentStatusDTO mockHarvestAgentStatusDTO = mock(HarvestAgentStatusDTO.class);
-        underTest.harvestAgents.put("test", mockHarvestAgentStatusDTO);
+        underTest.putHarvestAgent("test", mockHarvestAgentStatusDTO);
         underTest.pauseAgent("test");
         verify(mockHarvestAgentStatusDTO).setAcceptTasks(false);
     }
@@ -542,7 +716,7 @@ public class HarvestAgentManagerImplTest {
     @Test
     public void testPauseAgentQueueNotFound() {
         HarvestAgentStatusDTO mockHarvestAgentStatusDTO = mock(HarvestAgentStatusDTO.class);
-        underTest.harvestAgents.put("test", mockHarvestAgentStatusDTO);
+        underTest.putHarvestAgent("test", mockHarvestAgentStatusDTO);
         underTest.pauseAgent("notTheSame");
         verify(mockHarvestAgentStatusDTO, times(0)).setAcceptTasks(anyBoolean());
     }
@@ -550,7 +724,7 @@ public class HarvestAgentManagerImplTest {
     @Test
     public void testResumeAgentQueue() {
         HarvestAgentStatusDTO mockHarvestAgentStatusDTO = mock(HarvestAgentStatusDTO.class);
-        underTest.harvestAgents.put("test", mockHarvestAgentStatusDTO);
+        underTest.putHarvestAgent("test", mockHarvestAgentStatusDTO);
         underTest.resumeAgent("test");
         verify(mockHarvestAgentStatusDTO).setAcceptTasks(true);
     }
@@ -558,7 +732,7 @@ public class HarvestAgentManagerImplTest {
     @Test
     public void testResumeAgentQueueNotFound() {
         HarvestAgentStatusDTO mockHarvestAgentStatusDTO = mock(HarvestAgentStatusDTO.class);
-        underTest.harvestAgents.put("test", mockHarvestAgentStatusDTO);
+        underTest.putHarvestAgent("test", mockHarvestAgentStatusDTO);
         underTest.resumeAgent("notTheSame");
         verify(mockHarvestAgentStatusDTO, times(0)).setAcceptTasks(anyBoolean());
     }
@@ -568,7 +742,7 @@ public class HarvestAgentManagerImplTest {
         Long tOid = 123L;
         TargetInstance mockTargetInstance = mock(TargetInstance.class);
         HarvestAgentStatusDTO agentStatusDTO2 = setupHarvestAgentWithHarvestState(tOid, "irrelevant", mockTargetInstance);
-        underTest.harvestAgents.put("test1", agentStatusDTO2);
+        underTest.putHarvestAgent("test1", agentStatusDTO2);
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         when(mockHarvestAgentFactory.getHarvestAgent(agentStatusDTO2)).thenReturn(mockHarvestAgent);
         underTest.pause(mockTargetInstance);
@@ -591,7 +765,7 @@ public class HarvestAgentManagerImplTest {
         Long tOid = 123L;
         TargetInstance mockTargetInstance = mock(TargetInstance.class);
         HarvestAgentStatusDTO agentStatusDTO2 = setupHarvestAgentWithHarvestState(tOid, "irrelevant", mockTargetInstance);
-        underTest.harvestAgents.put("test1", agentStatusDTO2);
+        underTest.putHarvestAgent("test1", agentStatusDTO2);
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         when(mockHarvestAgentFactory.getHarvestAgent(agentStatusDTO2)).thenReturn(mockHarvestAgent);
         underTest.resume(mockTargetInstance);
@@ -614,7 +788,7 @@ public class HarvestAgentManagerImplTest {
         Long tOid = 123L;
         TargetInstance mockTargetInstance = mock(TargetInstance.class);
         HarvestAgentStatusDTO agentStatusDTO2 = setupHarvestAgentWithHarvestState(tOid, "irrelevant", mockTargetInstance);
-        underTest.harvestAgents.put("test1", agentStatusDTO2);
+        underTest.putHarvestAgent("test1", agentStatusDTO2);
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         when(mockHarvestAgentFactory.getHarvestAgent(agentStatusDTO2)).thenReturn(mockHarvestAgent);
         underTest.abort(mockTargetInstance);
@@ -628,7 +802,7 @@ public class HarvestAgentManagerImplTest {
         Long tOid = 123L;
         TargetInstance mockTargetInstance = mock(TargetInstance.class);
         HarvestAgentStatusDTO agentStatusDTO2 = setupHarvestAgentWithHarvestState(tOid, "irrelevant", mockTargetInstance);
-        underTest.harvestAgents.put("test1", agentStatusDTO2);
+        underTest.putHarvestAgent("test1", agentStatusDTO2);
         HarvestAgent mockHarvestAgent = mock(HarvestAgent.class);
         when(mockHarvestAgentFactory.getHarvestAgent(agentStatusDTO2)).thenReturn(mockHarvestAgent);
         doThrow(new RuntimeException()).when(mockHarvestAgent).abort(anyString());
@@ -290,6 +290,27 @@ public interface HarvestCoordinator extends HarvestAgentListener, HarvestCoordin
      */
     List<String> getLogLinesByRegex(TargetInstance aTargetInstance, String aFileName, int aNoOfLines, String aRegex, boolean prependLineNumbers);
 
+    /**
+     * Return x lines from the specified log file where those lines match the specified regex,
+     * each followed by the indented lines that continue it, in a single pass over the file.
+     * param aTargetInstance the TargetInstance to return the log lines for
+     *
+     * @param aFileName  the name of the file to return the lines from
+     * @param aNoOfLines the number of matching lines to return
+     * @param aRegex     the regular expression to use to filter the lines
+     * @return the lines for the log file
+     */
+    List<String> getLogLinesWithIndentedLines(TargetInstance aTargetInstance, String aFileName, int aNoOfLines, String aRegex, boolean prependLineNumbers);
+
+    /**
+     * Return the base url of the harvest agent or digital asset store holding the logs
+     * of the specified target instance, used to follow a log as it is written.
+     *
+     * @param aTargetInstance the TargetInstance whose logs are required
+     * @return the base url, or null if the logs are not served remotely
+     */
+    String getLogReaderBaseUrl(TargetInstance aTargetInstance);
+
     /**
      * Retrieves a log file from the server.
      *
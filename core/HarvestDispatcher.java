@@ -0,0 +1,62 @@
+package org.webcurator.core.coordinator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends harvests to the harvest agents on a pool of threads, so that a slow
+ * agent does not hold up the harvests allocated to the others.
+ * <p>
+ * An agent is reserved while a harvest is sent to it and is not allocated
+ * another one until it has been sent, so there is at most one harvest per
+ * agent waiting to be sent. The harvests of an agent are therefore neither
+ * ordered nor limited here.
+ */
+public class HarvestDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(HarvestDispatcher.class);
+
+    private final ExecutorService executor;
+
+    /**
+     * @param threads the number of harvests sent at the same time
+     */
+    public HarvestDispatcher(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "harvest-dispatch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (r, e) -> r.run());
+    }
+
+    /**
+     * Send a harvest to an agent.
+     *
+     * @param agentName the name of the agent
+     * @param harvest   sends the harvest
+     */
+    public void dispatch(String agentName, Runnable harvest) {
+        executor.execute(() -> {
+            try {
+                harvest.run();
+            } catch (RuntimeException e) {
+                log.error("Failed to dispatch a harvest to agent {}", agentName, e);
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
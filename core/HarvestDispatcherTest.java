@@ -0,0 +1,53 @@
+package org.webcurator.core.coordinator;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HarvestDispatcherTest {
+    private HarvestDispatcher underTest;
+
+    @Before
+    public void setup() {
+        underTest = new HarvestDispatcher(2);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.shutdown();
+    }
+
+    @Test
+    public void testSlowAgentDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch slowAgent = new CountDownLatch(1);
+        CountDownLatch otherAgent = new CountDownLatch(1);
+        underTest.dispatch("slow", () -> {
+            try {
+                slowAgent.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        underTest.dispatch("other", otherAgent::countDown);
+        assertTrue(otherAgent.await(5, TimeUnit.SECONDS));
+        slowAgent.countDown();
+    }
+
+    @Test
+    public void testFailedDispatchDoesNotStopOthers() throws Exception {
+        CountDownLatch dispatched = new CountDownLatch(2);
+        for (int i = 0; i < 4; i++) {
+            underTest.dispatch("failing", () -> {
+                throw new IllegalStateException("Agent unavailable");
+            });
+        }
+        underTest.dispatch("agent", dispatched::countDown);
+        underTest.dispatch("agent", dispatched::countDown);
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,236 @@
+package org.webcurator.core.harvester.coordinator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webcurator.domain.TargetInstanceDAO;
+import org.webcurator.domain.model.core.TargetInstance;
+import org.webcurator.domain.model.dto.QueuedTargetInstanceDTO;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the target instances that are due, or will soon be due, to be
+ * harvested in memory, in the order of {@link TargetInstanceDAO#getQueue()}:
+ * by priority, scheduled time and oid.
+ * <p>
+ * The queue is loaded from the database every <code>reloadInterval</code>
+ * milliseconds, with the target instances scheduled up to the next load, and
+ * is kept up to date in between as target instances are saved through the
+ * coordinator and the target instance manager. Target instances saved by
+ * other means are only seen at the next load, so the reload interval should
+ * be no longer than the interval of the schedule processing. Instead of
+ * waiting for the next run of the schedule, the queue is processed as soon as
+ * a harvest agent reports that it can take another harvest, or a target
+ * instance becomes due.
+ */
+public class HarvestQueue {
+    private static final Logger log = LoggerFactory.getLogger(HarvestQueue.class);
+
+    static final Comparator<QueuedTargetInstanceDTO> ORDER = Comparator
+            .comparingInt(QueuedTargetInstanceDTO::getPriority)
+            .thenComparing(QueuedTargetInstanceDTO::getScheduledTime)
+            .thenComparing(QueuedTargetInstanceDTO::getOid);
+
+    private final TreeSet<QueuedTargetInstanceDTO> entries = new TreeSet<>(ORDER);
+    private final Map<Long, QueuedTargetInstanceDTO> entriesByOid = new HashMap<>();
+
+    /**
+     * The same entries by scheduled time, to find the next one to become due.
+     */
+    private final TreeSet<QueuedTargetInstanceDTO> entriesByTime = new TreeSet<>(Comparator
+            .comparing(QueuedTargetInstanceDTO::getScheduledTime)
+            .thenComparing(QueuedTargetInstanceDTO::getOid));
+
+    private TargetInstanceDAO targetInstanceDao;
+
+    /**
+     * The interval, in milliseconds, at which the queue is loaded from the
+     * database.
+     */
+    private long reloadInterval = 30 * 1000L;
+    private long loaded = 0;
+
+    /**
+     * Processes the due target instances when the queue is woken.
+     */
+    private Runnable dispatcher;
+    private volatile ScheduledExecutorService executor;
+    private final AtomicBoolean dispatchPending = new AtomicBoolean();
+    private ScheduledFuture<?> nextDue;
+    private long nextDueTime;
+
+    /**
+     * Get the target instances that are due, reloading the queue if it is
+     * older than the reload interval.
+     *
+     * @return the due target instances, in the order they should be harvested
+     */
+    public synchronized List<QueuedTargetInstanceDTO> getDue() {
+        long now = System.currentTimeMillis();
+        if (now - loaded >= reloadInterval) {
+            reload(now);
+        }
+        List<QueuedTargetInstanceDTO> due = new ArrayList<>();
+        for (QueuedTargetInstanceDTO entry : entries) {
+            if (entry.getScheduledTime().getTime() <= now) {
+                due.add(entry);
+            }
+        }
+        for (QueuedTargetInstanceDTO entry : entriesByTime) {
+            if (entry.getScheduledTime().getTime() > now) {
+                scheduleWake(entry.getScheduledTime().getTime());
+                break;
+            }
+        }
+        return due;
+    }
+
+    /**
+     * @return true if a target instance is due
+     */
+    public synchronized boolean hasDue() {
+        return !entriesByTime.isEmpty() && entriesByTime.first().getScheduledTime().getTime() <= System.currentTimeMillis();
+    }
+
+    private void reload(long now) {
+        List<QueuedTargetInstanceDTO> queue = new ArrayList<>(targetInstanceDao.getQueue());
+        // The instances that will become due before the next load.
+        queue.addAll(targetInstanceDao.getUpcomingJobs(reloadInterval));
+        entries.clear();
+        entriesByOid.clear();
+        entriesByTime.clear();
+        for (QueuedTargetInstanceDTO entry : queue) {
+            put(entry);
+        }
+        loaded = now;
+        log.debug("Loaded {} target instances into the harvest queue", entries.size());
+    }
+
+    /**
+     * Add, move or remove a target instance that has been saved, depending on
+     * its state and scheduled time. Patching target instances are left to the
+     * next load.
+     */
+    public synchronized void update(TargetInstance aTargetInstance) {
+        if (aTargetInstance == null || aTargetInstance.getOid() == null
+                || TargetInstance.STATE_PATCHING.equals(aTargetInstance.getState())) {
+            return;
+        }
+        String state = aTargetInstance.getState();
+        if ((TargetInstance.STATE_SCHEDULED.equals(state) || TargetInstance.STATE_QUEUED.equals(state))
+                && aTargetInstance.getScheduledTime() != null
+                && aTargetInstance.getScheduledTime().getTime() < loaded + reloadInterval) {
+            QueuedTargetInstanceDTO entry = new QueuedTargetInstanceDTO(aTargetInstance.getOid(),
+                    aTargetInstance.getScheduledTime(), aTargetInstance.getPriority(), state,
+                    aTargetInstance.getBandwidthPercent(), aTargetInstance.getOwner().getAgency().getName());
+            put(entry);
+            scheduleWake(entry.getScheduledTime().getTime());
+        } else {
+            remove(aTargetInstance.getOid());
+        }
+    }
+
+    private void put(QueuedTargetInstanceDTO entry) {
+        QueuedTargetInstanceDTO previous = entriesByOid.put(entry.getOid(), entry);
+        if (previous != null) {
+            entries.remove(previous);
+            entriesByTime.remove(previous);
+        }
+        entries.add(entry);
+        entriesByTime.add(entry);
+    }
+
+    /**
+     * Remove a target instance, e.g. when it has been allocated to an agent.
+     */
+    public synchronized void remove(Long targetInstanceOid) {
+        QueuedTargetInstanceDTO previous = entriesByOid.remove(targetInstanceOid);
+        if (previous != null) {
+            entries.remove(previous);
+            entriesByTime.remove(previous);
+        }
+    }
+
+    /**
+     * Process the queue, unless nothing is due. A request made while the
+     * queue is being processed is handled once it has been.
+     */
+    public void wake() {
+        ScheduledExecutorService executor = this.executor;
+        if (executor == null || dispatcher == null || !hasDue()) {
+            return;
+        }
+        if (dispatchPending.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                dispatchPending.set(false);
+                try {
+                    dispatcher.run();
+                } catch (RuntimeException e) {
+                    log.error("Failed to process the harvest queue", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Wake the queue when the next target instance becomes due, unless it is
+     * already woken earlier.
+     */
+    private void scheduleWake(long time) {
+        if (executor == null || time == Long.MAX_VALUE) {
+            return;
+        }
+        if (nextDue != null && !nextDue.isDone() && nextDueTime <= time) {
+            return;
+        }
+        if (nextDue != null) {
+            nextDue.cancel(false);
+        }
+        nextDueTime = time;
+        nextDue = executor.schedule(this::wake, Math.max(0, time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void start() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "harvest-queue");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            nextDue = null;
+        }
+    }
+
+    public void setTargetInstanceDao(TargetInstanceDAO targetInstanceDao) {
+        this.targetInstanceDao = targetInstanceDao;
+    }
+
+    public long getReloadInterval() {
+        return reloadInterval;
+    }
+
+    public void setReloadInterval(long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    public void setDispatcher(Runnable dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+}
@@ -0,0 +1,107 @@
+package org.webcurator.core.harvester.coordinator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.webcurator.domain.TargetInstanceDAO;
+import org.webcurator.domain.model.core.TargetInstance;
+import org.webcurator.domain.model.dto.QueuedTargetInstanceDTO;
+
+public class HarvestQueueTest {
+    private HarvestQueue underTest;
+    private TargetInstanceDAO mockTargetInstanceDAO;
+    private long now;
+
+    @Before
+    public void setup() {
+        now = System.currentTimeMillis();
+        mockTargetInstanceDAO = mock(TargetInstanceDAO.class);
+        underTest = new HarvestQueue();
+        underTest.setTargetInstanceDao(mockTargetInstanceDAO);
+        underTest.setReloadInterval(60 * 1000L);
+    }
+
+    private QueuedTargetInstanceDTO entry(long oid, int priority, long scheduledTime, String state) {
+        return new QueuedTargetInstanceDTO(oid, new Date(scheduledTime), priority, state, 0, "agency");
+    }
+
+    private List<Long> oids(List<QueuedTargetInstanceDTO> entries) {
+        List<Long> oids = new ArrayList<>();
+        for (QueuedTargetInstanceDTO entry : entries) {
+            oids.add(entry.getOid());
+        }
+        return oids;
+    }
+
+    @Test
+    public void testDueInQueueOrder() {
+        when(mockTargetInstanceDAO.getQueue()).thenReturn(Arrays.asList(
+                entry(3L, 100, now - 1000, TargetInstance.STATE_SCHEDULED),
+                entry(1L, 0, now - 1000, TargetInstance.STATE_QUEUED),
+                entry(2L, 100, now - 2000, TargetInstance.STATE_SCHEDULED)));
+        when(mockTargetInstanceDAO.getUpcomingJobs(anyLong())).thenReturn(Arrays.asList(
+                entry(2L, 100, now - 2000, TargetInstance.STATE_SCHEDULED),
+                entry(4L, 0, now + 30000, TargetInstance.STATE_SCHEDULED)));
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), oids(underTest.getDue()));
+        assertTrue(underTest.hasDue());
+    }
+
+    @Test
+    public void testReloadedOnlyAfterInterval() {
+        when(mockTargetInstanceDAO.getQueue()).thenReturn(Collections.singletonList(
+                entry(1L, 0, now - 1000, TargetInstance.STATE_SCHEDULED)));
+        when(mockTargetInstanceDAO.getUpcomingJobs(anyLong())).thenReturn(Collections.<QueuedTargetInstanceDTO>emptyList());
+
+        underTest.getDue();
+        underTest.getDue();
+        verify(mockTargetInstanceDAO, times(1)).getQueue();
+
+        underTest.setReloadInterval(0);
+        underTest.getDue();
+        verify(mockTargetInstanceDAO, times(2)).getQueue();
+    }
+
+    @Test
+    public void testUpdatedWhenSaved() {
+        when(mockTargetInstanceDAO.getQueue()).thenReturn(Collections.singletonList(
+                entry(1L, 0, now - 1000, TargetInstance.STATE_SCHEDULED)));
+        when(mockTargetInstanceDAO.getUpcomingJobs(anyLong())).thenReturn(Collections.<QueuedTargetInstanceDTO>emptyList());
+        assertEquals(Arrays.asList(1L), oids(underTest.getDue()));
+
+        // Deferred until tomorrow
+        TargetInstance deferred = mock(TargetInstance.class, RETURNS_DEEP_STUBS);
+        when(deferred.getOid()).thenReturn(1L);
+        when(deferred.getState()).thenReturn(TargetInstance.STATE_SCHEDULED);
+        when(deferred.getScheduledTime()).thenReturn(new Date(now + 24 * 60 * 60 * 1000L));
+        underTest.update(deferred);
+        assertFalse(underTest.hasDue());
+
+        // Scheduled to be harvested now
+        TargetInstance harvestNow = mock(TargetInstance.class, RETURNS_DEEP_STUBS);
+        when(harvestNow.getOid()).thenReturn(2L);
+        when(harvestNow.getState()).thenReturn(TargetInstance.STATE_SCHEDULED);
+        when(harvestNow.getScheduledTime()).thenReturn(new Date(now - 1000));
+        when(harvestNow.getOwner().getAgency().getName()).thenReturn("agency");
+        underTest.update(harvestNow);
+        assertEquals(Arrays.asList(2L), oids(underTest.getDue()));
+
+        underTest.remove(2L);
+        assertFalse(underTest.hasDue());
+    }
+}
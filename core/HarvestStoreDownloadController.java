@@ -1,6 +1,5 @@
 package org.webcurator.core.harvester.coordinator;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.*;
@@ -11,19 +10,50 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 @RestController
 public class HarvestStoreDownloadController {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    /**
+     * Tomcat sends a file with sendfile(2) when these request attributes are set.
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     @RequestMapping(path = WctCoordinatorPaths.DOWNLOAD, method = {RequestMethod.POST, RequestMethod.GET}, produces = "application/octet-stream")
     public void externalDownload(@RequestParam("filePath") String filePath,
+                                 @RequestParam(value = "offset", required = false, defaultValue = "0") long offset,
                                  HttpServletRequest req,
                                  HttpServletResponse rsp) throws DigitalAssetStoreException, IOException {
-        log.debug("Get file download request, filePath: {}", filePath);
+        log.debug("Get file download request, filePath: {}, offset: {}", filePath, offset);
 
+        // The store resumes an interrupted transfer from the end of what it already has.
         File file = new File(filePath);
-        IOUtils.copy(Files.newInputStream(file.toPath()), rsp.getOutputStream());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = Math.min(Math.max(offset, 0), size);
+            rsp.setContentType("application/octet-stream");
+            rsp.setContentLengthLong(size - position);
+
+            // Let the container send the file straight from the page cache to the socket.
+            if (Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT))) {
+                req.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+                req.setAttribute(SENDFILE_START, position);
+                req.setAttribute(SENDFILE_END, size);
+                return;
+            }
+
+            WritableByteChannel out = Channels.newChannel(rsp.getOutputStream());
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        }
     }
 }
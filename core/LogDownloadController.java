@@ -0,0 +1,54 @@
+package org.webcurator.core.reader;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sends the plain text of a log of a job as a download. A compressed log is
+ * decompressed block by block as it is sent, rather than into a temporary
+ * copy first.
+ */
+@RestController
+public class LogDownloadController {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private LogProvider logProvider;
+
+    @RequestMapping(path = LogDownloadPaths.DOWNLOAD, method = {RequestMethod.POST, RequestMethod.GET})
+    public void download(@PathVariable("job") String job,
+                         @RequestParam("fileName") String fileName,
+                         HttpServletResponse rsp) throws IOException {
+        log.debug("Download log request, job: {}, fileName: {}", job, fileName);
+
+        if (job.contains("/") || job.contains("\\") || job.contains("..")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid job: " + job);
+        }
+        if (fileName.contains("/") || fileName.contains("\\") || fileName.contains("..")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid log file name: " + fileName);
+        }
+        File file = logProvider.getStoredLogFile(job, fileName);
+        if (file == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Log file " + fileName + " not found for job " + job);
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        if (!BlockCompressedLog.isCompressed(file)) {
+            rsp.setContentLengthLong(file.length());
+        }
+        try (InputStream in = BlockCompressedLog.openInputStream(file)) {
+            IOUtils.copyLarge(in, rsp.getOutputStream());
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.webcurator.core.reader;
+
+public class LogDownloadPaths {
+    public static final String ROOT_PATH = "/log-download";
+    public static final String DOWNLOAD = ROOT_PATH + "/{job}";
+}
@@ -0,0 +1,98 @@
+package org.webcurator.core.harvester.coordinator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webcurator.core.util.PatchUtil;
+import org.webcurator.domain.model.core.LogFilePropertiesDTO;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the log file attributes of a job for a short time, so that the pages
+ * that list the logs of a target instance do not ask the harvest agent or the
+ * store to list its log directories on every view.
+ * <p>
+ * The entries of a target instance are dropped as soon as its logs change:
+ * when a harvest completes and its logs have been sent to the store, and
+ * when a patching job of one of its harvest results starts or moves on to
+ * the next stage.
+ */
+public class LogFileAttributesCache {
+    private static final Logger log = LoggerFactory.getLogger(LogFileAttributesCache.class);
+
+    /**
+     * The time, in milliseconds, for which the attributes of a job are kept.
+     */
+    private long timeToLive = 10 * 1000L;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Get the log file attributes of a job, listing them if they are not kept.
+     *
+     * @param job    the name of the job, e.g. the target instance oid or mod_tiId_hrNumber
+     * @param lister lists the log files of the job
+     * @return the log file attributes
+     */
+    public List<LogFilePropertiesDTO> get(String job, Supplier<List<LogFilePropertiesDTO>> lister) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(job);
+        if (entry != null && entry.expires > now) {
+            return entry.logFiles;
+        }
+        List<LogFilePropertiesDTO> logFiles = lister.get();
+        if (logFiles == null) {
+            return null;
+        }
+        logFiles = Collections.unmodifiableList(logFiles);
+        if (timeToLive > 0) {
+            entries.put(job, new Entry(now + timeToLive, logFiles));
+        }
+        if (entries.size() > 1000) {
+            // Forget the jobs that nobody has looked at lately.
+            entries.values().removeIf(e -> e.expires <= now);
+        }
+        return logFiles;
+    }
+
+    /**
+     * Forget the log file attributes of a job.
+     */
+    public void invalidate(String job) {
+        entries.remove(job);
+    }
+
+    /**
+     * Forget the log file attributes of the harvest of a target instance and
+     * of all the jobs that patched its harvest results.
+     */
+    public void invalidate(long targetInstanceId) {
+        log.debug("Invalidating the log file attributes of target instance {}", targetInstanceId);
+        String harvestJob = PatchUtil.getPatchJobName(targetInstanceId, 1);
+        // Patching jobs are named mod_tiId_hrNumber, prefixed with the stage on the store.
+        String patchJob = String.format("mod_%d_", targetInstanceId);
+        entries.keySet().removeIf(job -> job.equals(harvestJob) || job.startsWith(patchJob) || job.contains("@" + patchJob));
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    private static class Entry {
+        private final long expires;
+        private final List<LogFilePropertiesDTO> logFiles;
+
+        private Entry(long expires, List<LogFilePropertiesDTO> logFiles) {
+            this.expires = expires;
+            this.logFiles = logFiles;
+        }
+    }
+}
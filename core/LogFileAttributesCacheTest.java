@@ -0,0 +1,61 @@
+package org.webcurator.core.harvester.coordinator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.webcurator.domain.model.core.LogFilePropertiesDTO;
+
+public class LogFileAttributesCacheTest {
+    private final AtomicInteger listings = new AtomicInteger();
+
+    private List<LogFilePropertiesDTO> list() {
+        listings.incrementAndGet();
+        return new ArrayList<>();
+    }
+
+    @Test
+    public void testListingIsKept() {
+        LogFileAttributesCache cache = new LogFileAttributesCache();
+        cache.get("123", this::list);
+        cache.get("123", this::list);
+        assertEquals(1, listings.get());
+
+        cache.get("mod_123_2", this::list);
+        assertEquals(2, listings.get());
+    }
+
+    @Test
+    public void testListingExpires() {
+        LogFileAttributesCache cache = new LogFileAttributesCache();
+        cache.setTimeToLive(0);
+        cache.get("123", this::list);
+        cache.get("123", this::list);
+        assertEquals(2, listings.get());
+    }
+
+    @Test
+    public void testFailedListingIsNotKept() {
+        LogFileAttributesCache cache = new LogFileAttributesCache();
+        assertNull(cache.get("123", () -> null));
+        cache.get("123", this::list);
+        assertEquals(1, listings.get());
+    }
+
+    @Test
+    public void testInvalidateTargetInstance() {
+        LogFileAttributesCache cache = new LogFileAttributesCache();
+        for (String job : new String[]{"123", "mod_123_2", "modifying@mod_123_2", "1234", "mod_1234_2"}) {
+            cache.get(job, this::list);
+        }
+        cache.invalidate(123L);
+
+        for (String job : new String[]{"123", "mod_123_2", "modifying@mod_123_2", "1234", "mod_1234_2"}) {
+            cache.get(job, this::list);
+        }
+        assertEquals(8, listings.get());
+    }
+}
@@ -0,0 +1,56 @@
+package org.webcurator.core.reader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Streams the lines appended to a log of a job, as they are written, to the
+ * log viewer.
+ */
+@RestController
+public class LogFollowController {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private LogProvider logProvider;
+
+    @Autowired
+    private LogFollower logFollower;
+
+    @RequestMapping(path = LogFollowPaths.FOLLOW, method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter follow(@PathVariable("job") String job,
+                             @RequestParam("fileName") String fileName,
+                             @RequestParam(value = "regex", required = false) String regex,
+                             @RequestParam(value = "indentedLines", required = false, defaultValue = "false") boolean indentedLines,
+                             @RequestParam(value = "showLineNumbers", required = false, defaultValue = "true") boolean showLineNumbers,
+                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) throws IOException {
+        log.debug("Follow log request, job: {}, fileName: {}, regex: {}", job, fileName, regex);
+
+        if (job.contains("/") || job.contains("\\") || job.contains("..")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid job: " + job);
+        }
+        if (fileName.contains("/") || fileName.contains("\\") || fileName.contains("..")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid log file name: " + fileName);
+        }
+        File file = logProvider.getStoredLogFile(job, fileName);
+        if (file == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Log file " + fileName + " not found for job " + job);
+        }
+        if (BlockCompressedLog.isCompressed(file)) {
+            // Only the logs of completed harvests are compressed.
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Log file " + fileName + " is complete and no longer written");
+        }
+        Pattern filter = regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+        return logFollower.follow(file, lastEventId, filter, indentedLines, showLineNumbers);
+    }
+}
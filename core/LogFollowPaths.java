@@ -0,0 +1,6 @@
+package org.webcurator.core.reader;
+
+public class LogFollowPaths {
+    public static final String ROOT_PATH = "/log-follow";
+    public static final String FOLLOW = ROOT_PATH + "/{job}";
+}
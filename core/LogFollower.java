@@ -0,0 +1,440 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes the lines appended to a log to its subscribers as server-sent
+ * events, so that a running harvest can be watched without reading the
+ * log again and again.
+ * <p>
+ * Each subscriber keeps its own position in the log, starting at the end of
+ * the log, and is sent the complete lines written since it was last polled
+ * as a JSON array in a <code>lines</code> event. The id of the event is the
+ * position after the lines, so a subscriber that reconnects with the
+ * Last-Event-ID header continues from where it stopped.
+ * <p>
+ * The logs are polled on a single thread and the events are sent on a pool
+ * of <code>senderThreads</code> threads, one event at a time per subscriber.
+ * A subscriber is not polled while its last event is still being sent, and
+ * is dropped when an event has not been sent within <code>sendTimeout</code>
+ * milliseconds, so that a slow subscriber holds up neither the others nor
+ * the memory of the events waiting for it.
+ */
+@Component
+public class LogFollower {
+    private static final Logger log = LoggerFactory.getLogger(LogFollower.class);
+
+    public static final String EVENT_LINES = "lines";
+
+    /**
+     * The number of lines before a position that has not been counted.
+     */
+    static final long UNKNOWN_LINES = -1;
+
+    /**
+     * The time, in milliseconds, between looking for new lines.
+     */
+    private long pollInterval = 1000;
+
+    /**
+     * The time, in milliseconds, after which a subscription ends and the
+     * subscriber has to reconnect.
+     */
+    private long timeout = 30 * 60 * 1000L;
+
+    /**
+     * The longest time, in milliseconds, without sending an event, after
+     * which a comment is sent to find out whether the subscriber is still
+     * connected.
+     */
+    private long heartbeatInterval = 15 * 1000L;
+
+    /**
+     * The number of bytes of the log read for a subscriber at a time.
+     */
+    private int maxReadSize = 1024 * 1024;
+
+    /**
+     * The time, in milliseconds, an event may take to be sent before the
+     * subscriber is dropped.
+     */
+    private long sendTimeout = 30 * 1000L;
+
+    /**
+     * The number of events sent at the same time.
+     */
+    private int senderThreads = 4;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "log-follower");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ExecutorService senders;
+
+    /**
+     * Subscribe to the lines appended to a log.
+     *
+     * @param file              the log file
+     * @param lastEventId       the id of the last event received by a
+     *                          subscriber that is reconnecting, or null to start
+     *                          at the end of the log
+     * @param filter            the expression that lines must match to be sent, or null to send all lines
+     * @param withIndentedLines true to also send the indented lines following a matching line
+     * @param showLineNumbers   true to prefix each line with its number
+     * @return the emitter of the events
+     * @throws IOException if the log could not be read
+     */
+    public SseEmitter follow(File file, String lastEventId, Pattern filter, boolean withIndentedLines,
+                             boolean showLineNumbers) throws IOException {
+        LogLineIndex.Position start = parseEventId(lastEventId);
+        if (start == null || start.getOffset() > file.length()) {
+            start = end(file);
+        }
+        Subscription subscription = new Subscription(file, start, filter, withIndentedLines, showLineNumbers);
+        SseEmitter emitter = new SseEmitter(timeout);
+        subscription.task = scheduler.scheduleWithFixedDelay(() -> poll(subscription, emitter),
+                pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        log.debug("Following {} from offset {}", file, start.getOffset());
+        return emitter;
+    }
+
+    private void poll(Subscription subscription, SseEmitter emitter) {
+        long now = System.currentTimeMillis();
+        if (subscription.sendStarted > 0) {
+            // The last event is still being sent; the new lines wait in the log.
+            if (now - subscription.sendStarted > sendTimeout) {
+                stop(subscription, emitter, new IOException("Timed out sending to the subscriber"));
+            }
+            return;
+        }
+        SseEmitter.SseEventBuilder event;
+        try {
+            List<String> lines = subscription.readNewLines(maxReadSize);
+            if (!lines.isEmpty()) {
+                event = SseEmitter.event().name(EVENT_LINES).id(subscription.getEventId())
+                        .data(lines, MediaType.APPLICATION_JSON);
+            } else if (now - subscription.lastSent >= heartbeatInterval) {
+                event = SseEmitter.event().comment("heartbeat");
+            } else {
+                return;
+            }
+        } catch (Exception e) {
+            stop(subscription, emitter, e);
+            return;
+        }
+        subscription.sendStarted = now;
+        subscription.lastSent = now;
+        getSenders().execute(() -> {
+            try {
+                emitter.send(event);
+                subscription.sendStarted = 0;
+            } catch (Exception e) {
+                stop(subscription, emitter, e);
+            }
+        });
+    }
+
+    private void stop(Subscription subscription, SseEmitter emitter, Exception e) {
+        if (subscription.cancel()) {
+            // Usually the subscriber has gone away.
+            log.debug("Stopped following {}: {}", subscription.file, e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    private ExecutorService getSenders() {
+        if (senders == null) {
+            synchronized (this) {
+                if (senders == null) {
+                    senders = Executors.newFixedThreadPool(senderThreads, r -> {
+                        Thread thread = new Thread(r, "log-follower-send");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return senders;
+    }
+
+    /**
+     * Find the end of the last complete line of a log by reading back from
+     * its end, rather than indexing the whole log. The number of lines before
+     * it is left unknown until a line number is to be sent.
+     */
+    static LogLineIndex.Position end(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[8192];
+            long end = in.length();
+            while (end > 0) {
+                int length = (int) Math.min(buffer.length, end);
+                in.seek(end - length);
+                in.readFully(buffer, 0, length);
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n') {
+                        return new LogLineIndex.Position(end - length + i + 1, UNKNOWN_LINES);
+                    }
+                }
+                end -= length;
+            }
+            return new LogLineIndex.Position(0, 0);
+        }
+    }
+
+    private static LogLineIndex.Position parseEventId(String eventId) {
+        if (eventId == null) {
+            return null;
+        }
+        String[] parts = eventId.split(":");
+        try {
+            return parts.length == 2 ? new LogLineIndex.Position(Long.parseLong(parts[0]), Long.parseLong(parts[1])) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (senders != null) {
+            senders.shutdownNow();
+        }
+    }
+
+    /**
+     * The position of a subscriber in a log.
+     */
+    static class Subscription {
+        private final File file;
+        private final Pattern filter;
+        private final boolean withIndentedLines;
+        private final boolean showLineNumbers;
+
+        /**
+         * The byte offset of the next line to read.
+         */
+        private long position;
+
+        /**
+         * The number of lines before the position, or UNKNOWN_LINES.
+         */
+        private long lines;
+
+        /**
+         * Whether the last line that was not indented matched the filter.
+         */
+        private boolean inMatch;
+
+        private long lastSent = System.currentTimeMillis();
+
+        /**
+         * The time the event being sent was handed to a sender, or 0.
+         */
+        private volatile long sendStarted;
+        private volatile ScheduledFuture<?> task;
+        private boolean cancelled;
+
+        Subscription(File file, LogLineIndex.Position start, Pattern filter, boolean withIndentedLines, boolean showLineNumbers) {
+            this.file = file;
+            this.position = start.getOffset();
+            this.lines = start.getLines();
+            this.filter = filter;
+            this.withIndentedLines = withIndentedLines;
+            this.showLineNumbers = showLineNumbers;
+        }
+
+        /**
+         * Read the complete lines written since the last read.
+         *
+         * @return the lines that pass the filter
+         */
+        List<String> readNewLines(int maxReadSize) throws IOException {
+            long length = file.length();
+            if (length < position) {
+                // The log has been replaced.
+                position = 0;
+                lines = 0;
+                inMatch = false;
+            }
+            if (length == position) {
+                return Collections.emptyList();
+            }
+            if (lines == UNKNOWN_LINES && showLineNumbers) {
+                lines = countLinesBefore(position);
+            }
+
+            byte[] bytes = new byte[(int) Math.min(maxReadSize, length - position)];
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                in.seek(position);
+                in.readFully(bytes);
+            }
+
+            List<String> result = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\n') {
+                    int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                    accept(new String(bytes, start, end - start, StandardCharsets.UTF_8), result);
+                    start = i + 1;
+                }
+            }
+            if (start == 0 && bytes.length == maxReadSize) {
+                // A line longer than can be read at once is sent in parts.
+                accept(new String(bytes, StandardCharsets.UTF_8), result);
+                start = bytes.length;
+            }
+            position += start;
+            return result;
+        }
+
+        /**
+         * Count the lines before a position from the shared index of the log,
+         * which is kept on disk and only scans what was written since it was
+         * last brought up to date. The index may already be past the
+         * position, so the lines between them are taken off.
+         */
+        private long countLinesBefore(long offset) throws IOException {
+            LogLineIndex.Position end = LogLineIndex.forFile(file).end();
+            long count = end.getLines();
+            if (end.getOffset() > offset) {
+                byte[] bytes = new byte[(int) (end.getOffset() - offset)];
+                try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                    in.seek(offset);
+                    in.readFully(bytes);
+                }
+                for (byte b : bytes) {
+                    if (b == '\n') {
+                        count--;
+                    }
+                }
+            }
+            return count;
+        }
+
+        private void accept(String line, List<String> result) {
+            if (lines != UNKNOWN_LINES) {
+                lines++;
+            }
+            boolean indented = line.length() > 0 && (line.charAt(0) == ' ' || line.charAt(0) == '\t');
+            boolean accepted;
+            if (filter == null) {
+                accepted = true;
+            } else if (withIndentedLines && indented) {
+                accepted = inMatch;
+            } else {
+                accepted = inMatch = filter.matcher(line).matches();
+            }
+            if (accepted) {
+                result.add(showLineNumbers ? lines + ". " + line : line);
+            }
+        }
+
+        /**
+         * @return the id of an event sent at the current position
+         */
+        String getEventId() {
+            return position + ":" + lines;
+        }
+
+        /**
+         * @return false if the subscription had already been cancelled
+         */
+        synchronized boolean cancel() {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            if (task != null) {
+                task.cancel(false);
+            }
+            return true;
+        }
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public long getSendTimeout() {
+        return sendTimeout;
+    }
+
+    public void setSendTimeout(long sendTimeout) {
+        this.sendTimeout = sendTimeout;
+    }
+
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    public void setSenderThreads(int senderThreads) {
+        this.senderThreads = senderThreads;
+    }
+
+    public int getMaxReadSize() {
+        return maxReadSize;
+    }
+
+    public void setMaxReadSize(int maxReadSize) {
+        this.maxReadSize = maxReadSize;
+    }
+}
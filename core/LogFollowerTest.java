@@ -0,0 +1,104 @@
+package org.webcurator.core.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogFollowerTest {
+    private File dir;
+    private File logFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("log-follow").toFile();
+        logFile = new File(dir, "local-errors.log");
+        write("2020-01-01T00:00:01.000Z first\n", StandardOpenOption.CREATE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testReadNewLines() throws Exception {
+        LogFollower.Subscription subscription = subscribe(null, false, true);
+        assertEquals(Collections.emptyList(), subscription.readNewLines(1024));
+
+        write("2020-01-01T00:00:02.000Z second\n2020-01-01T00:00:03.000Z thi", StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("2. 2020-01-01T00:00:02.000Z second"), subscription.readNewLines(1024));
+        assertEquals("63:2", subscription.getEventId());
+
+        write("rd\r\n", StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("3. 2020-01-01T00:00:03.000Z third"), subscription.readNewLines(1024));
+        assertEquals(Collections.emptyList(), subscription.readNewLines(1024));
+    }
+
+    @Test
+    public void testReadNewLinesInParts() throws Exception {
+        LogFollower.Subscription subscription = subscribe(null, false, false);
+        write("a\nbb\nccc\n", StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("a", "bb"), subscription.readNewLines(6));
+        assertEquals(Arrays.asList("ccc"), subscription.readNewLines(6));
+    }
+
+    @Test
+    public void testFilterWithIndentedLines() throws Exception {
+        LogFollower.Subscription subscription = subscribe(Pattern.compile("^[^ \\t].*SocketTimeoutException.*"), true, true);
+        write("2020-01-01T00:00:02.000Z java.net.SocketTimeoutException\n  at one\n", StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("2. 2020-01-01T00:00:02.000Z java.net.SocketTimeoutException", "3.   at one"),
+                subscription.readNewLines(1024));
+
+        // The continuation of a match is followed across reads.
+        write("\tat two\n2020-01-01T00:00:03.000Z java.io.IOException\n  at three\n", StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("4. \tat two"), subscription.readNewLines(1024));
+    }
+
+    @Test
+    public void testFilterWithoutIndentedLines() throws Exception {
+        LogFollower.Subscription subscription = subscribe(Pattern.compile(".*Exception.*"), false, false);
+        write("2020-01-01T00:00:02.000Z java.io.IOException\n  at one\n2020-01-01T00:00:03.000Z ok\n", StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("2020-01-01T00:00:02.000Z java.io.IOException"), subscription.readNewLines(1024));
+    }
+
+    @Test
+    public void testEnd() throws Exception {
+        write("2020-01-01T00:00:02.000Z sec", StandardOpenOption.APPEND);
+        LogLineIndex.Position end = LogFollower.end(logFile);
+        assertEquals(31, end.getOffset());
+        assertEquals(LogFollower.UNKNOWN_LINES, end.getLines());
+
+        // The lines are only counted once a line number is sent.
+        LogFollower.Subscription subscription = subscribe(null, false, false);
+        write("ond\n", StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("2020-01-01T00:00:02.000Z second"), subscription.readNewLines(1024));
+        assertEquals("63:-1", subscription.getEventId());
+    }
+
+    @Test
+    public void testReplacedLog() throws Exception {
+        LogFollower.Subscription subscription = subscribe(null, false, true);
+        write("new\n", StandardOpenOption.TRUNCATE_EXISTING);
+        assertEquals(Arrays.asList("1. new"), subscription.readNewLines(1024));
+    }
+
+    private LogFollower.Subscription subscribe(Pattern filter, boolean withIndentedLines, boolean showLineNumbers) throws IOException {
+        return new LogFollower.Subscription(logFile, LogFollower.end(logFile), filter, withIndentedLines, showLineNumbers);
+    }
+
+    private void write(String s, StandardOpenOption... options) throws IOException {
+        Files.write(logFile.toPath(), s.getBytes(StandardCharsets.UTF_8), options);
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sparse index of the byte offsets of the lines of a log file, so that the
+ * lines can be counted and read from any line number without scanning the
+ * log from the start.
+ * <p>
+ * The offset of every <code>interval</code>th line is kept, so reading from a
+ * line skips at most <code>interval - 1</code> lines. The index is stored in
+ * the <code>.index</code> directory next to the log and is extended with the
+ * lines appended since it was last used. A log that has shrunk or whose
+ * first bytes have changed has been replaced, and is indexed again.
+ * <p>
+ * The log is read through a {@link MappedLineReader}, so the lines skipped to
+ * reach a line number are not decoded.
+ * <p>
+ * Lines end with a line feed; a trailing carriage return is removed. The last
+ * line of a log that is still being written may not be terminated yet, and
+ * is counted and returned as a line.
+ */
+public class LogLineIndex implements SeekableLog {
+    private static final Logger log = LoggerFactory.getLogger(LogLineIndex.class);
+
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    /**
+     * The directory, next to the log, holding the index files.
+     */
+    public static final String INDEX_DIR = ".index";
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x5743544C;
+    private static final int VERSION = 1;
+
+    /**
+     * The number of leading bytes of the log kept to recognise a replaced log.
+     */
+    private static final int FINGERPRINT_LENGTH = 4096;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_OPEN_INDEXES = 256;
+
+    /**
+     * The size of the part of the log below which a time search stops
+     * bisecting and reads lines.
+     */
+    private static final long BISECT_LIMIT = 64 * 1024;
+
+    /**
+     * How far before the part of the log found by bisecting a time search
+     * starts to read lines, to find the lines written out of order.
+     */
+    private static final long OUT_OF_ORDER_LIMIT = 256 * 1024;
+
+    /**
+     * The indexes in use, by log file, in least recently used order.
+     */
+    private static final Map<File, LogLineIndex> indexes = new LinkedHashMap<File, LogLineIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, LogLineIndex> eldest) {
+            return size() > MAX_OPEN_INDEXES;
+        }
+    };
+
+    private final File file;
+    private final File indexFile;
+    private final int interval;
+
+    /**
+     * offsets[k] is the byte offset of line k * interval, counting from 0.
+     */
+    private long[] offsets = new long[16];
+    private int entries;
+
+    /**
+     * The number of complete lines indexed so far.
+     */
+    private long lines;
+
+    /**
+     * The byte offset just after the last complete line indexed.
+     */
+    private long indexedLength;
+
+    private byte[] fingerprint;
+
+    /**
+     * Get the index of a log file, shared by all the readers of the log.
+     *
+     * @param file the log file
+     * @return the index of the log file
+     */
+    public static LogLineIndex forFile(File file) {
+        synchronized (indexes) {
+            return indexes.computeIfAbsent(file.getAbsoluteFile(), f -> new LogLineIndex(f, DEFAULT_INTERVAL));
+        }
+    }
+
+    LogLineIndex(File file, int interval) {
+        this.file = file;
+        this.interval = interval;
+        this.indexFile = new File(new File(file.getParentFile(), INDEX_DIR), file.getName() + INDEX_SUFFIX);
+        reset();
+        load();
+    }
+
+    /**
+     * @return the number of lines in the log
+     * @throws IOException if the log could not be read
+     */
+    @Override
+    public synchronized long countLines() throws IOException {
+        refresh();
+        return lines + (file.length() > indexedLength ? 1 : 0);
+    }
+
+    /**
+     * @return the end of the last complete line of the log
+     * @throws IOException if the log could not be read
+     */
+    public synchronized Position end() throws IOException {
+        refresh();
+        return new Position(indexedLength, lines);
+    }
+
+    /**
+     * Read lines of the log.
+     *
+     * @param startLine the number of the first line to read, counting from 1
+     * @param count     the maximum number of lines to read
+     * @return the lines, fewer than requested at the end of the log
+     * @throws IOException if the log could not be read
+     */
+    @Override
+    public synchronized List<String> getLines(long startLine, int count) throws IOException {
+        refresh();
+        List<String> result = new ArrayList<>();
+        if (startLine < 1 || count <= 0) {
+            return result;
+        }
+        long line = startLine - 1;
+        int entry = (int) Math.min(line / interval, entries - 1);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The lines before the first one wanted are skipped without being decoded.
+            MappedLineReader reader = new MappedLineReader(channel, offsets[entry]);
+            for (long current = (long) entry * interval; current < line; current++) {
+                if (!reader.skipLine()) {
+                    return result;
+                }
+            }
+            String s;
+            while (result.size() < count && (s = reader.readLine()) != null) {
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the first line of the log written at or after a time.
+     * <p>
+     * Log lines that begin with a timestamp, such as those of the crawl log,
+     * are written in roughly time order. The log is bisected on the byte
+     * offset, reading the first timestamped line after each probe, until
+     * the part of the log where the time is reached is small. The lines are
+     * then read from a little before that part, as lines written by
+     * different threads may be slightly out of order. Lines without a
+     * timestamp are skipped.
+     *
+     * @param timestamp the time as a number of the form yyyyMMddHHmmss
+     * @return the number of the line, counting from 1, or -1 if no line is
+     * at or after the time
+     * @throws IOException if the log could not be read
+     */
+    @Override
+    public synchronized long findFirstLineAfterTimeStamp(long timestamp) throws IOException {
+        refresh();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long low = 0;
+            long high = channel.size();
+            while (high - low > BISECT_LIMIT) {
+                long middle = low + (high - low) / 2;
+                MappedLineReader reader = new MappedLineReader(channel, middle);
+                reader.skipLine();
+                long lineStart = -1;
+                long time = -1;
+                while (reader.getPosition() < high) {
+                    lineStart = reader.getPosition();
+                    String s = reader.readLine();
+                    if (s == null || (time = parseTimestamp(s)) >= 0) {
+                        break;
+                    }
+                }
+                if (time >= 0 && time < timestamp && lineStart < high) {
+                    low = lineStart;
+                } else {
+                    high = middle;
+                }
+            }
+
+            long start = Math.max(0, low - OUT_OF_ORDER_LIMIT);
+            if (start > 0) {
+                MappedLineReader reader = new MappedLineReader(channel, start);
+                reader.skipLine();
+                start = reader.getPosition();
+            }
+            long line = lineAt(channel, start);
+            MappedLineReader reader = new MappedLineReader(channel, start);
+            String s;
+            while ((s = reader.readLine()) != null) {
+                long time = parseTimestamp(s);
+                if (time >= timestamp) {
+                    return line;
+                }
+                line++;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * @param count the number of lines
+     * @return the first lines of the log
+     * @throws IOException if the log could not be read
+     */
+    @Override
+    public List<String> head(int count) throws IOException {
+        return getLines(1, count);
+    }
+
+    /**
+     * @param count the number of lines
+     * @return the last lines of the log
+     * @throws IOException if the log could not be read
+     */
+    @Override
+    public synchronized List<String> tail(int count) throws IOException {
+        long total = countLines();
+        return getLines(Math.max(1, total - count + 1), count);
+    }
+
+    @Override
+    public synchronized BufferedReader openReader(long startLine) throws IOException {
+        refresh();
+        long line = Math.max(0, startLine - 1);
+        int entry = (int) Math.min(line / interval, entries - 1);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedLineReader skipper = new MappedLineReader(channel, offsets[entry]);
+            for (long current = (long) entry * interval; current < line; current++) {
+                if (!skipper.skipLine()) {
+                    break;
+                }
+            }
+            channel.position(skipper.getPosition());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * @return the number, counting from 1, of the line starting at the offset
+     */
+    private long lineAt(FileChannel channel, long offset) throws IOException {
+        int entry = Arrays.binarySearch(offsets, 0, entries, offset);
+        if (entry < 0) {
+            entry = -entry - 2;
+        }
+        long line = (long) entry * interval + 1;
+        MappedLineReader reader = new MappedLineReader(channel, offsets[entry]);
+        while (reader.getPosition() < offset && reader.skipLine()) {
+            line++;
+        }
+        return line;
+    }
+
+    /**
+     * Read the time at the start of a log line, written as
+     * yyyy-MM-ddTHH:mm:ss or yyyy-MM-dd HH:mm:ss.
+     *
+     * @return the time as a number of the form yyyyMMddHHmmss, or -1 if the
+     * line does not start with a time
+     */
+    static long parseTimestamp(String line) {
+        if (line.length() < 19 || line.charAt(4) != '-' || line.charAt(7) != '-'
+                || (line.charAt(10) != 'T' && line.charAt(10) != ' ') || line.charAt(13) != ':' || line.charAt(16) != ':') {
+            return -1;
+        }
+        long time = 0;
+        for (int i = 0; i < 19; i++) {
+            if (i == 4 || i == 7 || i == 10 || i == 13 || i == 16) {
+                continue;
+            }
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            time = time * 10 + (c - '0');
+        }
+        return time;
+    }
+
+    /**
+     * Bring the index up to date with the log.
+     */
+    private void refresh() throws IOException {
+        long length = file.length();
+        if (length < indexedLength || !fingerprintMatches()) {
+            log.info("Log file {} has been replaced, indexing it again", file);
+            reset();
+        }
+        if (length > indexedLength) {
+            long before = indexedLength;
+            scan();
+            if (indexedLength != before) {
+                save();
+            }
+        }
+    }
+
+    private void scan() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedLineReader reader = new MappedLineReader(channel, indexedLength);
+            while (reader.skipLine()) {
+                lines++;
+                indexedLength = reader.getPosition();
+                if (lines % interval == 0) {
+                    addEntry(indexedLength);
+                }
+            }
+        }
+        if (fingerprint.length < FINGERPRINT_LENGTH && indexedLength > fingerprint.length) {
+            fingerprint = readFingerprint((int) Math.min(FINGERPRINT_LENGTH, indexedLength));
+        }
+    }
+
+    private boolean fingerprintMatches() throws IOException {
+        return fingerprint.length == 0 || Arrays.equals(fingerprint, readFingerprint(fingerprint.length));
+    }
+
+    private byte[] readFingerprint(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            int n;
+            while (read < length && (n = in.read(bytes, read, length - read)) > 0) {
+                read += n;
+            }
+            return read == length ? bytes : Arrays.copyOf(bytes, read);
+        }
+    }
+
+    private void addEntry(long offset) {
+        if (entries == offsets.length) {
+            offsets = Arrays.copyOf(offsets, entries * 2);
+        }
+        offsets[entries++] = offset;
+    }
+
+    private void reset() {
+        offsets = new long[16];
+        entries = 0;
+        addEntry(0);
+        lines = 0;
+        indexedLength = 0;
+        fingerprint = new byte[0];
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != interval) {
+                log.debug("Ignoring incompatible index {}", indexFile);
+                return;
+            }
+            long indexedLength = in.readLong();
+            long lines = in.readLong();
+            byte[] fingerprint = new byte[in.readInt()];
+            in.readFully(fingerprint);
+            int entries = in.readInt();
+            long[] offsets = new long[Math.max(16, entries)];
+            for (int i = 0; i < entries; i++) {
+                offsets[i] = in.readLong();
+            }
+            if (entries < 1 || entries != lines / interval + 1) {
+                log.debug("Ignoring corrupt index {}", indexFile);
+                return;
+            }
+            this.indexedLength = indexedLength;
+            this.lines = lines;
+            this.fingerprint = fingerprint;
+            this.entries = entries;
+            this.offsets = offsets;
+        } catch (IOException e) {
+            log.warn("Failed to load index {}, indexing the log again: {}", indexFile, e.getMessage());
+            reset();
+        }
+    }
+
+    private void save() {
+        File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try {
+            Files.createDirectories(indexFile.getParentFile().toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(interval);
+                out.writeLong(indexedLength);
+                out.writeLong(lines);
+                out.writeInt(fingerprint.length);
+                out.write(fingerprint);
+                out.writeInt(entries);
+                for (int i = 0; i < entries; i++) {
+                    out.writeLong(offsets[i]);
+                }
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The index still works from memory.
+            log.warn("Failed to save index {}: {}", indexFile, e.getMessage());
+            temp.delete();
+        }
+    }
+
+    /**
+     * A position in a log, at the start of a line.
+     */
+    public static class Position {
+        private final long offset;
+        private final long lines;
+
+        public Position(long offset, long lines) {
+            this.offset = offset;
+            this.lines = lines;
+        }
+
+        /**
+         * @return the byte offset of the position
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the number of lines before the position
+         */
+        public long getLines() {
+            return lines;
+        }
+    }
+}
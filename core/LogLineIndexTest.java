@@ -0,0 +1,166 @@
+package org.webcurator.core.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogLineIndexTest {
+    private File dir;
+    private File logFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("log-index").toFile();
+        logFile = new File(dir, "crawl.log");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testGetLines() throws Exception {
+        append(1, 2500);
+        LogLineIndex index = new LogLineIndex(logFile, 100);
+
+        assertEquals(2500, index.countLines());
+        assertEquals(Arrays.asList("line 1", "line 2"), index.head(2));
+        assertEquals(Arrays.asList("line 1000", "line 1001", "line 1002"), index.getLines(1000, 3));
+        assertEquals(Arrays.asList("line 2499", "line 2500"), index.tail(2));
+        assertEquals(Arrays.asList("line 2500"), index.getLines(2500, 10));
+        assertTrue(index.getLines(2501, 10).isEmpty());
+        assertTrue(index.getLines(0, 10).isEmpty());
+        assertEquals(2500, index.tail(3000).size());
+    }
+
+    @Test
+    public void testIndexGrowsWithLog() throws Exception {
+        append(1, 150);
+        LogLineIndex index = new LogLineIndex(logFile, 100);
+        assertEquals(150, index.countLines());
+
+        append(151, 320);
+        assertEquals(320, index.countLines());
+        assertEquals(Arrays.asList("line 300", "line 301"), index.getLines(300, 2));
+
+        // A line still being written is counted.
+        write("line 321", StandardOpenOption.APPEND);
+        assertEquals(321, index.countLines());
+        assertEquals(Arrays.asList("line 320", "line 321"), index.tail(2));
+        write(" continued\r\n", StandardOpenOption.APPEND);
+        assertEquals(321, index.countLines());
+        assertEquals(Arrays.asList("line 321 continued"), index.tail(1));
+    }
+
+    @Test
+    public void testIndexIsPersisted() throws Exception {
+        append(1, 250);
+        new LogLineIndex(logFile, 100).countLines();
+
+        File indexFile = new File(new File(dir, LogLineIndex.INDEX_DIR), "crawl.log" + LogLineIndex.INDEX_SUFFIX);
+        assertTrue(indexFile.exists());
+
+        append(251, 260);
+        LogLineIndex index = new LogLineIndex(logFile, 100);
+        assertEquals(260, index.countLines());
+        assertEquals(Arrays.asList("line 201"), index.getLines(201, 1));
+        assertEquals(Arrays.asList("line 260"), index.tail(1));
+    }
+
+    @Test
+    public void testReplacedLogIsIndexedAgain() throws Exception {
+        append(1, 250);
+        LogLineIndex index = new LogLineIndex(logFile, 100);
+        assertEquals(250, index.countLines());
+
+        // Shorter log.
+        Files.delete(logFile.toPath());
+        append(1, 20);
+        assertEquals(20, index.countLines());
+
+        // Same length, different content.
+        Files.delete(logFile.toPath());
+        write("", StandardOpenOption.CREATE);
+        for (int i = 1; i <= 20; i++) {
+            write(String.format("LINE %d\n", i), StandardOpenOption.APPEND);
+        }
+        assertEquals(Arrays.asList("LINE 1"), index.head(1));
+        assertEquals(20, index.countLines());
+    }
+
+    @Test
+    public void testFindFirstLineAfterTimeStamp() throws Exception {
+        // A crawl log of a little over 2MB with a line a second, where every
+        // 50th line was written late and some lines are continued by
+        // indented lines.
+        List<Long> times = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        LocalDateTime start = LocalDateTime.of(2020, 1, 31, 23, 0, 0);
+        for (int i = 0; i < 20000; i++) {
+            LocalDateTime time = start.plusSeconds(i % 50 == 0 ? i - 5 : i);
+            sb.append(time.format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")))
+                    .append("   200       1234 http://www.example.com/").append(i).append(" LL http://www.example.com/ text/html\n");
+            times.add(Long.parseLong(time.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"))));
+            if (i % 1000 == 1) {
+                sb.append("  at org.example.Continued\n");
+                times.add(-1L);
+            }
+        }
+        write(sb.toString(), StandardOpenOption.CREATE);
+        LogLineIndex index = new LogLineIndex(logFile, 100);
+
+        for (int i = -10; i < 20010; i += 97) {
+            long timestamp = Long.parseLong(start.plusSeconds(i).format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")));
+            assertEquals("At " + timestamp, firstLineAtOrAfter(times, timestamp), index.findFirstLineAfterTimeStamp(timestamp));
+        }
+    }
+
+    @Test
+    public void testParseTimestamp() {
+        assertEquals(20200131230102L, LogLineIndex.parseTimestamp("2020-01-31T23:01:02.123Z   200 http://www.example.com/"));
+        assertEquals(20200131230102L, LogLineIndex.parseTimestamp("2020-01-31 23:01:02,123 SEVERE"));
+        assertEquals(-1, LogLineIndex.parseTimestamp("  at org.example.Continued"));
+        assertEquals(-1, LogLineIndex.parseTimestamp("2020-01-31"));
+    }
+
+    @Test
+    public void testForFile() {
+        assertSame(LogLineIndex.forFile(logFile), LogLineIndex.forFile(new File(dir, "crawl.log")));
+    }
+
+    private static long firstLineAtOrAfter(List<Long> times, long timestamp) {
+        for (int i = 0; i < times.size(); i++) {
+            if (times.get(i) >= timestamp) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void append(int from, int to) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        write(sb.toString(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void write(String s, StandardOpenOption... options) throws IOException {
+        Files.write(logFile.toPath(), s.getBytes(StandardCharsets.UTF_8), options);
+    }
+}
@@ -29,7 +29,8 @@ import org.webcurator.domain.model.core.LogFilePropertiesDTO;;
 public interface LogProvider {
 
     /**
-     * Return the File object for the specified job and file name.
+     * Return the File object for the specified job and file name. The file
+     * holds the plain text of the log, even if the log is stored compressed.
      *
      * @param aJob      the job to return the log file for
      * @param aFileName the name of the file
@@ -37,6 +38,19 @@ public interface LogProvider {
      */
     File getLogFile(String aJob, String aFileName);
 
+    /**
+     * Return the file the specified log is stored in, which is a
+     * {@link BlockCompressedLog} once the log has been compressed. Readers
+     * that handle compressed logs use it to avoid decompressing the log.
+     *
+     * @param aJob      the job to return the log file for
+     * @param aFileName the name of the file
+     * @return the stored file, or null if there is no such file
+     */
+    default File getStoredLogFile(String aJob, String aFileName) {
+        return getLogFile(aJob, aFileName);
+    }
+
     /**
      * Return a list of log file names that are available for the specified Job.
      *
@@ -53,6 +67,20 @@ public interface LogProvider {
      */
     List<LogFilePropertiesDTO> getLogFileAttributes(String aJob);
 
+    /**
+     * Return the seekable view of the specified log file, used to count and
+     * read its lines without reading it from the start, whether or not the
+     * log has been compressed.
+     *
+     * @param aJob      the job to return the log for
+     * @param aFileName the name of the file
+     * @return the view of the file, or null if there is no such file
+     */
+    default SeekableLog getSeekableLog(String aJob, String aFileName) {
+        File file = getStoredLogFile(aJob, aFileName);
+        return file == null || !file.exists() ? null : SeekableLog.forFile(file);
+    }
+
 //    /**
 //     * Parse the job name and get the logs directory
 //     *
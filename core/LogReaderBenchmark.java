@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.webcurator.domain.model.core.LogFilePropertiesDTO;
+
+/**
+ * Compares the {@link LogReaderImpl} with the {@link MappedLogReader} on the
+ * requests the log viewer makes of a large crawl log: counting its lines,
+ * reading a page from the middle and reading its tail.
+ * <p>
+ * Run with <code>gradle jmh</code>; the length of the log is the
+ * <code>lineCount</code> parameter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LogReaderBenchmark {
+    private static final String JOB = "benchmark";
+    private static final String FILE_NAME = "crawl.log";
+
+    @Param({"1000000"})
+    public int lineCount;
+
+    private File workDir;
+    private LogReaderImpl streamReader;
+    private MappedLogReader mappedReader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("log-reader-benchmark").toFile();
+        File logFile = new File(workDir, FILE_NAME);
+        try (BufferedWriter out = Files.newBufferedWriter(logFile.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lineCount; i++) {
+                out.write(String.format("2020-06-01T10:%02d:%02d.%03dZ   200      %5d http://www.example.org/page/%d LLE http://www.example.org/ text/html #%03d 20200601100000000+10 sha1:ABCDEFGHIJKLMNOP - -\n",
+                        (i / 60000) % 60, (i / 1000) % 60, i % 1000, i % 50000, i, i % 100));
+            }
+        }
+
+        LogProvider logProvider = new LogProvider() {
+            public File getLogFile(String aJob, String aFileName) {
+                return new File(workDir, aFileName);
+            }
+
+            public List<String> getLogFileNames(String aJob) {
+                return Collections.singletonList(FILE_NAME);
+            }
+
+            public List<LogFilePropertiesDTO> getLogFileAttributes(String aJob) {
+                return Collections.emptyList();
+            }
+        };
+        streamReader = new LogReaderImpl();
+        streamReader.setLogProvider(logProvider);
+        mappedReader = new MappedLogReader();
+        mappedReader.setLogProvider(logProvider);
+
+        // Build the line index once, as the first request after a harvest would.
+        mappedReader.countLines(JOB, FILE_NAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @Benchmark
+    public Integer countLinesStream() {
+        return streamReader.countLines(JOB, FILE_NAME);
+    }
+
+    @Benchmark
+    public Integer countLinesMapped() {
+        return mappedReader.countLines(JOB, FILE_NAME);
+    }
+
+    @Benchmark
+    public List<String> getMiddleStream() {
+        return streamReader.get(JOB, FILE_NAME, lineCount / 2, 100);
+    }
+
+    @Benchmark
+    public List<String> getMiddleMapped() {
+        return mappedReader.get(JOB, FILE_NAME, lineCount / 2, 100);
+    }
+
+    @Benchmark
+    public List<String> tailStream() {
+        return streamReader.tail(JOB, FILE_NAME, 100);
+    }
+
+    @Benchmark
+    public List<String> tailMapped() {
+        return mappedReader.tail(JOB, FILE_NAME, 100);
+    }
+}
@@ -0,0 +1,87 @@
+package org.webcurator.core.reader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.webcurator.core.util.PatchUtil;
+import org.webcurator.domain.model.core.HarvestResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Searches every log and report file of a target instance, including those
+ * of the jobs that patched its harvest results, and streams the matching
+ * lines to the log viewer.
+ */
+@RestController
+public class LogSearchController {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The stages of patching a harvest result, which prefix the names of the
+     * patching jobs whose logs are kept by the store.
+     */
+    private static final String[] PATCH_STAGES = {HarvestResult.PATCH_STAGE_TYPE_CRAWLING,
+            HarvestResult.PATCH_STAGE_TYPE_MODIFYING, HarvestResult.PATCH_STAGE_TYPE_INDEXING};
+
+    @Autowired
+    private LogProvider logProvider;
+
+    @Autowired
+    private LogSearcher logSearcher;
+
+    @RequestMapping(path = LogSearchPaths.SEARCH, method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter search(@PathVariable("target-instance-id") long targetInstanceId,
+                             @RequestParam("query") String query,
+                             @RequestParam(value = "regex", required = false, defaultValue = "false") boolean regex,
+                             @RequestParam(value = "ignoreCase", required = false, defaultValue = "false") boolean ignoreCase,
+                             @RequestParam(value = "harvestResultNumber", required = false) List<Integer> harvestResultNumbers) {
+        log.debug("Search logs request, target instance: {}, query: {}, regex: {}", targetInstanceId, query, regex);
+
+        if (query.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty query");
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex ? query : Pattern.quote(query), ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+        } catch (PatternSyntaxException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid regular expression: " + e.getMessage());
+        }
+        try {
+            return logSearcher.search(logProvider, getJobNames(targetInstanceId, harvestResultNumbers), pattern);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many log searches are running");
+        }
+    }
+
+    /**
+     * @return the names of the harvest job of a target instance and of the
+     * jobs that patched its harvest results, as named by the
+     * PatchingHarvestLogManager
+     */
+    static List<String> getJobNames(long targetInstanceId, List<Integer> harvestResultNumbers) {
+        List<String> jobs = new ArrayList<>();
+        jobs.add(PatchUtil.getPatchJobName(targetInstanceId, 1));
+        for (int harvestResultNumber : harvestResultNumbers == null ? Collections.<Integer>emptyList() : harvestResultNumbers) {
+            if (harvestResultNumber <= 1) {
+                continue;
+            }
+            String patchJob = PatchUtil.getPatchJobName(targetInstanceId, harvestResultNumber);
+            jobs.add(patchJob);
+            for (String stage : PATCH_STAGES) {
+                jobs.add(String.format("%s@%s", stage, patchJob));
+            }
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,6 @@
+package org.webcurator.core.reader;
+
+public class LogSearchPaths {
+    public static final String ROOT_PATH = "/log-search";
+    public static final String SEARCH = ROOT_PATH + "/{target-instance-id}";
+}
@@ -0,0 +1,514 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Searches all the log and report files of a target instance at once,
+ * streaming the matching lines to the searcher as server-sent events.
+ * <p>
+ * The files are read on a small pool of threads shared by all searches. A
+ * search reads at most <code>filesPerSearch</code> files at a time, so a
+ * search of many large files leaves threads for the others, and it stops
+ * when the subscriber goes away, when it has found <code>maxMatches</code>
+ * lines, or when it has run for <code>timeBudget</code> milliseconds.
+ * <p>
+ * The matching lines are sent as a JSON array of {@link Match}es in
+ * <code>matches</code> events, and the search ends with a <code>done</code>
+ * event holding its {@link Summary}.
+ */
+@Component
+public class LogSearcher {
+    private static final Logger log = LoggerFactory.getLogger(LogSearcher.class);
+
+    public static final String EVENT_MATCHES = "matches";
+    public static final String EVENT_DONE = "done";
+
+    /**
+     * The number of lines read between looking at the clock.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of threads reading files for all the searches.
+     */
+    private int threads = 4;
+
+    /**
+     * The number of files of a search that are read at the same time.
+     */
+    private int filesPerSearch = 2;
+
+    /**
+     * The number of readers of all searches that may wait for a thread
+     * before new searches are refused.
+     */
+    private int maxQueuedReaders = 64;
+
+    /**
+     * The time, in milliseconds, after which a search is stopped.
+     */
+    private long timeBudget = 60 * 1000L;
+
+    /**
+     * The number of matching lines after which a search is stopped.
+     */
+    private int maxMatches = 10000;
+
+    /**
+     * The number of matching lines sent in an event.
+     */
+    private int batchSize = 100;
+
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * Search the log and report files of jobs.
+     *
+     * @param logProvider the provider of the log files
+     * @param jobs        the jobs whose files are searched; jobs that are not
+     *                    known to the provider are skipped
+     * @param pattern     the expression found in the matching lines
+     * @return the emitter of the events
+     * @throws RejectedExecutionException if too many searches are running
+     */
+    public SseEmitter search(LogProvider logProvider, List<String> jobs, Pattern pattern) {
+        List<LogFile> files = listFiles(logProvider, jobs);
+        // The emitter outlives the search long enough to send its summary.
+        SseEmitter emitter = new SseEmitter(timeBudget + 10 * 1000L);
+        Search search = new Search(files, pattern, new Listener() {
+            @Override
+            public void matches(List<Match> matches) throws IOException {
+                emitter.send(SseEmitter.event().name(EVENT_MATCHES).data(matches, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void done(Summary summary) {
+                try {
+                    emitter.send(SseEmitter.event().name(EVENT_DONE).data(summary, MediaType.APPLICATION_JSON));
+                    emitter.complete();
+                } catch (IOException e) {
+                    emitter.completeWithError(e);
+                }
+            }
+        });
+        emitter.onCompletion(search::cancel);
+        emitter.onTimeout(search::cancel);
+        start(search);
+        log.debug("Searching {} files of jobs {} for {}", files.size(), jobs, pattern);
+        return emitter;
+    }
+
+    private static List<LogFile> listFiles(LogProvider logProvider, List<String> jobs) {
+        List<LogFile> files = new ArrayList<>();
+        for (String job : jobs) {
+            List<String> fileNames;
+            try {
+                fileNames = logProvider.getLogFileNames(job);
+            } catch (RuntimeException e) {
+                // The provider does not have the job, e.g. a harvest agent asked for a patching job of the store.
+                log.debug("No log files for job {}: {}", job, e.getMessage());
+                continue;
+            }
+            if (fileNames == null) {
+                continue;
+            }
+            for (String fileName : fileNames) {
+                File file = logProvider.getStoredLogFile(job, fileName);
+                if (file != null) {
+                    files.add(new LogFile(job, fileName, file));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Start reading the files of a search.
+     *
+     * @throws RejectedExecutionException if too many searches are running
+     */
+    void start(Search search) {
+        ThreadPoolExecutor executor = getExecutor();
+        int workers = Math.max(1, Math.min(filesPerSearch, search.files.size()));
+        search.workers.set(workers);
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(search::run);
+            } catch (RejectedExecutionException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                // The workers already started read the files between them.
+                if (search.workers.addAndGet(i - workers) == 0) {
+                    search.finish();
+                }
+                break;
+            }
+        }
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(maxQueuedReaders), r -> {
+                        Thread thread = new Thread(r, "log-searcher-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                }
+            }
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Receives the results of a search, from the threads reading the files.
+     */
+    interface Listener {
+        void matches(List<Match> matches) throws IOException;
+
+        void done(Summary summary);
+    }
+
+    /**
+     * A file to search.
+     */
+    static class LogFile {
+        private final String job;
+        private final String fileName;
+        private final File file;
+
+        LogFile(String job, String fileName, File file) {
+            this.job = job;
+            this.fileName = fileName;
+            this.file = file;
+        }
+    }
+
+    /**
+     * The state of a search, shared by the threads reading its files.
+     */
+    class Search {
+        private final List<LogFile> files;
+        private final Pattern pattern;
+        private final Listener listener;
+        private final ConcurrentLinkedQueue<LogFile> pending;
+        private final long deadline = System.currentTimeMillis() + timeBudget;
+        private final AtomicInteger workers = new AtomicInteger();
+        private final AtomicInteger filesSearched = new AtomicInteger();
+        private final AtomicLong matchCount = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile boolean timedOut;
+
+        Search(List<LogFile> files, Pattern pattern, Listener listener) {
+            this.files = files;
+            this.pattern = pattern;
+            this.listener = listener;
+            this.pending = new ConcurrentLinkedQueue<>(files);
+        }
+
+        /**
+         * Read files until there are none left or the search is stopped.
+         */
+        private void run() {
+            try {
+                LogFile logFile;
+                while (!isStopped() && (logFile = pending.poll()) != null) {
+                    try {
+                        searchFile(logFile);
+                        filesSearched.incrementAndGet();
+                    } catch (IOException e) {
+                        log.warn("Failed to search {} of job {}: {}", logFile.fileName, logFile.job, e.getMessage());
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.error("Search of {} failed", pattern, e);
+                cancel();
+            } finally {
+                if (workers.decrementAndGet() == 0) {
+                    finish();
+                }
+            }
+        }
+
+        private void searchFile(LogFile logFile) throws IOException {
+            List<Match> batch = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    BlockCompressedLog.openInputStream(logFile.file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                Matcher matcher = pattern.matcher("");
+                String line;
+                long lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (lineNumber % DEADLINE_CHECK_INTERVAL == 0 && isStopped()) {
+                        break;
+                    }
+                    if (!matcher.reset(line).find()) {
+                        continue;
+                    }
+                    if (matchCount.incrementAndGet() > maxMatches) {
+                        break;
+                    }
+                    batch.add(new Match(logFile.job, logFile.fileName, lineNumber, line));
+                    if (batch.size() >= batchSize) {
+                        send(batch);
+                        batch = new ArrayList<>();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                send(batch);
+            }
+        }
+
+        private void send(List<Match> batch) {
+            if (cancelled) {
+                return;
+            }
+            // The subscriber is sent one event at a time.
+            synchronized (this) {
+                try {
+                    listener.matches(batch);
+                } catch (IOException | RuntimeException e) {
+                    // Usually the subscriber has gone away.
+                    log.debug("Stopped searching for {}: {}", pattern, e.getMessage());
+                    cancel();
+                }
+            }
+        }
+
+        private boolean isStopped() {
+            if (!cancelled && !timedOut && System.currentTimeMillis() > deadline) {
+                timedOut = true;
+            }
+            return cancelled || timedOut || matchCount.get() >= maxMatches;
+        }
+
+        private void finish() {
+            if (cancelled) {
+                return;
+            }
+            Summary summary = new Summary();
+            summary.setFiles(files.size());
+            summary.setFilesSearched(filesSearched.get());
+            summary.setMatches(Math.min(matchCount.get(), maxMatches));
+            summary.setTruncated(matchCount.get() >= maxMatches);
+            summary.setTimedOut(timedOut);
+            synchronized (this) {
+                listener.done(summary);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * A line that matched a search.
+     */
+    public static class Match {
+        private String job;
+        private String fileName;
+        private long lineNumber;
+        private String line;
+
+        public Match() {
+        }
+
+        public Match(String job, String fileName, long lineNumber, String line) {
+            this.job = job;
+            this.fileName = fileName;
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+
+        public String getJob() {
+            return job;
+        }
+
+        public void setJob(String job) {
+            this.job = job;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public void setFileName(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        public void setLineNumber(long lineNumber) {
+            this.lineNumber = lineNumber;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public void setLine(String line) {
+            this.line = line;
+        }
+    }
+
+    /**
+     * How far a search got.
+     */
+    public static class Summary {
+        private int files;
+        private int filesSearched;
+        private long matches;
+        private boolean truncated;
+        private boolean timedOut;
+
+        public int getFiles() {
+            return files;
+        }
+
+        public void setFiles(int files) {
+            this.files = files;
+        }
+
+        public int getFilesSearched() {
+            return filesSearched;
+        }
+
+        public void setFilesSearched(int filesSearched) {
+            this.filesSearched = filesSearched;
+        }
+
+        public long getMatches() {
+            return matches;
+        }
+
+        public void setMatches(long matches) {
+            this.matches = matches;
+        }
+
+        /**
+         * @return true if the search stopped at the maximum number of matches
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public void setTruncated(boolean truncated) {
+            this.truncated = truncated;
+        }
+
+        /**
+         * @return true if the search ran out of time
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public void setTimedOut(boolean timedOut) {
+            this.timedOut = timedOut;
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getFilesPerSearch() {
+        return filesPerSearch;
+    }
+
+    public void setFilesPerSearch(int filesPerSearch) {
+        this.filesPerSearch = filesPerSearch;
+    }
+
+    public int getMaxQueuedReaders() {
+        return maxQueuedReaders;
+    }
+
+    public void setMaxQueuedReaders(int maxQueuedReaders) {
+        this.maxQueuedReaders = maxQueuedReaders;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public int getMaxMatches() {
+        return maxMatches;
+    }
+
+    public void setMaxMatches(int maxMatches) {
+        this.maxMatches = maxMatches;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
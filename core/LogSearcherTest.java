@@ -0,0 +1,138 @@
+package org.webcurator.core.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogSearcherTest {
+    private File dir;
+    private LogSearcher searcher;
+    private List<LogSearcher.LogFile> files;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("log-search").toFile();
+        searcher = new LogSearcher();
+        files = new ArrayList<>();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 3000; i++) {
+            sb.append("2020-01-01T00:00:00.000Z   200 http://www.example.com/").append(i).append('\n');
+        }
+        files.add(write("1", "crawl.log", sb.toString()));
+        files.add(write("1", "local-errors.log", "java.net.SocketTimeoutException\n  at one\nhttp://www.example.com/2000 failed\n"));
+        write("mod_1_2", "crawl.log", sb.toString());
+        File plain = new File(new File(dir, "mod_1_2"), "crawl.log");
+        File compressed = BlockCompressedLog.compressedFile(plain);
+        BlockCompressedLog.compress(plain, compressed, 4096);
+        plain.delete();
+        files.add(new LogSearcher.LogFile("mod_1_2", "crawl.log", compressed));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        searcher.shutdown();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private LogSearcher.LogFile write(String job, String fileName, String content) throws Exception {
+        File file = new File(new File(dir, job), fileName);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new LogSearcher.LogFile(job, fileName, file);
+    }
+
+    @Test
+    public void testSearchAllFiles() throws Exception {
+        Results results = search(Pattern.compile(Pattern.quote("example.com/2000")));
+
+        assertEquals(3, results.summary.getFiles());
+        assertEquals(3, results.summary.getFilesSearched());
+        assertEquals(3, results.summary.getMatches());
+        assertFalse(results.summary.isTruncated());
+        assertFalse(results.summary.isTimedOut());
+
+        List<String> found = new ArrayList<>();
+        for (LogSearcher.Match match : results.matches) {
+            found.add(match.getJob() + "/" + match.getFileName() + ":" + match.getLineNumber());
+        }
+        Collections.sort(found);
+        assertEquals(Arrays.asList("1/crawl.log:2000", "1/local-errors.log:3", "mod_1_2/crawl.log:2000"), found);
+    }
+
+    @Test
+    public void testMaxMatches() throws Exception {
+        searcher.setMaxMatches(250);
+        searcher.setBatchSize(100);
+        Results results = search(Pattern.compile("www"));
+
+        assertEquals(250, results.matches.size());
+        assertEquals(250, results.summary.getMatches());
+        assertTrue(results.summary.isTruncated());
+    }
+
+    @Test
+    public void testTimeBudget() throws Exception {
+        searcher.setTimeBudget(-1);
+        Results results = search(Pattern.compile("www"));
+
+        assertTrue(results.summary.isTimedOut());
+        assertEquals(0, results.summary.getFilesSearched());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Results results = new Results();
+        LogSearcher.Search search = searcher.new Search(files, Pattern.compile("www"), results);
+        search.cancel();
+        searcher.start(search);
+
+        assertFalse(results.done.await(1, TimeUnit.SECONDS));
+        assertTrue(results.matches.isEmpty());
+    }
+
+    @Test
+    public void testJobNames() {
+        assertEquals(Arrays.asList("1"), LogSearchController.getJobNames(1, null));
+        assertEquals(Arrays.asList("1", "mod_1_2", "crawling@mod_1_2", "modifying@mod_1_2", "indexing@mod_1_2"),
+                LogSearchController.getJobNames(1, Arrays.asList(1, 2)));
+    }
+
+    private Results search(Pattern pattern) throws Exception {
+        Results results = new Results();
+        searcher.start(searcher.new Search(files, pattern, results));
+        assertTrue(results.done.await(10, TimeUnit.SECONDS));
+        return results;
+    }
+
+    private static class Results implements LogSearcher.Listener {
+        private final List<LogSearcher.Match> matches = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch done = new CountDownLatch(1);
+        private LogSearcher.Summary summary;
+
+        @Override
+        public void matches(List<LogSearcher.Match> batch) {
+            matches.addAll(batch);
+        }
+
+        @Override
+        public void done(LogSearcher.Summary summary) {
+            this.summary = summary;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the lines of a log from an offset through memory mapped windows of
+ * the file. Line feeds are found eight bytes at a time, and lines that are
+ * skipped are neither copied nor decoded, so reading a few lines from the
+ * middle of a large log only decodes those lines.
+ * <p>
+ * The log is read up to its length when the reader was created.
+ */
+class MappedLineReader {
+    static final int DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private static final long LINE_FEEDS = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLength;
+
+    private long position;
+
+    MappedLineReader(FileChannel channel, long position) throws IOException {
+        this(channel, position, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedLineReader(FileChannel channel, long position, int windowSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.position = position;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Read a line ending with a line feed, or the unterminated last line.
+     *
+     * @return the line without its terminator, or null at the end of the log
+     */
+    String readLine() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        long start = position;
+        long lineFeed = findLineFeed(start);
+        long end = lineFeed < 0 ? size : lineFeed;
+        position = lineFeed < 0 ? size : lineFeed + 1;
+        if (end > start && byteAt(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[(int) (end - start)];
+        read(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Move to the start of the next line.
+     *
+     * @return false at the end of the log, including after an unterminated
+     * last line
+     */
+    boolean skipLine() throws IOException {
+        long lineFeed = findLineFeed(position);
+        if (lineFeed < 0) {
+            position = size;
+            return false;
+        }
+        position = lineFeed + 1;
+        return true;
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the offset of the first line feed at or after an offset, or -1
+     * if there is none
+     */
+    private long findLineFeed(long from) throws IOException {
+        while (from < size) {
+            map(from);
+            int found = indexOfLineFeed(window, (int) (from - windowStart), windowLength);
+            if (found >= 0) {
+                return windowStart + found;
+            }
+            from = windowStart + windowLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Find a line feed a word at a time: a byte of the word xor line feeds is
+     * zero where the word has a line feed, and the lowest zero byte of a word
+     * is the lowest byte whose high bit is set in (x - 0x01..) &amp; ~x &amp; 0x80..
+     *
+     * @param buffer a little endian buffer
+     * @return the index of the first line feed in the buffer from
+     * <code>from</code> up to <code>limit</code>, or -1 if there is none
+     */
+    static int indexOfLineFeed(ByteBuffer buffer, int from, int limit) {
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            long x = buffer.getLong(i) ^ LINE_FEEDS;
+            long found = (x - LOW_BITS) & ~x & HIGH_BITS;
+            if (found != 0) {
+                // The buffer is little endian, so the lowest byte is the first.
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private byte byteAt(long offset) throws IOException {
+        map(offset);
+        return window.get((int) (offset - windowStart));
+    }
+
+    private void read(long offset, byte[] bytes) throws IOException {
+        int done = 0;
+        while (done < bytes.length) {
+            map(offset + done);
+            int start = (int) (offset + done - windowStart);
+            int n = Math.min(bytes.length - done, windowLength - start);
+            ByteBuffer view = window.duplicate();
+            view.position(start);
+            view.get(bytes, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Map the window of the log starting at an offset, unless the current
+     * window holds it.
+     */
+    private void map(long offset) throws IOException {
+        if (window != null && offset >= windowStart && offset < windowStart + windowLength) {
+            return;
+        }
+        windowStart = offset;
+        windowLength = (int) Math.min(windowSize, size - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,90 @@
+package org.webcurator.core.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedLineReaderTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped-line-reader", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testIndexOfLineFeed() {
+        for (int length = 0; length < 40; length++) {
+            for (int lineFeed = -1; lineFeed < length; lineFeed++) {
+                byte[] bytes = new byte[length];
+                Arrays.fill(bytes, (byte) 0x8B);
+                if (lineFeed >= 0) {
+                    bytes[lineFeed] = '\n';
+                    if (lineFeed + 1 < length) {
+                        bytes[lineFeed + 1] = '\n';
+                    }
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+                assertEquals("Length " + length, lineFeed, MappedLineReader.indexOfLineFeed(buffer, 0, length));
+                if (lineFeed > 0) {
+                    assertEquals(lineFeed, MappedLineReader.indexOfLineFeed(buffer, lineFeed, length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadAcrossWindows() throws Exception {
+        List<String> expected = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder line = new StringBuilder("line ").append(i).append(" \u00e9");
+            for (int j = 0; j < i % 13; j++) {
+                line.append("xyz");
+            }
+            expected.add(line.toString());
+            sb.append(line).append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        expected.add("");
+        expected.add("unterminated");
+        sb.append("\nunterminated");
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedLineReader reader = new MappedLineReader(channel, 0, 37);
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            assertEquals(expected, lines);
+            assertEquals(file.length(), reader.getPosition());
+
+            reader = new MappedLineReader(channel, 0, 37);
+            int skipped = 0;
+            while (reader.skipLine()) {
+                skipped++;
+            }
+            assertEquals(201, skipped);
+            assertEquals(file.length(), reader.getPosition());
+        }
+    }
+}
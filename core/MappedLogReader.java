@@ -0,0 +1,181 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.List;
+
+import org.webcurator.core.exceptions.WCTRuntimeException;
+
+/**
+ * A LogReader that counts, reads and searches the lines of a log through the
+ * {@link SeekableLog} of its {@link LogProvider}. A plain log is read through
+ * its {@link LogLineIndex}, which scans the memory mapped log for line feeds
+ * a word at a time and keeps a sparse index of line offsets, and a
+ * compressed log through its {@link BlockCompressedLog} block index, without
+ * decompressing the rest of the log. Counting the lines, or reading a few
+ * lines from anywhere in the log, then only scans the part of the log
+ * written since the index was last brought up to date.
+ * <p>
+ * The operations that have no use for the index, such as listing the log
+ * files or following a hop path, are left to the {@link LogReaderImpl}.
+ */
+public class MappedLogReader extends LogReaderImpl {
+    private LogProvider logProvider;
+
+    @Override
+    public void setLogProvider(LogProvider logProvider) {
+        super.setLogProvider(logProvider);
+        this.logProvider = logProvider;
+    }
+
+    /**
+     * @see LogReader#countLines(String, String)
+     */
+    @Override
+    public Integer countLines(String aJob, String aFileName) {
+        SeekableLog log = getLog(aJob, aFileName);
+        if (log == null) {
+            return super.countLines(aJob, aFileName);
+        }
+        try {
+            return (int) log.countLines();
+        } catch (IOException e) {
+            throw new WCTRuntimeException("Failed to count the lines of " + aFileName + " for job " + aJob, e);
+        }
+    }
+
+    /**
+     * @see LogReader#get(String, String, int, int)
+     */
+    @Override
+    public List<String> get(String aJob, String aFileName, int startLine, int noOfLines) {
+        SeekableLog log = getLog(aJob, aFileName);
+        if (log == null) {
+            return super.get(aJob, aFileName, startLine, noOfLines);
+        }
+        try {
+            return log.getLines(startLine, noOfLines);
+        } catch (IOException e) {
+            throw new WCTRuntimeException("Failed to read " + aFileName + " for job " + aJob, e);
+        }
+    }
+
+    /**
+     * @see LogReader#tail(String, String, int)
+     */
+    @Override
+    public List<String> tail(String aJob, String aFileName, int noOfLines) {
+        SeekableLog log = getLog(aJob, aFileName);
+        if (log == null) {
+            return super.tail(aJob, aFileName, noOfLines);
+        }
+        try {
+            return log.tail(noOfLines);
+        } catch (IOException e) {
+            throw new WCTRuntimeException("Failed to read " + aFileName + " for job " + aJob, e);
+        }
+    }
+
+    /**
+     * @see LogReader#findFirstLineBeginning(String, String, String)
+     */
+    @Override
+    public Integer findFirstLineBeginning(String aJob, String aFileName, String match) {
+        SeekableLog log = getLog(aJob, aFileName);
+        if (log == null) {
+            return super.findFirstLineBeginning(aJob, aFileName, match);
+        }
+        return findFirstLine(log, aJob, aFileName, match, true);
+    }
+
+    /**
+     * @see LogReader#findFirstLineContaining(String, String, String)
+     */
+    @Override
+    public Integer findFirstLineContaining(String aJob, String aFileName, String match) {
+        SeekableLog log = getLog(aJob, aFileName);
+        if (log == null) {
+            return super.findFirstLineContaining(aJob, aFileName, match);
+        }
+        return findFirstLine(log, aJob, aFileName, match, false);
+    }
+
+    /**
+     * Bisects a log whose lines start with a timestamp, such as the crawl
+     * log, rather than reading it from the start.
+     *
+     * @see LogReader#findFirstLineAfterTimeStamp(String, String, Long)
+     */
+    @Override
+    public Integer findFirstLineAfterTimeStamp(String aJob, String aFileName, Long timestamp) {
+        SeekableLog log = getLog(aJob, aFileName);
+        if (log == null) {
+            return super.findFirstLineAfterTimeStamp(aJob, aFileName, timestamp);
+        }
+        try {
+            return (int) log.findFirstLineAfterTimeStamp(timestamp);
+        } catch (IOException e) {
+            throw new WCTRuntimeException("Failed to search " + aFileName + " for job " + aJob, e);
+        }
+    }
+
+    /**
+     * @see LogReader#getByRegularExpression(String, String, String, String, boolean, int, int)
+     */
+    @Override
+    public List<String> getByRegularExpression(String aJob, String aFileName, String regex, String addLines,
+                                               boolean prependLineNumbers, int skipFirstMatches, int numberOfMatches) {
+        SeekableLog log = getLog(aJob, aFileName);
+        if (log == null) {
+            return super.getByRegularExpression(aJob, aFileName, regex, addLines, prependLineNumbers, skipFirstMatches, numberOfMatches);
+        }
+        try {
+            return log.getByRegularExpression(regex, addLines, prependLineNumbers, skipFirstMatches, numberOfMatches);
+        } catch (IOException e) {
+            throw new WCTRuntimeException("Failed to search " + aFileName + " for job " + aJob, e);
+        }
+    }
+
+    /**
+     * @return the number, counting from 1, of the first line that starts
+     * with or contains the match, or -1 if no line does
+     */
+    private Integer findFirstLine(SeekableLog log, String aJob, String aFileName, String match, boolean atStart) {
+        try (BufferedReader reader = log.openReader(1)) {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (atStart ? line.startsWith(match) : line.contains(match)) {
+                    return lineNumber;
+                }
+            }
+            return -1;
+        } catch (IOException e) {
+            throw new WCTRuntimeException("Failed to search " + aFileName + " for job " + aJob, e);
+        }
+    }
+
+    /**
+     * @return the seekable view of the log, plain or compressed, or null if
+     * there is no such log
+     */
+    private SeekableLog getLog(String aJob, String aFileName) {
+        return logProvider == null ? null : logProvider.getSeekableLog(aJob, aFileName);
+    }
+}
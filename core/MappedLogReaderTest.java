@@ -0,0 +1,115 @@
+package org.webcurator.core.reader;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedLogReaderTest {
+    private static final String JOB = "123";
+
+    private File dir;
+    private File logFile;
+    private LogProvider logProvider;
+    private MappedLogReader reader;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("mapped-log-reader").toFile();
+        logFile = new File(dir, "crawl.log");
+
+        logProvider = mock(LogProvider.class, CALLS_REAL_METHODS);
+        doReturn(logFile).when(logProvider).getLogFile(JOB, "crawl.log");
+        reader = new MappedLogReader();
+        reader.setLogProvider(logProvider);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testCountAndGetLines() throws Exception {
+        write(1, 2500);
+
+        assertEquals(Integer.valueOf(2500), reader.countLines(JOB, "crawl.log"));
+        assertEquals(Arrays.asList("line 1", "line 2"), reader.get(JOB, "crawl.log", 1, 2));
+        assertEquals(Arrays.asList("line 1500", "line 1501"), reader.get(JOB, "crawl.log", 1500, 2));
+        assertEquals(Arrays.asList("line 2499", "line 2500"), reader.tail(JOB, "crawl.log", 2));
+    }
+
+    @Test
+    public void testReadsCompressedLog() throws Exception {
+        write(1, 2500);
+        File compressedFile = BlockCompressedLog.compressedFile(logFile);
+        BlockCompressedLog.compress(logFile, compressedFile, 1024);
+        assertTrue(logFile.delete());
+        doReturn(compressedFile).when(logProvider).getStoredLogFile(JOB, "crawl.log");
+
+        assertEquals(Integer.valueOf(2500), reader.countLines(JOB, "crawl.log"));
+        assertEquals(Arrays.asList("line 1500", "line 1501"), reader.get(JOB, "crawl.log", 1500, 2));
+        assertEquals(Arrays.asList("line 2499", "line 2500"), reader.tail(JOB, "crawl.log", 2));
+        // The plain log is never asked for, so it is not decompressed.
+        verify(logProvider, never()).getLogFile(JOB, "crawl.log");
+    }
+
+    @Test
+    public void testFindFirstLine() throws Exception {
+        write(1, 2500);
+
+        assertEquals(Integer.valueOf(1200), reader.findFirstLineBeginning(JOB, "crawl.log", "line 1200"));
+        assertEquals(Integer.valueOf(12), reader.findFirstLineContaining(JOB, "crawl.log", "e 12"));
+        assertEquals(Integer.valueOf(-1), reader.findFirstLineContaining(JOB, "crawl.log", "missing"));
+    }
+
+    @Test
+    public void testFindFirstLineAfterTimeStamp() throws Exception {
+        // One line a second from 10:00:00, with an untimed line every 100 lines.
+        LocalDateTime start = LocalDateTime.of(2020, 6, 1, 10, 0, 0);
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            if (i % 100 == 99) {
+                sb.append("  at some.Stack.frame\n");
+            } else {
+                sb.append(start.plusSeconds(i).format(format)).append(".000Z   200 http://www.example.org/").append(i).append('\n');
+            }
+        }
+        Files.write(logFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        // 10:50:00 is 3000 seconds after the start, the line numbered 3001.
+        assertEquals(Integer.valueOf(3001), reader.findFirstLineAfterTimeStamp(JOB, "crawl.log", 20200601105000L));
+        // Line 100 is untimed, so the first line at or after 10:01:39 is line 101.
+        assertEquals(Integer.valueOf(101), reader.findFirstLineAfterTimeStamp(JOB, "crawl.log", 20200601100139L));
+        assertEquals(Integer.valueOf(1), reader.findFirstLineAfterTimeStamp(JOB, "crawl.log", 20200101000000L));
+        assertEquals(Integer.valueOf(-1), reader.findFirstLineAfterTimeStamp(JOB, "crawl.log", 20200602000000L));
+    }
+
+    @Test
+    public void testGetByRegularExpression() throws Exception {
+        write(1, 2500);
+
+        List<String> lines = reader.getByRegularExpression(JOB, "crawl.log", "line 24\\d\\d", null, true, 1, 2);
+        assertEquals(Arrays.asList("2401. line 2401", "2402. line 2402"), lines);
+    }
+
+    private void write(int from, int to) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        Files.write(logFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
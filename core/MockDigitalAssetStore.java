@@ -1,5 +1,6 @@
 package org.webcurator.core.store;
 
+import java.io.ByteArrayInputStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,6 +12,7 @@ import org.apache.commons.logging.LogFactory;
 import org.webcurator.core.exceptions.DigitalAssetStoreException;
 import org.webcurator.core.visualization.modification.metadata.ModifyApplyCommand;
 import org.webcurator.core.visualization.modification.metadata.ModifyResult;
+import org.webcurator.domain.model.core.CrawlLogSummaryDTO;
 import org.webcurator.domain.model.core.CustomDepositFormCriteriaDTO;
 import org.webcurator.domain.model.core.CustomDepositFormResultDTO;
 import org.webcurator.domain.model.core.HarvestResultDTO;
@@ -36,6 +38,13 @@ public class MockDigitalAssetStore implements DigitalAssetStore {
         return null;
     }
 
+    public ArchivedResource openResourceWithHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl)
+            throws DigitalAssetStoreException {
+        ArchivedResource resource = new ArchivedResource();
+        resource.setContent(new ByteArrayInputStream(new byte[0]));
+        return resource;
+    }
+
     public byte[] getSmallResource(long targetInstanceId, int harvestResultNumber, String resourceUrl)
             throws DigitalAssetStoreException {
         // TODO Auto-generated method stub
@@ -99,6 +108,10 @@ public class MockDigitalAssetStore implements DigitalAssetStore {
         return checkIndexing;
     }
 
+    public CrawlLogSummaryDTO getCrawlLogSummary(long targetInstanceId, int harvestResultNumber) throws DigitalAssetStoreException {
+        return null;
+    }
+
     public void setCheckIndexingReturn(Boolean checkIndexing) {
         this.checkIndexing = checkIndexing;
     }
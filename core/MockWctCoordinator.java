@@ -105,6 +105,17 @@ public class MockWctCoordinator implements WctCoordinator {
                 regex, "zzzzzzzzz", prependLineNumbers, 0, noOfLines);
     }
 
+    public List<String> getLogLinesWithIndentedLines(TargetInstance targetInstance,
+                                                     String fileName, int noOfLines, String regex,
+                                                     boolean prependLineNumbers) {
+        return logReader.getByRegularExpression(targetInstance.getOid().toString(), fileName,
+                regex, "^[ \\t].*", prependLineNumbers, 0, noOfLines);
+    }
+
+    public String getLogReaderBaseUrl(TargetInstance targetInstance) {
+        return null;
+    }
+
     public File getLogfile(TargetInstance targetInstance, String filename) {
         return logReader.retrieveLogfile(targetInstance.getOid().toString(),
                 filename);
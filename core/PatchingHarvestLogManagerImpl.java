@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.webcurator.core.exceptions.WCTRuntimeException;
 import org.webcurator.core.reader.LogReader;
+import org.webcurator.core.reader.SeekableLog;
 import org.webcurator.core.store.DigitalAssetStoreFactory;
 import org.webcurator.core.util.PatchUtil;
 import org.webcurator.domain.model.core.HarvestResult;
@@ -19,6 +20,7 @@ public class PatchingHarvestLogManagerImpl implements PatchingHarvestLogManager
 
     private HarvestAgentManager harvestAgentManager;
     private DigitalAssetStoreFactory digitalAssetStoreFactory;
+    private LogFileAttributesCache logFileAttributesCache;
     private String type = "";
 
     @Override
@@ -54,6 +56,23 @@ public class PatchingHarvestLogManagerImpl implements PatchingHarvestLogManager
                 aNoOfLines);
     }
 
+    @Override
+    public List<String> getLogLinesWithIndentedLines(long targetInstanceId, int harvestResultNumber, int harvestResultState, String aFileName, int aNoOfLines, String aRegex, boolean prependLineNumbers) {
+        if (aFileName == null || aFileName.trim().length() == 0) {
+            throw new WCTRuntimeException("File name must not be null");
+        }
+
+        String jobName = getJobName(targetInstanceId, harvestResultNumber, harvestResultState);
+        LogReader logReader = getLogReader(targetInstanceId, harvestResultNumber, harvestResultState);
+        if (logReader == null) {
+            log.warn("Get log lines with indented lines failed. Failed to find the log Reader for the Job {}.", jobName);
+            return null;
+        }
+
+        return logReader.getByRegularExpression(jobName, aFileName, aRegex, SeekableLog.INDENTED_LINE_REGEX, prependLineNumbers, 0,
+                aNoOfLines);
+    }
+
     @Override
     public Integer getFirstLogLineAfterTimeStamp(long targetInstanceId, int harvestResultNumber, int harvestResultState, String aFileName, Long timestamp) {
         if (aFileName == null || aFileName.trim().length() == 0) {
@@ -147,10 +166,21 @@ public class PatchingHarvestLogManagerImpl implements PatchingHarvestLogManager
     @Override
     public List<LogFilePropertiesDTO> listLogFileAttributes(long targetInstanceId, int harvestResultNumber, int harvestResultState) {
         String jobName = getJobName(targetInstanceId, harvestResultNumber, harvestResultState);
+        List<LogFilePropertiesDTO> logFiles;
+        if (logFileAttributesCache == null) {
+            logFiles = listLogFileAttributes(jobName, targetInstanceId, harvestResultNumber, harvestResultState);
+        } else {
+            logFiles = logFileAttributesCache.get(jobName,
+                    () -> listLogFileAttributes(jobName, targetInstanceId, harvestResultNumber, harvestResultState));
+        }
+        return logFiles == null ? new ArrayList<>() : logFiles;
+    }
+
+    private List<LogFilePropertiesDTO> listLogFileAttributes(String jobName, long targetInstanceId, int harvestResultNumber, int harvestResultState) {
         LogReader logReader = getLogReader(targetInstanceId, harvestResultNumber, harvestResultState);
         if (logReader == null) {
             log.warn("listLogFileAttributes Failed. Failed to find the Log Reader for the Job {}.", jobName);
-            return new ArrayList<>();
+            return null;
         }
         return logReader.listLogFileAttributes(jobName);
     }
@@ -224,6 +254,14 @@ public class PatchingHarvestLogManagerImpl implements PatchingHarvestLogManager
         this.digitalAssetStoreFactory = digitalAssetStoreFactory;
     }
 
+    public LogFileAttributesCache getLogFileAttributesCache() {
+        return logFileAttributesCache;
+    }
+
+    public void setLogFileAttributesCache(LogFileAttributesCache logFileAttributesCache) {
+        this.logFileAttributesCache = logFileAttributesCache;
+    }
+
     public String getType() {
         return type;
     }
@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.reader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Read access to the lines of a log, by line number, without reading the log
+ * from the start. Plain logs are read through their {@link LogLineIndex} and
+ * compressed logs through their {@link BlockCompressedLog} block index.
+ */
+public interface SeekableLog {
+    /**
+     * The additional-lines expression that returns the indented lines
+     * following a match, such as the rest of a stack trace, with it.
+     */
+    String INDENTED_LINE_REGEX = "^[ \\t].*";
+
+    /**
+     * Get the seekable view of a log file, plain or compressed.
+     *
+     * @param file the log file
+     * @return the view of the log
+     */
+    static SeekableLog forFile(File file) {
+        return BlockCompressedLog.isCompressed(file) ? BlockCompressedLog.forFile(file) : LogLineIndex.forFile(file);
+    }
+
+    /**
+     * @return the number of lines in the log
+     * @throws IOException if the log could not be read
+     */
+    long countLines() throws IOException;
+
+    /**
+     * Read lines of the log.
+     *
+     * @param startLine the number of the first line to read, counting from 1
+     * @param count     the maximum number of lines to read
+     * @return the lines, fewer than requested at the end of the log
+     * @throws IOException if the log could not be read
+     */
+    List<String> getLines(long startLine, int count) throws IOException;
+
+    /**
+     * @param count the number of lines
+     * @return the first lines of the log
+     * @throws IOException if the log could not be read
+     */
+    List<String> head(int count) throws IOException;
+
+    /**
+     * @param count the number of lines
+     * @return the last lines of the log
+     * @throws IOException if the log could not be read
+     */
+    List<String> tail(int count) throws IOException;
+
+    /**
+     * Find the first line of the log written at or after a time.
+     *
+     * @param timestamp the time as a number of the form yyyyMMddHHmmss
+     * @return the number of the line, counting from 1, or -1 if no line is
+     * at or after the time
+     * @throws IOException if the log could not be read
+     */
+    long findFirstLineAfterTimeStamp(long timestamp) throws IOException;
+
+    /**
+     * Open a reader of the log positioned at the start of a line.
+     *
+     * @param startLine the number of the first line to read, counting from 1
+     * @return the reader, which the caller must close
+     * @throws IOException if the log could not be read
+     */
+    BufferedReader openReader(long startLine) throws IOException;
+
+    /**
+     * Read the lines of the log matching an expression. Reading stops as soon
+     * as the requested number of matches has been found.
+     *
+     * @param regex              the expression that lines must match
+     * @param addLinesRegex      the expression matched by the lines following
+     *                           a match that are returned with it, or null
+     * @param prependLineNumbers true to prefix each line with its number
+     * @param skipFirstMatches   the number of matches to skip
+     * @param numberOfMatches    the maximum number of matches to return
+     * @return the matching lines, each followed by its additional lines
+     * @throws IOException if the log could not be read
+     */
+    default List<String> getByRegularExpression(String regex, String addLinesRegex, boolean prependLineNumbers,
+                                                int skipFirstMatches, int numberOfMatches) throws IOException {
+        Pattern pattern = Pattern.compile(regex);
+        Pattern addLines = addLinesRegex == null ? null : Pattern.compile(addLinesRegex);
+        List<String> result = new ArrayList<>();
+        int matches = 0;
+        boolean inMatch = false;
+        long lineNumber = 0;
+        try (BufferedReader reader = openReader(1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                boolean accepted;
+                if (inMatch && addLines != null && addLines.matcher(line).matches()) {
+                    accepted = true;
+                } else if (pattern.matcher(line).matches()) {
+                    if (matches - skipFirstMatches >= numberOfMatches) {
+                        break;
+                    }
+                    matches++;
+                    accepted = inMatch = matches > skipFirstMatches;
+                } else {
+                    if (matches - skipFirstMatches >= numberOfMatches) {
+                        break;
+                    }
+                    accepted = inMatch = false;
+                }
+                if (accepted) {
+                    result.add(prependLineNumbers ? lineNumber + ". " + line : line);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -55,8 +55,10 @@ public interface TargetInstanceDAO {
 	
 	/**
 	 * Save or update all the objects in the collection to the 
-	 * persistent data store.
+	 * persistent data store, in one transaction.
 	 * @param collection the collection of objects to save
+	 * @throws RuntimeException if the objects could not be saved, in which
+	 * case none of them are
 	 */
 	void saveAll(Collection collection);
 	
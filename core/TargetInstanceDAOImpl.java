@@ -56,6 +56,11 @@ public class TargetInstanceDAOImpl extends HibernateDaoSupport implements Target
 
     private static Log log = LogFactory.getLog(TargetInstanceDAOImpl.class);
 
+    /**
+     * The number of updates sent to the database at a time by saveAll.
+     */
+    private static final int SAVE_ALL_BATCH_SIZE = 50;
+
     private TransactionTemplate txTemplate = null;
 
     private Auditor auditor;
@@ -208,20 +213,31 @@ public class TargetInstanceDAOImpl extends HibernateDaoSupport implements Target
         );
     }
 
+    /**
+     * Save the objects in one transaction, sending the updates to the
+     * database in JDBC batches. Unlike the other saves, a failure is not
+     * swallowed: the transaction is rolled back and the exception is thrown,
+     * so that the caller can save the objects again.
+     *
+     * @see TargetInstanceDAO#saveAll(Collection)
+     */
     @Transactional
     public void saveAll(final Collection coll) {
         txTemplate.execute(
                 new TransactionCallback() {
                     public Object doInTransaction(TransactionStatus ts) {
+                        Session session = currentSession();
+                        Integer batchSize = session.getJdbcBatchSize();
+                        session.setJdbcBatchSize(SAVE_ALL_BATCH_SIZE);
                         try {
                             log.debug("Before Saving Object");
                             for (Object o : coll) {
-                                currentSession().saveOrUpdate(o);
+                                session.saveOrUpdate(o);
                             }
+                            session.flush();
                             log.debug("After Saving Object");
-                        } catch (Exception ex) {
-                            log.warn("Setting Rollback Only");
-                            ts.setRollbackOnly();
+                        } finally {
+                            session.setJdbcBatchSize(batchSize);
                         }
                         return null;
                     }
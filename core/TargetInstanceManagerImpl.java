@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.webcurator.core.harvester.coordinator.HarvestQueue;
 import org.webcurator.core.notification.InTrayManager;
 import org.webcurator.core.notification.MessageType;
 import org.webcurator.core.util.Auditor;
@@ -82,11 +83,20 @@ public class TargetInstanceManagerImpl implements TargetInstanceManager {
      * Save seed history to the seed_history table during prepareHarvest
      */
     private boolean storeSeedHistory = true;
+    /**
+     * The queue of target instances due to be harvested, kept up to date as
+     * target instances are saved.
+     */
+    private HarvestQueue harvestQueue;
 
     public void setStoreSeedHistory(boolean storeSeedHistory) {
         this.storeSeedHistory = storeSeedHistory;
     }
 
+    public void setHarvestQueue(HarvestQueue harvestQueue) {
+        this.harvestQueue = harvestQueue;
+    }
+
     /**
      * @see TargetInstanceManager#getStoreSeedHistory().
      */
@@ -168,6 +178,9 @@ public class TargetInstanceManagerImpl implements TargetInstanceManager {
 //    	}
 
         targetInstanceDao.delete(aTargetInstance);
+        if (harvestQueue != null) {
+            harvestQueue.remove(aTargetInstance.getOid());
+        }
         auditor.audit(TargetInstance.class.getName(), aTargetInstance.getOid(), Auditor.ACTION_DELETE_TARGET_INSTANCE, "The TargetInstance '" + aTargetInstance.getOid() + "' has been deleted");
     }
 
@@ -211,6 +224,9 @@ public class TargetInstanceManagerImpl implements TargetInstanceManager {
         }
 
         targetInstanceDao.save(aTargetInstance);
+        if (harvestQueue != null) {
+            harvestQueue.update(aTargetInstance);
+        }
 
         if (aTargetInstance.getAnnotations() != null && !aTargetInstance.getAnnotations().isEmpty()) {
             annotationDAO.saveAnnotations(aTargetInstance.getAnnotations());
@@ -318,6 +334,11 @@ public class TargetInstanceManagerImpl implements TargetInstanceManager {
      */
     public void saveAll(Collection<TargetInstance> aCollection) {
         targetInstanceDao.saveAll(aCollection);
+        if (harvestQueue != null) {
+            for (TargetInstance targetInstance : aCollection) {
+                harvestQueue.update(targetInstance);
+            }
+        }
     }
 
     /**
@@ -22,6 +22,9 @@ import java.text.MessageFormat;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.tika.Tika;
 import org.slf4j.Logger;
@@ -36,6 +39,9 @@ import org.springframework.stereotype.Component;
 import org.webcurator.core.archive.SipBuilder;
 import org.webcurator.core.exceptions.DigitalAssetStoreException;
 import org.webcurator.core.exceptions.WCTRuntimeException;
+import org.webcurator.core.reader.LogReader;
+import org.webcurator.core.reader.SeekableLog;
+import org.webcurator.core.rest.AbstractRestClient;
 import org.webcurator.core.harvester.HarvesterType;
 import org.webcurator.core.harvester.coordinator.*;
 import org.webcurator.core.util.AuthUtil;
@@ -133,12 +139,32 @@ public class WctCoordinatorImpl implements WctCoordinator {
     @Value("${harvestCoordinator.harvestOptimizationEnabled}")
     private boolean harvestOptimizationEnabled;
 
+    /**
+     * The number of harvests sent to the harvest agents at the same time, or
+     * 0 to send them one at a time as they are allocated.
+     */
+    @Value("${harvestCoordinator.dispatchThreads}")
+    private int dispatchThreads = 0;
+    private HarvestDispatcher harvestDispatcher;
+
     @Autowired
     private HarvestResultManager harvestResultManager;
 
     @Autowired
     private NetworkMapClient networkMapClient;
 
+    @Autowired(required = false)
+    private LogFileAttributesCache logFileAttributesCache;
+
+    @Autowired(required = false)
+    private HarvestQueue harvestQueue;
+
+    /**
+     * Held while the queue is processed, so that the schedule and the harvest
+     * queue do not process it at the same time.
+     */
+    private final Object queueLock = new Object();
+
     /**
      * Default Constructor.
      */
@@ -162,6 +188,25 @@ public class WctCoordinatorImpl implements WctCoordinator {
         this.harvestQaManager = harvestQaManager;
     }
 
+    public void setLogFileAttributesCache(LogFileAttributesCache logFileAttributesCache) {
+        this.logFileAttributesCache = logFileAttributesCache;
+    }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public void setHarvestQueue(HarvestQueue harvestQueue) {
+        this.harvestQueue = harvestQueue;
+    }
+
+    @PostConstruct
+    public void registerWithHarvestQueue() {
+        if (harvestQueue != null) {
+            harvestQueue.setDispatcher(this::queueScheduledInstances);
+        }
+    }
+
     public void setVisualizationDirectoryManager(VisualizationDirectoryManager visualizationDirectoryManager) {
         this.visualizationDirectoryManager = visualizationDirectoryManager;
     }
@@ -210,6 +255,9 @@ public class WctCoordinatorImpl implements WctCoordinator {
     public void harvestComplete(HarvestResultDTO aResult) {
         log.debug("Harvest Complete: ti: {}, havestResult: {}", aResult.getTargetInstanceOid(), aResult.getHarvestNumber());
 
+        // The harvest agent has sent the logs of the job to the store.
+        invalidateLogFileAttributes(aResult.getTargetInstanceOid());
+
         HarvestResult harvestResult = targetInstanceManager.getHarvestResult(aResult.getTargetInstanceOid(), aResult.getHarvestNumber());
         if (harvestResult != null) {
             if (harvestResult.getTargetInstance().getState().equalsIgnoreCase(TargetInstance.STATE_PATCHING) && harvestResult.getState() != HarvestResult.STATE_ABORTED) {
@@ -361,6 +409,10 @@ public class WctCoordinatorImpl implements WctCoordinator {
 
         // Run the actual harvest.
         _harvest(aTargetInstance, aHarvestAgent);
+        if (harvestQueue != null) {
+            // Harvested ahead of the queue.
+            harvestQueue.update(aTargetInstance);
+        }
     }
 
     private void prepareHarvest(TargetInstance aTargetInstance) {
@@ -574,6 +626,7 @@ public class WctCoordinatorImpl implements WctCoordinator {
 
             // Initiate harvest on the remote harvest agent
             harvestAgentManager.initiateHarvest(harvestAgentStatusDTO, PatchUtil.getPatchJobName(cmd.getTargetInstanceId(), cmd.getNewHarvestResultNumber()), profile, seeds.toString());
+            invalidateLogFileAttributes(ti.getOid());
             harvestResultManager.updateHarvestResultStatus(cmd.getTargetInstanceId(), cmd.getNewHarvestResultNumber(), HarvestResult.STATE_CRAWLING, HarvestResult.STATUS_RUNNING);
             log.info("HarvestCoordinator: Harvest initiated successfully for Harvest Result {}", ti.getOid(), hr.getHarvestNumber());
 
@@ -582,6 +635,11 @@ public class WctCoordinatorImpl implements WctCoordinator {
 
             harvestAgentStatusDTO.setInTransition(true);
             processed = true;
+            if (harvestQueue != null) {
+                // Patching target instances are not updated in the queue, so the entry is dropped until the next
+                // load, which brings it back if another stage of the patch is scheduled.
+                harvestQueue.remove(ti.getOid());
+            }
         } catch (Throwable e) {
             log.warn(MessageFormat.format("Failed to allocate harvest to agent {0}: {1}", harvestAgentStatusDTO.getName(), e.getMessage()), e);
             harvestAgentManager.markDead(harvestAgentStatusDTO);
@@ -821,21 +879,39 @@ public class WctCoordinatorImpl implements WctCoordinator {
     }
 
     private void queueScheduledInstances() {
-        List<QueuedTargetInstanceDTO> theQueue = targetInstanceDao.getQueue();
-        log.info("Start: Processing " + theQueue.size() + " entries from the queue.");
-
-        QueuedTargetInstanceDTO ti = null;
-        Iterator<QueuedTargetInstanceDTO> it = theQueue.iterator();
-        while (it.hasNext()) {
-            ti = it.next();
-            log.info("Processing queue and modify entry: " + ti.toString());
-            if (ti.getState().equalsIgnoreCase(TargetInstance.STATE_PATCHING)) {
-                launchQueuedPatchHarvest(ti);
-            } else {
-                harvestOrQueue(ti);
+        synchronized (queueLock) {
+            List<QueuedTargetInstanceDTO> theQueue = harvestQueue == null ? targetInstanceDao.getQueue() : harvestQueue.getDue();
+            log.info("Start: Processing " + theQueue.size() + " entries from the queue.");
+
+            QueuedTargetInstanceDTO ti = null;
+            Iterator<QueuedTargetInstanceDTO> it = theQueue.iterator();
+            while (it.hasNext()) {
+                ti = it.next();
+                if (ti.getState().equalsIgnoreCase(TargetInstance.STATE_PATCHING)) {
+                    log.info("Processing queue and modify entry: " + ti.toString());
+                    launchQueuedPatchHarvest(ti);
+                } else if (TargetInstance.STATE_QUEUED.equals(ti.getState()) && !isHarvesterAvailable(ti.getAgencyName())) {
+                    // Already queued, and no agent could take it, so there is no need to load it.
+                    log.debug("No harvest agent available for queued entry: {}", ti);
+                } else {
+                    log.info("Processing queue and modify entry: " + ti.toString());
+                    harvestOrQueue(ti);
+                }
+            }
+            log.info("Finished: Processing {} entries from the queue.", theQueue.size());
+        }
+    }
+
+    private boolean isHarvesterAvailable(String agencyName) {
+        if (queuePaused) {
+            return false;
+        }
+        for (HarvestAgentStatusDTO agent : harvestAgentManager.getAvailableHarvesters(agencyName)) {
+            if (agent.isAcceptTasks()) {
+                return true;
             }
         }
-        log.info("Finished: Processing {} entries from the queue.", theQueue.size());
+        return false;
     }
 
     public void queueOptimisableInstances() {
@@ -912,23 +988,45 @@ public class WctCoordinatorImpl implements WctCoordinator {
 
         if (TargetInstance.STATE_SCHEDULED.equals(aTargetInstance.getState())) {
             ti = loadTargetInstance(tiOid);
-            approved = isTargetApproved(ti);
+            approved = isWaitingToHarvest(ti) && isTargetApproved(ti);
+            if (!approved && harvestQueue != null) {
+                // The harvest has been deferred, or is no longer waiting to be harvested.
+                harvestQueue.update(ti);
+            }
         }
 
+        boolean dispatched = false;
         if (approved) {
-            queueApprovedHarvest(aTargetInstance, ti, tiOid);
+            dispatched = queueApprovedHarvest(aTargetInstance, ti, tiOid);
+        }
+        if (!dispatched) {
+            // release the lock
+            harvestAgentManager.unLock(tiOid);
+            log.info("Released lock for ti " + tiOid);
         }
-        // release the lock
-        harvestAgentManager.unLock(tiOid);
-        log.info("Released lock for ti " + tiOid);
     }
 
-    private void queueApprovedHarvest(QueuedTargetInstanceDTO queuedTargetInstance, TargetInstance ti, Long tiOid) {
+    /**
+     * Allocate the target instance to an agent, or queue it if none is
+     * available.
+     *
+     * @return true if the harvest has been passed to the dispatch threads,
+     * which release the lock of the target instance once it has been sent
+     */
+    private boolean queueApprovedHarvest(QueuedTargetInstanceDTO queuedTargetInstance, TargetInstance ti, Long tiOid) {
+        if (ti == null) {
+            ti = loadTargetInstance(tiOid);
+        }
+        if (!isWaitingToHarvest(ti)) {
+            // The queue entry is stale, e.g. the harvest was started or deleted since it was queued.
+            log.info("Dropping TI " + tiOid + " from the queue, it is now " + ti.getState());
+            if (harvestQueue != null) {
+                harvestQueue.remove(tiOid);
+            }
+            return false;
+        }
         boolean processed = false;
         while (!processed) {
-            if (ti == null) {
-                ti = loadTargetInstance(tiOid);
-            }
             // Check to see what harvester resource is available
             HarvestAgentStatusDTO agent = harvestAgentManager.getHarvester(
                     queuedTargetInstance.getAgencyName(),
@@ -942,31 +1040,90 @@ public class WctCoordinatorImpl implements WctCoordinator {
             }
 
             if (harvestAgentCanHarvest(agent, queuedTargetInstance)) {
+                if (dispatchThreads > 0) {
+                    dispatchHarvest(agent, tiOid);
+                    return true;
+                }
                 synchronized (agent) {
                     // allocate the target instance to the agent
                     log.info("Allocating TI " + tiOid + " to agent " + agent.getName());
                     processed = harvestTargetInstance(agent, ti);
                 }
+                if (processed && harvestQueue != null) {
+                    harvestQueue.remove(tiOid);
+                }
             } else {
                 processed = true;
                 log.info("Re-queueing TI " + tiOid);
                 // if not already queued set the target instance to the
                 // queued state.
-                if (!queuedTargetInstance.getState().equals(TargetInstance.STATE_QUEUED)) {
-                    if (ti == null) {
-                        ti = loadTargetInstance(tiOid);
-                    }
-
+                if (!TargetInstance.STATE_QUEUED.equals(ti.getState())) {
                     // Prepare the harvest for the queue.
                     prepareHarvest(ti);
 
                     ti.setState(TargetInstance.STATE_QUEUED);
                     targetInstanceDao.save(ti);
+                    if (harvestQueue != null) {
+                        harvestQueue.update(ti);
+                    }
                     inTrayManager.generateNotification(ti.getOwner().getOid(), MessageType.CATEGORY_MISC,
                             MessageType.TARGET_INSTANCE_QUEUED, ti);
                 }
             }
         }
+        return false;
+    }
+
+    /**
+     * Reserve the agent, so that it is not allocated another target instance
+     * before it reports the harvest, and send the harvest on the dispatch
+     * threads. The target instance is loaded again on the dispatch thread
+     * rather than shared with the thread that allocated it.
+     */
+    private void dispatchHarvest(HarvestAgentStatusDTO agent, Long tiOid) {
+        harvestAgentManager.reserve(agent.getName());
+        log.info("Allocating TI " + tiOid + " to agent " + agent.getName());
+        getHarvestDispatcher().dispatch(agent.getName(), () -> {
+            try {
+                TargetInstance ti = loadTargetInstance(tiOid);
+                if (!isWaitingToHarvest(ti)) {
+                    log.info("Dropping TI " + tiOid + " from the queue, it is now " + ti.getState());
+                    if (harvestQueue != null) {
+                        harvestQueue.remove(tiOid);
+                    }
+                } else if (harvestTargetInstance(agent, ti)) {
+                    if (harvestQueue != null) {
+                        harvestQueue.remove(tiOid);
+                    }
+                } else if (harvestQueue != null) {
+                    // The agent has been marked dead, try the others.
+                    harvestQueue.wake();
+                }
+            } finally {
+                harvestAgentManager.release(agent.getName());
+                harvestAgentManager.unLock(tiOid);
+                log.info("Released lock for ti " + tiOid);
+            }
+        });
+    }
+
+    private synchronized HarvestDispatcher getHarvestDispatcher() {
+        if (harvestDispatcher == null) {
+            harvestDispatcher = new HarvestDispatcher(dispatchThreads);
+        }
+        return harvestDispatcher;
+    }
+
+    @PreDestroy
+    public void shutdownHarvestDispatcher() {
+        HarvestDispatcher dispatcher;
+        synchronized (this) {
+            dispatcher = harvestDispatcher;
+            harvestDispatcher = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
     }
 
     private TargetInstance loadTargetInstance(Long tiOid) {
@@ -991,6 +1148,10 @@ public class WctCoordinatorImpl implements WctCoordinator {
         return processed;
     }
 
+    private static boolean isWaitingToHarvest(TargetInstance ti) {
+        return TargetInstance.STATE_SCHEDULED.equals(ti.getState()) || TargetInstance.STATE_QUEUED.equals(ti.getState());
+    }
+
     private boolean harvestAgentCanHarvest(HarvestAgentStatusDTO agent, QueuedTargetInstanceDTO aTargetInstance) {
         return !queuePaused && agent != null && agent.isAcceptTasks()
                 && harvestBandwidthManager.isMiniumBandwidthAvailable(aTargetInstance);
@@ -1047,7 +1208,17 @@ public class WctCoordinatorImpl implements WctCoordinator {
      * @see HarvestCoordinator#listLogFileAttributes(TargetInstance)
      */
     public List<LogFilePropertiesDTO> listLogFileAttributes(TargetInstance aTargetInstance) {
-        return harvestLogManager.listLogFileAttributes(aTargetInstance);
+        if (logFileAttributesCache == null || aTargetInstance.getOid() == null) {
+            return harvestLogManager.listLogFileAttributes(aTargetInstance);
+        }
+        return logFileAttributesCache.get(aTargetInstance.getOid().toString(),
+                () -> harvestLogManager.listLogFileAttributes(aTargetInstance));
+    }
+
+    private void invalidateLogFileAttributes(Long targetInstanceOid) {
+        if (logFileAttributesCache != null && targetInstanceOid != null) {
+            logFileAttributesCache.invalidate(targetInstanceOid);
+        }
     }
 
     /**
@@ -1110,6 +1281,32 @@ public class WctCoordinatorImpl implements WctCoordinator {
         return harvestLogManager.getLogLinesByRegex(aTargetInstance, aFileName, aNoOfLines, aRegex, prependLineNumbers);
     }
 
+    /**
+     * @see HarvestCoordinator#getLogLinesWithIndentedLines(TargetInstance, String, int, String, boolean)
+     */
+    public List<String> getLogLinesWithIndentedLines(TargetInstance aTargetInstance, String aFileName, int aNoOfLines,
+                                                     String aRegex, boolean prependLineNumbers) {
+        return getLogReader(aTargetInstance).getByRegularExpression(aTargetInstance.getJobName(), aFileName, aRegex,
+                SeekableLog.INDENTED_LINE_REGEX, prependLineNumbers, 0, aNoOfLines);
+    }
+
+    /**
+     * @see HarvestCoordinator#getLogReaderBaseUrl(TargetInstance)
+     */
+    public String getLogReaderBaseUrl(TargetInstance aTargetInstance) {
+        LogReader logReader = getLogReader(aTargetInstance);
+        return logReader instanceof AbstractRestClient ? ((AbstractRestClient) logReader).getBaseUrl() : null;
+    }
+
+    private LogReader getLogReader(TargetInstance aTargetInstance) {
+        // If we are harvesting then get the log files from the harvester
+        LogReader logReader = harvestAgentManager.getLogReader(aTargetInstance);
+        if (logReader == null) {
+            logReader = digitalAssetStoreFactory.getLogReader();
+        }
+        return logReader;
+    }
+
     /**
      * @see HarvestCoordinator#getHopPath(TargetInstance, String, String)
      */
@@ -1694,6 +1891,7 @@ public class WctCoordinatorImpl implements WctCoordinator {
     }
 
     private void initiateIndexing(TargetInstance ti, HarvestResult hr) {
+        invalidateLogFileAttributes(ti.getOid());
         try {
             hr.setState(HarvestResult.STATE_INDEXING);
             targetInstanceDao.save(hr);
@@ -1741,6 +1939,7 @@ public class WctCoordinatorImpl implements WctCoordinator {
         }
 
         //Next step is to excute pruning and imporing, so change the state and status to Modifying Scheduled
+        invalidateLogFileAttributes(ti.getOid());
         ModifyResult result = pushPruneAndImport(cmd);
         return result.getRespCode() == VisualizationConstants.RESP_CODE_SUCCESS;
     }
@@ -1864,6 +2063,7 @@ public class WctCoordinatorImpl implements WctCoordinator {
     public void dasUpdateHarvestResultStatus(HarvestResultDTO hrDTO) {
 //        harvestResultManager.addHarvestResult(hrDTO);
         harvestResultManager.updateHarvestResultStatus(hrDTO);
+        invalidateLogFileAttributes(hrDTO.getTargetInstanceOid());
         if (hrDTO.getState() == HarvestResult.STATE_INDEXING && hrDTO.getStatus() == HarvestResult.STATUS_FINISHED) {
             finaliseIndex(hrDTO.getTargetInstanceOid(), hrDTO.getHarvestNumber());
         } else if (hrDTO.getState() == HarvestResult.STATE_MODIFYING && hrDTO.getStatus() == HarvestResult.STATUS_FINISHED) {
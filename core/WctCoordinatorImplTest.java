@@ -257,6 +257,26 @@ public class WctCoordinatorImplTest extends BaseWCTTest<WctCoordinatorImpl> {
         assertTrue(ti.getState().equals(TargetInstance.STATE_QUEUED));
     }
 
+    @Test
+    public final void testHarvestOrQueueStaleEntry() {
+        HarvestQueue mockHarvestQueue = mock(HarvestQueue.class);
+        testInstance.setHarvestQueue(mockHarvestQueue);
+        testInstance.pauseQueue();
+
+        // Queued, then harvested before the queue was processed.
+        TargetInstance ti = tiDao.load(5001L);
+        ti.setState(TargetInstance.STATE_RUNNING);
+
+        QueuedTargetInstanceDTO dto = new QueuedTargetInstanceDTO(ti.getOid(), ti.getScheduledTime(), ti.getPriority(),
+                TargetInstance.STATE_QUEUED, ti.getBandwidthPercent(), ti.getOwningUser().getAgency().getName());
+
+        testInstance.harvestOrQueue(dto);
+
+        ti = tiDao.load(5001L);
+        assertEquals(TargetInstance.STATE_RUNNING, ti.getState());
+        verify(mockHarvestQueue).remove(5001L);
+    }
+
     @Test
     public final void testHarvestOrQueueMemoryWarning() {
         TargetInstance ti = tiDao.load(5001L);
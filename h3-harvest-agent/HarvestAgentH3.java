@@ -19,6 +19,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.netarchivesuite.heritrix3wrapper.ScriptResult;
+import org.springframework.beans.factory.annotation.Value;
 import org.webcurator.core.harvester.Constants;
 import org.webcurator.core.harvester.HarvesterType;
 import org.webcurator.core.harvester.agent.exception.HarvestAgentException;
@@ -100,6 +101,10 @@ public class HarvestAgentH3 extends AbstractHarvestAgent implements LogProvider
      * the interface to the WCT harvest coordinator.
      */
     private HarvestAgentListener harvestCoordinatorNotifier = null;
+    /**
+     * Sends the harvested files to the digital asset store.
+     */
+    private final HarvestFileTransfer fileTransfer = new HarvestFileTransfer();
 
     /**
      * the logger.
@@ -255,6 +260,7 @@ public class HarvestAgentH3 extends AbstractHarvestAgent implements LogProvider
 
         log.info("Removing harvester=" + aJob);
         removeHarvester(aJob);
+        fileTransfer.forget(aJob);
 
         if (harvestDir != null) {
             boolean deleted = FileUtils.deleteQuietly(harvestDir);
@@ -375,14 +381,7 @@ public class HarvestAgentH3 extends AbstractHarvestAgent implements LogProvider
 
             try {
                 File[] fileList = getFileArray(das, new NegateFilter(new ExtensionFileFilter(Constants.EXTN_OPEN_ARC)));
-                int numberOfFiles = fileList.length;
-
-                for (int i = 0; i < numberOfFiles; i++) {
-                    log.debug("Sending ARC " + (i + 1) + " of " + numberOfFiles + " to digital asset store for job " + aJob);
-                    digitalAssetStore.save(aJob, Constants.DIR_ORIGINAL_HARVEST, fileList[i].toPath());
-                    log.debug("Finished sending ARC " + (i + 1) + " of " + numberOfFiles + " to digital asset store for job " + aJob);
-                }
-
+                fileTransfer.send(digitalAssetStore, aJob, Constants.DIR_ORIGINAL_HARVEST, fileList);
             } catch (Exception e) {
                 if (dirsExist(das)) {
                     log.error("Failed to send harvest result to digital asset store for job " + aJob + ": " + e.getMessage(), e);
@@ -399,9 +398,7 @@ public class HarvestAgentH3 extends AbstractHarvestAgent implements LogProvider
             try {
                 File[] fileList = getFileArray(harvester.getHarvestLogDir(), NotEmptyFileFilter.notEmpty(new ExtensionFileFilter(Constants.EXTN_LOGS)));
                 log.info("Sending harvest logs to digital asset store for job " + aJob);
-                for (int i = 0; i < fileList.length; i++) {
-                    digitalAssetStore.save(aJob, Constants.DIR_LOGS, fileList[i].toPath());
-                }
+                fileTransfer.send(digitalAssetStore, aJob, Constants.DIR_LOGS, fileList);
             } catch (Exception e) {
                 if (log.isErrorEnabled()) {
                     log.error("Failed to send harvest logs to digital asset store for job " + aJob + ": " + e.getMessage(), e);
@@ -417,9 +414,7 @@ public class HarvestAgentH3 extends AbstractHarvestAgent implements LogProvider
                 File reportsDir = new File(harvestLogsDir + File.separator + "reports");
                 File[] fileList = getFileArray(reportsDir, NotEmptyFileFilter.notEmpty(new ExtensionFileFilter(Constants.EXTN_REPORTS)), NotEmptyFileFilter.notEmpty(new ExactNameFilter(PROFILE_NAME)));
                 log.info("Sending harvest reports to digital asset store for job " + aJob);
-                for (int i = 0; i < fileList.length; i++) {
-                    digitalAssetStore.save(aJob, Constants.DIR_REPORTS, fileList[i].toPath());
-                }
+                fileTransfer.send(digitalAssetStore, aJob, Constants.DIR_REPORTS, fileList);
             } catch (Exception e) {
                 if (log.isErrorEnabled()) {
                     log.error("Failed to send harvest reports to digital asset store for job " + aJob + ": " + e.getMessage(), e);
@@ -707,6 +702,22 @@ public class HarvestAgentH3 extends AbstractHarvestAgent implements LogProvider
         this.digitalAssetStore = aDigitalAssetStore;
     }
 
+    /**
+     * @param transferThreads The number of files sent to the digital asset store at the same time.
+     */
+    @Value("${harvestAgent.transferThreads:4}")
+    public void setTransferThreads(int transferThreads) {
+        fileTransfer.setThreads(transferThreads);
+    }
+
+    /**
+     * @param transferAttempts The number of times a file is sent to the digital asset store before giving up.
+     */
+    @Value("${harvestAgent.transferAttempts:3}")
+    public void setTransferAttempts(int transferAttempts) {
+        fileTransfer.setAttempts(transferAttempts);
+    }
+
     /**
      * @param harvestCoordinatorNotifier The harvestCoordinatorNotifier to set.
      */
@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.harvester.agent;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.webcurator.core.exceptions.DigitalAssetStoreException;
+import org.webcurator.core.store.DigitalAssetStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the files of a completed harvest to the digital asset store over a
+ * number of concurrent streams.
+ * <p>
+ * A failed file is retried a few times before the transfer gives up. The
+ * files that have been stored are remembered per job, so that when the
+ * harvest completion is retried only the remaining files are sent. The store
+ * keeps the partial content of an interrupted file and continues from where
+ * it stopped, and verifies every file against the checksum sent with it.
+ */
+public class HarvestFileTransfer {
+    private static final Log log = LogFactory.getLog(HarvestFileTransfer.class);
+
+    /**
+     * The number of files sent at the same time.
+     */
+    private int threads = 4;
+
+    /**
+     * The number of times a file is sent before the transfer fails.
+     */
+    private int attempts = 3;
+
+    /**
+     * The absolute paths of the files already stored, by job.
+     */
+    private final Map<String, Set<String>> transferred = new ConcurrentHashMap<>();
+
+    /**
+     * Send the files that have not been stored yet.
+     *
+     * @param digitalAssetStore the store to send the files to
+     * @param aJob              the name of the job
+     * @param directory         the directory in the store to save the files to
+     * @param files             the files to send
+     * @throws DigitalAssetStoreException if any file could not be stored; the
+     *                                    files that were stored are not sent again
+     */
+    public void send(DigitalAssetStore digitalAssetStore, String aJob, String directory, File[] files) throws DigitalAssetStoreException {
+        Set<String> done = transferred.computeIfAbsent(aJob, k -> Collections.newSetFromMap(new ConcurrentHashMap<>()));
+        List<File> pending = new ArrayList<>();
+        for (File file : files) {
+            if (!done.contains(file.getAbsolutePath())) {
+                pending.add(file);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        log.info("Sending " + pending.size() + " of " + files.length + " files to " + directory + " for job " + aJob
+                + " over " + Math.min(threads, pending.size()) + " streams");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, pending.size())), new TransferThreadFactory(aJob));
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (File file : pending) {
+                futures.add(executor.submit(() -> {
+                    sendFile(digitalAssetStore, aJob, directory, file);
+                    done.add(file.getAbsolutePath());
+                    return null;
+                }));
+            }
+            executor.shutdown();
+
+            Throwable failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof DigitalAssetStoreException) {
+                throw (DigitalAssetStoreException) failure;
+            } else if (failure != null) {
+                throw new DigitalAssetStoreException("Failed to send files for job " + aJob + ": " + failure.getMessage(), failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DigitalAssetStoreException("Interrupted while sending files for job " + aJob, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void sendFile(DigitalAssetStore digitalAssetStore, String aJob, String directory, File file) throws DigitalAssetStoreException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                log.debug("Sending " + file.getName() + " to digital asset store for job " + aJob + ", attempt " + attempt);
+                digitalAssetStore.save(aJob, directory, file.toPath());
+                log.debug("Finished sending " + file.getName() + " to digital asset store for job " + aJob);
+                return;
+            } catch (DigitalAssetStoreException e) {
+                if (attempt >= attempts) {
+                    throw e;
+                }
+                log.warn("Failed to send " + file.getName() + " for job " + aJob + ", retrying: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forget the files stored for a job, once the job has been tidied up.
+     *
+     * @param aJob the name of the job
+     */
+    public void forget(String aJob) {
+        transferred.remove(aJob);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    private static class TransferThreadFactory implements ThreadFactory {
+        private final String job;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private TransferThreadFactory(String job) {
+            this.job = job;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "transfer-" + job + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package org.webcurator.core.store.arc;
 
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.webcurator.core.coordinator.WctCoordinatorPaths;
 import org.webcurator.core.exceptions.DigitalAssetStoreException;
+import org.webcurator.core.store.ArchivedResource;
 import org.webcurator.core.store.DigitalAssetStore;
 import org.webcurator.core.store.DigitalAssetStoreHarvestSaveDTO;
 import org.webcurator.core.store.DigitalAssetStorePaths;
@@ -21,7 +24,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
@@ -71,12 +74,47 @@ public class ArcDigitalAssetStoreController implements DigitalAssetStore {
         return null;
     }
 
-    @PostMapping(path = DigitalAssetStorePaths.SMALL_RESOURCE)
-    public byte[] getSmallResourceExternal(@PathVariable(value = "target-instance-id") long targetInstanceId,
-                                           @RequestParam(value = "harvest-result-number") int harvestResultNumber,
-                                           @RequestParam(value = "resource-url") String resourceUrl) throws DigitalAssetStoreException {
+    @RequestMapping(path = DigitalAssetStorePaths.RESOURCE_WITH_HEADERS, method = {RequestMethod.POST, RequestMethod.GET})
+    void getResourceWithHeadersExternal(@PathVariable(value = "target-instance-id") long targetInstanceId,
+                                        @RequestParam(value = "harvest-result-number") int harvestResultNumber,
+                                        @RequestParam(value = "resource-url") String resourceUrl,
+                                        HttpServletResponse rsp) throws DigitalAssetStoreException {
+        log.debug("Get resource with headers, target-instance-id: {}, harvest-result-number: {}, resource-url: {}", targetInstanceId, harvestResultNumber, resourceUrl);
+        rsp.setContentType("application/octet-stream");
+        try {
+            arcDigitalAssetStoreService.writeResourceWithHeaders(targetInstanceId, harvestResultNumber, URLDecoder.decode(resourceUrl), rsp.getOutputStream());
+        } catch (IOException e) {
+            throw new DigitalAssetStoreException(e.getMessage());
+        }
+    }
+
+    @Override
+    public ArchivedResource openResourceWithHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl) throws DigitalAssetStoreException {
+        return arcDigitalAssetStoreService.openResourceWithHeaders(targetInstanceId, harvestResultNumber, resourceUrl);
+    }
+
+    @PostMapping(path = DigitalAssetStorePaths.SMALL_RESOURCE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public void getSmallResourceExternal(@PathVariable(value = "target-instance-id") long targetInstanceId,
+                                         @RequestParam(value = "harvest-result-number") int harvestResultNumber,
+                                         @RequestParam(value = "resource-url") String resourceUrl,
+                                         HttpServletResponse rsp) throws DigitalAssetStoreException {
         log.debug("Get resource, target-instance-id: {}, harvest-result-number: {}, resource-url: {}", targetInstanceId, harvestResultNumber, resourceUrl);
-        return getSmallResource(targetInstanceId, harvestResultNumber, URLDecoder.decode(resourceUrl));
+        ArchivedResource resource = arcDigitalAssetStoreService.openSmallResource(targetInstanceId, harvestResultNumber, URLDecoder.decode(resourceUrl));
+        try {
+            if (resource == null) {
+                // Too large for the in-memory transfer: the client falls back to the resource path.
+                rsp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+            try (InputStream in = resource.getContent()) {
+                // The length lets the client size its buffer and refuse the body before reading it.
+                rsp.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+                rsp.setContentLengthLong(resource.getPayloadLength());
+                IOUtils.copyLarge(in, rsp.getOutputStream());
+            }
+        } catch (IOException e) {
+            throw new DigitalAssetStoreException(e.getMessage());
+        }
     }
 
     @Override
@@ -118,6 +156,14 @@ public class ArcDigitalAssetStoreController implements DigitalAssetStore {
         return arcDigitalAssetStoreService.checkIndexing(harvestResultOid);
     }
 
+    @Override
+    @GetMapping(path = DigitalAssetStorePaths.CRAWL_LOG_SUMMARY)
+    public CrawlLogSummaryDTO getCrawlLogSummary(@PathVariable(value = "target-instance-id") long targetInstanceId,
+                                                 @RequestParam(value = "harvest-result-number") int harvestResultNumber) throws DigitalAssetStoreException {
+        log.debug("Get crawl log summary, target-instance-id: {}, harvest-result-number: {}", targetInstanceId, harvestResultNumber);
+        return arcDigitalAssetStoreService.getCrawlLogSummary(targetInstanceId, harvestResultNumber);
+    }
+
     @Override
     public void submitToArchive(String targetInstanceOid, String sip, Map xAttributes, int harvestNumber) throws DigitalAssetStoreException {
         log.debug("Submit to archive, target-instance-oid: {}, sip: {}, harvest-number: {}", targetInstanceOid, sip, harvestNumber);
@@ -157,30 +203,22 @@ public class ArcDigitalAssetStoreController implements DigitalAssetStore {
     }
 
     @RequestMapping(path = DigitalAssetStorePaths.SAVE, method = {RequestMethod.POST, RequestMethod.GET})
-    public void externalSave(@RequestBody DigitalAssetStoreHarvestSaveDTO dto) throws DigitalAssetStoreException {
-        log.debug("Save harvest, {}", dto.toString());
+    public void externalSave(@RequestBody DigitalAssetStoreHarvestSaveDTO dto,
+                             @RequestParam(value = "checksum", required = false) String checksum) throws DigitalAssetStoreException {
+        log.debug("Save harvest, {}, checksum: {}", dto.toString(), checksum);
         File f = new File(dto.getFilePath());
         if (dto.getFileUploadMode().equalsIgnoreCase(FILE_UPLOAD_MODE_STREAM)) {
-            String link = String.format("%s%s?filePath=%s", dto.getHarvestBaseUrl(), WctCoordinatorPaths.DOWNLOAD, dto.getFilePath());
-            URLConnection conn = null;
-
-            try {
+            arcDigitalAssetStoreService.save(dto.getTargetInstanceName(), dto.getDirectory(), f.getName(), checksum, offset -> {
+                String link = String.format("%s%s?filePath=%s&offset=%d", dto.getHarvestBaseUrl(), WctCoordinatorPaths.DOWNLOAD, dto.getFilePath(), offset);
                 URL url = URI.create(link).toURL();
-                conn = url.openConnection();
+                URLConnection conn = url.openConnection();
                 conn.setRequestProperty("Content-Type", "application/octet-stream");
                 conn.setDoInput(true);
                 conn.setDoOutput(true);
-
-                arcDigitalAssetStoreService.save(dto.getTargetInstanceName(), dto.getDirectory(), f.getName(), conn.getInputStream());
-                conn.getInputStream().close();
-            } catch (IOException e) {
-                log.error("Download file from harvest agent failed", e);
-                throw new DigitalAssetStoreException(e);
-            } finally {
-                if (conn != null) ((HttpURLConnection) conn).disconnect();
-            }
+                return conn.getInputStream();
+            });
         } else {
-            save(dto.getTargetInstanceName(), dto.getDirectory(), f.toPath());
+            arcDigitalAssetStoreService.save(dto.getTargetInstanceName(), dto.getDirectory(), f.toPath(), checksum);
         }
     }
 
@@ -20,15 +20,24 @@ import static org.webcurator.core.archive.Constants.LOG_FILE;
 import static org.webcurator.core.archive.Constants.REPORT_FILE;
 import static org.webcurator.core.archive.Constants.ROOT_FILE;
 
-import it.unipi.di.util.ExternalSort;
-
 import java.io.*;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpParser;
@@ -52,10 +61,15 @@ import org.webcurator.core.coordinator.WctCoordinatorClient;
 import org.webcurator.core.coordinator.WctCoordinatorPaths;
 import org.webcurator.core.rest.AbstractRestClient;
 import org.webcurator.core.store.Constants;
+import org.webcurator.core.store.CrawlLogSorter;
+import org.webcurator.core.store.CrawlLogSummarizer;
 import org.webcurator.core.exceptions.DigitalAssetStoreException;
+import org.webcurator.core.reader.BlockCompressedLog;
 import org.webcurator.core.reader.LogProvider;
+import org.webcurator.core.store.ArchivedResource;
 import org.webcurator.core.store.DigitalAssetStore;
 import org.webcurator.core.store.Indexer;
+import org.webcurator.core.util.ChecksumUtil;
 import org.webcurator.core.util.PatchUtil;
 import org.webcurator.core.util.WebServiceEndPoint;
 import org.webcurator.core.visualization.VisualizationAbstractProcessor;
@@ -101,6 +115,26 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
      */
     private final int BYTE_BUFF_SIZE = 1024;
 
+    /**
+     * The directory of a target instance that holds incomplete transfers.
+     */
+    public static final String PARTIAL_DIR = ".partial";
+
+    /**
+     * The most bytes written to a file by one FileChannel.transferFrom call.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * The largest resource, in bytes, that is sent through the small resource transfer.
+     */
+    private long smallResourceMaxSize = 1024 * 1024;
+
+    /**
+     * Sorts the crawl.log to create the sorted crawl.log.
+     */
+    private CrawlLogSorter crawlLogSorter = new CrawlLogSorter();
+
     /**
      * Arc files meta data date format.
      */
@@ -130,6 +164,29 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
     @Autowired
     private BDBNetworkMapPool pool;
 
+    /**
+     * The pool of open archive readers shared by the resource lookups.
+     */
+    private ArchiveReaderPool archiveReaderPool = new ArchiveReaderPool();
+
+    /**
+     * The cache of network map lookups used to locate resources.
+     */
+    private NetworkMapNodeCache networkMapNodeCache = new NetworkMapNodeCache();
+
+    /**
+     * The plain copies of compressed logs served by getLogFile, by compressed
+     * log, least recently used first.
+     */
+    private final LinkedHashMap<File, File> decompressedLogs = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * A lock for each compressed log being decompressed, so that only the
+     * requests for the same log wait for each other.
+     */
+    private final ConcurrentHashMap<File, Object> decompressionLocks = new ConcurrentHashMap<>();
+    private File decompressedLogsDir;
+    private int maxDecompressedLogs = 4;
+
     private WctCoordinatorClient wctCoordinatorClient;
 
     private String pageImagePrefix = "PageImage";
@@ -141,50 +198,137 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
     }
 
     /**
-     * Read data from HTTP API and save to storage of store component
+     * Opens the content of a file being saved, starting at the given offset.
+     */
+    public interface TransferSource {
+        InputStream open(long offset) throws IOException;
+    }
+
+    /**
+     * Save a file sent by a harvest agent, verifying its checksum. The file is
+     * written to a partial file under the PARTIAL_DIR of the target instance
+     * and only moved into place once its checksum matches, so an interrupted
+     * transfer leaves the partial file behind and the next attempt continues
+     * from its end. A file that is already stored with the same checksum is
+     * not transferred again.
      *
-     * @param targetInstanceName: Target Instance ID
-     * @param directory:          Sub-directory of input files
-     * @param fileName:           The file's name
-     * @param inputStream:        The input stream
-     * @throws DigitalAssetStoreException
+     * @param targetInstanceName the name of the target instance
+     * @param directory          the sub-directory to save the file to
+     * @param fileName           the name of the file
+     * @param checksum           the SHA-256 checksum of the file, or null if the
+     *                           agent did not send one, in which case the
+     *                           transfer always starts from the beginning
+     * @param source             opens the content of the file
+     * @throws DigitalAssetStoreException if the transfer failed or the checksum does not match
      */
-    public void save(String targetInstanceName, String directory, String fileName, InputStream inputStream) throws DigitalAssetStoreException {
+    public void save(String targetInstanceName, String directory, String fileName, String checksum, TransferSource source)
+            throws DigitalAssetStoreException {
         if (directory == null || directory.trim().length() == 0) {
             directory = "1";
         }
-
-        // Target destination is always baseDir plus targetInstanceName.
         File targetDir = new File(baseDir, String.format("%s%s%s", targetInstanceName, File.separator, directory));
+        File destination = new File(targetDir, fileName);
+        File partialDir = new File(baseDir, String.format("%s%s%s%s%s", targetInstanceName, File.separator, PARTIAL_DIR, File.separator, directory));
+        File partial = new File(partialDir, fileName);
 
-        // Create the target dir if is doesn't exist. This will also
-        // create the parent if necessary.
-        if (!targetDir.exists()) {
+        try {
+            if (checksum != null && destination.exists() && checksum.equalsIgnoreCase(ChecksumUtil.checksum(destination))) {
+                log.info("File {} is already in the store, skipping the transfer", destination.getAbsolutePath());
+                return;
+            }
             targetDir.mkdirs();
-        }
+            partialDir.mkdirs();
+
+            MessageDigest digest = ChecksumUtil.newDigest();
+            long offset = 0;
+            if (partial.exists()) {
+                if (checksum == null) {
+                    partial.delete();
+                } else {
+                    offset = partial.length();
+                    ChecksumUtil.update(digest, partial);
+                    log.info("Resuming the transfer of {} at offset {}", fileName, offset);
+                }
+            }
 
-        // Move the ARC files into the /1 directory.
-        boolean success = true;
-        Exception failureException = null;
+            // The source is an HTTP stream and every byte has to pass through the digest, so
+            // transferFrom still copies through a heap buffer here; it is not a zero-copy receive.
+            try (ReadableByteChannel in = Channels.newChannel(new DigestInputStream(source.open(offset), digest));
+                 FileChannel out = FileChannel.open(partial.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long position = offset;
+                long n;
+                while ((n = out.transferFrom(in, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                    position += n;
+                }
+            }
 
-        // Loop through all the files, but stop if any of them fail.
-        File destination = new File(targetDir, fileName);
-        log.debug("Moving File to Store: " + fileName + " -> " + destination.getAbsolutePath());
+            String actual = ChecksumUtil.toHex(digest.digest());
+            if (checksum != null && !checksum.equalsIgnoreCase(actual)) {
+                // Start again from the beginning on the next attempt.
+                partial.delete();
+                throw new DigitalAssetStoreException("Checksum mismatch for " + fileName + ": expected " + checksum + " but was " + actual);
+            }
 
-        try {
-            FileUtils.copyInputStreamToFile(inputStream, destination);
+            Files.move(partial.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved file {} to {}", fileName, destination.getAbsolutePath());
         } catch (IOException ex) {
-            log.error("Failed to move file " + fileName + " to " + destination.getAbsolutePath(), ex);
-            failureException = ex;
-            success = false;
+            log.error("Failed to save file " + fileName + " to " + destination.getAbsolutePath() + ", " + partial.length() + " bytes received", ex);
+            throw new DigitalAssetStoreException("Failed to save file " + fileName + " to " + targetDir, ex);
         }
 
-        // If the copy failed, throw an exception.
-        if (!success) {
-            throw new DigitalAssetStoreException("Failed to move Archive files to " + targetDir + "/" + directory, failureException);
+        // Remove the partial directories once they are empty.
+        if (partialDir.delete()) {
+            partialDir.getParentFile().delete();
         }
     }
 
+    /**
+     * Save a file from a location shared with the harvest agent with the
+     * configured DasFileMover, verifying its checksum when the file has been
+     * copied. A file that is already stored with the same checksum is not
+     * moved again.
+     *
+     * @param targetInstanceName the name of the target instance
+     * @param directory          the sub-directory to save the file to
+     * @param path               the file to save
+     * @param checksum           the SHA-256 checksum of the file, or null
+     * @throws DigitalAssetStoreException if the file could not be moved or the checksum does not match
+     */
+    public void save(String targetInstanceName, String directory, Path path, String checksum) throws DigitalAssetStoreException {
+        File destination = new File(new File(baseDir, targetInstanceName), directory + File.separator + path.getFileName());
+        try {
+            if (checksum != null && destination.exists() && checksum.equalsIgnoreCase(ChecksumUtil.checksum(destination))) {
+                log.info("File {} is already in the store, skipping the transfer", destination.getAbsolutePath());
+                return;
+            }
+            save(targetInstanceName, directory, path);
+
+            // A rename leaves no source behind and cannot alter the content.
+            if (checksum != null && path.toFile().exists()) {
+                String actual = ChecksumUtil.checksum(destination);
+                if (!checksum.equalsIgnoreCase(actual)) {
+                    destination.delete();
+                    throw new DigitalAssetStoreException("Checksum mismatch for " + path + ": expected " + checksum + " but was " + actual);
+                }
+            }
+        } catch (IOException ex) {
+            throw new DigitalAssetStoreException("Failed to verify file " + path + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Read data from HTTP API and save to storage of store component
+     *
+     * @param targetInstanceName: Target Instance ID
+     * @param directory:          Sub-directory of input files
+     * @param fileName:           The file's name
+     * @param inputStream:        The input stream
+     * @throws DigitalAssetStoreException
+     */
+    public void save(String targetInstanceName, String directory, String fileName, InputStream inputStream) throws DigitalAssetStoreException {
+        save(targetInstanceName, directory, fileName, null, offset -> inputStream);
+    }
+
     /**
      * @see DigitalAssetStore#save(String, String, List<java.nio.file.Path>).
      */
@@ -235,105 +379,31 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
     /**
      * @see DigitalAssetStore#getResource(String, int, HarvestResourceDTO).
      */
-    @SuppressWarnings("finally")
     public Path getResource(long targetInstanceId, int harvestResultNumber, String resourceUrl)
             throws DigitalAssetStoreException {
-        NetworkMapNodeDTO resourceNode = this.queryUrlNode(targetInstanceId, harvestResultNumber, resourceUrl);
-
-        FileOutputStream fos = null;
-        ArchiveReader reader = null;
-        ArchiveRecord record = null;
-        File source = null;
         File dest = null;
+        OutputStream fos = null;
         try {
-            source = new File(this.baseDir, "/" + targetInstanceId + "/"
-                    + harvestResultNumber + "/" + resourceNode.getFileName());
-
-            try {
-                reader = ArchiveReaderFactory.get(source);
-            } catch (IOException ex) {
-                if (log.isWarnEnabled()) {
-                    log.warn("Failed to get resource : " + ex.getMessage());
-                }
-                source = new File(fileArchive.getArchiveRepository() + "/"
-                        + targetInstanceId + "/"
-                        + fileArchive.getArchiveArcDirectory() + "/"
-                        + resourceNode.getFileName());
-                if (log.isWarnEnabled()) {
-                    log.info("trying filestore " + source.getAbsolutePath());
-                }
-                try {
-                    reader = ArchiveReaderFactory.get(source);
-                } catch (IOException e) {
-                    throw new DigitalAssetStoreException(
-                            "Failed to get resource : " + e.getMessage());
-                }
-            }
-
-            record = reader.get(resourceNode.getOffset());
-
             dest = File.createTempFile("wct", "tmp");
-            if (log.isDebugEnabled()) {
-                log.debug("== Temp file: " + dest.getAbsolutePath());
-            }
-
-            fos = new FileOutputStream(dest);
-
-            if (record instanceof ARCRecord) {
-                ((ARCRecord) record).skipHttpHeader();
-            } else {
-                skipStatusLine(record);
-                skipHeaders(record);
-            }
-
-            int bytesRead = 0;
-            byte[] byteBuffer = new byte[BYTE_BUFF_SIZE];
-            while ((bytesRead = record.read(byteBuffer, 0, BYTE_BUFF_SIZE)) != -1) {
-                fos.write(byteBuffer, 0, bytesRead);
-            }
-            if (fos != null)
-                fos.close();
-
+            fos = new BufferedOutputStream(new FileOutputStream(dest));
+            NetworkMapNodeDTO resourceNode = this.queryUrlNode(targetInstanceId, harvestResultNumber, resourceUrl);
+            copyResource(targetInstanceId, harvestResultNumber, resourceNode, fos, false);
+            fos.close();
+            return dest.toPath();
         } catch (IOException e) {
-            if (log.isErrorEnabled()) {
-                log.error("Failed to get resource : " + e.getMessage(), e);
-            }
-            throw new DigitalAssetStoreException("Failed to get resource : "
-                    + e.getMessage());
-        } catch (RuntimeException ex) {
-            if (log.isErrorEnabled()) {
-                log.error("Failed to get resource : " + ex.getMessage(), ex);
-            }
-            throw new DigitalAssetStoreException("Failed to get resource : "
-                    + ex.getMessage());
-        } finally {
-            try {
-                if (fos != null)
-                    fos.close();
-            } catch (Exception ex) {
-                if (log.isErrorEnabled()) {
-                    log.error("close fos failed " + ex.getMessage(), ex);
-                }
-            }
-            try {
-                if (record != null)
-                    record.close();
-            } catch (Exception ex) {
-                if (log.isErrorEnabled()) {
-                    log.error("close record failed " + ex.getMessage(), ex);
-                }
+            log.error("Failed to get resource : " + e.getMessage(), e);
+            IOUtils.closeQuietly(fos);
+            if (dest != null) {
+                dest.delete();
             }
-            try {
-                if (reader != null)
-                    reader.close();
-            } catch (Exception ex) {
-                if (log.isErrorEnabled()) {
-                    log.error("close reader failed " + ex.getMessage(), ex);
-                }
+            throw new DigitalAssetStoreException("Failed to get resource : " + e.getMessage());
+        } catch (DigitalAssetStoreException e) {
+            IOUtils.closeQuietly(fos);
+            if (dest != null) {
+                dest.delete();
             }
+            throw e;
         }
-
-        return dest.toPath();
     }
 
     /**
@@ -341,172 +411,286 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
      */
     public byte[] getSmallResource(long targetInstanceId, int harvestResultNumber, String resourceUrl)
             throws DigitalAssetStoreException {
+        ArchivedResource resource = openResourceWithHeaders(targetInstanceId, harvestResultNumber, resourceUrl);
+        try (InputStream in = resource.getContent()) {
+            // Size the buffer from the payload length, but never allocate more than a small resource may hold up front.
+            long payloadLength = resource.getPayloadLength();
+            int initialSize = (int) Math.min(payloadLength < 0 ? BYTE_BUFF_SIZE : payloadLength, smallResourceMaxSize);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(initialSize, 32));
+            IOUtils.copyLarge(in, out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            log.error("Failed to get resource : " + e.getMessage(), e);
+            throw new DigitalAssetStoreException("Failed to get resource : " + e.getMessage());
+        }
+    }
+
+    /**
+     * @see DigitalAssetStore#getHeaders(String, int, HarvestResourceDTO).
+     */
+    public List<Header> getHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl)
+            throws DigitalAssetStoreException {
+        log.debug("Start of getHeaders()");
+
         NetworkMapNodeDTO resourceNode = this.queryUrlNode(targetInstanceId, harvestResultNumber, resourceUrl);
 
         ArchiveRecord record = null;
         ArchiveReader reader = null;
-        File source = null;
+        boolean failed = true;
         try {
-            source = new File(this.baseDir, "/" + targetInstanceId + "/"
-                    + harvestResultNumber + "/" + resourceNode.getFileName());
-            try {
-                reader = ArchiveReaderFactory.get(source);
+            reader = getArchiveReader(targetInstanceId, harvestResultNumber, resourceNode.getFileName());
 
-            } catch (IOException e) {
-                if (log.isWarnEnabled()) {
-
-                    log.error("Failed to get resource from "
-                            + source.getAbsolutePath() + " from local store");
-                }
-                source = new File(fileArchive.getArchiveRepository() + "/"
-                        + targetInstanceId + "/"
-                        + fileArchive.getArchiveArcDirectory() + "/"
-                        + resourceNode.getFileName());
-                if (log.isWarnEnabled()) {
-                    log.info("trying filestore " + source.getAbsolutePath());
-                }
-                reader = ArchiveReaderFactory.get(source);
-            }
+            log.debug("Skipping to the appropriate record at offset: " + resourceNode.getOffset());
             record = reader.get(resourceNode.getOffset());
 
-            if (record instanceof ARCRecord) {
-                ((ARCRecord) record).skipHttpHeader();
-            } else {
-                skipStatusLine(record);
-                skipHeaders(record);
-            }
-
-            ByteArrayOutputStream fos = new ByteArrayOutputStream(1024 * 1024);
-
-            int bytesRead = 0;
-            byte[] byteBuffer = new byte[BYTE_BUFF_SIZE];
-            while ((bytesRead = record.read(byteBuffer, 0, BYTE_BUFF_SIZE)) != -1) {
-                fos.write(byteBuffer, 0, bytesRead);
-            }
-            fos.close();
-
-            // 5. Return the result.
-            return fos.toByteArray();
+            List<Header> headers = readHttpHeaders(record, resourceNode);
+            failed = false;
+            return headers;
         } catch (IOException ex) {
-            if (log.isWarnEnabled()) {
-                log.warn("Failed to get resource : " + ex.getMessage());
-            }
-        } catch (RuntimeException ex) {
-            if (log.isErrorEnabled()) {
-                log.error("Failed to get resource : " + ex.getMessage(), ex);
-            }
-            throw new DigitalAssetStoreException("Failed to get resource : "
-                    + ex.getMessage(), ex);
+            log.warn("Error reading headers from ArchiveRecord: " + ex.getMessage());
         } finally {
-            try {
-                if (record != null)
-                    record.close();
-            } catch (Exception ex) {
-                if (log.isErrorEnabled()) {
-                    log.error("close record failed " + ex.getMessage(), ex);
-                }
-            }
-            try {
-                if (record != null)
-                    reader.close();
-            } catch (Exception ex) {
-                if (log.isErrorEnabled()) {
-                    log.error("close reader failed " + ex.getMessage(), ex);
-                }
-            }
+            releaseReader(reader, record, failed);
+            log.debug("End of method");
         }
-        return new byte[0];
+        return null;
     }
 
     /**
-     * @see DigitalAssetStore#getHeaders(String, int, HarvestResourceDTO).
+     * The content is read straight from the archive record, which stays
+     * borrowed from the reader pool until the stream is closed.
+     *
+     * @see DigitalAssetStore#openResourceWithHeaders(long, int, String).
      */
-    public List<Header> getHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl)
+    public ArchivedResource openResourceWithHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl)
             throws DigitalAssetStoreException {
-        log.debug("Start of getHeaders()");
-
         NetworkMapNodeDTO resourceNode = this.queryUrlNode(targetInstanceId, harvestResultNumber, resourceUrl);
 
-        List<Header> headers = new ArrayList<>();
-        ArchiveRecord record = null;
         ArchiveReader reader = null;
+        ArchiveRecord record = null;
+        boolean opened = false;
+        try {
+            reader = getArchiveReader(targetInstanceId, harvestResultNumber, resourceNode.getFileName());
+            record = reader.get(resourceNode.getOffset());
 
-        log.debug("Determining the filename");
-
-        File source = new File(this.baseDir, "/" + targetInstanceId + "/"
-                + harvestResultNumber + "/" + resourceNode.getFileName());
+            List<Header> headers = readHttpHeaders(record, resourceNode);
+            ArchivedResource resource = new ArchivedResource(resourceNode.getStatusCode(), headers);
+            resource.setContent(new RecordContent(reader, record));
+            opened = true;
+            return resource;
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to open resource : " + e.getMessage(), e);
+            throw new DigitalAssetStoreException("Failed to open resource : " + e.getMessage());
+        } finally {
+            if (!opened) {
+                releaseReader(reader, record, true);
+            }
+        }
+    }
 
-        try {
-            log.debug("Create the Archive File Reader");
+    /**
+     * The payload of a record opened by {@link #openResourceWithHeaders},
+     * which hands the reader back to the pool when it is closed.
+     */
+    private class RecordContent extends FilterInputStream {
+        private final ArchiveReader reader;
+        private final ArchiveRecord record;
+        private boolean failed;
+        private boolean closed;
+
+        RecordContent(ArchiveReader reader, ArchiveRecord record) {
+            super(record);
+            this.reader = reader;
+            this.record = record;
+        }
 
+        @Override
+        public int read() throws IOException {
             try {
-                reader = ArchiveReaderFactory.get(source);
-            } catch (IOException e) {
-                log.warn("Could not read headers for ArchiveRecord from " + source.getAbsolutePath() + " from local store");
+                return super.read();
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
 
-                source = new File(fileArchive.getArchiveRepository() + "/"
-                        + targetInstanceId + "/"
-                        + fileArchive.getArchiveArcDirectory() + "/"
-                        + resourceNode.getFileName());
-                log.info("trying filestore " + source.getAbsolutePath());
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
 
-                reader = ArchiveReaderFactory.get(source);
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                releaseReader(reader, record, failed);
             }
+        }
+    }
 
-            log.debug("Skipping to the appropriate record at offset: " + resourceNode.getOffset());
+    /**
+     * Write the status line, the headers and the content of a resource to the
+     * given stream in the format read by {@link ArchivedResource#readHead}.
+     * The network map and the archive record are only visited once.
+     *
+     * @param targetInstanceId    the OID of the target instance
+     * @param harvestResultNumber the harvest result number
+     * @param resourceUrl         the resource to retrieve
+     * @param out                 the stream to write to
+     * @throws DigitalAssetStoreException if there are any errors
+     */
+    public void writeResourceWithHeaders(long targetInstanceId, int harvestResultNumber, String resourceUrl, OutputStream out)
+            throws DigitalAssetStoreException {
+        NetworkMapNodeDTO resourceNode = this.queryUrlNode(targetInstanceId, harvestResultNumber, resourceUrl);
+        copyResource(targetInstanceId, harvestResultNumber, resourceNode, out, true);
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new DigitalAssetStoreException("Failed to write resource : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Open a resource for the small resource transfer. The payload length is
+     * taken from the record itself, so a resource longer than
+     * <code>smallResourceMaxSize</code> is refused before any of it is read
+     * and the caller can fall back to the temporary file transfer.
+     *
+     * @param targetInstanceId    the OID of the target instance
+     * @param harvestResultNumber the harvest result number
+     * @param resourceUrl         the resource to retrieve
+     * @return the open resource, which the caller must close, or null if it is too large to be sent as a small resource
+     * @throws DigitalAssetStoreException if there are any errors
+     */
+    public ArchivedResource openSmallResource(long targetInstanceId, int harvestResultNumber, String resourceUrl)
+            throws DigitalAssetStoreException {
+        ArchivedResource resource = openResourceWithHeaders(targetInstanceId, harvestResultNumber, resourceUrl);
+        long payloadLength = resource.getPayloadLength();
+        if (payloadLength < 0 || payloadLength > smallResourceMaxSize) {
+            log.debug("Resource {} is {} bytes, exceeding the small resource limit of {} bytes", resourceUrl,
+                    payloadLength, smallResourceMaxSize);
+            IOUtils.closeQuietly(resource.getContent());
+            return null;
+        }
+        return resource;
+    }
 
+    /**
+     * Locate the record of a resource once, parse its HTTP header and copy the
+     * payload to the output stream, optionally preceded by the parsed head.
+     */
+    private ArchivedResource copyResource(long targetInstanceId, int harvestResultNumber, NetworkMapNodeDTO resourceNode, OutputStream out, boolean writeHead)
+            throws DigitalAssetStoreException {
+        ArchiveReader reader = null;
+        ArchiveRecord record = null;
+        boolean failed = true;
+        try {
+            reader = getArchiveReader(targetInstanceId, harvestResultNumber, resourceNode.getFileName());
             record = reader.get(resourceNode.getOffset());
 
-            if (record instanceof ARCRecord) {
-                log.debug("Reading the headers");
-                ((ARCRecord) record).skipHttpHeader();
-                Header[] headersArray = ((ARCRecord) record).getHttpHeaders();
-                headers.addAll(Arrays.asList(headersArray));
-            } else {
-                log.debug("Reading the headers");
-                skipStatusLine(record);
-                Header[] headersArray = HttpParser.parseHeaders(record,
-                        WARCConstants.DEFAULT_ENCODING);
-                headers.addAll(Arrays.asList(headersArray));
+            List<Header> headers = readHttpHeaders(record, resourceNode);
+            if (writeHead) {
+                ArchivedResource.writeHead(out, resourceNode.getStatusCode(), headers);
             }
 
-            Header httpResponseStatusCode = new Header("HTTP-RESPONSE-STATUS-CODE", Integer.toString(resourceNode.getStatusCode()));
-            headers.add(httpResponseStatusCode);
-
-            Header httpResponseContentLength = new Header("HTTP-RESPONSE-CONTENT_LENGTH", Long.toString(resourceNode.getContentLength()));
-            headers.add(httpResponseContentLength);
-
-            return headers;
-        } catch (IOException ex) {
-            if (log.isWarnEnabled()) {
-                log.warn("Error reading headers from ArchiveRecord: "
-                        + ex.getMessage());
+            int bytesRead = 0;
+            byte[] byteBuffer = new byte[BYTE_BUFF_SIZE];
+            while ((bytesRead = record.read(byteBuffer, 0, BYTE_BUFF_SIZE)) != -1) {
+                out.write(byteBuffer, 0, bytesRead);
             }
+
+            failed = false;
+            return new ArchivedResource(resourceNode.getStatusCode(), headers);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to get resource : " + e.getMessage(), e);
+            throw new DigitalAssetStoreException("Failed to get resource : " + e.getMessage());
         } finally {
-            try {
-                if (record != null)
-                    record.close();
-            } catch (Exception ex) {
-                if (log.isErrorEnabled()) {
-                    log.error("close record failed " + ex.getMessage(), ex);
-                }
-            }
-            try {
-                if (record != null)
-                    reader.close();
-            } catch (Exception ex) {
-                if (log.isErrorEnabled()) {
-                    log.error("close reader failed " + ex.getMessage(), ex);
-                }
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("End of method");
-            }
+            releaseReader(reader, record, failed);
+        }
+    }
+
+    /**
+     * Close the record and hand the reader back to the pool. A reader that
+     * failed, or whose record could not be closed, is closed instead.
+     */
+    private void releaseReader(ArchiveReader reader, ArchiveRecord record, boolean failed) {
+        try {
+            if (record != null)
+                record.close();
+        } catch (Exception ex) {
+            log.error("close record failed " + ex.getMessage(), ex);
+            failed = true;
+        }
+        if (failed) {
+            archiveReaderPool.invalidate(reader);
+        } else {
+            archiveReaderPool.release(reader);
         }
-        return null;
+    }
+
+    /**
+     * Borrow a reader on an archive file from the pool, trying the local store
+     * first and then the file archive repository. The reader must be handed
+     * back with {@link #releaseReader}.
+     */
+    private ArchiveReader getArchiveReader(long targetInstanceId, int harvestResultNumber, String fileName) throws IOException {
+        File source = new File(this.baseDir, "/" + targetInstanceId + "/" + harvestResultNumber + "/" + fileName);
+        try {
+            return archiveReaderPool.borrow(source);
+        } catch (ArchiveReaderPool.PoolExhaustedException e) {
+            throw e;
+        } catch (IOException e) {
+            log.warn("Failed to get resource from " + source.getAbsolutePath() + " from local store");
+            source = new File(fileArchive.getArchiveRepository() + "/"
+                    + targetInstanceId + "/"
+                    + fileArchive.getArchiveArcDirectory() + "/"
+                    + fileName);
+            log.info("trying filestore " + source.getAbsolutePath());
+            return archiveReaderPool.borrow(source);
+        }
+    }
+
+    /**
+     * Parse the HTTP header of a record, leaving the record positioned at the
+     * start of the payload. The status code and content length held by the
+     * network map are appended as pseudo headers.
+     */
+    private List<Header> readHttpHeaders(ArchiveRecord record, NetworkMapNodeDTO resourceNode) throws IOException {
+        List<Header> headers = new ArrayList<>();
+        ArchiveRecordHeader recordHeader = record.getHeader();
+        long recordLength;
+        if (record instanceof ARCRecord) {
+            ((ARCRecord) record).skipHttpHeader();
+            headers.addAll(Arrays.asList(((ARCRecord) record).getHttpHeaders()));
+            recordLength = recordHeader.getLength();
+        } else {
+            skipStatusLine(record);
+            headers.addAll(Arrays.asList(HttpParser.parseHeaders(record, WARCConstants.DEFAULT_ENCODING)));
+            recordLength = recordHeader.getContentLength();
+        }
+        headers.add(new Header(ArchivedResource.HEADER_STATUS_CODE, Integer.toString(resourceNode.getStatusCode())));
+        headers.add(new Header(ArchivedResource.HEADER_CONTENT_LENGTH, Long.toString(resourceNode.getContentLength())));
+        headers.add(new Header(ArchivedResource.HEADER_PAYLOAD_LENGTH, Long.toString(recordLength - record.getPosition())));
+        Object payloadDigest = recordHeader.getHeaderValue(WARCConstants.HEADER_KEY_PAYLOAD_DIGEST);
+        if (payloadDigest != null) {
+            headers.add(new Header(ArchivedResource.HEADER_PAYLOAD_DIGEST, payloadDigest.toString()));
+        }
+        if (recordHeader.getDate() != null) {
+            headers.add(new Header(ArchivedResource.HEADER_CAPTURE_DATE, recordHeader.getDate()));
+        }
+        return headers;
     }
 
     private NetworkMapNodeDTO queryUrlNode(long targetInstanceId, int harvestResultNumber, String resourceUrl) throws DigitalAssetStoreException {
+        NetworkMapNodeDTO cached = networkMapNodeCache.get(targetInstanceId, harvestResultNumber, resourceUrl);
+        if (cached != null) {
+            return cached;
+        }
+
         NetworkMapUrl url = new NetworkMapUrl();
         url.setUrlName(resourceUrl);
         NetworkMapResult result = networkMapClient.getUrlByName(targetInstanceId, harvestResultNumber, url);
@@ -524,6 +708,7 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
             throw new DigitalAssetStoreException(err);
         }
 
+        networkMapNodeCache.put(targetInstanceId, harvestResultNumber, resourceUrl, node);
         return node;
     }
 
@@ -545,15 +730,103 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
     }
 
     /**
+     * A log that has been compressed is decompressed to a temporary copy,
+     * which is kept for the next requests until the log changes or the copy
+     * is one of more than <code>maxDecompressedLogs</code> copies. Only the
+     * callers that need a plain file use it: the lines of a log are read
+     * through {@link #getSeekableLog} and downloads stream the log, neither
+     * of which decompresses the whole log.
+     *
      * @see org.webcurator.core.reader.LogProvider#getLogFile(java.lang.String,
      * java.lang.String)
      */
     public File getLogFile(String aJob, String aFileName) {
+        File file = getStoredLogFile(aJob, aFileName);
+        if (file == null || file.getName().equals(aFileName) || !BlockCompressedLog.isCompressed(file)) {
+            return file;
+        }
+        try {
+            return getDecompressedLog(file);
+        } catch (IOException e) {
+            log.error("Failed to decompress {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Return a plain copy of a compressed log, decompressing it if there is
+     * no up to date copy.
+     */
+    private File getDecompressedLog(File compressedFile) throws IOException {
+        synchronized (decompressionLocks.computeIfAbsent(compressedFile, f -> new Object())) {
+            File copy;
+            File copiesDir;
+            synchronized (decompressedLogs) {
+                copy = decompressedLogs.get(compressedFile);
+                if (decompressedLogsDir == null) {
+                    decompressedLogsDir = Files.createTempDirectory("wct-logs").toFile();
+                }
+                copiesDir = decompressedLogsDir;
+            }
+            if (copy != null && copy.exists() && copy.lastModified() >= compressedFile.lastModified()) {
+                return copy;
+            }
+
+            // Each copy has a directory of its own, so that it keeps the name of the log.
+            File copyDir = Files.createTempDirectory(copiesDir.toPath(), "log").toFile();
+            File newCopy = new File(copyDir, BlockCompressedLog.logName(compressedFile));
+            try {
+                BlockCompressedLog.decompress(compressedFile, newCopy);
+            } catch (IOException e) {
+                FileUtils.deleteQuietly(copyDir);
+                throw e;
+            }
+
+            List<File> evicted = new ArrayList<>();
+            synchronized (decompressedLogs) {
+                File previous = decompressedLogs.put(compressedFile, newCopy);
+                if (previous != null) {
+                    evicted.add(previous);
+                }
+                Iterator<Map.Entry<File, File>> it = decompressedLogs.entrySet().iterator();
+                while (decompressedLogs.size() > maxDecompressedLogs && it.hasNext()) {
+                    Map.Entry<File, File> eldest = it.next();
+                    evicted.add(eldest.getValue());
+                    decompressionLocks.remove(eldest.getKey());
+                    it.remove();
+                }
+            }
+            for (File evictedCopy : evicted) {
+                FileUtils.deleteQuietly(evictedCopy.getParentFile());
+            }
+            return newCopy;
+        }
+    }
+
+    /**
+     * Delete the plain copies of compressed logs when the store shuts down.
+     */
+    @PreDestroy
+    public void deleteDecompressedLogs() {
+        synchronized (decompressedLogs) {
+            decompressedLogs.clear();
+            if (decompressedLogsDir != null) {
+                FileUtils.deleteQuietly(decompressedLogsDir);
+                decompressedLogsDir = null;
+            }
+        }
+    }
+
+    /**
+     * @see org.webcurator.core.reader.LogProvider#getStoredLogFile(java.lang.String,
+     * java.lang.String)
+     */
+    public File getStoredLogFile(String aJob, String aFileName) {
         File file = null;
         if (aJob.indexOf('@') < 0) {
             File targetDir = new File(baseDir, aJob);
             File logsDir = new File(targetDir, Constants.DIR_LOGS);
-            file = new File(logsDir, aFileName);
+            file = BlockCompressedLog.resolve(new File(logsDir, aFileName));
             if (!file.exists() && aFileName.equalsIgnoreCase(Constants.SORTED_CRAWL_LOG_FILE)) {
                 // we need to create sorted crawl.log from crawl.log.
                 createSortedCrawlLogFile(logsDir);
@@ -587,58 +860,12 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
     }
 
     private void createSortedCrawlLogFile(File logsDir) {
-
-        // sort the crawl.log file to create a sorted crawl.log file in the same
-        // directory.
-
-        // write new 'stripped' crawl.log, replacing multiple spaces with a
-        // single space in each record..
+        // sort on fourth column (url) then first column (timestamp), replacing
+        // multiple spaces with a single space in each record.
         try {
-
-            BufferedReader inputStream = new BufferedReader(new FileReader(
-                    logsDir.getAbsolutePath() + File.separator
-                            + Constants.CRAWL_LOG_FILE));
-            PrintWriter outputStream = new PrintWriter(new FileWriter(
-                    logsDir.getAbsolutePath() + File.separator
-                            + Constants.STRIPPED_CRAWL_LOG_FILE));
-
-            String inLine = null;
-
-            while ((inLine = inputStream.readLine()) != null) {
-                outputStream.println(inLine.replaceAll(" +", " "));
-            }
-
-            outputStream.close();
-            inputStream.close();
-
+            crawlLogSorter.sort(BlockCompressedLog.resolve(new File(logsDir, Constants.CRAWL_LOG_FILE)), new File(logsDir, Constants.SORTED_CRAWL_LOG_FILE));
         } catch (IOException e) {
-            return;
-        }
-
-        // sort the 'stripped' crawl.log file to create a 'sorted' crawl.log
-        // file...
-        ExternalSort sort = new ExternalSort();
-        try {
-            sort.setInFile(logsDir.getAbsolutePath() + File.separator
-                    + Constants.STRIPPED_CRAWL_LOG_FILE);
-        } catch (FileNotFoundException e1) {
-            return;
-        }
-        try {
-            sort.setOutFile(logsDir.getAbsolutePath() + File.separator
-                    + Constants.SORTED_CRAWL_LOG_FILE);
-        } catch (FileNotFoundException e1) {
-            return;
-        }
-        // sort on fourth column (url) then first column (timestamp)..
-        int[] cols = {3, 0};
-        sort.setColumns(cols);
-        sort.setSeparator(' '); // space
-
-        try {
-            sort.run();
-        } catch (IOException e1) {
-            return;
+            log.error("Failed to create the sorted crawl.log in {}", logsDir, e);
         }
     }
 
@@ -725,7 +952,12 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
             if (!f.isFile()) {
                 continue;
             }
-            logFiles.add(new LogFilePropertiesDTO(f, pageImagePrefix, aqaReportPrefix));
+            LogFilePropertiesDTO logFile = new LogFilePropertiesDTO(f, pageImagePrefix, aqaReportPrefix);
+            if (BlockCompressedLog.isCompressed(f)) {
+                // Compressed logs are read by their original name.
+                logFile.setName(BlockCompressedLog.logName(f));
+            }
+            logFiles.add(logFile);
         }
     }
 
@@ -739,7 +971,7 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
             if (!f.isFile()) {
                 continue;
             }
-            logFiles.add(f.getName());
+            logFiles.add(BlockCompressedLog.isCompressed(f) ? BlockCompressedLog.logName(f) : f.getName());
         }
     }
 
@@ -758,6 +990,8 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
                 if (log.isDebugEnabled()) {
                     log.debug("About to purge dir " + toPurge.toString());
                 }
+                archiveReaderPool.invalidateAll(toPurge);
+                invalidateNetworkMapNodes(tiName);
                 try {
                     FileUtils.deleteDirectory(toPurge);
                 } catch (IOException e) {
@@ -787,6 +1021,8 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
                 if (log.isDebugEnabled()) {
                     log.debug("About to purge dir " + toPurge.toString());
                 }
+                archiveReaderPool.invalidateAll(toPurge);
+                invalidateNetworkMapNodes(tiName);
                 try {
                     FileUtils.deleteDirectory(toPurge);
                 } catch (IOException e) {
@@ -801,6 +1037,14 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
         }
     }
 
+    private void invalidateNetworkMapNodes(String targetInstanceName) {
+        try {
+            networkMapNodeCache.invalidate(Long.parseLong(targetInstanceName));
+        } catch (NumberFormatException e) {
+            // Not a target instance directory, so nothing was cached for it.
+        }
+    }
+
     /**
      * Return a list of all the ARC files for the specified target instance and
      * harvest result
@@ -845,6 +1089,19 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
         File[] fileList = null;
 
         if (logsDir.exists()) {
+            // The logs are archived as they were written.
+            for (File f : logsDir.listFiles((dir, name) -> name.endsWith(".log" + BlockCompressedLog.SUFFIX))) {
+                File plain = new File(logsDir, BlockCompressedLog.logName(f));
+                try {
+                    if (!plain.exists()) {
+                        BlockCompressedLog.decompress(f, plain);
+                    }
+                    Files.delete(f.toPath());
+                } catch (IOException e) {
+                    throw new DigitalAssetStoreException("Failed to decompress " + f + " : " + e.getMessage(), e);
+                }
+            }
+
             fileList = logsDir.listFiles(new FilenameFilter() {
                 public boolean accept(File dir, String name) {
                     return name.endsWith(".log");
@@ -959,6 +1216,7 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
 
     public void initiateIndexing(HarvestResultDTO harvestResult)
             throws DigitalAssetStoreException {
+        networkMapNodeCache.invalidate(harvestResult.getTargetInstanceOid(), harvestResult.getHarvestNumber());
         VisualizationAbstractProcessor processor = new IndexProcessorWarc(pool, harvestResult.getTargetInstanceOid(), harvestResult.getHarvestNumber());
         try {
             visualizationProcessorManager.startTask(processor);
@@ -975,6 +1233,8 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
                 + harvestResult.getTargetInstanceOid() + "/"
                 + harvestResult.getHarvestNumber());
 
+        networkMapNodeCache.invalidate(harvestResult.getTargetInstanceOid(), harvestResult.getHarvestNumber());
+
         // Kick of the indexer.
         indexer.removeIndex(harvestResult, sourceDir);
     }
@@ -984,6 +1244,16 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
         return indexer.checkIndexing(harvestResultOid);
     }
 
+    public CrawlLogSummaryDTO getCrawlLogSummary(long targetInstanceId, int harvestResultNumber)
+            throws DigitalAssetStoreException {
+        File harvestResultDir = new File(this.baseDir, targetInstanceId + "/" + harvestResultNumber);
+        try {
+            return CrawlLogSummarizer.read(harvestResultDir);
+        } catch (IOException e) {
+            throw new DigitalAssetStoreException("Failed to read the crawl log summary of " + harvestResultDir + ": " + e.getMessage(), e);
+        }
+    }
+
     /**
      * @param indexer the indexer to set
      */
@@ -1034,6 +1304,42 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
         HttpParser.parseHeaders(record, WARCConstants.DEFAULT_ENCODING);
     }
 
+    public ArchiveReaderPool getArchiveReaderPool() {
+        return archiveReaderPool;
+    }
+
+    public void setArchiveReaderPool(ArchiveReaderPool archiveReaderPool) {
+        this.archiveReaderPool = archiveReaderPool;
+    }
+
+    public NetworkMapNodeCache getNetworkMapNodeCache() {
+        return networkMapNodeCache;
+    }
+
+    public void setNetworkMapNodeCache(NetworkMapNodeCache networkMapNodeCache) {
+        this.networkMapNodeCache = networkMapNodeCache;
+    }
+
+    public void setMaxDecompressedLogs(int maxDecompressedLogs) {
+        this.maxDecompressedLogs = maxDecompressedLogs;
+    }
+
+    public void setSmallResourceMaxSize(long smallResourceMaxSize) {
+        this.smallResourceMaxSize = smallResourceMaxSize;
+    }
+
+    public long getSmallResourceMaxSize() {
+        return smallResourceMaxSize;
+    }
+
+    public CrawlLogSorter getCrawlLogSorter() {
+        return crawlLogSorter;
+    }
+
+    public void setCrawlLogSorter(CrawlLogSorter crawlLogSorter) {
+        this.crawlLogSorter = crawlLogSorter;
+    }
+
     public void setPageImagePrefix(String pageImagePrefix) {
         this.pageImagePrefix = pageImagePrefix;
     }
@@ -1084,6 +1390,7 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
     @Override
     public ModifyResult initialPruneAndImport(ModifyApplyCommand cmd) {
         ModifyResult result = new ModifyResult();
+        networkMapNodeCache.invalidate(cmd.getTargetInstanceId(), cmd.getNewHarvestResultNumber());
         VisualizationAbstractProcessor processor = new ModifyProcessorWarc(cmd);
         try {
             visualizationProcessorManager.startTask(processor);
@@ -1102,6 +1409,7 @@ public class ArcDigitalAssetStoreService extends AbstractRestClient implements D
     @Override
     public void operateHarvestResultModification(String stage, String command, long targetInstanceId, int harvestNumber) throws DigitalAssetStoreException {
         log.info("stage: {}, command: {}, targetInstanceId: {}, harvestResultNumber:{} ", stage, command, targetInstanceId, harvestNumber);
+        networkMapNodeCache.invalidate(targetInstanceId, harvestNumber);
         if (command.equalsIgnoreCase("pause")) {
             visualizationProcessorManager.pauseTask(stage, targetInstanceId, harvestNumber);
         } else if (command.equalsIgnoreCase("resume")) {
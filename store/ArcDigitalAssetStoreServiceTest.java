@@ -5,6 +5,8 @@ import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.mock;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -13,6 +15,10 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.webcurator.core.coordinator.WctCoordinatorClient;
+import org.webcurator.core.exceptions.DigitalAssetStoreException;
+import org.webcurator.core.reader.BlockCompressedLog;
+import org.webcurator.core.store.Constants;
+import org.webcurator.core.util.ChecksumUtil;
 import org.webcurator.core.visualization.VisualizationDirectoryManager;
 import org.webcurator.core.visualization.VisualizationProcessorManager;
 import org.webcurator.core.visualization.networkmap.NetworkMapDomainSuffix;
@@ -24,8 +30,10 @@ import org.webcurator.core.visualization.networkmap.service.NetworkMapClient;
 import org.webcurator.core.visualization.networkmap.service.NetworkMapClientLocal;
 import org.webcurator.domain.model.core.SeedHistoryDTO;
 import org.webcurator.test.BaseWCTStoreTest;
+import org.webcurator.core.store.ArchivedResource;
 import org.webcurator.core.store.MockIndexer;
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.io.IOUtils;
 
 public class ArcDigitalAssetStoreServiceTest extends BaseWCTStoreTest<ArcDigitalAssetStoreService> {
 
@@ -144,6 +152,21 @@ public class ArcDigitalAssetStoreServiceTest extends BaseWCTStoreTest<ArcDigital
         assertEquals(res.length, resLength);
     }
 
+    @Test
+    public final void testWARCOpenSmallResourceRefusesLargeResource() throws Exception {
+        String name = "https://www.kiwisaver.govt.nz/";
+
+        testInstance.setSmallResourceMaxSize(18294);
+        assertNull(testInstance.openSmallResource(targetInstanceOid, harvestResultNumber, name));
+
+        testInstance.setSmallResourceMaxSize(18295);
+        ArchivedResource res = testInstance.openSmallResource(targetInstanceOid, harvestResultNumber, name);
+        assertNotNull(res);
+        try (InputStream in = res.getContent()) {
+            assertEquals(18295, IOUtils.toByteArray(in).length);
+        }
+    }
+
     @Ignore
     @Test
     public final void testARCGetHeaders() throws Exception {
@@ -162,7 +185,164 @@ public class ArcDigitalAssetStoreServiceTest extends BaseWCTStoreTest<ArcDigital
 
         List<Header> headers = testInstance.getHeaders(targetInstanceOid, harvestResultNumber, name);
         assertNotNull(headers);
-        assertEquals(13, headers.size());
+        // 11 HTTP headers, the status code and content length, then the payload length, payload digest and capture date
+        ArchivedResource head = new ArchivedResource(0, headers);
+        int recordHeaders = head.getETag() == null ? 2 : 3;
+        assertEquals(13 + recordHeaders, headers.size());
+        assertEquals(18295, head.getPayloadLength());
+        assertNotNull(head.getCaptureDate());
+    }
+
+    @Test
+    public final void testWARCReaderIsReused() throws Exception {
+        String name = "https://www.kiwisaver.govt.nz/";
+        ArchiveReaderPool pool = new ArchiveReaderPool(4, 60000);
+        testInstance.setArchiveReaderPool(pool);
+
+        assertNotNull(testInstance.getHeaders(targetInstanceOid, harvestResultNumber, name));
+        assertNotNull(testInstance.getSmallResource(targetInstanceOid, harvestResultNumber, name));
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getBorrowedCount());
+
+        pool.shutdown();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public final void testNetworkMapNodeIsCached() throws Exception {
+        String name = "https://www.kiwisaver.govt.nz/";
+        NetworkMapNodeCache cache = new NetworkMapNodeCache(10);
+        testInstance.setNetworkMapNodeCache(cache);
+
+        List<Header> first = testInstance.getHeaders(targetInstanceOid, harvestResultNumber, name);
+        List<Header> second = testInstance.getHeaders(targetInstanceOid, harvestResultNumber, name);
+        assertEquals(first.size(), second.size());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getStatistics().hitCount());
+
+        cache.invalidate(targetInstanceOid, harvestResultNumber);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public final void testWARCOpenResourceWithHeaders() throws Exception {
+        long resLength = 18295;
+        String name = "https://www.kiwisaver.govt.nz/";
+        ArchiveReaderPool pool = new ArchiveReaderPool(4, 60000);
+        testInstance.setArchiveReaderPool(pool);
+
+        ArchivedResource res = testInstance.openResourceWithHeaders(targetInstanceOid, harvestResultNumber, name);
+        assertNotNull(res);
+        // The headers of getHeaders, then the payload length, payload digest and capture date of the record
+        int recordHeaders = res.getETag() == null ? 2 : 3;
+        assertEquals(13 + recordHeaders, res.getHeaders().size());
+        assertEquals(resLength, res.getPayloadLength());
+        assertNotNull(res.getCaptureDate());
+        assertEquals(Integer.toString(res.getStatusCode()), res.getHeaderValue(ArchivedResource.HEADER_STATUS_CODE));
+        try (InputStream in = res.getContent()) {
+            assertEquals(1, pool.getBorrowedCount());
+            assertEquals(resLength, IOUtils.toByteArray(in).length);
+        }
+        // The reader is handed back once the content is closed.
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(1, pool.getIdleCount());
+        pool.shutdown();
+    }
+
+    @Test
+    public final void testWARCWriteResourceWithHeaders() throws Exception {
+        long resLength = 18295;
+        String name = "https://www.kiwisaver.govt.nz/";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        testInstance.writeResourceWithHeaders(targetInstanceOid, harvestResultNumber, name, out);
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        ArchivedResource res = ArchivedResource.readHead(in);
+        assertEquals(resLength, res.getPayloadLength());
+        assertNotNull(res.getCaptureDate());
+        assertEquals(in.available(), resLength);
+    }
+
+    @Test
+    public final void testSaveResumesInterruptedTransfer() throws Exception {
+        String tiName = "save-test";
+        File tiDir = new File(baseDir, tiName);
+        byte[] content = new byte[100000];
+        new Random(1).nextBytes(content);
+        String checksum = ChecksumUtil.toHex(ChecksumUtil.newDigest().digest(content));
+
+        try {
+            // The connection drops after the first 40000 bytes.
+            InputStream dropped = new InputStream() {
+                public int read() throws IOException {
+                    throw new IOException("Connection reset");
+                }
+            };
+            try {
+                testInstance.save(tiName, "1", "test.warc", checksum,
+                        offset -> new SequenceInputStream(new ByteArrayInputStream(content, 0, 40000), dropped));
+                fail("The transfer should have failed");
+            } catch (DigitalAssetStoreException e) {
+                // Expected
+            }
+
+            List<Long> offsets = new ArrayList<>();
+            testInstance.save(tiName, "1", "test.warc", checksum, offset -> {
+                offsets.add(offset);
+                return new ByteArrayInputStream(content, (int) offset, content.length - (int) offset);
+            });
+            assertEquals(Collections.singletonList(40000L), offsets);
+            assertArrayEquals(content, Files.readAllBytes(new File(tiDir, "1/test.warc").toPath()));
+            assertFalse(new File(tiDir, ArcDigitalAssetStoreService.PARTIAL_DIR).exists());
+
+            // A file that is already stored is not sent again.
+            testInstance.save(tiName, "1", "test.warc", checksum, offset -> {
+                throw new IOException("The file should not be sent again");
+            });
+
+            // A file that does not match its checksum is rejected.
+            try {
+                testInstance.save(tiName, "1", "other.warc", checksum, offset -> new ByteArrayInputStream(new byte[10]));
+                fail("The checksum should not have matched");
+            } catch (DigitalAssetStoreException e) {
+                // Expected
+            }
+            assertFalse(new File(tiDir, "1/other.warc").exists());
+        } finally {
+            delDir(tiDir);
+        }
+    }
+
+    @Test
+    public final void testGetLogFileDecompressesCompressedLog() throws Exception {
+        String tiName = "log-test";
+        File tiDir = new File(baseDir, tiName);
+        File logsDir = new File(tiDir, Constants.DIR_LOGS);
+        logsDir.mkdirs();
+        File logFile = new File(logsDir, "crawl.log");
+        byte[] content = "line one\nline two\n".getBytes(StandardCharsets.UTF_8);
+
+        try {
+            Files.write(logFile.toPath(), content);
+            BlockCompressedLog.compress(logFile, BlockCompressedLog.compressedFile(logFile), BlockCompressedLog.DEFAULT_BLOCK_SIZE);
+            assertTrue(logFile.delete());
+
+            assertTrue(BlockCompressedLog.isCompressed(testInstance.getStoredLogFile(tiName, "crawl.log")));
+            File plain = testInstance.getLogFile(tiName, "crawl.log");
+            assertEquals("crawl.log", plain.getName());
+            assertArrayEquals(content, Files.readAllBytes(plain.toPath()));
+            // The copy is reused until the log changes.
+            assertEquals(plain, testInstance.getLogFile(tiName, "crawl.log"));
+
+            // The copies are removed when the store shuts down.
+            testInstance.deleteDecompressedLogs();
+            assertFalse(plain.exists());
+        } finally {
+            delDir(tiDir);
+        }
     }
 
     private static void copy(String fromFileName, String toFileName) throws IOException {
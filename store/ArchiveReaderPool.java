@@ -0,0 +1,372 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.store.arc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of open <code>ArchiveReader</code>s keyed by the path of the
+ * archive file. Browsing a harvest reads many records from the same few WARC
+ * files, so keeping the readers open avoids re-opening the file (and, for
+ * compressed files, re-creating the inflater) for every resource.
+ * <p>
+ * An <code>ArchiveReader</code> is not thread-safe, so a reader is lent to
+ * one caller at a time with {@link #borrow(File)} and handed back with
+ * {@link #release(ArchiveReader)} once the record has been closed. A reader
+ * that failed should be handed back with {@link #invalidate(ArchiveReader)}
+ * so that it is closed rather than reused.
+ * <p>
+ * The number of open readers (idle and borrowed) is capped by
+ * <code>maxOpenReaders</code>; the least recently used idle reader is closed
+ * to make room, and when every reader is borrowed {@link #borrow(File)}
+ * waits up to <code>borrowTimeout</code> milliseconds for one to be handed
+ * back. Readers idle for longer than <code>idleTimeout</code> milliseconds
+ * are closed by a background sweep.
+ */
+public class ArchiveReaderPool {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveReaderPool.class);
+
+    /**
+     * Idle readers per file path, in least recently used order.
+     */
+    private final LinkedHashMap<String, Deque<IdleReader>> idleReaders = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The file path of every reader currently lent out.
+     */
+    private final Map<ArchiveReader, String> borrowedReaders = new IdentityHashMap<>();
+
+    private int maxOpenReaders = 64;
+    private long idleTimeout = 60000;
+    private long borrowTimeout = 30000;
+
+    private int idleCount = 0;
+
+    /**
+     * The number of readers being opened, outside the lock.
+     */
+    private int openingCount = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private ScheduledExecutorService evictionExecutor = null;
+
+    private static class IdleReader {
+        private final ArchiveReader reader;
+        private final long idleSince;
+
+        private IdleReader(ArchiveReader reader) {
+            this.reader = reader;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    public ArchiveReaderPool() {
+    }
+
+    public ArchiveReaderPool(int maxOpenReaders, long idleTimeout) {
+        this.maxOpenReaders = maxOpenReaders;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Start the background sweep that closes idle readers.
+     */
+    public synchronized void start() {
+        if (evictionExecutor != null) {
+            return;
+        }
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ArchiveReaderPool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeout / 2);
+        evictionExecutor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background sweep and close every idle reader.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (evictionExecutor != null) {
+                evictionExecutor.shutdownNow();
+                evictionExecutor = null;
+            }
+        }
+        closeAll(removeIdle(path -> true));
+        log.info("Archive reader pool closed, {}", getStatistics());
+    }
+
+    /**
+     * Borrow a reader for the archive file, opening one if no idle reader is
+     * available. When <code>maxOpenReaders</code> readers are borrowed, wait
+     * for one to be handed back.
+     *
+     * @param file the archive file
+     * @return a reader positioned anywhere in the file
+     * @throws PoolExhaustedException if no reader was handed back within the borrow timeout
+     * @throws IOException            if a new reader could not be opened
+     */
+    public ArchiveReader borrow(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        List<ArchiveReader> toClose = new ArrayList<>();
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + borrowTimeout;
+            while (true) {
+                Deque<IdleReader> readers = idleReaders.get(key);
+                if (readers != null && !readers.isEmpty()) {
+                    IdleReader idle = readers.pollFirst();
+                    if (readers.isEmpty()) {
+                        idleReaders.remove(key);
+                    }
+                    idleCount--;
+                    borrowedReaders.put(idle.reader, key);
+                    hits.incrementAndGet();
+                    return idle.reader;
+                }
+                if (idleCount > 0 || borrowedReaders.size() + openingCount < maxOpenReaders) {
+                    break;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new PoolExhaustedException("All " + maxOpenReaders + " archive readers are in use");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PoolExhaustedException("Interrupted waiting for an archive reader");
+                }
+            }
+            misses.incrementAndGet();
+            // Make room for the new reader by closing the least recently used idle readers.
+            while (idleCount > 0 && idleCount + borrowedReaders.size() + openingCount >= maxOpenReaders) {
+                toClose.add(removeEldestIdle());
+            }
+            openingCount++;
+        }
+        closeAll(toClose);
+
+        ArchiveReader reader = null;
+        try {
+            reader = ArchiveReaderFactory.get(file);
+        } finally {
+            synchronized (this) {
+                openingCount--;
+                if (reader != null) {
+                    borrowedReaders.put(reader, key);
+                } else {
+                    notifyAll();
+                }
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Return a borrowed reader to the pool. The current record must have been closed.
+     *
+     * @param reader the reader, may be null
+     */
+    public void release(ArchiveReader reader) {
+        if (reader == null) {
+            return;
+        }
+        List<ArchiveReader> toClose = new ArrayList<>();
+        synchronized (this) {
+            String key = borrowedReaders.remove(reader);
+            if (key == null || idleCount + borrowedReaders.size() + openingCount >= maxOpenReaders) {
+                toClose.add(reader);
+            } else {
+                idleReaders.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(new IdleReader(reader));
+                idleCount++;
+            }
+            notifyAll();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Close a borrowed reader that is no longer usable instead of returning it to the pool.
+     *
+     * @param reader the reader, may be null
+     */
+    public void invalidate(ArchiveReader reader) {
+        if (reader == null) {
+            return;
+        }
+        synchronized (this) {
+            borrowedReaders.remove(reader);
+            notifyAll();
+        }
+        closeAll(Collections.singletonList(reader));
+    }
+
+    /**
+     * Close the idle readers of every archive file under the directory, for
+     * example before the directory is purged. Borrowed readers are closed
+     * when they are released.
+     *
+     * @param directory the directory
+     */
+    public void invalidateAll(File directory) {
+        String prefix = directory.getAbsolutePath() + File.separator;
+        List<ArchiveReader> toClose = removeIdle(path -> path.startsWith(prefix));
+        synchronized (this) {
+            borrowedReaders.replaceAll((reader, path) -> path.startsWith(prefix) ? null : path);
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Close every reader that has been idle for longer than the idle timeout.
+     */
+    public void evictIdle() {
+        long expiry = System.currentTimeMillis() - idleTimeout;
+        List<ArchiveReader> toClose = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Deque<IdleReader>>> it = idleReaders.entrySet().iterator();
+            while (it.hasNext()) {
+                Deque<IdleReader> readers = it.next().getValue();
+                // The most recently used readers are at the front of each deque.
+                while (!readers.isEmpty() && readers.peekLast().idleSince < expiry) {
+                    toClose.add(readers.pollLast().reader);
+                    idleCount--;
+                }
+                if (readers.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        if (!toClose.isEmpty()) {
+            evictions.addAndGet(toClose.size());
+            closeAll(toClose);
+            log.debug("Closed {} idle archive readers, {}", toClose.size(), getStatistics());
+        }
+    }
+
+    private synchronized List<ArchiveReader> removeIdle(java.util.function.Predicate<String> filter) {
+        List<ArchiveReader> removed = new ArrayList<>();
+        Iterator<Map.Entry<String, Deque<IdleReader>>> it = idleReaders.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Deque<IdleReader>> entry = it.next();
+            if (filter.test(entry.getKey())) {
+                for (IdleReader idle : entry.getValue()) {
+                    removed.add(idle.reader);
+                }
+                idleCount -= entry.getValue().size();
+                it.remove();
+            }
+        }
+        return removed;
+    }
+
+    // Must be called while holding the lock, with at least one idle reader.
+    private ArchiveReader removeEldestIdle() {
+        Map.Entry<String, Deque<IdleReader>> eldest = idleReaders.entrySet().iterator().next();
+        Deque<IdleReader> readers = eldest.getValue();
+        IdleReader idle = readers.pollLast();
+        if (readers.isEmpty()) {
+            idleReaders.remove(eldest.getKey());
+        }
+        idleCount--;
+        evictions.incrementAndGet();
+        return idle.reader;
+    }
+
+    private void closeAll(List<ArchiveReader> readers) {
+        for (ArchiveReader reader : readers) {
+            try {
+                reader.close();
+            } catch (Exception e) {
+                log.warn("Failed to close archive reader: {}", e.getMessage());
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    public synchronized int getBorrowedCount() {
+        return borrowedReaders.size();
+    }
+
+    public String getStatistics() {
+        return String.format("hits: %d, misses: %d, evictions: %d, idle: %d, borrowed: %d",
+                getHits(), getMisses(), getEvictions(), getIdleCount(), getBorrowedCount());
+    }
+
+    public int getMaxOpenReaders() {
+        return maxOpenReaders;
+    }
+
+    public void setMaxOpenReaders(int maxOpenReaders) {
+        this.maxOpenReaders = maxOpenReaders;
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Thrown when every reader is borrowed and none is handed back in time.
+     */
+    public static class PoolExhaustedException extends IOException {
+        public PoolExhaustedException(String message) {
+            super(message);
+        }
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.store;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webcurator.core.reader.BlockCompressedLog;
+
+/**
+ * Sorts a crawl.log by URL (the fourth column) and then by timestamp (the
+ * first column), replacing each run of spaces with a single space.
+ * <p>
+ * The log is read once, in runs of up to <code>runSize</code> characters.
+ * The runs are sorted on a pool of threads and written to temporary files,
+ * which are then merged into the sorted log. A log that fits in a single run
+ * is sorted in memory and written directly. The sorted log only appears once
+ * it is complete.
+ */
+public class CrawlLogSorter {
+    private static final Logger log = LoggerFactory.getLogger(CrawlLogSorter.class);
+
+    /**
+     * Crawl logs are read and written byte for byte, whatever the encoding of
+     * the URLs in them.
+     */
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    private static final int URL_COLUMN = 3;
+    private static final int TIMESTAMP_COLUMN = 0;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Comparator<String> ORDER = (a, b) -> {
+        int result = compareColumn(a, b, URL_COLUMN);
+        if (result == 0) {
+            result = compareColumn(a, b, TIMESTAMP_COLUMN);
+        }
+        return result == 0 ? a.compareTo(b) : result;
+    };
+
+    /**
+     * The number of runs sorted at the same time.
+     */
+    private int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of characters of the log sorted in memory in each run. At
+     * most <code>threads + 2</code> runs are held in memory at a time.
+     */
+    private long runSize = 16 * 1024 * 1024;
+
+    /**
+     * Sort a crawl.log.
+     *
+     * @param crawlLog  the crawl.log, plain or compressed
+     * @param sortedLog the sorted crawl.log to write
+     * @throws IOException if the log could not be read or the sorted log written
+     */
+    public void sort(File crawlLog, File sortedLog) throws IOException {
+        long start = System.currentTimeMillis();
+        File dir = sortedLog.getAbsoluteFile().getParentFile();
+        List<File> runs = new ArrayList<>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), new ThreadPoolExecutor.CallerRunsPolicy());
+        File temp = File.createTempFile(sortedLog.getName(), ".tmp", dir);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(BlockCompressedLog.openInputStream(crawlLog), CHARSET), BUFFER_SIZE)) {
+                List<String> run = new ArrayList<>();
+                long size = 0;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    line = normalise(line);
+                    run.add(line);
+                    size += line.length();
+                    if (size >= runSize) {
+                        futures.add(writeRun(executor, run, dir, runs));
+                        run = new ArrayList<>();
+                        size = 0;
+                    }
+                }
+                if (runs.isEmpty()) {
+                    // The whole log fits in memory.
+                    run.sort(ORDER);
+                    write(run, temp);
+                } else if (!run.isEmpty()) {
+                    futures.add(writeRun(executor, run, dir, runs));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (!runs.isEmpty()) {
+                merge(runs, temp);
+            }
+            Files.move(temp.toPath(), sortedLog.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Sorted {} in {} runs in {} ms", crawlLog, Math.max(1, runs.size()), System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sorting " + crawlLog);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("Failed to sort " + crawlLog, cause);
+        } finally {
+            executor.shutdownNow();
+            temp.delete();
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private Future<?> writeRun(ThreadPoolExecutor executor, List<String> run, File dir, List<File> runs) throws IOException {
+        File file = File.createTempFile("crawl-log-run", ".tmp", dir);
+        runs.add(file);
+        return executor.submit(() -> {
+            run.sort(ORDER);
+            write(run, file);
+            return null;
+        });
+    }
+
+    private static void write(List<String> lines, File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET), BUFFER_SIZE)) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Merge the sorted runs, reading the next line of each run in turn.
+     */
+    private static void merge(List<File> runs, File file) throws IOException {
+        List<BufferedReader> readers = new ArrayList<>();
+        PriorityQueue<RunHead> heads = new PriorityQueue<>(runs.size(), (a, b) -> ORDER.compare(a.line, b.line));
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET), BUFFER_SIZE)) {
+            for (File run : runs) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(run), CHARSET), BUFFER_SIZE);
+                readers.add(reader);
+                String line = reader.readLine();
+                if (line != null) {
+                    heads.add(new RunHead(line, reader));
+                }
+            }
+            RunHead head;
+            while ((head = heads.poll()) != null) {
+                out.write(head.line);
+                out.write('\n');
+                head.line = head.reader.readLine();
+                if (head.line != null) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.debug("Failed to close a crawl log run", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the line with each run of spaces replaced by a single space
+     */
+    static String normalise(String line) {
+        if (line.indexOf("  ") < 0) {
+            return line;
+        }
+        StringBuilder sb = new StringBuilder(line.length());
+        char previous = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c != ' ' || previous != ' ') {
+                sb.append(c);
+            }
+            previous = c;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compare a column of two normalised lines, a missing column sorting first.
+     */
+    private static int compareColumn(String a, String b, int column) {
+        int aStart = columnStart(a, column);
+        int bStart = columnStart(b, column);
+        if (aStart < 0 || bStart < 0) {
+            return aStart < 0 ? (bStart < 0 ? 0 : -1) : 1;
+        }
+        int aEnd = columnEnd(a, aStart);
+        int bEnd = columnEnd(b, bStart);
+        int length = Math.min(aEnd - aStart, bEnd - bStart);
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(aStart + i);
+            char cb = b.charAt(bStart + i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    private static int columnStart(String line, int column) {
+        int start = 0;
+        for (int i = 0; i < column; i++) {
+            start = line.indexOf(' ', start);
+            if (start < 0) {
+                return -1;
+            }
+            start++;
+        }
+        return start;
+    }
+
+    private static int columnEnd(String line, int start) {
+        int end = line.indexOf(' ', start);
+        return end < 0 ? line.length() : end;
+    }
+
+    private static class RunHead {
+        private String line;
+        private final BufferedReader reader;
+
+        private RunHead(String line, BufferedReader reader) {
+            this.line = line;
+            this.reader = reader;
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public long getRunSize() {
+        return runSize;
+    }
+
+    public void setRunSize(long runSize) {
+        this.runSize = runSize;
+    }
+}
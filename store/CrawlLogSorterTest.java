@@ -0,0 +1,93 @@
+package org.webcurator.core.store;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrawlLogSorterTest {
+    private File dir;
+    private File crawlLog;
+    private File sortedLog;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("crawl-log-sort").toFile();
+        crawlLog = new File(dir, Constants.CRAWL_LOG_FILE);
+        sortedLog = new File(dir, Constants.SORTED_CRAWL_LOG_FILE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSortInMemory() throws Exception {
+        List<String> lines = crawlLogLines(200);
+        Files.write(crawlLog.toPath(), lines, StandardCharsets.ISO_8859_1);
+
+        new CrawlLogSorter().sort(crawlLog, sortedLog);
+
+        assertEquals(expected(lines), Files.readAllLines(sortedLog.toPath(), StandardCharsets.ISO_8859_1));
+        assertEquals(Arrays.asList(Constants.CRAWL_LOG_FILE, Constants.SORTED_CRAWL_LOG_FILE), listDir());
+    }
+
+    @Test
+    public void testSortInRuns() throws Exception {
+        List<String> lines = crawlLogLines(5000);
+        Files.write(crawlLog.toPath(), lines, StandardCharsets.ISO_8859_1);
+
+        CrawlLogSorter sorter = new CrawlLogSorter();
+        sorter.setThreads(3);
+        sorter.setRunSize(10000);
+        sorter.sort(crawlLog, sortedLog);
+
+        assertEquals(expected(lines), Files.readAllLines(sortedLog.toPath(), StandardCharsets.ISO_8859_1));
+        assertEquals(Arrays.asList(Constants.CRAWL_LOG_FILE, Constants.SORTED_CRAWL_LOG_FILE), listDir());
+    }
+
+    @Test
+    public void testNormalise() {
+        assertEquals("a b c", CrawlLogSorter.normalise("a    b c"));
+        assertEquals(" a b\tc ", CrawlLogSorter.normalise("  a  b\tc  "));
+    }
+
+    private List<String> listDir() {
+        return Arrays.stream(dir.list()).sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> crawlLogLines(int count) {
+        Random random = new Random(1);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(String.format("2020-01-01T00:%02d:%02d.%03dZ   200      %5d http://www.example.com/%d LLE http://www.example.com/ text/html #%03d",
+                    random.nextInt(60), random.nextInt(60), i % 1000, random.nextInt(99999), random.nextInt(count / 4), i % 50));
+        }
+        return lines;
+    }
+
+    /**
+     * Sort the lines the way the external sort used to.
+     */
+    private static List<String> expected(List<String> lines) {
+        return lines.stream()
+                .map(line -> line.replaceAll(" +", " "))
+                .sorted(Comparator.<String, String>comparing(line -> line.split(" ")[3])
+                        .thenComparing(line -> line.split(" ")[0])
+                        .thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+    }
+}
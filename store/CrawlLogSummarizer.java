@@ -0,0 +1,262 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.store;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.webcurator.core.reader.BlockCompressedLog;
+import org.webcurator.domain.model.core.CrawlLogSummaryDTO;
+
+/**
+ * Aggregates the crawl statistics of a crawl.log in a single pass: the
+ * number of URLs by status code, the URLs, bytes and failures by host and
+ * by MIME type, and the first failed URLs.
+ * <p>
+ * Only the <code>maxHosts</code> hosts and <code>maxMimeTypes</code> MIME
+ * types with the most URLs are kept by name, the others are totalled as
+ * {@link CrawlLogSummaryDTO#OTHER}, so the summary stays small however
+ * large the crawl.
+ */
+public class CrawlLogSummarizer {
+    /**
+     * The summary file, in the directory of the harvest result.
+     */
+    public static final String SUMMARY_FILE = "crawl-log-summary.json";
+
+    private static final int TIMESTAMP_COLUMN = 0;
+    private static final int STATUS_COLUMN = 1;
+    private static final int SIZE_COLUMN = 2;
+    private static final int URL_COLUMN = 3;
+    private static final int MIME_COLUMN = 6;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private int maxHosts = 1000;
+    private int maxMimeTypes = 100;
+    private int maxErrors = 1000;
+
+    /**
+     * Summarise a crawl.log.
+     *
+     * @param crawlLog the crawl.log, plain or compressed
+     * @return the summary
+     * @throws IOException if the log could not be read
+     */
+    public CrawlLogSummaryDTO summarize(File crawlLog) throws IOException {
+        // Crawl logs are read byte for byte, whatever the encoding of the URLs in them.
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(BlockCompressedLog.openInputStream(crawlLog),
+                StandardCharsets.ISO_8859_1), BUFFER_SIZE)) {
+            return summarize(in);
+        }
+    }
+
+    CrawlLogSummaryDTO summarize(BufferedReader in) throws IOException {
+        CrawlLogSummaryDTO summary = new CrawlLogSummaryDTO();
+        Map<String, CrawlLogSummaryDTO.Totals> hosts = new HashMap<>();
+        Map<String, CrawlLogSummaryDTO.Totals> mimeTypes = new HashMap<>();
+        String[] columns = new String[MIME_COLUMN + 1];
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (split(line, columns) <= URL_COLUMN) {
+                continue;
+            }
+            int status;
+            try {
+                status = Integer.parseInt(columns[STATUS_COLUMN]);
+            } catch (NumberFormatException e) {
+                // Not a crawl.log line.
+                continue;
+            }
+            long bytes = parseSize(columns[SIZE_COLUMN]);
+            boolean failed = status < 0 || status >= 400;
+
+            if (summary.getFirstTimestamp() == null) {
+                summary.setFirstTimestamp(columns[TIMESTAMP_COLUMN]);
+            }
+            summary.setLastTimestamp(columns[TIMESTAMP_COLUMN]);
+            summary.setTotalUrls(summary.getTotalUrls() + 1);
+            summary.setTotalBytes(summary.getTotalBytes() + bytes);
+            summary.getStatusCodes().merge(status, 1L, Long::sum);
+            if (failed) {
+                summary.setTotalErrors(summary.getTotalErrors() + 1);
+                if (summary.getErrors().size() < maxErrors) {
+                    summary.getErrors().add(new CrawlLogSummaryDTO.FailedUrl(columns[TIMESTAMP_COLUMN], status, columns[URL_COLUMN]));
+                }
+            }
+            hosts.computeIfAbsent(host(columns[URL_COLUMN]), h -> new CrawlLogSummaryDTO.Totals())
+                    .add(1, bytes, failed ? 1 : 0);
+            String mimeType = columns[MIME_COLUMN] == null ? "-" : mimeType(columns[MIME_COLUMN]);
+            mimeTypes.computeIfAbsent(mimeType, m -> new CrawlLogSummaryDTO.Totals())
+                    .add(1, bytes, failed ? 1 : 0);
+        }
+        summary.setHostCount(hosts.size());
+        summary.setHosts(largest(hosts, maxHosts));
+        summary.setMimeTypes(largest(mimeTypes, maxMimeTypes));
+        return summary;
+    }
+
+    /**
+     * Split a line into its first columns, which are separated by runs of spaces.
+     *
+     * @return the number of columns found
+     */
+    private static int split(String line, String[] columns) {
+        int count = 0;
+        int length = line.length();
+        int i = 0;
+        while (count < columns.length) {
+            while (i < length && line.charAt(i) == ' ') {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            int start = i;
+            while (i < length && line.charAt(i) != ' ') {
+                i++;
+            }
+            columns[count++] = line.substring(start, i);
+        }
+        for (int j = count; j < columns.length; j++) {
+            columns[j] = null;
+        }
+        return count;
+    }
+
+    private static long parseSize(String size) {
+        try {
+            return "-".equals(size) ? 0 : Long.parseLong(size);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the lower case host of a URL, or of a dns: lookup
+     */
+    static String host(String url) {
+        int start = url.indexOf("://");
+        if (start >= 0) {
+            start += 3;
+        } else {
+            start = url.indexOf(':') + 1;
+        }
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        // Without the user information and the port.
+        int at = url.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+        int port = url.indexOf(':', start);
+        if (port >= 0 && port < end) {
+            end = port;
+        }
+        return url.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static String mimeType(String mimeType) {
+        int end = mimeType.indexOf(';');
+        return (end < 0 ? mimeType : mimeType.substring(0, end)).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the totals with the most URLs, largest first, followed by the
+     * sum of the others
+     */
+    private static Map<String, CrawlLogSummaryDTO.Totals> largest(Map<String, CrawlLogSummaryDTO.Totals> totals, int max) {
+        List<Map.Entry<String, CrawlLogSummaryDTO.Totals>> entries = new ArrayList<>(totals.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, CrawlLogSummaryDTO.Totals> e) -> e.getValue().getUrls())
+                .reversed().thenComparing(Map.Entry::getKey));
+        Map<String, CrawlLogSummaryDTO.Totals> result = new LinkedHashMap<>();
+        CrawlLogSummaryDTO.Totals other = new CrawlLogSummaryDTO.Totals();
+        for (int i = 0; i < entries.size(); i++) {
+            CrawlLogSummaryDTO.Totals value = entries.get(i).getValue();
+            if (i < max) {
+                result.put(entries.get(i).getKey(), value);
+            } else {
+                other.add(value.getUrls(), value.getBytes(), value.getErrors());
+            }
+        }
+        if (other.getUrls() > 0) {
+            result.put(CrawlLogSummaryDTO.OTHER, other);
+        }
+        return result;
+    }
+
+    /**
+     * Write a summary to the directory of its harvest result.
+     */
+    public static void write(CrawlLogSummaryDTO summary, File harvestResultDir) throws IOException {
+        File file = new File(harvestResultDir, SUMMARY_FILE);
+        File temp = File.createTempFile(SUMMARY_FILE, ".tmp", harvestResultDir);
+        try {
+            objectMapper.writeValue(temp, summary);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Read the summary of a harvest result.
+     *
+     * @return the summary, or null if the harvest result has not been summarised
+     */
+    public static CrawlLogSummaryDTO read(File harvestResultDir) throws IOException {
+        File file = new File(harvestResultDir, SUMMARY_FILE);
+        return file.exists() ? objectMapper.readValue(file, CrawlLogSummaryDTO.class) : null;
+    }
+
+    public int getMaxHosts() {
+        return maxHosts;
+    }
+
+    public void setMaxHosts(int maxHosts) {
+        this.maxHosts = maxHosts;
+    }
+
+    public int getMaxMimeTypes() {
+        return maxMimeTypes;
+    }
+
+    public void setMaxMimeTypes(int maxMimeTypes) {
+        this.maxMimeTypes = maxMimeTypes;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+}
@@ -0,0 +1,96 @@
+package org.webcurator.core.store;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.webcurator.domain.model.core.CrawlLogSummaryDTO;
+
+public class CrawlLogSummarizerTest {
+    private static final String CRAWL_LOG =
+            "2020-01-01T00:00:01.000Z     1         52 dns:www.example.com P http://www.example.com/ text/dns #001\n" +
+            "2020-01-01T00:00:02.000Z   200       1000 http://www.example.com/ - - text/html #002\n" +
+            "2020-01-01T00:00:03.000Z   404        200 http://www.example.com/missing L http://www.example.com/ text/html;charset=utf-8 #003\n" +
+            "2020-01-01T00:00:04.000Z   200       3000 https://user@Images.Example.com:443/a.png E http://www.example.com/ image/png #004\n" +
+            "java.io.IOException: not a crawl.log line\n" +
+            "2020-01-01T00:00:05.000Z -6          - http://other.example.org/ L http://www.example.com/ no-type #005\n";
+
+    @Test
+    public void testSummarize() throws Exception {
+        CrawlLogSummaryDTO summary = new CrawlLogSummarizer().summarize(new BufferedReader(new StringReader(CRAWL_LOG)));
+
+        assertEquals(5, summary.getTotalUrls());
+        assertEquals(4252, summary.getTotalBytes());
+        assertEquals(2, summary.getTotalErrors());
+        assertEquals("2020-01-01T00:00:01.000Z", summary.getFirstTimestamp());
+        assertEquals("2020-01-01T00:00:05.000Z", summary.getLastTimestamp());
+        assertEquals(Arrays.asList(-6, 1, 200, 404), Arrays.asList(summary.getStatusCodes().keySet().toArray()));
+        assertEquals(2L, (long) summary.getStatusCodes().get(200));
+
+        assertEquals(3, summary.getHostCount());
+        assertEquals(Arrays.asList("www.example.com", "images.example.com", "other.example.org"),
+                Arrays.asList(summary.getHosts().keySet().toArray()));
+        CrawlLogSummaryDTO.Totals host = summary.getHosts().get("www.example.com");
+        assertEquals(3, host.getUrls());
+        assertEquals(1252, host.getBytes());
+        assertEquals(1, host.getErrors());
+
+        assertEquals(Arrays.asList("text/html", "image/png", "no-type", "text/dns"),
+                Arrays.asList(summary.getMimeTypes().keySet().toArray()));
+        assertEquals(1200, summary.getMimeTypes().get("text/html").getBytes());
+
+        assertEquals(2, summary.getErrors().size());
+        assertEquals("http://www.example.com/missing", summary.getErrors().get(0).getUrl());
+        assertEquals(-6, summary.getErrors().get(1).getStatusCode());
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        CrawlLogSummarizer summarizer = new CrawlLogSummarizer();
+        summarizer.setMaxHosts(1);
+        summarizer.setMaxMimeTypes(2);
+        summarizer.setMaxErrors(1);
+        CrawlLogSummaryDTO summary = summarizer.summarize(new BufferedReader(new StringReader(CRAWL_LOG)));
+
+        assertEquals(3, summary.getHostCount());
+        assertEquals(Arrays.asList("www.example.com", CrawlLogSummaryDTO.OTHER), Arrays.asList(summary.getHosts().keySet().toArray()));
+        assertEquals(2, summary.getHosts().get(CrawlLogSummaryDTO.OTHER).getUrls());
+        assertEquals(3000, summary.getHosts().get(CrawlLogSummaryDTO.OTHER).getBytes());
+        assertEquals(3, summary.getMimeTypes().size());
+        assertEquals(1, summary.getErrors().size());
+        assertEquals(2, summary.getTotalErrors());
+    }
+
+    @Test
+    public void testHost() {
+        assertEquals("www.example.com", CrawlLogSummarizer.host("dns:www.example.com"));
+        assertEquals("www.example.com", CrawlLogSummarizer.host("http://WWW.example.com"));
+        assertEquals("www.example.com", CrawlLogSummarizer.host("http://www.example.com:8080/a?b#c"));
+        assertEquals("www.example.com", CrawlLogSummarizer.host("ftp://user:pw@www.example.com/"));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File dir = Files.createTempDirectory("crawl-log-summary").toFile();
+        try {
+            assertNull(CrawlLogSummarizer.read(dir));
+            CrawlLogSummaryDTO summary = new CrawlLogSummarizer().summarize(new BufferedReader(new StringReader(CRAWL_LOG)));
+            CrawlLogSummarizer.write(summary, dir);
+
+            CrawlLogSummaryDTO read = CrawlLogSummarizer.read(dir);
+            assertEquals(summary.getTotalUrls(), read.getTotalUrls());
+            assertEquals(summary.getStatusCodes(), read.getStatusCodes());
+            assertEquals(summary.getHosts().keySet(), read.getHosts().keySet());
+            assertEquals(summary.getErrors().get(0).getUrl(), read.getErrors().get(0).getUrl());
+            assertEquals(Arrays.asList(CrawlLogSummarizer.SUMMARY_FILE), Arrays.asList(dir.list()));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.store;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.webcurator.core.reader.BlockCompressedLog;
+import org.webcurator.domain.model.core.CrawlLogSummaryDTO;
+import org.webcurator.domain.model.core.HarvestResultDTO;
+
+/**
+ * Summarises the crawl.log of a harvest result when it is indexed, so the QA
+ * screens read the crawl statistics from the small summary instead of
+ * searching the log.
+ *
+ * @see CrawlLogSummarizer
+ */
+public class CrawlLogSummaryIndexer extends IndexerBase {
+    private static final Logger log = LoggerFactory.getLogger(CrawlLogSummaryIndexer.class);
+
+    private HarvestResultDTO result;
+    private File directory;
+    private boolean enabled = false;
+    private CrawlLogSummarizer summarizer = new CrawlLogSummarizer();
+
+    public CrawlLogSummaryIndexer(String baseUrl, RestTemplateBuilder restTemplateBuilder) {
+        super(baseUrl, restTemplateBuilder);
+    }
+
+    protected CrawlLogSummaryIndexer(CrawlLogSummaryIndexer original) {
+        super(original);
+        this.enabled = original.enabled;
+        this.summarizer = original.summarizer;
+    }
+
+    @Override
+    public Long begin() {
+        return getResult().getOid();
+    }
+
+    @Override
+    public void indexFiles(Long harvestResultOid) {
+        // The logs are kept for the target instance, next to the harvest result directories.
+        File logsDir = new File(directory.getParentFile(), Constants.DIR_LOGS);
+        File crawlLog = BlockCompressedLog.resolve(new File(logsDir, Constants.CRAWL_LOG_FILE));
+        if (!crawlLog.exists()) {
+            log.info("No crawl.log to summarise for job {}", getResult().getTargetInstanceOid());
+            return;
+        }
+
+        log.info("Summarising the crawl.log of job {}", getResult().getTargetInstanceOid());
+        long start = System.currentTimeMillis();
+        try {
+            CrawlLogSummaryDTO summary = summarizer.summarize(crawlLog);
+            summary.setTargetInstanceOid(getResult().getTargetInstanceOid());
+            summary.setHarvestNumber(getResult().getHarvestNumber());
+            CrawlLogSummarizer.write(summary, directory);
+            log.info("Summarised {} URLs of job {} in {} ms", summary.getTotalUrls(), getResult().getTargetInstanceOid(),
+                    System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.error("Failed to summarise {}", crawlLog, e);
+        }
+    }
+
+    @Override
+    public void removeIndex(Long harvestResultOid) {
+        new File(directory, CrawlLogSummarizer.SUMMARY_FILE).delete();
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getCanonicalName();
+    }
+
+    @Override
+    public void initialise(HarvestResultDTO result, File directory) {
+        this.result = result;
+        this.directory = directory;
+    }
+
+    @Override
+    protected HarvestResultDTO getResult() {
+        return result;
+    }
+
+    @Override
+    public RunnableIndex getCopy() {
+        return new CrawlLogSummaryIndexer(this);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public CrawlLogSummarizer getSummarizer() {
+        return summarizer;
+    }
+
+    public void setSummarizer(CrawlLogSummarizer summarizer) {
+        this.summarizer = summarizer;
+    }
+}
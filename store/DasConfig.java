@@ -31,13 +31,14 @@ import org.webcurator.core.visualization.networkmap.bdb.BDBNetworkMapPool;
 import org.webcurator.core.visualization.networkmap.metadata.NetworkMapNode;
 import org.webcurator.core.visualization.networkmap.service.NetworkMapClientLocal;
 import org.webcurator.core.visualization.networkmap.service.NetworkMapClient;
-import org.webcurator.core.reader.LogReaderImpl;
+import org.webcurator.core.reader.MappedLogReader;
 import org.webcurator.core.store.*;
 import org.webcurator.core.store.arc.*;
 import org.webcurator.core.util.ApplicationContextFactory;
 //import org.webcurator.core.util.WebServiceEndPoint;
 
 import javax.annotation.PostConstruct;
+import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -78,6 +79,18 @@ public class DasConfig {
     @Value("${arcDigitalAssetStoreService.aqaReportPrefix}")
     private String arcDigitalAssetStoreServiceAqaReportPrefix;
 
+    @Value("${arcDigitalAssetStoreService.smallResourceMaxSize}")
+    private long arcDigitalAssetStoreServiceSmallResourceMaxSize;
+
+    @Value("${archiveReaderPool.maxOpenReaders}")
+    private int archiveReaderPoolMaxOpenReaders;
+
+    @Value("${archiveReaderPool.idleTimeout}")
+    private long archiveReaderPoolIdleTimeout;
+
+    @Value("${networkMapNodeCache.maxSize}")
+    private long networkMapNodeCacheMaxSize;
+
     @Value("${waybackIndexer.enabled}")
     private boolean waybackIndexerEnabled;
 
@@ -112,14 +125,49 @@ public class DasConfig {
     @Value("${crawlLogIndexer.crawlLogFileName}")
     private String crawlLogIndexerCrawlLogFileName;
 
-    // Name of the stripped crawl.log file.
-    @Value("${crawlLogIndexer.strippedLogFileName}")
-    private String crawlLogIndexerStrippedLogFileName;
-
     // ame of the sorted crawl.log file.
     @Value("${crawlLogIndexer.sortedLogFileName}")
     private String crawlLogIndexerSortedLogFileName;
 
+    @Value("${crawlLogSummaryIndexer.enabled}")
+    private boolean crawlLogSummaryIndexerEnabled;
+
+    // the number of hosts listed by name in a crawl log summary.
+    @Value("${crawlLogSummaryIndexer.maxHosts}")
+    private int crawlLogSummaryIndexerMaxHosts;
+
+    // the number of MIME types listed by name in a crawl log summary.
+    @Value("${crawlLogSummaryIndexer.maxMimeTypes}")
+    private int crawlLogSummaryIndexerMaxMimeTypes;
+
+    // the number of failed URLs listed in a crawl log summary.
+    @Value("${crawlLogSummaryIndexer.maxErrors}")
+    private int crawlLogSummaryIndexerMaxErrors;
+
+    // the number of parts of a crawl.log sorted at the same time.
+    @Value("${crawlLogSorter.threads}")
+    private int crawlLogSorterThreads;
+
+    // the number of characters of a crawl.log sorted in memory in each part.
+    @Value("${crawlLogSorter.runSize}")
+    private long crawlLogSorterRunSize;
+
+    // whether the logs of completed harvests are compressed.
+    @Value("${logCompressor.enabled}")
+    private boolean logCompressorEnabled;
+
+    // logs not modified for this long (milliseconds) are compressed.
+    @Value("${logCompressor.minAge}")
+    private long logCompressorMinAge;
+
+    // logs smaller than this (bytes) are left as they are.
+    @Value("${logCompressor.minSize}")
+    private long logCompressorMinSize;
+
+    // the time (milliseconds) between looking for logs to compress.
+    @Value("${logCompressor.interval}")
+    private long logCompressorInterval;
+
     @Value("${cdxIndexer.enabled}")
     private boolean cdxIndexerEnabled;
 
@@ -295,7 +343,11 @@ public class DasConfig {
         arcDigitalAssetStoreService.setDasFileMover(createDasFileMover());
         arcDigitalAssetStoreService.setPageImagePrefix(arcDigitalAssetStoreServicePageImagePrefix);
         arcDigitalAssetStoreService.setAqaReportPrefix(arcDigitalAssetStoreServiceAqaReportPrefix);
+        arcDigitalAssetStoreService.setSmallResourceMaxSize(arcDigitalAssetStoreServiceSmallResourceMaxSize);
+        arcDigitalAssetStoreService.setArchiveReaderPool(archiveReaderPool());
+        arcDigitalAssetStoreService.setNetworkMapNodeCache(new NetworkMapNodeCache(networkMapNodeCacheMaxSize));
         arcDigitalAssetStoreService.setFileArchive(createFileArchive());
+        arcDigitalAssetStoreService.setCrawlLogSorter(crawlLogSorter());
 
         NetworkMapNode.setTopDomainParse(networkMapDomainSuffix());
     }
@@ -323,6 +375,12 @@ public class DasConfig {
         return suffixParser;
     }
 
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @Scope(BeanDefinition.SCOPE_SINGLETON)
+    public ArchiveReaderPool archiveReaderPool() {
+        return new ArchiveReaderPool(archiveReaderPoolMaxOpenReaders, archiveReaderPoolIdleTimeout);
+    }
+
     @Bean
     @Scope(BeanDefinition.SCOPE_SINGLETON)
     public VisualizationDirectoryManager visualizationManager() {
@@ -432,6 +490,7 @@ public class DasConfig {
 //        sourceList.add(wctIndexer());
         sourceList.add(waybackIndexer());
         sourceList.add(crawlLogIndexer());
+        sourceList.add(crawlLogSummaryIndexer());
         sourceList.add(cdxIndexer());
 
         bean.setSourceList(sourceList);
@@ -469,12 +528,46 @@ public class DasConfig {
 //        bean.setWsEndPoint(wctCoreWsEndpoint());
         bean.setLogsSubFolder(crawlLogIndexerLogsSubFolder);
         bean.setCrawlLogFileName(crawlLogIndexerCrawlLogFileName);
-        bean.setStrippedLogFileName(crawlLogIndexerStrippedLogFileName);
         bean.setSortedLogFileName(crawlLogIndexerSortedLogFileName);
 
         return bean;
     }
 
+    @Bean
+    public CrawlLogSummaryIndexer crawlLogSummaryIndexer() {
+        CrawlLogSummarizer summarizer = new CrawlLogSummarizer();
+        summarizer.setMaxHosts(crawlLogSummaryIndexerMaxHosts);
+        summarizer.setMaxMimeTypes(crawlLogSummaryIndexerMaxMimeTypes);
+        summarizer.setMaxErrors(crawlLogSummaryIndexerMaxErrors);
+
+        CrawlLogSummaryIndexer bean = new CrawlLogSummaryIndexer(wctCoreWsEndpointBaseUrl, restTemplateBuilder);
+        bean.setEnabled(crawlLogSummaryIndexerEnabled);
+        bean.setSummarizer(summarizer);
+
+        return bean;
+    }
+
+    @Bean
+    public CrawlLogSorter crawlLogSorter() {
+        CrawlLogSorter bean = new CrawlLogSorter();
+        bean.setThreads(crawlLogSorterThreads);
+        bean.setRunSize(crawlLogSorterRunSize);
+
+        return bean;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public LogCompressor logCompressor() {
+        LogCompressor bean = new LogCompressor();
+        bean.setBaseDir(new File(arcDigitalAssetStoreServiceBaseDir));
+        bean.setEnabled(logCompressorEnabled);
+        bean.setMinAge(logCompressorMinAge);
+        bean.setMinSize(logCompressorMinSize);
+        bean.setInterval(logCompressorInterval);
+
+        return bean;
+    }
+
     @Bean
     public CDXIndexer cdxIndexer() {
         CDXIndexer bean = new CDXIndexer(wctCoreWsEndpointBaseUrl, restTemplateBuilder);
@@ -501,8 +594,8 @@ public class DasConfig {
     @Bean
     @Scope(BeanDefinition.SCOPE_SINGLETON)
     @Lazy(false) // lazy-init="default", but no default has been set for wct-das.xml
-    public LogReaderImpl logReader() {
-        LogReaderImpl bean = new LogReaderImpl();
+    public MappedLogReader logReader() {
+        MappedLogReader bean = new MappedLogReader();
         bean.setLogProvider(arcDigitalAssetStoreService);
 
         return bean;
@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webcurator.core.reader.BlockCompressedLog;
+import org.webcurator.core.reader.LogLineIndex;
+
+/**
+ * Compresses the logs of completed harvests in the store in the background,
+ * to the {@link BlockCompressedLog} format, which the log readers read
+ * without decompressing the whole log.
+ * <p>
+ * A log in the logs directory of a harvest is compressed once it has not
+ * been modified for <code>minAge</code> milliseconds, so the logs of
+ * harvests that are still being received are left alone. The plain log is
+ * deleted once the compressed log is complete.
+ */
+public class LogCompressor {
+    private static final Logger log = LoggerFactory.getLogger(LogCompressor.class);
+
+    private static final String LOG_SUFFIX = ".log";
+
+    /**
+     * The base directory of the store.
+     */
+    private File baseDir;
+
+    private boolean enabled = false;
+
+    /**
+     * The time, in milliseconds, since a log was last modified before it is compressed.
+     */
+    private long minAge = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * The size, in bytes, below which logs are left as they are.
+     */
+    private long minSize = 1024 * 1024;
+
+    /**
+     * The time, in milliseconds, between looking for logs to compress.
+     */
+    private long interval = 60 * 60 * 1000L;
+
+    private int blockSize = BlockCompressedLog.DEFAULT_BLOCK_SIZE;
+
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Start looking for logs to compress, if enabled.
+     */
+    public synchronized void start() {
+        if (!enabled || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LogCompressor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::compressLogs, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Compressing logs in {} older than {} ms", baseDir, minAge);
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Compress the logs of every harvest in the store that are old enough.
+     */
+    public void compressLogs() {
+        File[] harvestDirs = baseDir.listFiles(File::isDirectory);
+        if (harvestDirs == null) {
+            log.warn("Unable to list the store directory {}", baseDir);
+            return;
+        }
+        for (File harvestDir : harvestDirs) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            File logsDir = new File(harvestDir, Constants.DIR_LOGS);
+            if (logsDir.isDirectory()) {
+                compressLogs(logsDir);
+            }
+        }
+    }
+
+    void compressLogs(File logsDir) {
+        long now = System.currentTimeMillis();
+        File[] logFiles = logsDir.listFiles(f -> f.isFile() && f.getName().endsWith(LOG_SUFFIX)
+                && f.length() >= minSize && now - f.lastModified() >= minAge);
+        if (logFiles == null) {
+            return;
+        }
+        for (File logFile : logFiles) {
+            compress(logFile);
+        }
+    }
+
+    private void compress(File logFile) {
+        File compressedFile = BlockCompressedLog.compressedFile(logFile);
+        long length = logFile.length();
+        long lastModified = logFile.lastModified();
+        try {
+            BlockCompressedLog.compress(logFile, compressedFile, blockSize);
+            if (logFile.length() != length || logFile.lastModified() != lastModified) {
+                // Written to while it was compressed, so try again later.
+                Files.delete(compressedFile.toPath());
+                return;
+            }
+            Files.delete(logFile.toPath());
+            new File(new File(logFile.getParentFile(), LogLineIndex.INDEX_DIR), logFile.getName() + LogLineIndex.INDEX_SUFFIX).delete();
+            log.info("Compressed {} from {} to {} bytes", logFile, length, compressedFile.length());
+        } catch (IOException e) {
+            log.warn("Failed to compress {}: {}", logFile, e.getMessage());
+            compressedFile.delete();
+        }
+    }
+
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public void setBaseDir(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMinAge() {
+        return minAge;
+    }
+
+    public void setMinAge(long minAge) {
+        this.minAge = minAge;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+}
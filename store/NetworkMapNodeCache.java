@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.core.store.arc;
+
+import java.util.Objects;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webcurator.core.visualization.networkmap.metadata.NetworkMapNodeDTO;
+
+/**
+ * A size-bounded cache of the network map lookups used to locate a resource
+ * in the archive files. Only the fields needed to read the record are kept:
+ * the file name, the offset, the status code and the content length.
+ * <p>
+ * Entries must be invalidated whenever the index of a harvest result is
+ * rebuilt, removed or modified.
+ */
+public class NetworkMapNodeCache {
+    private static final Logger log = LoggerFactory.getLogger(NetworkMapNodeCache.class);
+
+    private final Cache<Key, NetworkMapNodeDTO> cache;
+
+    private static class Key {
+        private final long targetInstanceId;
+        private final int harvestResultNumber;
+        private final String resourceUrl;
+
+        private Key(long targetInstanceId, int harvestResultNumber, String resourceUrl) {
+            this.targetInstanceId = targetInstanceId;
+            this.harvestResultNumber = harvestResultNumber;
+            this.resourceUrl = resourceUrl;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return targetInstanceId == key.targetInstanceId
+                    && harvestResultNumber == key.harvestResultNumber
+                    && resourceUrl.equals(key.resourceUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(targetInstanceId, harvestResultNumber, resourceUrl);
+        }
+    }
+
+    public NetworkMapNodeCache() {
+        this(100000);
+    }
+
+    public NetworkMapNodeCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * @return the cached location of the resource, or null if it is not cached
+     */
+    public NetworkMapNodeDTO get(long targetInstanceId, int harvestResultNumber, String resourceUrl) {
+        return cache.getIfPresent(new Key(targetInstanceId, harvestResultNumber, resourceUrl));
+    }
+
+    /**
+     * Cache the location of a resource.
+     */
+    public void put(long targetInstanceId, int harvestResultNumber, String resourceUrl, NetworkMapNodeDTO node) {
+        NetworkMapNodeDTO location = new NetworkMapNodeDTO();
+        location.setFileName(node.getFileName());
+        location.setOffset(node.getOffset());
+        location.setStatusCode(node.getStatusCode());
+        location.setContentLength(node.getContentLength());
+        cache.put(new Key(targetInstanceId, harvestResultNumber, resourceUrl), location);
+    }
+
+    /**
+     * Drop every cached lookup of a harvest result.
+     */
+    public void invalidate(long targetInstanceId, int harvestResultNumber) {
+        cache.asMap().keySet().removeIf(k -> k.targetInstanceId == targetInstanceId && k.harvestResultNumber == harvestResultNumber);
+        log.debug("Invalidated network map lookups of target instance {}, harvest result {}", targetInstanceId, harvestResultNumber);
+    }
+
+    /**
+     * Drop every cached lookup of a target instance.
+     */
+    public void invalidate(long targetInstanceId) {
+        cache.asMap().keySet().removeIf(k -> k.targetInstanceId == targetInstanceId);
+        log.debug("Invalidated network map lookups of target instance {}", targetInstanceId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats getStatistics() {
+        return cache.stats();
+    }
+}
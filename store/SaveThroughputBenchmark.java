@@ -0,0 +1,147 @@
+package org.webcurator.core.store.arc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+import org.webcurator.core.util.ChecksumUtil;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares the ways a harvested file reaches the store:
+ * <ul>
+ * <li>copy: the store copies the file from a location shared with the agent;</li>
+ * <li>streamIOUtils: the agent serves the file with IOUtils.copy and the
+ * store writes it with FileUtils.copyInputStreamToFile, as the stream mode
+ * used to;</li>
+ * <li>streamNio: the agent serves the file with FileChannel.transferTo and
+ * the store writes it with ArcDigitalAssetStoreService.save, with and
+ * without a checksum.</li>
+ * </ul>
+ * The agent is simulated by an HTTP server on the loopback interface. Each
+ * invocation transfers the whole file, so the score is the time per file.
+ * <p>
+ * Run with <code>gradle jmh</code>; the size of the file is the
+ * <code>sizeMb</code> parameter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SaveThroughputBenchmark {
+    @Param({"256"})
+    public long sizeMb;
+
+    private File workDir;
+    private File source;
+    private File storeDir;
+    private String checksum;
+    private HttpServer server;
+    private String base;
+    private ArcDigitalAssetStoreService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("save-benchmark").toFile();
+        source = new File(workDir, "source.warc.gz");
+        writeRandomFile(source, sizeMb * 1024 * 1024);
+        checksum = ChecksumUtil.checksum(source);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/legacy", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (InputStream in = Files.newInputStream(source.toPath()); OutputStream out = exchange.getResponseBody()) {
+                IOUtils.copy(in, out);
+            }
+        });
+        server.createContext("/nio", exchange -> {
+            try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                 OutputStream out = exchange.getResponseBody()) {
+                long size = channel.size();
+                exchange.sendResponseHeaders(200, size);
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        service = new ArcDigitalAssetStoreService();
+        storeDir = new File(workDir, "store");
+        service.setBaseDir(storeDir.getAbsolutePath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeSaved() throws IOException {
+        // A file that is already stored with the same checksum is skipped, so start each iteration empty.
+        FileUtils.deleteDirectory(storeDir);
+    }
+
+    @Benchmark
+    public void copy() throws IOException {
+        File copied = new File(storeDir, "copy/1/source.warc.gz");
+        copied.getParentFile().mkdirs();
+        Files.copy(source.toPath(), copied.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Benchmark
+    public void streamIOUtils() throws IOException {
+        try (InputStream in = open(base + "/legacy")) {
+            FileUtils.copyInputStreamToFile(in, new File(storeDir, "legacy/1/source.warc.gz"));
+        }
+    }
+
+    @Benchmark
+    public void streamNio() throws Exception {
+        service.save("nio", "1", "source.warc.gz", null, offset -> open(base + "/nio"));
+    }
+
+    @Benchmark
+    public void streamNioWithChecksum() throws Exception {
+        service.save("nio-checksum", "1", "source.warc.gz", checksum, offset -> open(base + "/nio"));
+    }
+
+    private static InputStream open(String link) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(link).openConnection();
+        return conn.getInputStream();
+    }
+
+    private static void writeRandomFile(File file, long size) throws IOException {
+        // Random bytes, as WARC files are compressed.
+        byte[] buffer = new byte[1024 * 1024];
+        Random random = new Random(1);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+}
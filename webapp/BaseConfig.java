@@ -55,7 +55,7 @@ import org.webcurator.core.profiles.PolitenessOptions;
 import org.webcurator.core.profiles.ProfileManager;
 import org.webcurator.core.reader.LogReader;
 import org.webcurator.core.reader.LogReaderClient;
-import org.webcurator.core.reader.LogReaderImpl;
+import org.webcurator.core.reader.MappedLogReader;
 import org.webcurator.core.report.LogonDurationDAOImpl;
 import org.webcurator.core.rules.QaRecommendationServiceImpl;
 import org.webcurator.core.scheduler.ScheduleJob;
@@ -126,6 +126,9 @@ public class BaseConfig {
     @Value("${digitalAssetStore.baseUrl}")
     private String digitalAssetStoreBaseUrl;
 
+    @Value("${digitalAssetStore.smallResourceMaxSize}")
+    private long digitalAssetStoreSmallResourceMaxSize;
+
     @Value("${harvestCoordinator.minimumBandwidth}")
     private int minimumBandwidth;
 
@@ -135,6 +138,18 @@ public class BaseConfig {
     @Value("${harvestCoordinator.autoQAUrl}")
     private String autoQAUrl;
 
+    @Value("${harvestCoordinator.logFileAttributesTimeToLive}")
+    private long logFileAttributesTimeToLive;
+
+    @Value("${harvestCoordinator.heartbeatThreads}")
+    private int heartbeatThreads;
+
+    @Value("${harvestCoordinator.statusWriteInterval}")
+    private long statusWriteInterval;
+
+    @Value("${harvestCoordinator.queueReloadInterval}")
+    private long queueReloadInterval;
+
     @Value("${queueController.enableQaModule}")
     private boolean enableQaModule;
 
@@ -402,7 +417,7 @@ public class BaseConfig {
     @Scope(BeanDefinition.SCOPE_SINGLETON)
     @Lazy(false)
     public LogReader logReader() {
-        LogReader bean = new LogReaderImpl();
+        LogReader bean = new MappedLogReader();
         return bean;
     }
 
@@ -411,6 +426,7 @@ public class BaseConfig {
     @Lazy(false)
     public DigitalAssetStoreClient digitalAssetStore() {
         DigitalAssetStoreClient bean = new DigitalAssetStoreClient(digitalAssetStoreBaseUrl, restTemplateBuilder);
+        bean.setSmallResourceMaxSize(digitalAssetStoreSmallResourceMaxSize);
         return bean;
     }
 
@@ -622,13 +638,25 @@ public class BaseConfig {
         return bean;
     }
 
-    @Bean
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
     public HarvestAgentManagerImpl harvestAgentManager() {
         HarvestAgentManagerImpl bean = new HarvestAgentManagerImpl();
         bean.setHarvestAgentFactory(harvestAgentFactory());
         bean.setTargetInstanceManager(targetInstanceManager());
         bean.setTargetInstanceDao(targetInstanceDao());
         bean.setHarvestResultManager(harvestResultManager());
+        bean.setHeartbeatThreads(heartbeatThreads);
+        bean.setStatusWriteInterval(statusWriteInterval);
+        bean.setHarvestQueue(harvestQueue());
+        return bean;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public HarvestQueue harvestQueue() {
+        HarvestQueue bean = new HarvestQueue();
+        bean.setTargetInstanceDao(targetInstanceDao());
+        // Target instances saved outside the coordinator and the target instance manager are only seen on a reload.
+        bean.setReloadInterval(Math.min(queueReloadInterval, processScheduleTriggerRepeatInterval));
         return bean;
     }
 
@@ -641,11 +669,19 @@ public class BaseConfig {
         return bean;
     }
 
+    @Bean
+    public LogFileAttributesCache logFileAttributesCache() {
+        LogFileAttributesCache bean = new LogFileAttributesCache();
+        bean.setTimeToLive(logFileAttributesTimeToLive);
+        return bean;
+    }
+
     @Bean(name = HarvestResult.PATCH_STAGE_TYPE_CRAWLING)
     public PatchingHarvestLogManager patchingHarvestLogManagerNormal() {
         PatchingHarvestLogManagerImpl bean = new PatchingHarvestLogManagerImpl();
         bean.setHarvestAgentManager(harvestAgentManager());
         bean.setDigitalAssetStoreFactory(digitalAssetStoreFactory());
+        bean.setLogFileAttributesCache(logFileAttributesCache());
         bean.setType(HarvestResult.PATCH_STAGE_TYPE_CRAWLING);
         return bean;
     }
@@ -655,6 +691,7 @@ public class BaseConfig {
         PatchingHarvestLogManagerImpl bean = new PatchingHarvestLogManagerImpl();
         bean.setHarvestAgentManager(harvestAgentManager());
         bean.setDigitalAssetStoreFactory(digitalAssetStoreFactory());
+        bean.setLogFileAttributesCache(logFileAttributesCache());
         bean.setType(HarvestResult.PATCH_STAGE_TYPE_MODIFYING);
         return bean;
     }
@@ -664,6 +701,7 @@ public class BaseConfig {
         PatchingHarvestLogManagerImpl bean = new PatchingHarvestLogManagerImpl();
         bean.setHarvestAgentManager(harvestAgentManager());
         bean.setDigitalAssetStoreFactory(digitalAssetStoreFactory());
+        bean.setLogFileAttributesCache(logFileAttributesCache());
         bean.setType(HarvestResult.PATCH_STAGE_TYPE_INDEXING);
         return bean;
     }
@@ -707,6 +745,7 @@ public class BaseConfig {
         bean.setProfileDAO(profileDao());
         bean.setInTrayManager(inTrayManager());
         bean.setStoreSeedHistory(storeSeedHistory);
+        bean.setHarvestQueue(harvestQueue());
 
         return bean;
     }
@@ -0,0 +1,363 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.ui.tools.controller;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webcurator.domain.model.core.HarvestResult;
+
+/**
+ * A disk-backed cache of rewritten browse pages. QA reviewers open the same
+ * pages over and over, so the output of the BrowseHelper is kept on disk and
+ * served from there instead of reading the WARC record and rewriting it again.
+ * <p>
+ * Entries are keyed by the harvest result OID, the resource URL and a hash of
+ * the rewrite configuration (see {@link BrowseHelper#getConfigurationHash()}),
+ * and are stored as <code>&lt;dir&gt;/&lt;hrOid&gt;/&lt;sha-256 of url and config hash&gt;</code>.
+ * Each file starts with the Content-Type followed by a newline; the rest is
+ * the rewritten content. No status or other headers are kept, so only pages
+ * captured with a 200 status may be cached.
+ * <p>
+ * The total size of the cache is capped by <code>maxSize</code> bytes; the
+ * least recently used entries are deleted to make room. All entries of a
+ * harvest result must be dropped with {@link #invalidate(long)} when the
+ * harvest result is modified or reindexed.
+ */
+public class BrowseCache {
+    private static final Logger log = LoggerFactory.getLogger(BrowseCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The cached entries, in least recently used order.
+     */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private File directory;
+    private long maxSize = 256L * 1024 * 1024;
+    private long size = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * A cached rewritten page.
+     */
+    public static class Entry {
+        private final Path path;
+        private final String contentType;
+        private final long size;
+
+        private Entry(Path path, String contentType, long size) {
+            this.path = path;
+            this.contentType = contentType;
+            this.size = size;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    /**
+     * Load the entries left on disk by a previous run, oldest first.
+     */
+    public void init() {
+        if (directory == null) {
+            log.warn("No directory configured for the browse cache, caching is disabled");
+            return;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            log.error("Failed to create browse cache directory: {}", directory);
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(directory.toPath(), 2)) {
+            stream.filter(Files::isRegularFile).forEach(files::add);
+        } catch (IOException e) {
+            log.error("Failed to list browse cache directory: {}", directory, e);
+            return;
+        }
+        files.sort(Comparator.comparingLong(f -> f.toFile().lastModified()));
+
+        synchronized (this) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    deleteQuietly(file);
+                    continue;
+                }
+                try {
+                    String contentType = readContentType(file);
+                    addEntry(new Entry(file, contentType, Files.size(file)));
+                } catch (IOException e) {
+                    deleteQuietly(file);
+                }
+            }
+            evict();
+        }
+        log.info("Browse cache loaded from {}: {} entries, {} bytes", directory, entries.size(), size);
+    }
+
+    /**
+     * Only the pages of a harvest result whose index is complete may be
+     * cached; while it is being crawled, modified or indexed its content can
+     * still change.
+     *
+     * @param hr the harvest result
+     * @return true if the pages of the harvest result may be cached
+     */
+    public static boolean isCacheable(HarvestResult hr) {
+        int state = hr.getState();
+        return state == HarvestResult.STATE_UNASSESSED || state == HarvestResult.STATE_ENDORSED
+                || state == HarvestResult.STATE_REJECTED;
+    }
+
+    /**
+     * Look up a rewritten page.
+     *
+     * @param hrOid      the OID of the harvest result
+     * @param url        the URL of the resource
+     * @param configHash the hash of the rewrite configuration
+     * @return the cached page, or null if it is not cached
+     */
+    public synchronized Entry get(long hrOid, String url, String configHash) {
+        if (directory == null) {
+            return null;
+        }
+        Entry entry = entries.get(getPath(hrOid, url, configHash));
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Copy the content of a cached page.
+     *
+     * @param entry the cached page
+     * @param out   the output
+     * @return false if the entry was evicted before it could be read, in
+     * which case nothing has been written
+     * @throws IOException if the content could not be copied
+     */
+    public boolean copyContent(Entry entry, OutputStream out) throws IOException {
+        InputStream in;
+        try {
+            in = new BufferedInputStream(Files.newInputStream(entry.path));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try {
+            skipContentType(in);
+            IOUtils.copy(in, out);
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Cache a rewritten page, evicting the least recently used pages if
+     * the cache is full.
+     *
+     * @param hrOid       the OID of the harvest result
+     * @param url         the URL of the resource
+     * @param configHash  the hash of the rewrite configuration
+     * @param contentType the Content-Type to serve the page with
+     * @param content     the rewritten page
+     * @param charset     the charset to encode the page with
+     * @return the new entry, or null if the page could not be cached
+     */
+    public Entry put(long hrOid, String url, String configHash, String contentType, String content, Charset charset) {
+        if (directory == null) {
+            return null;
+        }
+        Path path = getPath(hrOid, url, configHash);
+        Path temp = path.resolveSibling(path.getFileName() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        try {
+            Files.createDirectories(path.getParent());
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(contentType.getBytes(StandardCharsets.ISO_8859_1));
+                out.write('\n');
+                out.write(content.getBytes(charset));
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to cache browse page {} of harvest result {}: {}", url, hrOid, e.getMessage());
+            deleteQuietly(temp);
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = new Entry(path, contentType, path.toFile().length());
+            Entry previous = entries.remove(path);
+            if (previous != null) {
+                size -= previous.size;
+            }
+            addEntry(entry);
+            evict();
+        }
+        return entry;
+    }
+
+    /**
+     * Drop every cached page of a harvest result.
+     *
+     * @param hrOid the OID of the harvest result
+     */
+    public void invalidate(long hrOid) {
+        if (directory == null) {
+            return;
+        }
+        Path dir = new File(directory, Long.toString(hrOid)).toPath();
+        synchronized (this) {
+            Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Entry> e = it.next();
+                if (e.getKey().startsWith(dir)) {
+                    size -= e.getValue().size;
+                    it.remove();
+                }
+            }
+        }
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.forEach(BrowseCache::deleteQuietly);
+        } catch (NoSuchFileException e) {
+            // Nothing cached for this harvest result.
+        } catch (IOException e) {
+            log.warn("Failed to clear browse cache of harvest result {}: {}", hrOid, e.getMessage());
+        }
+        log.debug("Invalidated browse cache of harvest result {}", hrOid);
+    }
+
+    // Must be called while holding the lock.
+    private void addEntry(Entry entry) {
+        entries.put(entry.path, entry);
+        size += entry.size;
+    }
+
+    // Must be called while holding the lock.
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            size -= eldest.size;
+            deleteQuietly(eldest.path);
+        }
+    }
+
+    private Path getPath(long hrOid, String url, String configHash) {
+        return new File(new File(directory, Long.toString(hrOid)), sha256(url + "\n" + configHash)).toPath();
+    }
+
+    private static String readContentType(Path file) throws IOException {
+        StringBuilder contentType = new StringBuilder();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    throw new IOException("Truncated browse cache entry: " + file);
+                }
+                contentType.append((char) c);
+            }
+        }
+        return contentType.toString();
+    }
+
+    private static void skipContentType(InputStream in) throws IOException {
+        int c;
+        do {
+            c = in.read();
+        } while (c != '\n' && c >= 0);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete browse cache file {}: {}", path, e.getMessage());
+        }
+    }
+
+    static String sha256(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+}
@@ -0,0 +1,104 @@
+package org.webcurator.ui.tools.controller;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BrowseCacheTest {
+    private static final String CONTENT_TYPE = "text/html;charset=UTF-8";
+
+    private File directory;
+    private BrowseCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("browse-cache").toFile();
+        cache = new BrowseCache();
+        cache.setDirectory(directory);
+        cache.init();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        assertNull(cache.get(1L, "http://test.com/", "hash"));
+
+        cache.put(1L, "http://test.com/", "hash", CONTENT_TYPE, "<html>caf\u00e9</html>", StandardCharsets.UTF_8);
+
+        BrowseCache.Entry entry = cache.get(1L, "http://test.com/", "hash");
+        assertNotNull(entry);
+        assertEquals(CONTENT_TYPE, entry.getContentType());
+        assertEquals("<html>caf\u00e9</html>", read(entry));
+
+        // A different rewrite configuration must not see the page.
+        assertNull(cache.get(1L, "http://test.com/", "other"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() throws IOException {
+        cache.put(1L, "http://test.com/", "hash", CONTENT_TYPE, "<html></html>", StandardCharsets.UTF_8);
+
+        BrowseCache reloaded = new BrowseCache();
+        reloaded.setDirectory(directory);
+        reloaded.init();
+
+        BrowseCache.Entry entry = reloaded.get(1L, "http://test.com/", "hash");
+        assertNotNull(entry);
+        assertEquals(CONTENT_TYPE, entry.getContentType());
+        assertEquals("<html></html>", read(entry));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        String page = new String(new char[100]).replace('\0', 'x');
+        long entrySize = CONTENT_TYPE.length() + 1 + page.length();
+        cache.setMaxSize(entrySize * 2);
+
+        cache.put(1L, "http://test.com/a", "hash", CONTENT_TYPE, page, StandardCharsets.UTF_8);
+        cache.put(1L, "http://test.com/b", "hash", CONTENT_TYPE, page, StandardCharsets.UTF_8);
+        assertNotNull(cache.get(1L, "http://test.com/a", "hash"));
+        cache.put(1L, "http://test.com/c", "hash", CONTENT_TYPE, page, StandardCharsets.UTF_8);
+
+        assertNotNull(cache.get(1L, "http://test.com/a", "hash"));
+        assertNull(cache.get(1L, "http://test.com/b", "hash"));
+        assertNotNull(cache.get(1L, "http://test.com/c", "hash"));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(entrySize * 2, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        cache.put(1L, "http://test.com/", "hash", CONTENT_TYPE, "<html></html>", StandardCharsets.UTF_8);
+        BrowseCache.Entry entry = cache.put(2L, "http://test.com/", "hash", CONTENT_TYPE, "<html></html>", StandardCharsets.UTF_8);
+
+        cache.invalidate(1L);
+
+        assertNull(cache.get(1L, "http://test.com/", "hash"));
+        assertNotNull(cache.get(2L, "http://test.com/", "hash"));
+        assertEquals(0, new File(directory, "1").list().length);
+
+        cache.invalidate(2L);
+        assertFalse(cache.copyContent(entry, new ByteArrayOutputStream()));
+    }
+
+    private String read(BrowseCache.Entry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(cache.copyContent(entry, out));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
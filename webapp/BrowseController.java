@@ -16,11 +16,12 @@
 package org.webcurator.ui.tools.controller;
 
 import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Path;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -30,6 +31,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,6 +41,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.servlet.ModelAndView;
 import org.webcurator.core.exceptions.DigitalAssetStoreException;
+import org.webcurator.core.store.ArchivedResource;
 import org.webcurator.core.store.DigitalAssetStore;
 import org.webcurator.domain.TargetInstanceDAO;
 import org.webcurator.domain.model.core.HarvestResult;
@@ -66,6 +69,12 @@ public class BrowseController {
     @Autowired
     private BrowseHelper browseHelper;
 
+    /**
+     * The cache of rewritten pages.
+     **/
+    @Autowired
+    private BrowseCache browseCache;
+
     /**
      * The QualityReviewFacade for this controller.
      **/
@@ -79,13 +88,19 @@ public class BrowseController {
     // private final int MAX_MEMORY_SIZE = 0;
 
     /**
-     * The buffer size for reading from the file.
+     * The buffer size for reading the content.
      */
     private static final int BYTE_BUFFER_SIZE = 1024 * 8;
 
     private static final Pattern p = Pattern.compile("\\/(\\d+)\\/(.*)");
 
-    private static final Pattern CHARSET_PATTERN = Pattern.compile(";\\s+charset=([A-Za-z0-9].[A-Za-z0-9_\\-\\.:]*)");
+    private static final Pattern CHARSET_PATTERN = Pattern.compile(";\\s*charset=\"?([A-Za-z0-9][A-Za-z0-9_\\-\\.:]*)", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("(\\d*)-(\\d*)");
+
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
 
     private static final Charset CHARSET_LATIN_1 = StandardCharsets.UTF_8; // StandardCharsets.ISO_8859_1;
 
@@ -116,6 +131,15 @@ public class BrowseController {
         this.browseHelper = browseHelper;
     }
 
+    /**
+     * Sets the cache of rewritten pages.
+     *
+     * @param browseCache The cache of rewritten pages.
+     */
+    public void setBrowseCache(BrowseCache browseCache) {
+        this.browseCache = browseCache;
+    }
+
     /**
      * Default constructor.
      */
@@ -200,15 +224,81 @@ public class BrowseController {
             return new ModelAndView("browse-tool-not-found", "resourceName", command.getResource());
         }
 
-        List<Header> headers = new ArrayList<>();
+        // Fetch the status and headers, and open a stream over the content, in
+        // a single pass over the archive record. Conditional and range
+        // requests are answered from these headers before anything else.
+        ArchivedResource resource = null;
+        try {
+            String range = req.getHeader(HEADER_RANGE);
+            if (range != null || req.getHeader(HEADER_IF_NONE_MATCH) != null || req.getHeader(HEADER_IF_MODIFIED_SINCE) != null) {
+                resource = openResource(ti, hr, command.getResource());
+                if (resource == null) {
+                    res.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return null;
+                }
+                if (isPassThrough(resource)) {
+                    setValidators(resource, res);
+                    if (isNotModified(resource, req)) {
+                        res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        return null;
+                    }
+                    if (range != null && writeRange(resource, range, command.getResource(), req, res)) {
+                        return null;
+                    }
+                }
+            }
+
+            // Serve a page that has already been rewritten straight from the cache.
+            // This comes after the conditional and range requests, so that a
+            // cached page is answered the same way as a page read from the record.
+            String configHash = null;
+            if (BrowseCache.isCacheable(hr)) {
+                configHash = browseHelper.getConfigurationHash();
+                BrowseCache.Entry cached = browseCache.get(hr.getOid(), command.getResource(), configHash);
+                if (cached != null) {
+                    res.setContentType(cached.getContentType());
+                    if (browseCache.copyContent(cached, res.getOutputStream())) {
+                        return null;
+                    }
+                }
+            } else {
+                browseCache.invalidate(hr.getOid());
+            }
+
+            if (resource == null) {
+                resource = openResource(ti, hr, command.getResource());
+                if (resource == null) {
+                    res.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return null;
+                }
+            }
+            return handleResource(command, hr, resource, new BufferedInputStream(resource.getContent(), BYTE_BUFFER_SIZE), configHash, res);
+        } finally {
+            if (resource != null) {
+                IOUtils.closeQuietly(resource.getContent());
+            }
+        }
+    }
+
+    /**
+     * Open the archived resource, logging rather than throwing any failure.
+     *
+     * @return the resource, or null if it could not be opened
+     */
+    private ArchivedResource openResource(TargetInstance ti, HarvestResult hr, String resourceUrl) {
         try {        // catch any DigitalAssetStoreException and log assumptions
-            headers = digitalAssetStore.getHeaders(ti.getOid(), hr.getHarvestNumber(), command.getResource());
+            return digitalAssetStore.openResourceWithHeaders(ti.getOid(), hr.getHarvestNumber(), resourceUrl);
         } catch (Exception e) {
-            log.error("Unexpected exception encountered when retrieving WARC headers for ti " + ti.getOid());
-            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            log.error("Unexpected exception encountered when retrieving WARC record for ti " + ti.getOid());
+            return null;
         }
+    }
 
-        int statusCode = Integer.parseInt(getHeaderValue(headers, "HTTP-RESPONSE-STATUS-CODE"));
+    private ModelAndView handleResource(BrowseCommand command, HarvestResult hr, ArchivedResource resource, InputStream in,
+                                        String configHash, HttpServletResponse res) throws IOException {
+        List<Header> headers = resource.getHeaders();
+
+        int statusCode = resource.getStatusCode();
 
         // Send the headers for a redirect.
         if (statusCode == HttpServletResponse.SC_MOVED_TEMPORARILY || statusCode == HttpServletResponse.SC_MOVED_PERMANENTLY) {
@@ -223,6 +313,7 @@ public class BrowseController {
         // Get the content type.
         String realContentType = getHeaderValue(headers, "Content-Type");
         String simpleContentType = this.getSimpleContentType(realContentType);
+        boolean replaceable = browseHelper.isReplaceable(simpleContentType);
 
         String charset = null;
         if (realContentType != null) {
@@ -231,21 +322,29 @@ public class BrowseController {
                 charset = charsetMatcher.group(1);
                 log.debug("Desired charset: " + charset + " for " + command.getResource());
             } else {
-                log.debug("No charset for: " + command.getResource());
-                charset = CHARSET_LATIN_1.name();
+                // Pages often only declare their charset in a META tag.
+                if (replaceable) {
+                    charset = BrowseHelper.sniffCharset(in);
+                }
+                if (charset == null) {
+                    log.debug("No charset for: " + command.getResource());
+                    charset = CHARSET_LATIN_1.name();
+                } else {
+                    log.debug("Sniffed charset: " + charset + " for " + command.getResource());
+                }
                 realContentType += ";charset=" + charset;
             }
         }
 
 
         // If the content has been registered with the browseHelper to require replacements, load the content and perform the necessary replacements.
-        if (browseHelper.isReplaceable(simpleContentType)) {
+        if (replaceable) {
             StringBuilder content = null;
 
             try {
-                content = readFile(ti.getOid(), hr.getHarvestNumber(), command.getResource(), charset);
-            } catch (DigitalAssetStoreException e) {
-                log.warn(e.getMessage());
+                content = BrowseHelper.decode(in, loadCharset(charset), resource.getPayloadLength());
+            } catch (IOException e) {
+                log.warn("Failed to read " + command.getResource() + ": " + e.getMessage());
             }
             ModelAndView mav = new ModelAndView("browse-tool-html");
             if (content == null) {
@@ -272,97 +371,212 @@ public class BrowseController {
                 }
             }
 
-            browseHelper.fix(content, simpleContentType, command.getHrOid(), baseUrl);
-            mav.addObject("content", content.toString());
+            StringWriter rewritten = new StringWriter(content.length() + 1024);
+            browseHelper.rewrite(content, simpleContentType, command.getHrOid(), baseUrl, rewritten);
+            String rewrittenContent = rewritten.toString();
+            // The cache holds no status or headers, so only successful pages are cached.
+            if (configHash != null && statusCode == HttpServletResponse.SC_OK) {
+                browseCache.put(hr.getOid(), command.getResource(), configHash, realContentType, rewrittenContent, loadCharset(charset));
+            }
+            mav.addObject("content", rewrittenContent);
             mav.addObject("Content-Type", realContentType);
             return mav;
         } else { // If there are no replacements, send the content back directly.
-            Date dt = new Date();
-            Path path = digitalAssetStore.getResource(ti.getOid(), hr.getHarvestNumber(), command.getResource());
-            ModelAndView mav = new ModelAndView("browse-tool-other");
-            mav.addObject("file", path);
-            mav.addObject("contentType", realContentType);
-
-            log.info("TIME TO GET RESOURCE(old): " + (new Date().getTime() - dt.getTime()));
-            return mav;
-        }
-
-    }
-
-    private Charset loadCharset(String charset) {
-        Charset cs = CHARSET_LATIN_1;
-        if (charset != null) {
+            if (isPassThrough(resource)) {
+                setValidators(resource, res);
+            }
+            // Stream the payload straight to the response rather than holding it anywhere.
+            if (realContentType != null) {
+                res.setContentType(realContentType);
+            }
+            if (resource.getPayloadLength() >= 0) {
+                res.setHeader("Content-Length", Long.toString(resource.getPayloadLength()));
+            }
             try {
-                cs = Charset.forName(charset);
-            } catch (Exception ex) {
-                log.warn("Could not load desired charset " + charset + "; using ISO-8859-1");
+                IOUtils.copyLarge(in, res.getOutputStream());
+            } catch (IOException e) {
+                log.warn("Failed to send " + command.getResource() + ": " + e.getMessage());
             }
+            return null;
         }
 
-        return cs;
     }
 
+    /**
+     * Only successful resources that are sent back unchanged can be validated
+     * or served in parts; rewritten content differs from the archived payload.
+     */
+    private boolean isPassThrough(ArchivedResource resource) {
+        return resource.getStatusCode() == HttpServletResponse.SC_OK
+                && !browseHelper.isReplaceable(getSimpleContentType(resource.getHeaderValue("Content-Type")));
+    }
+
+    /**
+     * Set the ETag from the payload digest and the Last-Modified date from
+     * the capture date, and advertise range support.
+     */
+    private void setValidators(ArchivedResource resource, HttpServletResponse res) {
+        String etag = resource.getETag();
+        if (etag != null) {
+            res.setHeader("ETag", etag);
+        }
+        Date captureDate = resource.getCaptureDate();
+        if (captureDate != null) {
+            res.setDateHeader("Last-Modified", captureDate.getTime());
+        }
+        if (resource.getPayloadLength() >= 0) {
+            res.setHeader("Accept-Ranges", "bytes");
+        }
+    }
 
     /**
-     * Reads the contents of the HarvestResource described by the DTO.
-     *
-     * @param dto The HarvestResource to read the content of.
-     * @return The content of the HarvestResource as a String.
-     * @throws IOException
+     * Evaluate If-None-Match, or If-Modified-Since when there is no
+     * If-None-Match, against the archived resource.
      */
+    private boolean isNotModified(ArchivedResource resource, HttpServletRequest req) {
+        String ifNoneMatch = req.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            String etag = resource.getETag();
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Date captureDate = resource.getCaptureDate();
+        long ifModifiedSince = getDateHeader(req, HEADER_IF_MODIFIED_SINCE);
+        return captureDate != null && ifModifiedSince >= 0 && captureDate.getTime() / 1000 <= ifModifiedSince / 1000;
+    }
 
     /**
-     * Reads the contents of the HarvestResource described by the DTO.
+     * Serve a single byte range of the resource. Multiple ranges, malformed
+     * ranges and ranges whose If-Range validator no longer matches are not
+     * handled, so that the caller sends the whole resource instead.
      *
-     * @param targetInstanceId    Target Instance Oid
-     * @param harvestResultNumber Harvest Result Number
-     * @param resourceUrl         Resource URL requested
-     * @param charset             charset for response
-     * @return content related to request URL
-     * @throws DigitalAssetStoreException error happens
+     * @return true if the response has been sent
      */
-    private StringBuilder readFile(long targetInstanceId, int harvestResultNumber, String resourceUrl, String charset)
-            throws DigitalAssetStoreException {
-
-        // this is always a temp file - need to delete it before exiting
-        Path path = digitalAssetStore.getResource(targetInstanceId, harvestResultNumber, resourceUrl);
+    private boolean writeRange(ArchivedResource resource, String range, String resourceUrl,
+                               HttpServletRequest req, HttpServletResponse res) throws IOException {
+        long length = resource.getPayloadLength();
+        if (length < 0 || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return false;
+        }
 
-        StringBuilder content = new StringBuilder();
-        BufferedInputStream is = null;
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (!ifRange.equals(resource.getETag())) {
+                    return false;
+                }
+            } else {
+                Date captureDate = resource.getCaptureDate();
+                long date = getDateHeader(req, "If-Range");
+                if (captureDate == null || date < 0 || captureDate.getTime() / 1000 != date / 1000) {
+                    return false;
+                }
+            }
+        }
 
+        Matcher m = RANGE_PATTERN.matcher(range.substring("bytes=".length()).trim());
+        if (!m.matches() || (m.group(1).isEmpty() && m.group(2).isEmpty())) {
+            return false;
+        }
+        long start;
+        long end;
         try {
-            // Try to get the appropriate character set.
-            Charset cs = loadCharset(charset);
+            if (m.group(1).isEmpty()) {
+                // A suffix range: the last n bytes.
+                long suffix = Long.parseLong(m.group(2));
+                start = Math.max(0, length - suffix);
+                end = suffix == 0 ? -1 : length - 1;
+            } else {
+                start = Long.parseLong(m.group(1));
+                end = m.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(m.group(2)), length - 1);
+                if (m.group(2).length() > 0 && Long.parseLong(m.group(2)) < start) {
+                    return false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
 
-            is = new BufferedInputStream(new FileInputStream(path.toFile()));
-            byte[] buff = new byte[BYTE_BUFFER_SIZE];
-            int bytesRead = 0;
+        if (start >= length || end < start) {
+            res.setHeader("Content-Range", "bytes */" + length);
+            res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return true;
+        }
+
+        long rangeLength = end - start + 1;
+        res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        res.setContentType(resource.getHeaderValue("Content-Type"));
+        res.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        res.setHeader("Content-Length", Long.toString(rangeLength));
+        try {
+            copyRange(resource.getContent(), start, rangeLength, res.getOutputStream());
+        } catch (IOException e) {
+            log.error("Failed to send range " + range + " of " + resourceUrl + ": " + e.getMessage());
+        }
+        return true;
+    }
 
-            bytesRead = is.read(buff);
-            while (bytesRead > 0) {
-                content.append(new String(buff, 0, bytesRead, cs.name()));
-                bytesRead = is.read(buff);
+    /**
+     * Skip to the start of a range within the content, then copy no more
+     * than the length of the range.
+     */
+    private void copyRange(InputStream in, long start, long length, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BYTE_BUFFER_SIZE];
+        long toSkip = start;
+        while (toSkip > 0) {
+            long skipped = in.skip(toSkip);
+            if (skipped <= 0) {
+                // skip() may stop short without reaching the end, so read a byte to tell.
+                if (in.read() == -1) {
+                    return;
+                }
+                skipped = 1;
             }
+            toSkip -= skipped;
+        }
 
-        } catch (Exception e) {
-            throw new DigitalAssetStoreException("Failed to read file : " + path.toString() + " : " + e.getMessage(), e);
-        } finally {
+        long remaining = length;
+        int bytesRead;
+        while (remaining > 0 && (bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            out.write(buffer, 0, bytesRead);
+            remaining -= bytesRead;
+        }
+    }
+
+    private long getDateHeader(HttpServletRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private Charset loadCharset(String charset) {
+        Charset cs = CHARSET_LATIN_1;
+        if (charset != null) {
             try {
-                is.close();
-                // No point deleting it if it is already gone
-                if (path.toFile().exists()) {
-                    if (!path.toFile().delete()) {
-                        log.error("Failed to delete temporary file: " + path.toString());
-                    }
-                }
-            } catch (IOException e) {
-                log.warn("Failed to close input stream " + e.getMessage(), e);
+                cs = Charset.forName(charset);
+            } catch (Exception ex) {
+                log.warn("Could not load desired charset " + charset + "; using ISO-8859-1");
             }
         }
 
-        return content;
+        return cs;
     }
 
+
     /**
      * @param fixTokens the fixTokens to set
      */
@@ -16,17 +16,30 @@
 package org.webcurator.ui.tools.controller;
 
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.wayback.archivalurl.ArchivalUrlResultURIConverter;
+import org.archive.wayback.util.url.UrlOperations;
 import org.jsoup.Connection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +70,19 @@ public class BrowseHelper {
      **/
     private static final Logger log = LoggerFactory.getLogger(BrowseHelper.class);
 
+    /**
+     * The number of bytes searched for a META charset declaration, as in the
+     * HTML specification.
+     */
+    private static final int CHARSET_SNIFF_LENGTH = 1024;
+
+    private static final Pattern META_CHARSET_PATTERN = Pattern.compile(
+            "<meta\\s[^>]*?charset\\s*=\\s*[\"']?\\s*([A-Za-z0-9][A-Za-z0-9_\\-\\.:]*)", Pattern.CASE_INSENSITIVE);
+
+    private static final int DECODE_BUFFER_SIZE = 1024 * 8;
+
+    private static final int MAX_DECODE_CAPACITY = 64 * 1024 * 1024;
+
     /**
      * The prefix that will be used in the replacements.
      **/
@@ -186,89 +212,101 @@ public class BrowseHelper {
      * @param currentResource The URL of the current resource.
      */
     public void fix(StringBuilder content, String contentType, long hrOid, String currentResource) {
+        StringWriter out = new StringWriter(content.length() + 1024);
+        try {
+            rewrite(content, contentType, hrOid, currentResource, out);
+        } catch (IOException e) {
+            // A StringWriter does not throw.
+            throw new IllegalStateException(e);
+        }
+        content.setLength(0);
+        content.append(out.getBuffer());
+    }
+
+    /**
+     * Writes the resource with its URLs replaced by rewritten URLs that
+     * point back to the BrowseController. The content is tokenized once:
+     * the TagMagix tag/attribute patterns, the content-type patterns and the
+     * fix tokens are all matched against the original content and the
+     * replacements are made as the content is written.
+     *
+     * @param content         The resource content.
+     * @param contentType     The content-type of the resource.
+     * @param hrOid           The OID of the harvest result, used for constructing the
+     *                        rewritten URL.
+     * @param currentResource The URL of the current resource.
+     * @param out             The writer for the rewritten content.
+     * @throws IOException if the writer fails.
+     */
+    public void rewrite(CharSequence content, String contentType, long hrOid, String currentResource, Writer out) throws IOException {
         String resourcePrefix = getResourcePrefix(hrOid);
         String jsPrefix = prefix.replaceFirst("curator/tools/browse", "replay/client-rewrite.js");
+        boolean html = "text/html".equals(contentType);
+        BrowseRewriter rewriter = new BrowseRewriter(content);
 
         // The Wayback 1.2 tool adds a <base href="..."> tag after the <head> tag
         // provided there is not one already there. So we'll do the same.
-        if ("text/html".equals(contentType)) {
+        if (html) {
             String existingBaseHref = CustomizedTagMagix.getBaseHref(content);
             if (existingBaseHref == null) {
-                insertAtStartOfHead(content, "<base href=\"" + encodeUrl(currentResource) + "\" />");
+                int insertPoint = CustomizedTagMagix.getEndOfFirstTag(content, "head");
+                rewriter.addInsertion(Math.max(insertPoint, 0), "<base href=\"" + encodeUrl(currentResource) + "\" />");
             } else {
                 currentResource = existingBaseHref;
             }
         }
+        final String baseUrl = currentResource;
 
         // Perform TagMagix replacements for html content.
-        ArchivalUrlResultURIConverter resURIConverter = new ArchivalUrlResultURIConverter();
-        if (resourcePrefix.endsWith("/")) {
-            resURIConverter.setReplayURIPrefix(resourcePrefix.substring(0, resourcePrefix.length() - 1));
-        } else {
-            resURIConverter.setReplayURIPrefix(resourcePrefix);
-        }
-        if ("text/html".equals(contentType)) {
+        if (html) {
+            ArchivalUrlResultURIConverter resURIConverter = new ArchivalUrlResultURIConverter();
+            if (resourcePrefix.endsWith("/")) {
+                resURIConverter.setReplayURIPrefix(resourcePrefix.substring(0, resourcePrefix.length() - 1));
+            } else {
+                resURIConverter.setReplayURIPrefix(resourcePrefix);
+            }
             for (TagMagixHelper helper : htmlTagPatterns) {
-                CustomizedTagMagix.markupTagREURIC(content, resURIConverter, "", currentResource, helper.tag, helper.attribute);
+                rewriter.addTagRule(getTagMagixPattern(helper.tag, helper.attribute),
+                        url -> resURIConverter.makeReplayURI("", encodeUrl(UrlOperations.resolveUrl(baseUrl, url))));
             }
         }
 
-        // Perform regular expression pattern matching replacements for HTML content.
+        // Perform regular expression pattern matching replacements.
         if (contentTypePatterns.containsKey(contentType)) {
             for (Pattern pattern : contentTypePatterns.get(contentType)) {
-                Matcher matcher = pattern.matcher(content);
-
-                int idx = 0;
-                while (matcher.find(idx)) {
-                    String currentVal = matcher.group(1);
-
-                    if (!"".equals(currentVal.trim())) {
-                        String newVal = convertUrl(hrOid, currentResource, currentVal);
-                        log.debug("Replacing " + matcher.group(1) + " with " + newVal);
-
-                        int origAttrLength = currentVal.length();
-                        int attrStart = matcher.start(1);
-                        int attrEnd = matcher.end(1);
-                        int delta = newVal.length() - origAttrLength;
-
-                        content.replace(attrStart, attrEnd, newVal);
-                        idx = matcher.end(0) + delta;
-                    } else {
-                        idx = matcher.end(0);
-                    }
-                }
+                rewriter.addPatternRule(pattern, url -> {
+                    String newVal = convertUrl(hrOid, baseUrl, url);
+                    log.debug("Replacing " + url + " with " + newVal);
+                    return newVal;
+                });
             }
         }
 
         // The Wayback 1.2 tool also inserts some custom JavaScript to be
         // executed on the client side, which performs further URI replacements.
         // So we'll do the same.
-        if ("text/html".equals(contentType)) {
+        if (html) {
             StringBuilder toInsert = new StringBuilder(300);
             toInsert.append("<script type=\"text/javascript\">\n");
             toInsert.append("  var sWayBackCGI = \"" + resourcePrefix + "\";\n");
             toInsert.append("</script>\n");
             toInsert.append("<script type=\"text/javascript\" src=\"" + jsPrefix + "\" ></script>\n");
-            insertAtEndOfBody(content, toInsert.toString());
+            rewriter.addInsertion(getEndOfBody(content), toInsert.toString());
         }
 
         // sites sometimes use the javascript:'top.location = self.location;' or 'window.location = ..' to issue a client side redirect
         // but this will cause the target instance list to be redirected when using the browser tool in the
         // webpage preview (iframe).  We add a comment to this javascript to prevent the redirect.
-        if ("text/html".equals(contentType) || "application/javascript".equals(contentType)) {
+        if (html || "application/javascript".equals(contentType)) {
             Map<String, String> tokens = BrowseController.getFixTokens();
-            Iterator<String> keys = tokens.keySet().iterator();
-
-            while (keys.hasNext()) {
-                String token = keys.next();
-                int startIdx = content.toString().toLowerCase().indexOf(token);
-                if (startIdx != -1) {
-                    int endIdx = startIdx + token.length();
-                    String currentUrl = encodeUrl(tokens.get(token));
-                    content.replace(startIdx, endIdx, currentUrl);
+            if (tokens != null) {
+                for (Map.Entry<String, String> token : tokens.entrySet()) {
+                    rewriter.addTokenRule(token.getKey(), encodeUrl(token.getValue()));
                 }
             }
         }
+
+        rewriter.write(out);
     }
 
     public String convertUrl(Long hrOid, String currentResource, String urlToConvert) {
@@ -378,14 +416,90 @@ public class BrowseHelper {
      * @param toInsert
      */
     public void insertAtEndOfBody(StringBuilder sb, String toInsert) {
-        int insertPoint = sb.lastIndexOf("</body>");
+        sb.insert(getEndOfBody(sb), toInsert);
+    }
+
+    private static int getEndOfBody(CharSequence content) {
+        int insertPoint = BrowseRewriter.lastIndexOf(content, "</body>");
         if (-1 == insertPoint) {
-            insertPoint = sb.lastIndexOf("</BODY>");
+            insertPoint = BrowseRewriter.lastIndexOf(content, "</BODY>");
         }
         if (-1 == insertPoint) {
-            insertPoint = sb.length();
+            insertPoint = content.length();
         }
-        sb.insert(insertPoint, toInsert);
+        return insertPoint;
+    }
+
+    /**
+     * Look for the charset of a page that has no charset in its Content-Type:
+     * a byte order mark, or else a META charset or http-equiv Content-Type
+     * declaration within the first {@value #CHARSET_SNIFF_LENGTH} bytes. The
+     * stream is reset to where it was, so it must support mark/reset.
+     *
+     * @param in the content
+     * @return the declared charset, or null if there is none or it is not supported
+     * @throws IOException if the content could not be read
+     */
+    public static String sniffCharset(InputStream in) throws IOException {
+        byte[] head = new byte[CHARSET_SNIFF_LENGTH];
+        in.mark(CHARSET_SNIFF_LENGTH);
+        int length;
+        try {
+            length = IOUtils.read(in, head);
+        } finally {
+            in.reset();
+        }
+
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8.name();
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE.name();
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE.name();
+        }
+
+        // The declaration itself is ASCII, whatever the charset of the page.
+        Matcher m = META_CHARSET_PATTERN.matcher(new String(head, 0, length, StandardCharsets.ISO_8859_1));
+        if (m.find()) {
+            try {
+                if (Charset.isSupported(m.group(1))) {
+                    return m.group(1);
+                }
+            } catch (IllegalCharsetNameException e) {
+                // Treated as undeclared
+            }
+            log.debug("Unsupported META charset: {}", m.group(1));
+        }
+        return null;
+    }
+
+    /**
+     * Decode the content as it is read. Malformed and unmappable input is
+     * replaced rather than failing the page, as new String(byte[], charset)
+     * would do.
+     *
+     * @param in       the content
+     * @param charset  the charset of the content
+     * @param sizeHint the length of the content in bytes, or -1 if it is not known
+     * @return the decoded content
+     * @throws IOException if the content could not be read
+     */
+    public static StringBuilder decode(InputStream in, Charset charset, long sizeHint) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Most pages decode to about as many characters as they have bytes.
+        int capacity = sizeHint > 0 && sizeHint <= MAX_DECODE_CAPACITY ? (int) sizeHint : DECODE_BUFFER_SIZE;
+        StringBuilder content = new StringBuilder(capacity);
+        Reader reader = new InputStreamReader(in, decoder);
+        char[] buffer = new char[DECODE_BUFFER_SIZE];
+        int n;
+        while ((n = reader.read(buffer)) >= 0) {
+            content.append(buffer, 0, n);
+        }
+        return content;
     }
 
     /**
@@ -430,6 +544,39 @@ public class BrowseHelper {
         return new String(Base64.getDecoder().decode(s));
     }
 
+    /**
+     * A hash of everything that affects the rewritten content: the prefix,
+     * the replacement patterns, the URL conversion replacements and the fix
+     * tokens. It is part of the key of the BrowseCache, so that a change to
+     * the configuration never serves pages rewritten by the old one.
+     *
+     * @return the hash of the rewrite configuration.
+     */
+    public String getConfigurationHash() {
+        StringBuilder config = new StringBuilder();
+        config.append(prefix).append('\n');
+        for (Map.Entry<String, List<Pattern>> entry : new TreeMap<>(contentTypePatterns).entrySet()) {
+            config.append(entry.getKey()).append('\n');
+            for (Pattern pattern : entry.getValue()) {
+                config.append(pattern.pattern()).append('\n');
+            }
+        }
+        for (TagMagixHelper helper : htmlTagPatterns) {
+            config.append(helper.tag).append(':').append(helper.attribute).append('\n');
+        }
+        config.append(useUrlConversionReplacements).append('\n');
+        if (useUrlConversionReplacements && urlConversionReplacements != null) {
+            for (StringReplacer replacer : urlConversionReplacements) {
+                config.append(replacer.getClass().getName()).append('\n');
+            }
+        }
+        Map<String, String> tokens = BrowseController.getFixTokens();
+        if (tokens != null) {
+            config.append(new TreeMap<>(tokens)).append('\n');
+        }
+        return BrowseCache.sha256(config.toString());
+    }
+
     public String getResourcePrefix(long hrOid) {
         return prefix + "/" + hrOid + "/?url=";
     }
@@ -2,6 +2,7 @@ package org.webcurator.ui.tools.controller;
 
 import static org.junit.Assert.*;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -95,6 +96,78 @@ public class BrowseHelperTest extends BaseWCTTest<BrowseHelper> {
 		assertEquals("http://test.com/+photos%5B0%5D+", url);
 	}
 
+	@Test
+	public final void testRewrite() throws IOException {
+		Map<String, List<String>> patterns = new HashMap<String, List<String>>();
+		patterns.put("text/html", Arrays.asList("(?i)\\burl\\('([^']*)'\\)", "window.location=\"([^\"]*)\";"));
+
+		BrowseHelper helper = new BrowseHelper();
+		helper.setPrefix("http://localhost:8080/wct/curator/tools/browse");
+		helper.setContentTypePatterns(patterns);
+		helper.setHtmlTagPatterns(Arrays.asList("LINK:HREF", "SCRIPT:SRC"));
+
+		Map<String, String> fixes = new HashMap<String, String>();
+		fixes.put("top.location", "//top.location");
+		BrowseController controller = new BrowseController();
+		controller.setFixTokens(fixes);
+
+		String page = "<html><head><link rel=\"stylesheet\" href=\"a.css\"></head>"
+				+ "<body style=\"background:url('bg.png')\"><script src='s.js'></script>"
+				+ "<script>TOP.location = self.location; window.location=\"next.html\";</script></body></html>";
+		String prefix = "http://localhost:8080/wct/curator/tools/browse/1/?url=";
+
+		StringWriter out = new StringWriter();
+		helper.rewrite(page, "text/html", 1L, "http://test.com/", out);
+		String rewritten = out.toString();
+
+		assertTrue(rewritten.startsWith("<html><head><base href=\"" + BrowseHelper.encodeUrl("http://test.com/") + "\" />"));
+		assertTrue(rewritten.contains("href=\"" + prefix + "/" + BrowseHelper.encodeUrl("http://test.com/a.css") + "\""));
+		assertTrue(rewritten.contains("src='" + prefix + "/" + BrowseHelper.encodeUrl("http://test.com/s.js") + "'"));
+		assertTrue(rewritten.contains("url('" + prefix + BrowseHelper.encodeUrl("http://test.com/bg.png") + "')"));
+		assertTrue(rewritten.contains("window.location=\"" + prefix + BrowseHelper.encodeUrl("http://test.com/next.html") + "\";"));
+		assertTrue(rewritten.contains("<script>" + BrowseHelper.encodeUrl("//top.location") + " = self.location;"));
+		assertTrue(rewritten.endsWith("<script type=\"text/javascript\" src=\"http://localhost:8080/wct/replay/client-rewrite.js\" ></script>\n</body></html>"));
+
+		// fix() must produce exactly the same content as rewrite().
+		StringBuilder content = new StringBuilder(page);
+		helper.fix(content, "text/html", 1L, "http://test.com/");
+		assertEquals(rewritten, content.toString());
+	}
+
+	@Test
+	public final void testSniffCharset() throws IOException {
+		assertEquals("windows-1252", sniff("<html><head><meta charset=\"windows-1252\"></head>"));
+		assertEquals("Shift_JIS", sniff("<html><head><META http-equiv=\"Content-Type\" content=\"text/html; charset=Shift_JIS\"></head>"));
+		assertEquals("UTF-8", sniff("\u00ef\u00bb\u00bf<html><meta charset=\"windows-1252\"></html>"));
+		assertNull(sniff("<html><head><meta charset=\"no-such-charset\"></head>"));
+		assertNull(sniff("<html><head><title>charset=UTF-8</title></head>"));
+
+		// The stream is left where it was.
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream("<meta charset=utf-8>".getBytes("ISO-8859-1")));
+		BrowseHelper.sniffCharset(in);
+		assertEquals('<', in.read());
+	}
+
+	@Test
+	public final void testDecode() throws IOException {
+		// Multi-byte characters spanning read buffers must survive decoding.
+		StringBuilder page = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			page.append("caf\u00e9 \u65e5\u672c ");
+		}
+		byte[] bytes = page.toString().getBytes("UTF-8");
+		StringBuilder decoded = BrowseHelper.decode(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, bytes.length);
+		assertEquals(page.toString(), decoded.toString());
+
+		// Malformed input is replaced instead of failing the page.
+		decoded = BrowseHelper.decode(new ByteArrayInputStream(new byte[]{'a', (byte) 0xC3, 'b'}), StandardCharsets.UTF_8, -1);
+		assertEquals("a\ufffdb", decoded.toString());
+	}
+
+	private String sniff(String head) throws IOException {
+		return BrowseHelper.sniffCharset(new BufferedInputStream(new ByteArrayInputStream(head.getBytes("ISO-8859-1"))));
+	}
+
 	@Ignore
 	@Test
 	public final void testFix() {
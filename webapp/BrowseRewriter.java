@@ -0,0 +1,310 @@
+/*
+ *  Copyright 2006 The National Library of New Zealand
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.webcurator.ui.tools.controller;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.archive.wayback.replay.html.ReplayParseContext;
+
+/**
+ * Rewrites a resource in a single pass. Every rewrite rule (a TagMagix
+ * tag/attribute pattern, a content-type pattern or a fix token) keeps its own
+ * position in the original content and offers the next span it wants to
+ * replace. The rewriter repeatedly takes the earliest span, copies the
+ * untouched content before it to the output and writes the replacement in
+ * its place, so the content is never modified or copied in memory.
+ * <p>
+ * Rules only ever see the original content. Where the spans of two rules
+ * overlap, the span that starts first wins (ties go to the rule added first)
+ * and the other is dropped, so a URL is never rewritten twice.
+ */
+class BrowseRewriter {
+    /**
+     * The minimum length of a TagMagix attribute value, see CustomizedTagMagix.
+     */
+    private static final int MIN_ATTR_LENGTH = 3;
+
+    private final CharSequence content;
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    private final List<Insertion> insertions = new ArrayList<>();
+
+    /**
+     * A source of replacements, positioned at the next span it wants to replace.
+     */
+    private abstract static class Rule {
+        int start = -1;
+        int end = -1;
+        String replacement = null;
+
+        /**
+         * Move to the next span that starts at or after the cursor.
+         *
+         * @return false once the rule has nothing left to replace
+         */
+        abstract boolean advance(CharSequence content, int cursor);
+    }
+
+    private static class Insertion {
+        private final int position;
+        private final String text;
+
+        private Insertion(int position, String text) {
+            this.position = position;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Replaces group 1 of a pattern. The converter returns the replacement
+     * for the group, or null to leave the match untouched.
+     */
+    private static class PatternRule extends Rule {
+        private final Matcher matcher;
+        private final Function<Matcher, String> converter;
+        private final boolean resumeAtGroupEnd;
+        private int from = 0;
+
+        private PatternRule(Matcher matcher, Function<Matcher, String> converter, boolean resumeAtGroupEnd) {
+            this.matcher = matcher;
+            this.converter = converter;
+            this.resumeAtGroupEnd = resumeAtGroupEnd;
+        }
+
+        @Override
+        boolean advance(CharSequence content, int cursor) {
+            while (from <= content.length() && matcher.find(from)) {
+                int resume = resumeAtGroupEnd ? matcher.end(1) : matcher.end();
+                from = Math.max(resume, matcher.start() + 1);
+                if (matcher.start(1) < cursor) {
+                    // Overlaps a span that has already been rewritten.
+                    continue;
+                }
+                String value = converter.apply(matcher);
+                if (value != null) {
+                    start = matcher.start(1);
+                    end = matcher.end(1);
+                    replacement = value;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the first case-insensitive occurrence of a token.
+     */
+    private static class TokenRule extends Rule {
+        private final String token;
+        private final String value;
+        private boolean used = false;
+
+        private TokenRule(String token, String value) {
+            this.token = token;
+            this.value = value;
+        }
+
+        @Override
+        boolean advance(CharSequence content, int cursor) {
+            if (used) {
+                return false;
+            }
+            used = true;
+            int idx = indexOfIgnoreCase(content, token, cursor);
+            if (idx < 0) {
+                return false;
+            }
+            start = idx;
+            end = idx + token.length();
+            replacement = value;
+            return true;
+        }
+    }
+
+    BrowseRewriter(CharSequence content) {
+        this.content = content;
+    }
+
+    /**
+     * Add a TagMagix tag/attribute rule with the same semantics as
+     * CustomizedTagMagix.markupTagREURIC: short values, embedded strings and
+     * data URLs are skipped, and quoting is preserved around the converted URL.
+     *
+     * @param pattern   the TagMagix pattern, with the attribute value in group 1
+     * @param converter converts the unquoted attribute value
+     */
+    void addTagRule(Pattern pattern, Function<String, String> converter) {
+        rules.add(new PatternRule(pattern.matcher(content), m -> {
+            String url = m.group(1);
+            int origUrlLength = url.length();
+            if (origUrlLength < MIN_ATTR_LENGTH) {
+                return null;
+            }
+            String quote = "";
+            if (url.charAt(0) == '"') {
+                quote = "\"";
+                url = url.substring(1, origUrlLength - 1);
+            } else if (url.charAt(0) == '\'') {
+                quote = "'";
+                url = url.substring(1, origUrlLength - 1);
+            } else if (url.charAt(0) == '\\') {
+                quote = "\\\"";
+                url = url.substring(2, origUrlLength - 2);
+            }
+            // Additional border case, probably embedded string not actual url
+            if ((url.charAt(0) == '\'' || url.charAt(0) == '"') && url.length() <= MIN_ATTR_LENGTH) {
+                return null;
+            }
+            if (url.startsWith(ReplayParseContext.DATA_PREFIX)) {
+                return null;
+            }
+            return quote + converter.apply(url) + quote;
+        }, true));
+    }
+
+    /**
+     * Add a content-type pattern whose group 1 is a URL. Blank values are left untouched.
+     *
+     * @param pattern   the pattern, with the URL in group 1
+     * @param converter converts the URL
+     */
+    void addPatternRule(Pattern pattern, Function<String, String> converter) {
+        rules.add(new PatternRule(pattern.matcher(content), m -> {
+            String value = m.group(1);
+            if (value == null || "".equals(value.trim())) {
+                return null;
+            }
+            return converter.apply(value);
+        }, false));
+    }
+
+    /**
+     * Replace the first case-insensitive occurrence of the token. As the token is
+     * compared with lower-cased content, a token containing upper case
+     * characters never matches.
+     */
+    void addTokenRule(String token, String value) {
+        if (token.isEmpty() || !token.equals(token.toLowerCase())) {
+            return;
+        }
+        rules.add(new TokenRule(token, value));
+    }
+
+    /**
+     * Insert text before the character at the position of the original content.
+     */
+    void addInsertion(int position, String text) {
+        int i = insertions.size();
+        while (i > 0 && insertions.get(i - 1).position > position) {
+            i--;
+        }
+        insertions.add(i, new Insertion(position, text));
+    }
+
+    /**
+     * Write the rewritten content.
+     *
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    void write(Writer out) throws IOException {
+        List<Rule> active = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            if (rule.advance(content, 0)) {
+                active.add(rule);
+            }
+        }
+
+        int cursor = 0;
+        int nextInsertion = 0;
+        while (!active.isEmpty()) {
+            Rule next = active.get(0);
+            for (Rule rule : active) {
+                if (rule.start < next.start) {
+                    next = rule;
+                }
+            }
+
+            while (nextInsertion < insertions.size() && insertions.get(nextInsertion).position <= next.start) {
+                cursor = insert(out, cursor, insertions.get(nextInsertion++));
+            }
+
+            out.append(content, cursor, next.start);
+            out.write(next.replacement);
+            cursor = next.end;
+
+            // Move every rule (including the one just applied) past the rewritten span.
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Rule rule = active.get(i);
+                if ((rule == next || rule.start < cursor) && !rule.advance(content, cursor)) {
+                    active.remove(i);
+                }
+            }
+        }
+
+        while (nextInsertion < insertions.size()) {
+            cursor = insert(out, cursor, insertions.get(nextInsertion++));
+        }
+        out.append(content, cursor, content.length());
+    }
+
+    private int insert(Writer out, int cursor, Insertion insertion) throws IOException {
+        int position = Math.min(Math.max(cursor, insertion.position), content.length());
+        out.append(content, cursor, position);
+        out.write(insertion.text);
+        return position;
+    }
+
+    static int indexOfIgnoreCase(CharSequence content, String token, int from) {
+        int last = content.length() - token.length();
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (Character.toLowerCase(content.charAt(i)) == token.charAt(0) && regionMatches(content, i, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int lastIndexOf(CharSequence content, String str) {
+        for (int i = content.length() - str.length(); i >= 0; i--) {
+            int j = 0;
+            while (j < str.length() && content.charAt(i + j) == str.charAt(j)) {
+                j++;
+            }
+            if (j == str.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence content, int offset, String token) {
+        for (int j = 0; j < token.length(); j++) {
+            if (Character.toLowerCase(content.charAt(offset + j)) != token.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
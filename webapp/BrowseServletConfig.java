@@ -10,11 +10,13 @@ import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.Scope;
 import org.springframework.orm.hibernate5.support.OpenSessionInViewInterceptor;
 import org.springframework.web.servlet.handler.SimpleUrlHandlerMapping;
+import org.webcurator.ui.tools.controller.BrowseCache;
 import org.webcurator.ui.tools.controller.BrowseController;
 import org.webcurator.ui.tools.controller.BrowseHelper;
 import org.webcurator.ui.tools.controller.RegexReplacer;
 import org.webcurator.ui.tools.controller.StringReplacer;
 
+import java.io.File;
 import java.util.*;
 
 /**
@@ -31,6 +33,12 @@ public class BrowseServletConfig {
     @Value("${browse.double_escape}")
     private boolean browseDoubleEscape;
 
+    @Value("${browseCache.directory}")
+    private String browseCacheDirectory;
+
+    @Value("${browseCache.maxSize}")
+    private long browseCacheMaxSize;
+
     @Autowired
     private BaseConfig baseConfig;
 
@@ -206,6 +214,15 @@ public class BrowseServletConfig {
         return bean;
     }
 
+    @Bean(initMethod = "init")
+    public BrowseCache browseCache() {
+        BrowseCache bean = new BrowseCache();
+        bean.setDirectory(new File(browseCacheDirectory));
+        bean.setMaxSize(browseCacheMaxSize);
+
+        return bean;
+    }
+
     // Include this Regex when using ModJK and spaces or other escaped characters are
     // being unescaped by ModJK. This will result in Tomcat being passed a URL with
     // unescaped character, and the browse tool will fail to find the appropriate resource.
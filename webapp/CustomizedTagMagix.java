@@ -277,7 +277,7 @@ public class CustomizedTagMagix {
      * @param attr
      * @return URL of base-href within page, or null if none is found.
      */
-    public static String getTagAttr(StringBuilder page, final String tag,
+    public static String getTagAttr(CharSequence page, final String tag,
                                     final String attr) {
 
         String found = null;
@@ -352,11 +352,11 @@ public class CustomizedTagMagix {
      * @param page
      * @return URL of base-href within page, or null if none is found.
      */
-    public static String getBaseHref(StringBuilder page) {
+    public static String getBaseHref(CharSequence page) {
         return getTagAttr(page, "BASE", "HREF");
     }
 
-    public static int getEndOfFirstTag(StringBuilder page, String tag) {
+    public static int getEndOfFirstTag(CharSequence page, String tag) {
         Pattern tagPattern = getWholeTagPattern(tag);
         Matcher tagMatcher = tagPattern.matcher(page);
         int offset = -1;
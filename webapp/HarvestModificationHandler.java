@@ -24,6 +24,7 @@ import org.webcurator.core.exceptions.DigitalAssetStoreException;
 import org.webcurator.core.exceptions.WCTRuntimeException;
 import org.webcurator.core.harvester.coordinator.HarvestAgentManager;
 import org.webcurator.core.harvester.coordinator.PatchingHarvestLogManager;
+import org.webcurator.core.store.ArchivedResource;
 import org.webcurator.core.store.DigitalAssetStore;
 import org.webcurator.core.util.PatchUtil;
 import org.webcurator.core.visualization.VisualizationAbstractApplyCommand;
@@ -45,12 +46,15 @@ import org.webcurator.ui.target.command.PatchingProgressCommand;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -108,6 +112,9 @@ public class HarvestModificationHandler {
     @Autowired
     private BrowseHelper browseHelper;
 
+    @Autowired
+    private BrowseCache browseCache;
+
     public void clickStart(long targetInstanceId, int harvestResultNumber) throws WCTRuntimeException, DigitalAssetStoreException {
         HarvestResultDTO hrDTO = harvestResultManager.getHarvestResultDTO(targetInstanceId, harvestResultNumber);
         if (hrDTO.getStatus() != HarvestResult.STATUS_SCHEDULED) {
@@ -120,6 +127,7 @@ public class HarvestModificationHandler {
         } else if (hrDTO.getState() == HarvestResult.STATE_MODIFYING) {
             wctCoordinator.pushPruneAndImport(targetInstanceId, harvestResultNumber);
         } else if (hrDTO.getState() == HarvestResult.STATE_INDEXING) {
+            browseCache.invalidate(hrDTO.getOid());
             digitalAssetStore.initiateIndexing(hrDTO);
         } else {
             throw new WCTRuntimeException(String.format("Incorrect state: %d, status: %d", hrDTO.getState(), hrDTO.getStatus()));
@@ -243,6 +251,7 @@ public class HarvestModificationHandler {
         }
         HarvestResult hrToBeDeleted = hrList.get(indexToBeDeleted);
         if (hrToBeDeleted != null) {
+            browseCache.invalidate(hrToBeDeleted.getOid());
             targetInstanceDAO.delete(hrToBeDeleted);
         }
 
@@ -435,36 +444,39 @@ public class HarvestModificationHandler {
             rsp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
 
-        List<Header> headers = new ArrayList<>();
+        ArchivedResource resource;
         try {        // catch any DigitalAssetStoreException and log assumptions
-            headers = digitalAssetStore.getHeaders(ti.getOid(), hr.getHarvestNumber(), url);
+            resource = digitalAssetStore.openResourceWithHeaders(ti.getOid(), hr.getHarvestNumber(), url);
         } catch (Exception e) {
-            log.error("Unexpected exception encountered when retrieving WARC headers for ti " + ti.getOid());
-            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
-        }
-
-        String strStatusCode = getHeaderValue(headers, "HTTP-RESPONSE-STATUS-CODE");
-        if (headers.size() == 0 || Utils.isEmpty(strStatusCode)) {
+            log.error("Unexpected exception encountered when retrieving WARC record for ti " + ti.getOid());
             rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
-        int statusCode = Integer.parseInt(strStatusCode);
+        try (InputStream in = resource.getContent()) {
+            List<Header> headers = resource.getHeaders();
+            String strStatusCode = getHeaderValue(headers, "HTTP-RESPONSE-STATUS-CODE");
+            if (headers.size() == 0 || Utils.isEmpty(strStatusCode)) {
+                rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            int statusCode = Integer.parseInt(strStatusCode);
 
-        // Send the headers for a redirect.
-        if (statusCode == HttpServletResponse.SC_MOVED_TEMPORARILY || statusCode == HttpServletResponse.SC_MOVED_PERMANENTLY) {
-            rsp.setStatus(statusCode);
-            String location = getHeaderValue(headers, "Location");
-            if (!Utils.isEmpty(location) && !location.startsWith("http")) {
-                location = url + location;
+            // Send the headers for a redirect.
+            if (statusCode == HttpServletResponse.SC_MOVED_TEMPORARILY || statusCode == HttpServletResponse.SC_MOVED_PERMANENTLY) {
+                rsp.setStatus(statusCode);
+                String location = getHeaderValue(headers, "Location");
+                if (!Utils.isEmpty(location) && !location.startsWith("http")) {
+                    location = url + location;
+                }
+                String encodedLocation = Base64.getEncoder().encodeToString(location.getBytes());
+                rsp.setHeader("Location", String.format("/curator/tools/browse/%d/?url=%s", hrOid, encodedLocation));
+            } else {
+                // Get the content type.
+                rsp.setHeader("Content-Type", getHeaderValue(headers, "Content-Type"));
+                IOUtils.copy(in, rsp.getOutputStream());
             }
-            String encodedLocation = Base64.getEncoder().encodeToString(location.getBytes());
-            rsp.setHeader("Location", String.format("/curator/tools/browse/%d/?url=%s", hrOid, encodedLocation));
-        } else {
-            // Get the content type.
-            rsp.setHeader("Content-Type", getHeaderValue(headers, "Content-Type"));
-            Path path = digitalAssetStore.getResource(ti.getOid(), hr.getHarvestNumber(), url);
-            IOUtils.copy(Files.newInputStream(path), rsp.getOutputStream());
         }
     }
 
@@ -491,85 +503,110 @@ public class HarvestModificationHandler {
             return;
         }
 
-        List<Header> headers = new ArrayList<>();
+        // Serve a page that has already been rewritten straight from the cache.
+        String resourceUrl = baseUrl;
+        String configHash = null;
+        if (BrowseCache.isCacheable(hr)) {
+            configHash = browseHelper.getConfigurationHash();
+            BrowseCache.Entry cached = browseCache.get(hrOid, resourceUrl, configHash);
+            if (cached != null) {
+                rsp.setHeader("Content-Type", cached.getContentType());
+                if (browseCache.copyContent(cached, rsp.getOutputStream())) {
+                    return;
+                }
+            }
+        } else {
+            browseCache.invalidate(hrOid);
+        }
+
+        ArchivedResource resource;
         try {        // catch any DigitalAssetStoreException and log assumptions
-            headers = digitalAssetStore.getHeaders(ti.getOid(), hr.getHarvestNumber(), baseUrl);
+            resource = digitalAssetStore.openResourceWithHeaders(ti.getOid(), hr.getHarvestNumber(), baseUrl);
         } catch (Exception e) {
-            log.warn("Unexpected exception encountered when retrieving WARC headers for ti " + ti.getOid());
+            log.warn("Unexpected exception encountered when retrieving WARC record for ti " + ti.getOid());
             rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
-        // Get the content type.
-        String realContentType = getHeaderValue(headers, "Content-Type");
-        String simpleContentType = this.getSimpleContentType(realContentType);
+        try (InputStream in = resource.getContent()) {
+            List<Header> headers = resource.getHeaders();
 
-        String charset = null;
-        if (realContentType != null) {
-            Matcher charsetMatcher = CHARSET_PATTERN.matcher(realContentType);
-            if (charsetMatcher.find()) {
-                charset = charsetMatcher.group(1);
-                log.debug("Desired charset: " + charset + " for " + baseUrl);
-            } else {
-                log.debug("No charset for: " + baseUrl);
-                charset = CHARSET_LATIN_1.name();
-                realContentType += ";charset=" + charset;
+            // Get the content type.
+            String realContentType = getHeaderValue(headers, "Content-Type");
+            String simpleContentType = this.getSimpleContentType(realContentType);
+
+            String charset = null;
+            if (realContentType != null) {
+                Matcher charsetMatcher = CHARSET_PATTERN.matcher(realContentType);
+                if (charsetMatcher.find()) {
+                    charset = charsetMatcher.group(1);
+                    log.debug("Desired charset: " + charset + " for " + baseUrl);
+                } else {
+                    log.debug("No charset for: " + baseUrl);
+                    charset = CHARSET_LATIN_1.name();
+                    realContentType += ";charset=" + charset;
+                }
             }
-        }
 
-        String strStatusCode = getHeaderValue(headers, "HTTP-RESPONSE-STATUS-CODE");
-        if (headers.size() == 0 || Utils.isEmpty(strStatusCode)) {
-            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
+            String strStatusCode = getHeaderValue(headers, "HTTP-RESPONSE-STATUS-CODE");
+            if (headers.size() == 0 || Utils.isEmpty(strStatusCode)) {
+                rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
 
-        int statusCode = Integer.parseInt(getHeaderValue(headers, "HTTP-RESPONSE-STATUS-CODE"));
-        // Send the headers for a redirect.
-        if (statusCode == HttpServletResponse.SC_MOVED_TEMPORARILY || statusCode == HttpServletResponse.SC_MOVED_PERMANENTLY) {
-            rsp.setStatus(statusCode);
-            String location = getHeaderValue(headers, "Location");
-            if (!Utils.isEmpty(location) && !location.startsWith("http")) {
-                location = baseUrl + location;
+            int statusCode = Integer.parseInt(getHeaderValue(headers, "HTTP-RESPONSE-STATUS-CODE"));
+            // Send the headers for a redirect.
+            if (statusCode == HttpServletResponse.SC_MOVED_TEMPORARILY || statusCode == HttpServletResponse.SC_MOVED_PERMANENTLY) {
+                rsp.setStatus(statusCode);
+                String location = getHeaderValue(headers, "Location");
+                if (!Utils.isEmpty(location) && !location.startsWith("http")) {
+                    location = baseUrl + location;
+                }
+                String encodedLocation = Base64.getEncoder().encodeToString(location.getBytes());
+                rsp.setHeader("Location", browseHelper.getResourcePrefix(hrOid) + encodedLocation);
+                return;
             }
-            String encodedLocation = Base64.getEncoder().encodeToString(location.getBytes());
-            rsp.setHeader("Location", browseHelper.getResourcePrefix(hrOid) + encodedLocation);
-            return;
-        }
 
-        // Get the content type.
-        rsp.setHeader("Content-Type", getHeaderValue(headers, "Content-Type"));
+            // Get the content type.
+            rsp.setHeader("Content-Type", getHeaderValue(headers, "Content-Type"));
 
-        Path path = digitalAssetStore.getResource(ti.getOid(), hr.getHarvestNumber(), baseUrl);
-        if (!browseHelper.isReplaceable(simpleContentType)) {
-            IOUtils.copy(Files.newInputStream(path), rsp.getOutputStream());
-            path.toFile().delete();
-            return;
-        }
+            if (!browseHelper.isReplaceable(simpleContentType)) {
+                IOUtils.copy(in, rsp.getOutputStream());
+                return;
+            }
 
-        int fileLength = (int) path.toFile().length();
-        byte[] buf = new byte[fileLength];
-        IOUtils.read(Files.newInputStream(path), buf);
-        path.toFile().delete();
-
-        StringBuilder content = new StringBuilder(new String(buf, charset));
-
-        Pattern baseUrlGetter = BrowseHelper.getTagMagixPattern("BASE", "HREF");
-        Matcher m = baseUrlGetter.matcher(content);
-        if (m.find()) {
-            String u = m.group(1);
-            if (u.startsWith("\"") && u.endsWith("\"") || u.startsWith("'") && u.endsWith("'")) {
-                // Ensure the detected Base HREF is not commented
-                // out (unusual case, but we have seen it).
-                int lastEndComment = content.lastIndexOf("-->", m.start());
-                int lastStartComment = content.lastIndexOf("<!--", m.start());
-                if (lastStartComment < 0 || lastEndComment > lastStartComment) {
-                    baseUrl = u.substring(1, u.length() - 1);
+            byte[] buf = IOUtils.toByteArray(in);
+
+            StringBuilder content = new StringBuilder(new String(buf, charset));
+
+            Pattern baseUrlGetter = BrowseHelper.getTagMagixPattern("BASE", "HREF");
+            Matcher m = baseUrlGetter.matcher(content);
+            if (m.find()) {
+                String u = m.group(1);
+                if (u.startsWith("\"") && u.endsWith("\"") || u.startsWith("'") && u.endsWith("'")) {
+                    // Ensure the detected Base HREF is not commented
+                    // out (unusual case, but we have seen it).
+                    int lastEndComment = content.lastIndexOf("-->", m.start());
+                    int lastStartComment = content.lastIndexOf("<!--", m.start());
+                    if (lastStartComment < 0 || lastEndComment > lastStartComment) {
+                        baseUrl = u.substring(1, u.length() - 1);
+                    }
                 }
             }
-        }
-        browseHelper.fix(content, simpleContentType, hrOid, baseUrl);
+            // The cache holds no status or headers, so only successful pages are cached.
+            if (configHash != null && statusCode == HttpServletResponse.SC_OK) {
+                StringWriter rewritten = new StringWriter(content.length() + 1024);
+                browseHelper.rewrite(content, simpleContentType, hrOid, baseUrl, rewritten);
+                String rewrittenContent = rewritten.toString();
+                browseCache.put(hrOid, resourceUrl, configHash, realContentType, rewrittenContent, Charset.forName(charset));
+                rsp.getOutputStream().write(rewrittenContent.getBytes(charset));
+                return;
+            }
 
-        rsp.getOutputStream().write(content.toString().getBytes(charset));
+            Writer out = new BufferedWriter(new OutputStreamWriter(rsp.getOutputStream(), charset));
+            browseHelper.rewrite(content, simpleContentType, hrOid, baseUrl, out);
+            out.flush();
+        }
     }
 
     private String getHeaderValue(List<Header> headers, String key) {
@@ -15,20 +15,40 @@
  */
 package org.webcurator.ui.target.controller;
 
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
 import java.util.*;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Scope;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.webcurator.core.coordinator.WctCoordinator;
 import org.webcurator.core.harvester.coordinator.HarvestLogManager;
 import org.webcurator.core.harvester.coordinator.PatchingHarvestLogManager;
+import org.webcurator.core.reader.LogFollowPaths;
 import org.webcurator.core.scheduler.TargetInstanceManager;
 import org.webcurator.domain.model.core.HarvestResult;
 import org.webcurator.domain.model.core.TargetInstance;
@@ -51,6 +71,40 @@ public class LogReaderController {
 	@Autowired
 	TargetInstanceManager targetInstanceManager;
 
+	/**
+	 * The time, in milliseconds, a log is followed before the browser has to reconnect.
+	 */
+	private static final long FOLLOW_TIMEOUT = 30 * 60 * 1000L;
+
+	/**
+	 * The number of logs that may be followed at the same time.
+	 */
+	private static final int MAX_FOLLOW_RELAYS = 50;
+
+	/**
+	 * The time, in milliseconds, to wait for the harvest agent or digital asset store to accept
+	 * the connection.
+	 */
+	private static final int RELAY_CONNECT_TIMEOUT = 10 * 1000;
+
+	/**
+	 * The time, in milliseconds, to wait for data from a followed log. The log follower sends a
+	 * heartbeat at least every 15 seconds, so a longer silence means the connection is gone.
+	 */
+	private static final int RELAY_READ_TIMEOUT = 60 * 1000;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * Relays the logs being followed, one thread each, up to MAX_FOLLOW_RELAYS logs.
+	 */
+	private final ExecutorService followRelays = new ThreadPoolExecutor(0, MAX_FOLLOW_RELAYS, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<>(), r -> {
+		Thread thread = new Thread(r, "log-follow-relay");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	private Map<String, String> filterTypes = null;
 	private Map<String, String> filterNames = null;
 
@@ -166,16 +220,8 @@ public class LogReaderController {
 							regex = "^[^ \\t].*" + cmd.getFilter();
 						}
 
-						lines = wctCoordinator.getLogLinesByRegex(ti, cmd.getLogFileName(), cmd.getNoOfLinesInt(), regex, true);
-						if (lines != null && lines.size() == 2) {
-							StringBuilder sb = new StringBuilder();
-							String[] subLines = lines.get(0).split("\n");
-							for (int i = 0; i < subLines.length; i++) {
-								sb.append(getFollowingIndentedLines(ti, cmd, subLines[i], cmd.getShowLineNumbers()));
-							}
-
-							lines.set(0, sb.toString());
-						} else {
+						lines = wctCoordinator.getLogLinesWithIndentedLines(ti, cmd.getLogFileName(), cmd.getNoOfLinesInt(), regex, cmd.getShowLineNumbers());
+						if (lines == null || lines.size() != 2) {
 							// do empty tail
 							firstLine = -2;
 							lines = wctCoordinator.tailLog(ti, cmd.getLogFileName(), 0);
@@ -307,16 +353,8 @@ public class LogReaderController {
 							regex = "^[^ \\t].*" + cmd.getFilter();
 						}
 
-						lines = logReader.getLogLinesByRegex(ti.getOid(), hr.getHarvestNumber(), state, cmd.getLogFileName(), cmd.getNoOfLinesInt(), regex, true);
-						if (lines != null && lines.size() == 2) {
-							StringBuilder sb = new StringBuilder();
-							String[] subLines = lines.get(0).split("\n");
-							for (int i = 0; i < subLines.length; i++) {
-								sb.append(getFollowingIndentedLines(ti, cmd, subLines[i], cmd.getShowLineNumbers()));
-							}
-
-							lines.set(0, sb.toString());
-						} else {
+						lines = logReader.getLogLinesWithIndentedLines(ti.getOid(), hr.getHarvestNumber(), state, cmd.getLogFileName(), cmd.getNoOfLinesInt(), regex, cmd.getShowLineNumbers());
+						if (lines == null || lines.size() != 2) {
 							// do empty tail
 							firstLine = -2;
 							lines = logReader.tailLog(ti.getOid(), hr.getHarvestNumber(), state, cmd.getLogFileName(), 0);
@@ -363,6 +401,96 @@ public class LogReaderController {
 		return mav;
 	}
 
+	/**
+	 * Relay the lines appended to a log, as server-sent events, from the harvest agent or
+	 * digital asset store holding the log. The lines are filtered by the regular expression
+	 * filter types; the other filter types follow every line.
+	 */
+	@RequestMapping(path = "/curator/target/log-follow.html", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	protected ResponseEntity<ResponseBodyEmitter> handleFollow(@ModelAttribute("logReaderCommand") LogReaderCommand cmd,
+															   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+		if (cmd.getTargetInstanceOid() == null || cmd.getLogFileName() == null || cmd.getLogFileName().length() == 0) {
+			return ResponseEntity.badRequest().build();
+		}
+		TargetInstance ti = targetInstanceManager.getTargetInstance(cmd.getTargetInstanceOid());
+		String baseUrl = ti == null ? null : wctCoordinator.getLogReaderBaseUrl(ti);
+		if (baseUrl == null) {
+			return ResponseEntity.notFound().build();
+		}
+
+		String regex = null;
+		boolean indentedLines = false;
+		if (LogReaderCommand.VALUE_REGEX_MATCH.equals(cmd.getFilterType())) {
+			regex = cmd.getFilter();
+		} else if (LogReaderCommand.VALUE_REGEX_CONTAIN.equals(cmd.getFilterType())) {
+			regex = ".*(?:" + cmd.getFilter() + ").*";
+		} else if (LogReaderCommand.VALUE_REGEX_INDENT.equals(cmd.getFilterType())) {
+			regex = cmd.getFilter().startsWith("^") ? cmd.getFilter() : "^[^ \\t].*" + cmd.getFilter();
+			indentedLines = true;
+		}
+		if (regex != null) {
+			try {
+				Pattern.compile(regex);
+			} catch (PatternSyntaxException e) {
+				return ResponseEntity.badRequest().build();
+			}
+		}
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("job", ti.getJobName());
+		params.put("fileName", cmd.getLogFileName());
+		params.put("regex", regex == null ? "" : regex);
+		URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + LogFollowPaths.FOLLOW)
+				.queryParam("fileName", "{fileName}")
+				.queryParam("regex", "{regex}")
+				.queryParam("indentedLines", indentedLines)
+				.queryParam("showLineNumbers", cmd.getShowLineNumbers())
+				.encode().buildAndExpand(params).toUri();
+
+		ResponseBodyEmitter emitter = new ResponseBodyEmitter(FOLLOW_TIMEOUT);
+		try {
+			followRelays.execute(() -> relay(uri, lastEventId, emitter));
+		} catch (RejectedExecutionException e) {
+			log.warn("Too many logs are being followed, refusing to follow {}", cmd.getLogFileName());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+		}
+		return ResponseEntity.ok().contentType(MediaType.TEXT_EVENT_STREAM).body(emitter);
+	}
+
+	private void relay(URI uri, String lastEventId, ResponseBodyEmitter emitter) {
+		HttpURLConnection conn = null;
+		try {
+			conn = (HttpURLConnection) uri.toURL().openConnection();
+			conn.setConnectTimeout(RELAY_CONNECT_TIMEOUT);
+			conn.setReadTimeout(RELAY_READ_TIMEOUT);
+			conn.setRequestProperty("Accept", MediaType.TEXT_EVENT_STREAM_VALUE);
+			if (lastEventId != null) {
+				conn.setRequestProperty("Last-Event-ID", lastEventId);
+			}
+			try (InputStream in = conn.getInputStream()) {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					emitter.send(Arrays.copyOf(buffer, n), MediaType.APPLICATION_OCTET_STREAM);
+				}
+			}
+			emitter.complete();
+		} catch (Exception e) {
+			// Usually the browser has gone away, or the job has finished.
+			log.debug("Stopped relaying {}: {}", uri, e.getMessage());
+			emitter.completeWithError(e);
+		} finally {
+			if (conn != null) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	@PreDestroy
+	public void shutdownFollowRelays() {
+		followRelays.shutdownNow();
+	}
+
 	/**
 	 * @param wctCoordinator the wctCoordinator to set
 	 */
@@ -397,34 +525,6 @@ public class LogReaderController {
 		return outLines;
 	}
 
-	private String getFollowingIndentedLines(TargetInstance ti, LogReaderCommand cmd, String numberedLine, boolean showLineNumbers) {
-		int index = numberedLine.indexOf(".");
-		if (index == -1) {
-			return "";
-		}
-		Integer firstLine = new Integer(numberedLine.substring(0, index));
-		Integer lastLine = firstLine + 1;
-
-		String[] nonIndents = fetchNonIndentedLines(ti, cmd);
-		//find the first non indented line after firstLine
-		for (int i = 0; i < nonIndents.length; i++) {
-			try {
-				String line = nonIndents[i];
-				lastLine = new Integer(line.substring(0, line.indexOf(".")));
-				if (lastLine > firstLine) {
-					break;
-				}
-			} catch (Exception e) {
-				lastLine = firstLine + 1;
-				break;
-			}
-		}
-
-		List<String> requiredLines = wctCoordinator.getLog(ti, cmd.getLogFileName(), firstLine, lastLine - firstLine);
-
-		return addNumbers(requiredLines, firstLine, showLineNumbers);
-	}
-
 	private String addNumbers(List<String> result, Integer firstLine, boolean showLineNumbers) {
 		StringBuilder sb = new StringBuilder();
 		if (result != null && result.size() == 2) {
@@ -450,16 +550,4 @@ public class LogReaderController {
 		sb.append(body);
 		sb.append("\n");
 	}
-
-	private String[] fetchNonIndentedLines(TargetInstance ti, LogReaderCommand cmd) {
-		String[] nonIndentedLines = {""};
-		//Get all non indented lines with line numbers
-		List<String> nonIndents = wctCoordinator.getLogLinesByRegex(ti, cmd.getLogFileName(), cmd.getNumLines().intValue(), "^[^ \\t].*", true);
-		if (nonIndents != null &&
-				nonIndents.get(0).length() > 0) {
-			nonIndentedLines = nonIndents.get(0).split("\n");
-		}
-
-		return nonIndentedLines;
-	}
 }
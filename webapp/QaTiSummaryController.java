@@ -248,6 +248,9 @@ public class QaTiSummaryController {
         // add the harvest results
         mav.addObject(TargetInstanceSummaryCommand.MDL_RESULTS, ti.getHarvestResults());
 
+        // add the crawl statistics of the latest harvest result, precomputed by the store
+        mav.addObject("crawlLogSummary", getCrawlLogSummary(ti));
+
         // fetch the valid rejection reasons for targets
         // (used to populate the rejection reason drop-down)
         User user = AuthUtil.getRemoteUserObject();
@@ -268,6 +271,21 @@ public class QaTiSummaryController {
         return mav;
     }
 
+    private CrawlLogSummaryDTO getCrawlLogSummary(TargetInstance ti) {
+        List<HarvestResult> results = ti.getHarvestResults();
+        if (results == null || results.isEmpty()) {
+            return null;
+        }
+        HarvestResult result = results.get(results.size() - 1);
+        try {
+            return digitalAssetStore.getCrawlLogSummary(ti.getOid(), result.getHarvestNumber());
+        } catch (Exception e) {
+            // The summary page is shown without the statistics.
+            log.warn("Unable to get the crawl log summary of target instance " + ti.getOid() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     private void includeCustomFormDetails(ModelAndView mav, TargetInstance ti) {
         boolean customDepositFormRequired = false;
         if (TargetInstance.STATE_ENDORSED.equals(ti.getState())) {
@@ -45,6 +45,7 @@ import org.webcurator.ui.site.validator.SiteURLsValidator;
 import org.webcurator.ui.site.validator.SiteValidator;
 import org.webcurator.ui.target.command.*;
 import org.webcurator.ui.target.controller.*;
+import org.webcurator.ui.tools.controller.BrowseCache;
 import org.webcurator.ui.target.validator.*;
 import org.webcurator.ui.util.EmptyCommand;
 import org.webcurator.ui.util.OverrideGetter;
@@ -117,6 +118,9 @@ public class ServletConfig {
     @Autowired
     private Heritrix3ProfileHandler heritrix3ProfileHandler;
 
+    @Autowired
+    private BrowseCache browseCache;
+
     @Bean
     @Scope(BeanDefinition.SCOPE_SINGLETON)
     @Lazy(false)
@@ -490,6 +494,7 @@ public class ServletConfig {
         bean.setDigitalAssetStore(baseConfig.digitalAssetStore());
         bean.setAgencyUserManager(baseConfig.agencyUserManager());
         bean.setTargetInstanceDAO(baseConfig.targetInstanceDao());
+        bean.setBrowseCache(browseCache);
         return bean;
     }
 
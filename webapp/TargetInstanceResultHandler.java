@@ -43,6 +43,7 @@ import org.webcurator.domain.model.core.*;
 import org.webcurator.ui.admin.command.FlagCommand;
 import org.webcurator.common.ui.Constants;
 import org.webcurator.ui.target.command.TargetInstanceCommand;
+import org.webcurator.ui.tools.controller.BrowseCache;
 import org.webcurator.common.util.DateUtils;
 import org.webcurator.ui.util.Tab;
 import org.webcurator.ui.util.TabHandler;
@@ -65,6 +66,7 @@ public class TargetInstanceResultHandler extends TabHandler {
     private DigitalAssetStore digitalAssetStore = null;
     private InTrayManagerImpl inTrayManager = null;
     private AgencyUserManager agencyUserManager;
+    private BrowseCache browseCache = null;
 
     public void initBinder(HttpServletRequest request, ServletRequestDataBinder binder) throws Exception {
         NumberFormat nf = NumberFormat.getInstance(request.getLocale());
@@ -252,6 +254,9 @@ public class TargetInstanceResultHandler extends TabHandler {
             for (HarvestResult hr : ti.getHarvestResults()) {
                 if (hr.getOid().equals(cmd.getHarvestResultId()) &&
                         hr.getState() == HarvestResult.STATE_INDEXING) {
+                    if (browseCache != null) {
+                        browseCache.invalidate(hr.getOid());
+                    }
                     reIndexSuccessful = wctCoordinator.reIndexHarvestResult(hr);
                     break;
                 }
@@ -328,6 +333,13 @@ public class TargetInstanceResultHandler extends TabHandler {
         this.targetInstanceDAO = targetInstanceDAO;
     }
 
+    /**
+     * @param browseCache the cache of rewritten browse pages to drop when a harvest result is reindexed
+     */
+    public void setBrowseCache(BrowseCache browseCache) {
+        this.browseCache = browseCache;
+    }
+
 
     protected void buildCustomDepositFormDetails(HttpServletRequest req, BindingResult bindingResult, TargetInstance ti, TabbedModelAndView tmav) {
         boolean customDepositFormRequired = false;
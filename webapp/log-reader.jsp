@@ -37,12 +37,39 @@ function doFilterChange()
 function doFilterKeyUp()
 {
 }
+
+var followSource = null;
+
+// Append the lines written to the log, as they are written, using the current filter.
+function doFollow(follow)
+{
+	if (followSource != null) {
+		followSource.close();
+		followSource = null;
+	}
+	if (!follow) {
+		return;
+	}
+
+	var form = document.logReader;
+	var params = "<%=CommandConstants.LOG_READER_COMMAND_PARAM_OID%>=" + encodeURIComponent(form.<%=CommandConstants.LOG_READER_COMMAND_PARAM_OID%>.value)
+		+ "&<%=CommandConstants.LOG_READER_COMMAND_PARAM_LOGFILE%>=" + encodeURIComponent(form.<%=CommandConstants.LOG_READER_COMMAND_PARAM_LOGFILE%>.value)
+		+ "&<%=LogReaderCommand.PARAM_FILTER_TYPE%>=" + encodeURIComponent(form.<%=LogReaderCommand.PARAM_FILTER_TYPE%>.value)
+		+ "&<%=LogReaderCommand.PARAM_FILTER%>=" + encodeURIComponent(form.<%=LogReaderCommand.PARAM_FILTER%>.value)
+		+ "&<%=LogReaderCommand.PARAM_SHOW_LINE_NUMBERS%>=" + form.<%=LogReaderCommand.PARAM_SHOW_LINE_NUMBERS%>.checked;
+	var view = document.getElementById("logView");
+	followSource = new EventSource(form.action.replace(/[^\/]*$/, "log-follow.html") + "?" + params);
+	followSource.addEventListener("lines", function(event) {
+		view.value += JSON.parse(event.data).join("\n") + "\n";
+		view.scrollTop = view.scrollHeight;
+	});
+}
 </script>
 <h1>Log viewer: <c:out value="${command.logFileName}"/></h1>
 <table border="0" width="100%" align="center">
 	<tr>
 		<td align="center" colspan="2">
-		<textarea class="logView" readonly="readonly" rows="40" wrap=off><c:forEach items="${lines}" var="line"><c:out value="${line}"></c:out></c:forEach></textarea>
+		<textarea id="logView" class="logView" readonly="readonly" rows="40" wrap=off><c:forEach items="${lines}" var="line"><c:out value="${line}"></c:out></c:forEach></textarea>
 		</td>
 	</tr>
 	<tr>
@@ -61,6 +88,12 @@ function doFilterKeyUp()
 		</c:choose>
 		</td>
 	</tr>
+	<tr>
+		<td align="right">Follow new lines</td>
+		<td align="left">
+		<input type="checkbox" id="follow" onclick="doFollow(this.checked);" title="Append the lines written to the log, as they are written" />
+		</td>
+	</tr>
 	<tr>
 		<td align="right" width="25%">Number of lines to display</td>
 		<td align="left">